@@ -1,10 +1,6 @@
 package de.solence.valves;
 
 import java.io.IOException;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletException;
 
@@ -19,9 +15,8 @@ import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 
 import de.solence.valves.httpaccesslogvalve.Configuration;
+import de.solence.valves.httpaccesslogvalve.DeliveryHub;
 import de.solence.valves.httpaccesslogvalve.Event;
-import de.solence.valves.httpaccesslogvalve.HttpConnection;
-import de.solence.valves.httpaccesslogvalve.Sender;
 
 /**
  * The main class of the HTTP Access Log Valve, implementing the necessary
@@ -32,8 +27,7 @@ import de.solence.valves.httpaccesslogvalve.Sender;
  */
 public class HttpAccessLogValve extends ValveBase implements AccessLog {
 	private static final Log log = LogFactory.getLog(AccessLog.class);
-	private ArrayBlockingQueue<Event> queue;
-	private ScheduledExecutorService executor;
+	private volatile DeliveryHub hub;
 	private Configuration config;
 
 	/**
@@ -62,17 +56,12 @@ public class HttpAccessLogValve extends ValveBase implements AccessLog {
 			config = new Configuration();
 		}
 
-		log.info("URL: " + config.getEndpointUrl());
+		log.info("URL: " + config.getEndpointUri());
 		log.info("Host: " + config.getHost());
 		log.info("Source: " + config.getSource());
 
-		queue = new ArrayBlockingQueue<>(config.getQueueLength());
-		HttpConnection conn = new HttpConnection(config);
-
-		executor = Executors.newSingleThreadScheduledExecutor();
-
-		// Check every 250 ms for new events to send
-		executor.scheduleWithFixedDelay(new Sender(config, conn, queue), 250L, 250L, TimeUnit.MILLISECONDS);
+		// Valve instances sending to the same endpoint share the delivery
+		hub = DeliveryHub.acquire(config);
 	}
 
 	@Override
@@ -81,24 +70,32 @@ public class HttpAccessLogValve extends ValveBase implements AccessLog {
 
 		setState(LifecycleState.STOPPING);
 
-		// Shutdown and wait for termination, that is sending events still in
-		// the queue.
-		if (executor != null) {
-			executor.shutdown();
-			try {
-				executor.awaitTermination(config.getShutdownTimeout(), TimeUnit.SECONDS);
-			} catch (InterruptedException e) {
-				Thread.currentThread().interrupt();
-			}
+		// The last instance using the hub sends the remaining events
+		if (hub != null) {
+			hub.release();
+			hub = null;
 		}
 	}
 
 	@Override
 	public void log(Request request, Response response, long time) {
+		DeliveryHub current = hub;
+		if (current == null) {
+			return;
+		}
+
+		Event event = current.createEvent(request, response, time);
+		if (event == null) {
+			return;
+		}
+
 		try {
-			queue.add(new Event(request, response, time));
+			current.add(event);
 		} catch (IllegalStateException e) {
-			log.error(e.getMessage(), e);
+			// Events are no longer accepted on shutdown
+			if (!current.isStopped()) {
+				log.error(e.getMessage(), e);
+			}
 		}
 	}
 
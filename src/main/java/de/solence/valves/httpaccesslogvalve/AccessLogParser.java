@@ -0,0 +1,305 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Parses lines written by the Tomcat <code>AccessLogValve</code> with a given
+ * pattern into events, e.g. to send existing access log files with
+ * {@link Backfill}.
+ * <p>
+ * The pattern is compiled once into literals and fields. A field extends to the
+ * next literal, or to the closing quote if it is quoted, taking escaped quotes
+ * into account. The time <code>%t</code> is read up to its closing bracket, as
+ * it contains spaces. The aliases <code>common</code> and
+ * <code>combined</code> are supported, as well as the following fields:
+ * <ul>
+ * <li><code>%a</code>, <code>%h</code> - The remote address.
+ * <li><code>%u</code> - The remote user.
+ * <li><code>%t</code> - The time in the default format.
+ * <li><code>%r</code> - The first line of the request, for method and URI.
+ * <li><code>%m</code>, <code>%U</code> - The request method and URI.
+ * <li><code>%s</code> - The HTTP status.
+ * <li><code>%b</code>, <code>%B</code> - The bytes sent.
+ * <li><code>%D</code>, <code>%T</code> - The processing time in milliseconds
+ * or seconds.
+ * <li><code>%S</code> - The session ID.
+ * <li><code>%v</code> - The name of the Tomcat host.
+ * <li><code>%{User-Agent}i</code> - The user agent.
+ * </ul>
+ * Other fields are skipped. Values of "-" are treated as missing.
+ * <p>
+ * Not thread-safe, the time of the previous line is cached, as most lines of a
+ * file share their timestamp with the line before.
+ *
+ * @author Robin Seggelmann
+ *
+ */
+public class AccessLogParser {
+	private static final String COMMON = "%h %l %u %t \"%r\" %s %b";
+	private static final String COMBINED = COMMON + " \"%{Referer}i\" \"%{User-Agent}i\"";
+	private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z",
+			Locale.ENGLISH);
+	// Field code for the user agent header
+	private static final char USER_AGENT = 'A' + 128;
+	private final List<Token> tokens;
+	private String lastTime;
+	private LocalDateTime lastParsedTime;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param pattern The pattern of the <code>AccessLogValve</code>, or one of
+	 *                the aliases <code>common</code> and <code>combined</code>.
+	 * @throws IllegalArgumentException Thrown if the pattern can't be parsed
+	 *                                  unambiguously.
+	 */
+	public AccessLogParser(String pattern) {
+		if ("common".equals(pattern)) {
+			pattern = COMMON;
+		} else if ("combined".equals(pattern)) {
+			pattern = COMBINED;
+		}
+		this.tokens = compile(pattern);
+	}
+
+	/**
+	 * Parses a line of an access log file.
+	 *
+	 * @param line The line without line break.
+	 * @return The {@link Event} or null if the line doesn't match the pattern.
+	 */
+	public Event parse(String line) {
+		LocalDateTime time = null;
+		String hostName = null;
+		String remoteAddr = null;
+		String method = null;
+		String uri = null;
+		String user = null;
+		String sessionId = null;
+		String userAgent = null;
+		int status = 0;
+		int bytes = 0;
+		long processingTime = 0;
+
+		int position = 0;
+		for (int i = 0; i < tokens.size(); i++) {
+			Token token = tokens.get(i);
+			if (token.literal != null) {
+				if (!line.startsWith(token.literal, position)) {
+					return null;
+				}
+				position += token.literal.length();
+				continue;
+			}
+
+			int end = findEnd(line, position, token, (i + 1 < tokens.size()) ? tokens.get(i + 1) : null);
+			if (end < 0) {
+				return null;
+			}
+			String value = line.substring(position, end);
+			position = end;
+			if ("-".equals(value) || value.isEmpty()) {
+				continue;
+			}
+
+			try {
+				switch (token.field) {
+				case 'a':
+				case 'h':
+					remoteAddr = value;
+					break;
+				case 'u':
+					user = value;
+					break;
+				case 't':
+					time = parseTime(value);
+					break;
+				case 'r':
+					int space = value.indexOf(' ');
+					if (space > 0) {
+						method = value.substring(0, space);
+						int uriEnd = value.indexOf(' ', space + 1);
+						uri = stripQuery(value.substring(space + 1, (uriEnd > 0) ? uriEnd : value.length()));
+					}
+					break;
+				case 'm':
+					method = value;
+					break;
+				case 'U':
+					uri = value;
+					break;
+				case 's':
+					status = Integer.parseInt(value);
+					break;
+				case 'b':
+				case 'B':
+					bytes = Integer.parseInt(value);
+					break;
+				case 'D':
+					processingTime = Long.parseLong(value);
+					break;
+				case 'T':
+					processingTime = (long) (Double.parseDouble(value) * 1000);
+					break;
+				case 'S':
+					sessionId = value;
+					break;
+				case 'v':
+					hostName = value;
+					break;
+				case USER_AGENT:
+					userAgent = unescape(value);
+					break;
+				default:
+					// Not part of events
+				}
+			} catch (NumberFormatException | DateTimeParseException e) {
+				return null;
+			}
+		}
+		if (position != line.length()) {
+			return null;
+		}
+
+		return new Event((time != null) ? time : LocalDateTime.now(), hostName, null, remoteAddr, method, uri,
+				user, sessionId, userAgent, status, bytes, processingTime);
+	}
+
+	/**
+	 * Finds the end of a field value.
+	 *
+	 * @return The position after the value or -1 if not found.
+	 */
+	private static int findEnd(String line, int position, Token token, Token next) {
+		if (token.field == 't' && line.startsWith("[", position)) {
+			int end = line.indexOf(']', position);
+			return (end < 0) ? -1 : end + 1;
+		}
+		if (next == null) {
+			return line.length();
+		}
+		if (token.quoted) {
+			// Tomcat escapes quotes within values with a backslash
+			for (int i = position; i < line.length(); i++) {
+				char c = line.charAt(i);
+				if (c == '\\') {
+					i++;
+				} else if (c == '"') {
+					return line.startsWith(next.literal, i) ? i : -1;
+				}
+			}
+			return -1;
+		}
+		return line.indexOf(next.literal, position);
+	}
+
+	private LocalDateTime parseTime(String value) {
+		if (value.equals(lastTime)) {
+			return lastParsedTime;
+		}
+		String text = (value.startsWith("[") && value.endsWith("]")) ? value.substring(1, value.length() - 1)
+				: value;
+		LocalDateTime time = OffsetDateTime.parse(text, TIME).atZoneSameInstant(ZoneId.systemDefault())
+				.toLocalDateTime();
+		lastTime = value;
+		lastParsedTime = time;
+		return time;
+	}
+
+	private static String stripQuery(String uri) {
+		// Events contain the URI without query string, like in the valve
+		int query = uri.indexOf('?');
+		return (query >= 0) ? uri.substring(0, query) : uri;
+	}
+
+	private static String unescape(String value) {
+		if (value.indexOf('\\') < 0) {
+			return value;
+		}
+		StringBuilder sb = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' && i + 1 < value.length()) {
+				c = value.charAt(++i);
+			}
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	private static List<Token> compile(String pattern) {
+		List<Token> tokens = new ArrayList<>();
+		StringBuilder literal = new StringBuilder();
+		for (int i = 0; i < pattern.length(); i++) {
+			char c = pattern.charAt(i);
+			if (c != '%' || i + 1 >= pattern.length()) {
+				literal.append(c);
+				continue;
+			}
+
+			char field = pattern.charAt(++i);
+			if (field == '%') {
+				literal.append('%');
+				continue;
+			}
+			String header = null;
+			if (field == '{') {
+				int close = pattern.indexOf('}', i);
+				if (close < 0 || close + 1 >= pattern.length()) {
+					throw new IllegalArgumentException("Unterminated field in pattern " + pattern);
+				}
+				header = pattern.substring(i + 1, close);
+				i = close + 1;
+				field = pattern.charAt(i);
+			}
+
+			boolean quoted = literal.length() > 0 && literal.charAt(literal.length() - 1) == '"';
+			if (literal.length() > 0) {
+				tokens.add(new Token(literal.toString()));
+				literal.setLength(0);
+			} else if (!tokens.isEmpty()) {
+				throw new IllegalArgumentException("Fields must be separated in pattern " + pattern);
+			}
+			if (field == 'i' && "User-Agent".equalsIgnoreCase(header)) {
+				field = USER_AGENT;
+			} else if (header != null) {
+				// Other headers, cookies and attributes are skipped
+				field = 0;
+			}
+			tokens.add(new Token(field, quoted));
+		}
+		if (literal.length() > 0) {
+			tokens.add(new Token(literal.toString()));
+		}
+		return tokens;
+	}
+
+	/**
+	 * A literal or a field of the pattern.
+	 */
+	private static class Token {
+		private final String literal;
+		private final char field;
+		private final boolean quoted;
+
+		private Token(String literal) {
+			this.literal = literal;
+			this.field = 0;
+			this.quoted = false;
+		}
+
+		private Token(char field, boolean quoted) {
+			this.literal = null;
+			this.field = field;
+			this.quoted = quoted;
+		}
+	}
+
+}
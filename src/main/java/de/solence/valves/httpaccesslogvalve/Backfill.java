@@ -0,0 +1,488 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.catalina.AccessLog;
+import org.apache.catalina.LifecycleException;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Sends existing access log files of the Tomcat <code>AccessLogValve</code> to
+ * the configured endpoint, e.g. after an outage or when onboarding hosts.
+ * <p>
+ * Files are split into chunks, which are memory-mapped and parsed in parallel
+ * by a pool of worker threads with an {@link AccessLogParser}. A chunk consists
+ * of the lines starting within it, so lines crossing the end of a chunk belong
+ * to the chunk they start in. Every worker sends its events with its own
+ * {@link Sender} over a shared connection, so events are processed, encoded,
+ * retried and rejected exactly like events captured by the valve.
+ * <p>
+ * Once all events of a chunk have been delivered, the chunk is appended to a
+ * checkpoint file with the offset it has been read to. Chunks in the checkpoint
+ * are skipped when running again, so an interrupted backfill resumes with the
+ * chunks not completed yet. Events of chunks in progress are sent again, which
+ * results in at-least-once delivery. If a file has grown since, only the new
+ * lines are sent.
+ * <p>
+ * The endpoint and all other values are configured like for the valve, with
+ * JVM parameters or environment variables, see {@link Configuration}. Tomcat
+ * must be on the class path, e.g.:
+ *
+ * <pre>
+ * java -Dhttpaccesslogvalve.url=... -cp "HttpAccessLogValve.jar:$CATALINA_HOME/lib/*"
+ *   de.solence.valves.httpaccesslogvalve.Backfill --pattern combined logs/localhost_access_log.*.txt
+ * </pre>
+ *
+ * @author Robin Seggelmann
+ *
+ */
+public class Backfill {
+	private static final Log log = LogFactory.getLog(AccessLog.class);
+	// Size of the chunks files are split into, must not change between runs
+	private static final long CHUNK_SIZE = 32L * 1024 * 1024;
+	// Maximum length of a line crossing the end of a chunk
+	private static final int MAX_LINE_LENGTH = 64 * 1024;
+	// Number of messages a worker collects before sending them
+	private static final int MESSAGES_PER_RUN = 16;
+	private static final String USAGE = "Usage: Backfill [--pattern <pattern>] [--checkpoint <file>] "
+			+ "[--threads <number>] <file>...";
+	private final Configuration config;
+	private final Connection conn;
+	private final String pattern;
+	private final Path checkpoint;
+	private final int threads;
+	private final long chunkSize;
+	private final Map<String, Long> completed;
+	private final List<Worker> workers;
+	private final ThreadLocal<Worker> worker;
+	private final AtomicLong lines;
+	private final AtomicLong skipped;
+	private BufferedWriter checkpointWriter;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param config     The {@link Configuration} to use.
+	 * @param conn       The {@link Connection} to send messages with.
+	 * @param pattern    The pattern of the access log files, see
+	 *                   {@link AccessLogParser}.
+	 * @param checkpoint The checkpoint file, created if it doesn't exist.
+	 * @param threads    The number of worker threads.
+	 */
+	public Backfill(Configuration config, Connection conn, String pattern, Path checkpoint, int threads) {
+		this(config, conn, pattern, checkpoint, threads, CHUNK_SIZE);
+	}
+
+	/**
+	 * Constructor to use smaller chunks for unit tests.
+	 *
+	 * @param config     The {@link Configuration} to use.
+	 * @param conn       The {@link Connection} to send messages with.
+	 * @param pattern    The pattern of the access log files.
+	 * @param checkpoint The checkpoint file, created if it doesn't exist.
+	 * @param threads    The number of worker threads.
+	 * @param chunkSize  The size of the chunks in bytes.
+	 */
+	Backfill(Configuration config, Connection conn, String pattern, Path checkpoint, int threads, long chunkSize) {
+		this.config = config;
+		this.chunkSize = chunkSize;
+		this.conn = conn;
+		this.pattern = pattern;
+		this.checkpoint = checkpoint;
+		this.threads = Math.max(threads, 1);
+		this.completed = new HashMap<>();
+		this.workers = Collections.synchronizedList(new ArrayList<>());
+		this.worker = ThreadLocal.withInitial(this::createWorker);
+		this.lines = new AtomicLong();
+		this.skipped = new AtomicLong();
+		// Fail early for invalid patterns
+		new AccessLogParser(pattern);
+	}
+
+	/**
+	 * Sends the events of all files, skipping chunks completed before.
+	 *
+	 * @param files The access log files.
+	 * @return True if all chunks have been completed.
+	 * @throws IOException Thrown if a file or the checkpoint can't be read.
+	 */
+	public boolean run(List<Path> files) throws IOException {
+		readCheckpoint();
+
+		List<Chunk> chunks = new ArrayList<>();
+		for (Path file : files) {
+			Path path = file.toAbsolutePath();
+			long size = Files.size(path);
+			for (long start = 0; start < size; start += chunkSize) {
+				chunks.add(new Chunk(path, start, Math.min(start + chunkSize, size)));
+			}
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Boolean>> results = new ArrayList<>(chunks.size());
+		for (Chunk chunk : chunks) {
+			results.add(executor.submit(() -> process(chunk)));
+		}
+		executor.shutdown();
+
+		boolean success = true;
+		try {
+			for (Future<Boolean> result : results) {
+				try {
+					success &= result.get();
+				} catch (ExecutionException e) {
+					log.error(e.getCause().getMessage(), e.getCause());
+					success = false;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			executor.shutdownNow();
+			log.error("Received interrupt while sending access log files");
+			success = false;
+		}
+		return success;
+	}
+
+	/**
+	 * Stops the senders of the workers and closes the checkpoint file.
+	 */
+	public void close() {
+		synchronized (workers) {
+			for (Worker w : workers) {
+				w.sender.close();
+			}
+		}
+		synchronized (this) {
+			if (checkpointWriter != null) {
+				try {
+					checkpointWriter.close();
+				} catch (IOException e) {
+					log.warn(e.getMessage(), e);
+				}
+				checkpointWriter = null;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of lines read so far.
+	 *
+	 * @return The number of lines.
+	 */
+	public long getLineCount() {
+		return lines.get();
+	}
+
+	/**
+	 * Returns the number of lines not matching the pattern so far.
+	 *
+	 * @return The number of lines.
+	 */
+	public long getSkippedCount() {
+		return skipped.get();
+	}
+
+	/**
+	 * Returns the number of events delivered so far.
+	 *
+	 * @return The number of events.
+	 */
+	public long getDeliveredCount() {
+		long delivered = 0;
+		synchronized (workers) {
+			for (Worker w : workers) {
+				delivered += w.sender.getDeliveredCount();
+			}
+		}
+		return delivered;
+	}
+
+	/**
+	 * Returns the number of events rejected by the endpoint so far.
+	 *
+	 * @return The number of events.
+	 */
+	public long getRejectedCount() {
+		long rejected = 0;
+		synchronized (workers) {
+			for (Worker w : workers) {
+				rejected += w.sender.getDeadLetters().getCount();
+			}
+		}
+		return rejected;
+	}
+
+	/**
+	 * Reads, parses and sends the lines of a chunk on a worker thread.
+	 *
+	 * @param chunk The chunk.
+	 * @return False if the worker has been interrupted.
+	 * @throws IOException Thrown if the file can't be read.
+	 */
+	private boolean process(Chunk chunk) throws IOException {
+		String key = chunk.file + "\t" + chunk.start;
+		long from = chunk.start;
+		synchronized (this) {
+			Long done = completed.get(key);
+			if (done != null) {
+				from = Math.max(done, from);
+			}
+		}
+		if (from >= chunk.end) {
+			return true;
+		}
+
+		Worker w = worker.get();
+		try (FileChannel channel = FileChannel.open(chunk.file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			// Include the byte before, to know whether a line starts at the chunk
+			long mapStart = Math.max(from - 1, 0);
+			long mapEnd = Math.min(size, chunk.end + MAX_LINE_LENGTH);
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+
+			int position = (int) (from - mapStart);
+			if (from > 0 && buffer.get(0) != '\n') {
+				// The line belongs to the chunk it started in
+				position = indexOf(buffer, '\n', position);
+				position = (position < 0) ? buffer.limit() : position + 1;
+			}
+
+			ByteBuffer view = buffer.duplicate();
+			int limit = (int) (Math.min(chunk.end, size) - mapStart);
+			while (position < limit) {
+				int end = indexOf(buffer, '\n', position);
+				if (end < 0) {
+					if (mapEnd < size) {
+						log.warn("Line at offset " + (mapStart + position) + " of " + chunk.file + " too long");
+						break;
+					}
+					// Last line of the file without line break
+					end = buffer.limit();
+				}
+				String line = w.decode(view, position, end);
+				position = end + 1;
+				lines.incrementAndGet();
+
+				Event event = w.parser.parse(line);
+				if (event == null) {
+					if (!line.isEmpty()) {
+						skipped.incrementAndGet();
+						log.debug("Line does not match pattern: " + line);
+					}
+					continue;
+				}
+				if (!w.offer(event)) {
+					return false;
+				}
+			}
+			if (!w.flush()) {
+				return false;
+			}
+		}
+
+		writeCheckpoint(key, chunk.end);
+		return true;
+	}
+
+	private static int indexOf(MappedByteBuffer buffer, char c, int from) {
+		for (int i = from; i < buffer.limit(); i++) {
+			if (buffer.get(i) == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private synchronized void readCheckpoint() throws IOException {
+		if (!Files.exists(checkpoint)) {
+			return;
+		}
+		for (String line : Files.readAllLines(checkpoint, StandardCharsets.UTF_8)) {
+			String[] values = line.split("\t");
+			if (values.length != 3) {
+				continue;
+			}
+			completed.merge(values[0] + "\t" + values[1], Long.parseLong(values[2]), Math::max);
+		}
+	}
+
+	private synchronized void writeCheckpoint(String key, long end) throws IOException {
+		if (checkpointWriter == null) {
+			checkpointWriter = Files.newBufferedWriter(checkpoint, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+					StandardOpenOption.APPEND);
+		}
+		checkpointWriter.write(key + "\t" + end + "\n");
+		checkpointWriter.flush();
+		completed.merge(key, end, Math::max);
+	}
+
+	private Worker createWorker() {
+		Worker w = new Worker();
+		workers.add(w);
+		return w;
+	}
+
+	/**
+	 * Sends access log files from the command line.
+	 *
+	 * @param args The options and files.
+	 */
+	public static void main(String[] args) {
+		String pattern = "common";
+		Path checkpoint = Paths.get("backfill.checkpoint");
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<Path> files = new ArrayList<>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+				case "--pattern":
+					pattern = args[++i];
+					break;
+				case "--checkpoint":
+					checkpoint = Paths.get(args[++i]);
+					break;
+				case "--threads":
+					threads = Integer.parseUnsignedInt(args[++i]);
+					break;
+				default:
+					if (args[i].startsWith("--")) {
+						throw new IllegalArgumentException("Unknown option " + args[i]);
+					}
+					files.add(Paths.get(args[i]));
+				}
+			}
+			if (files.isEmpty()) {
+				throw new IllegalArgumentException("No files");
+			}
+		} catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+			System.err.println(USAGE);
+			System.exit(2);
+			return;
+		}
+
+		Configuration config;
+		try {
+			config = new Configuration();
+		} catch (LifecycleException e) {
+			System.err.println(e.getCause().getMessage());
+			System.exit(2);
+			return;
+		}
+
+		Connection conn = DeliveryHub.createConnection(config);
+		Backfill backfill = new Backfill(config, conn, pattern, checkpoint, threads);
+		boolean success;
+		long start = System.nanoTime();
+		try {
+			success = backfill.run(files);
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+			success = false;
+		} finally {
+			backfill.close();
+			conn.close();
+		}
+
+		long millis = Math.max((System.nanoTime() - start) / 1_000_000, 1);
+		System.out.println("Read " + backfill.getLineCount() + " lines of " + files.size() + " files in " + millis
+				+ " ms, delivered " + backfill.getDeliveredCount() + " events ("
+				+ backfill.getDeliveredCount() * 1000 / millis + "/s), skipped " + backfill.getSkippedCount()
+				+ " lines, rejected " + backfill.getRejectedCount() + " events");
+		System.exit(success ? 0 : 1);
+	}
+
+	/**
+	 * A part of a file, processed as a whole.
+	 */
+	private static class Chunk {
+		private final Path file;
+		private final long start;
+		private final long end;
+
+		private Chunk(Path file, long start, long end) {
+			this.file = file;
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	/**
+	 * The state of a worker thread, which sends the events of the chunks it reads
+	 * with its own sender.
+	 */
+	private class Worker {
+		private final AccessLogParser parser;
+		private final BlockingQueue<Event> queue;
+		private final Sender sender;
+		private byte[] line;
+
+		private Worker() {
+			this.parser = new AccessLogParser(pattern);
+			this.queue = new ArrayBlockingQueue<>(
+					Math.max(config.getTarget().getEventsPerMessage(), 1) * MESSAGES_PER_RUN);
+			this.sender = new Sender(config, conn, queue);
+			this.line = new byte[1024];
+		}
+
+		/**
+		 * Adds an event, sending the collected events if there is no space left.
+		 *
+		 * @return False if the thread has been interrupted.
+		 */
+		private boolean offer(Event event) {
+			if (queue.offer(event)) {
+				return true;
+			}
+			return flush() && queue.offer(event);
+		}
+
+		/**
+		 * Sends all collected events.
+		 *
+		 * @return False if the thread has been interrupted.
+		 */
+		private boolean flush() {
+			sender.run();
+			return queue.isEmpty() && !Thread.currentThread().isInterrupted();
+		}
+
+		private String decode(ByteBuffer buffer, int start, int end) {
+			if (end > start && buffer.get(end - 1) == '\r') {
+				end--;
+			}
+			int length = end - start;
+			if (length > line.length) {
+				line = new byte[Math.max(length, line.length * 2)];
+			}
+			// Cast for Java 8, where ByteBuffer doesn't override position()
+			((Buffer) buffer).position(start);
+			buffer.get(line, 0, length);
+			return new String(line, 0, length, StandardCharsets.UTF_8);
+		}
+	}
+
+}
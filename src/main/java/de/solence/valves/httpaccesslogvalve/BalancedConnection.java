@@ -0,0 +1,298 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+import org.apache.catalina.AccessLog;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Balances messages between several endpoints, each with its own
+ * {@link Connection} created by the target.
+ * <p>
+ * With least outstanding balancing, a message is sent to the endpoint with the
+ * fewest messages in flight relative to its weight, so slower endpoints get
+ * fewer messages. With round robin balancing, endpoints are used in turn
+ * according to their weights, using the smooth weighted round robin algorithm
+ * which spreads the messages of heavier endpoints evenly.
+ * <p>
+ * The health of every endpoint is tracked passively from the send results.
+ * After the configured number of consecutive failures, an endpoint is ejected
+ * and no longer used. Once the ejection time has passed, a single message is
+ * sent to probe the endpoint again. If it succeeds, the endpoint is used again,
+ * otherwise it is ejected for another period. If sending fails, the message is
+ * sent to the next endpoint right away, so a failed endpoint does not stall
+ * delivery. Only if all endpoints fail, the sender retries with backoff. If all
+ * endpoints are ejected, the one to be probed next is used anyway.
+ * <p>
+ * Messages rejected by an endpoint do not count as failure, as they would be
+ * rejected by any other endpoint as well.
+ *
+ * @author Robin Seggelmann
+ *
+ */
+public class BalancedConnection implements Connection {
+	private static final Log log = LogFactory.getLog(AccessLog.class);
+	private final List<Endpoint> endpoints;
+	private final boolean roundRobin;
+	private final int ejectionFailures;
+	private final long ejectionTime;
+	private final LongSupplier clock;
+	private int next;
+
+	/**
+	 * Constructor. Creates the connections to all endpoints.
+	 *
+	 * @param config The {@link Configuration} with several endpoints.
+	 */
+	public BalancedConnection(Configuration config) {
+		this(config, createConnections(config), System::nanoTime);
+	}
+
+	/**
+	 * Constructor to inject the connections and the clock for unit tests.
+	 *
+	 * @param config      The {@link Configuration} to use.
+	 * @param connections The connections, in the order of the endpoints.
+	 * @param clock       The clock in nanoseconds.
+	 */
+	BalancedConnection(Configuration config, List<Connection> connections, LongSupplier clock) {
+		this.endpoints = new ArrayList<>(connections.size());
+		for (int i = 0; i < connections.size(); i++) {
+			endpoints.add(new Endpoint(config.getEndpointUris().get(i), config.getWeights().get(i),
+					connections.get(i)));
+		}
+		this.roundRobin = "roundrobin".equals(config.getBalancing());
+		this.ejectionFailures = config.getEjectionFailures();
+		this.ejectionTime = TimeUnit.SECONDS.toNanos(config.getEjectionTime());
+		this.clock = clock;
+	}
+
+	private static List<Connection> createConnections(Configuration config) {
+		List<Connection> connections = new ArrayList<>();
+		for (int i = 0; i < config.getEndpointUris().size(); i++) {
+			connections.add(config.getTarget().createConnection(config.forEndpoint(i)));
+		}
+		return connections;
+	}
+
+	@Override
+	public boolean sendMessage(byte[] message) {
+		return send(conn -> conn.sendMessage(message));
+	}
+
+	@Override
+	public boolean sendMessage(byte[] message, Destination destination) {
+		return send(conn -> conn.sendMessage(message, destination));
+	}
+
+	@Override
+	public boolean sendMessage(MessageWriter writer) {
+		return send(conn -> conn.sendMessage(writer));
+	}
+
+	/**
+	 * Sends a message to the selected endpoint without waiting for the result.
+	 * Failed messages are not sent to another endpoint, they are retried by the
+	 * sender.
+	 */
+	@Override
+	public CompletableFuture<Boolean> sendMessageAsync(byte[] message) {
+		return sendAsync(conn -> conn.sendMessageAsync(message));
+	}
+
+	@Override
+	public CompletableFuture<Boolean> sendMessageAsync(byte[] message, Destination destination) {
+		return sendAsync(conn -> conn.sendMessageAsync(message, destination));
+	}
+
+	@Override
+	public void close() {
+		for (Endpoint endpoint : endpoints) {
+			endpoint.conn.close();
+		}
+	}
+
+	@Override
+	public void close(long timeout, TimeUnit unit) {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for (Endpoint endpoint : endpoints) {
+			endpoint.conn.close(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Returns whether an endpoint is currently ejected.
+	 *
+	 * @param index The index of the endpoint.
+	 * @return True if the endpoint is ejected.
+	 */
+	synchronized boolean isEjected(int index) {
+		return endpoints.get(index).ejectedUntil != 0;
+	}
+
+	/**
+	 * Sends a message to the selected endpoint, and on failure to the other
+	 * endpoints in turn.
+	 *
+	 * @param send The send operation, returning true on success.
+	 * @return True if message delivery was successful.
+	 */
+	private boolean send(Predicate<Connection> send) {
+		List<Endpoint> tried = new ArrayList<>(endpoints.size());
+		Endpoint endpoint;
+		while ((endpoint = select(tried)) != null) {
+			tried.add(endpoint);
+			boolean ok = false;
+			try {
+				ok = send.test(endpoint.conn);
+			} catch (RejectedMessageException e) {
+				ok = true;
+				throw e;
+			} finally {
+				complete(endpoint, ok);
+			}
+			if (ok) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private CompletableFuture<Boolean> sendAsync(Function<Connection, CompletableFuture<Boolean>> send) {
+		Endpoint endpoint = select(new ArrayList<>(0));
+		CompletableFuture<Boolean> result;
+		try {
+			result = send.apply(endpoint.conn);
+		} catch (RuntimeException e) {
+			complete(endpoint, false);
+			throw e;
+		}
+		// A rejection is no failure of the endpoint
+		return result.whenComplete(
+				(ok, e) -> complete(endpoint, (ok != null && ok) || RejectedMessageException.causeOf(e) != null));
+	}
+
+	/**
+	 * Selects the endpoint for the next message.
+	 *
+	 * @param tried The endpoints already tried for the message.
+	 * @return The endpoint, which has been marked as having a message in flight,
+	 *         or null if all have been tried.
+	 */
+	private synchronized Endpoint select(List<Endpoint> tried) {
+		long now = clock.getAsLong();
+		Endpoint selected = roundRobin ? selectRoundRobin(tried, now) : selectLeastOutstanding(tried, now);
+		if (selected == null && tried.isEmpty()) {
+			// All endpoints are ejected, so use the one to be probed next
+			for (Endpoint endpoint : endpoints) {
+				if (selected == null || endpoint.ejectedUntil - selected.ejectedUntil < 0) {
+					selected = endpoint;
+				}
+			}
+		}
+		if (selected != null) {
+			selected.outstanding++;
+			if (selected.ejectedUntil != 0) {
+				// Only one probe at a time
+				selected.ejectedUntil = ejectUntil(now);
+			}
+		}
+		return selected;
+	}
+
+	private Endpoint selectLeastOutstanding(List<Endpoint> tried, long now) {
+		Endpoint selected = null;
+		// Start at the next endpoint, so ties are broken in turn
+		for (int i = 0; i < endpoints.size(); i++) {
+			Endpoint endpoint = endpoints.get((next + i) % endpoints.size());
+			if (isAvailable(endpoint, tried, now) && (selected == null
+					|| (long) endpoint.outstanding * selected.weight < (long) selected.outstanding * endpoint.weight)) {
+				selected = endpoint;
+			}
+		}
+		next = (next + 1) % endpoints.size();
+		return selected;
+	}
+
+	private Endpoint selectRoundRobin(List<Endpoint> tried, long now) {
+		Endpoint selected = null;
+		int total = 0;
+		for (Endpoint endpoint : endpoints) {
+			if (isAvailable(endpoint, tried, now)) {
+				endpoint.current += endpoint.weight;
+				total += endpoint.weight;
+				if (selected == null || endpoint.current > selected.current) {
+					selected = endpoint;
+				}
+			}
+		}
+		if (selected != null) {
+			selected.current -= total;
+		}
+		return selected;
+	}
+
+	private boolean isAvailable(Endpoint endpoint, List<Endpoint> tried, long now) {
+		return !tried.contains(endpoint) && (endpoint.ejectedUntil == 0 || endpoint.ejectedUntil - now <= 0);
+	}
+
+	/**
+	 * Updates the health of an endpoint after a message has been completed.
+	 *
+	 * @param endpoint The endpoint.
+	 * @param ok       Whether the message has been delivered.
+	 */
+	private synchronized void complete(Endpoint endpoint, boolean ok) {
+		endpoint.outstanding--;
+		if (ok) {
+			if (endpoint.ejectedUntil != 0) {
+				log.info("Endpoint " + endpoint.uri + " recovered");
+			}
+			endpoint.failures = 0;
+			endpoint.ejectedUntil = 0;
+			return;
+		}
+
+		endpoint.failures++;
+		if (endpoint.ejectedUntil != 0 || (ejectionFailures > 0 && endpoint.failures >= ejectionFailures)) {
+			if (endpoint.ejectedUntil == 0) {
+				log.warn("Endpoint " + endpoint.uri + " ejected after " + endpoint.failures + " failures");
+			}
+			endpoint.ejectedUntil = ejectUntil(clock.getAsLong());
+		}
+	}
+
+	private long ejectUntil(long now) {
+		// Never 0, which means not ejected
+		return (now + ejectionTime) | 1;
+	}
+
+	/**
+	 * The state of an endpoint.
+	 */
+	private static class Endpoint {
+		private final URI uri;
+		private final int weight;
+		private final Connection conn;
+		private int outstanding;
+		private int current;
+		private int failures;
+		// Time from which the endpoint is probed again, 0 if not ejected
+		private long ejectedUntil;
+
+		private Endpoint(URI uri, int weight, Connection conn) {
+			this.uri = uri;
+			this.weight = weight;
+			this.conn = conn;
+		}
+	}
+
+}
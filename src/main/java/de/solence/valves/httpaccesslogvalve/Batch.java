@@ -0,0 +1,41 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import java.util.List;
+
+/**
+ * Stores a batch of events together with the encoded message ready to be sent.
+ * All events of a batch have the same {@link Destination}.
+ * 
+ * @author Robin Seggelmann
+ *
+ */
+public class Batch {
+	private final List<Event> events;
+	private final byte[] message;
+	private final Destination destination;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param events  The events contained in the message.
+	 * @param message The encoded message.
+	 */
+	public Batch(List<Event> events, byte[] message) {
+		this.events = events;
+		this.message = message;
+		this.destination = events.isEmpty() ? null : events.get(0).getDestination();
+	}
+
+	public List<Event> getEvents() {
+		return events;
+	}
+
+	public byte[] getMessage() {
+		return message;
+	}
+
+	public Destination getDestination() {
+		return destination;
+	}
+
+}
@@ -0,0 +1,26 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import java.util.List;
+
+/**
+ * Extension of {@link Target} for logging systems which expect a whole batch of
+ * events to be encoded as a single message, for example binary formats that
+ * cannot be built by concatenating individual event messages.
+ * 
+ * @author Robin Seggelmann
+ *
+ */
+public interface BatchTarget extends Target {
+
+	/**
+	 * Creates a message from multiple events with the format expected by the
+	 * logging system.
+	 * 
+	 * @param config The {@link Configuration} to use.
+	 * @param events The {@link Event}s to send, at most
+	 *               {@link #getEventsPerMessage()}.
+	 * @return The encoded message for the endpoint.
+	 */
+	public byte[] getBatchMessage(Configuration config, List<Event> events);
+
+}
@@ -0,0 +1,84 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Adds the host name, country and autonomous system of the client to events.
+ * <p>
+ * The host name is resolved with a reverse DNS lookup and country and
+ * autonomous system are looked up in a local {@link GeoIpDatabase}, if
+ * configured. Since this runs on the sender side, slow lookups do not delay
+ * requests. The results are kept in a bounded cache, so repeated requests from
+ * the same client do not cause further lookups.
+ * 
+ * @author Robin Seggelmann
+ *
+ */
+public class ClientEnricher implements EventProcessor {
+	private final boolean reverseDns;
+	private final GeoIpDatabase geoIp;
+	private final LruCache<String, Client> cache;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param config The {@link Configuration} to use.
+	 */
+	public ClientEnricher(Configuration config) {
+		this.reverseDns = config.isReverseDns();
+		this.geoIp = config.getGeoIpDatabase();
+		this.cache = new LruCache<>(config.getClientCacheSize());
+	}
+
+	@Override
+	public void process(Event event) {
+		String address = event.getRemoteAddr();
+		if (address == null) {
+			return;
+		}
+
+		Client client = cache.get(address);
+		if (client == null) {
+			client = lookup(address);
+			cache.put(address, client);
+		}
+
+		event.setRemoteHost(client.host);
+		event.setCountry(client.country);
+		event.setAsn(client.asn);
+	}
+
+	private Client lookup(String address) {
+		String host = null;
+		if (reverseDns) {
+			try {
+				// The address is numeric, so only a reverse lookup is performed
+				host = InetAddress.getByName(address).getCanonicalHostName();
+			} catch (UnknownHostException e) {
+				// Keep the address
+			}
+		}
+
+		if (geoIp != null) {
+			int index = geoIp.find(address);
+			if (index >= 0) {
+				return new Client(host, geoIp.getCountry(index), geoIp.getAsn(index));
+			}
+		}
+		return new Client(host, null, 0);
+	}
+
+	private static class Client {
+		private final String host;
+		private final String country;
+		private final long asn;
+
+		private Client(String host, String country, long asn) {
+			this.host = host;
+			this.country = country;
+			this.asn = asn;
+		}
+	}
+
+}
@@ -0,0 +1,181 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Coalesces repeated identical events, e.g. of health checks and monitoring
+ * probes, to reduce the number of events sent.
+ * <p>
+ * Events are identical if they have the same client, method, URI, status and
+ * destination. Within a window, the first event of every key passes through
+ * unchanged, so unique events are not delayed. Repetitions are coalesced into
+ * the first repetition, which carries their count and processing times, and
+ * are released when the window ends. A window starts with the first event after
+ * the previous one has ended.
+ * <p>
+ * The keys are tracked in a small open-addressed hash table with linear
+ * probing, which is cleared as a whole at the end of every window. If the table
+ * is full, events of new keys pass through without being tracked.
+ * <p>
+ * Thread-safe, as serializer threads take events concurrently.
+ *
+ * @author Robin Seggelmann
+ *
+ */
+public class Coalescer {
+	// Number of slots of the hash table, a power of two
+	private static final int CAPACITY = 1024;
+	// Keys tracked per window, so probe sequences stay short
+	private static final int MAX_KEYS = CAPACITY * 3 / 4;
+	private final long window;
+	private final LongSupplier clock;
+	// The first event of every key, null for empty slots
+	private final Event[] keys;
+	private final int[] hashes;
+	// The coalesced repetitions of every key, null if none
+	private final Event[] repetitions;
+	private final ArrayDeque<Event> ready;
+	private int size;
+	private int pending;
+	private long windowEnd;
+	private boolean open;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param config The {@link Configuration} to use.
+	 */
+	public Coalescer(Configuration config) {
+		this(config, System::nanoTime);
+	}
+
+	/**
+	 * Constructor to inject the clock for unit tests.
+	 *
+	 * @param config The {@link Configuration} to use.
+	 * @param clock  The clock in nanoseconds.
+	 */
+	Coalescer(Configuration config, LongSupplier clock) {
+		this.window = TimeUnit.MILLISECONDS.toNanos(config.getCoalesceWindow());
+		this.clock = clock;
+		this.keys = new Event[CAPACITY];
+		this.hashes = new int[CAPACITY];
+		this.repetitions = new Event[CAPACITY];
+		this.ready = new ArrayDeque<>();
+	}
+
+	/**
+	 * Adds an event. The first event of a key within the window is passed
+	 * through, repetitions are kept until the window ends.
+	 *
+	 * @param event The {@link Event} to add.
+	 * @return True if the event should be sent right away, false if it has been
+	 *         coalesced.
+	 */
+	public synchronized boolean add(Event event) {
+		long now = clock.getAsLong();
+		expire(now);
+		if (!open) {
+			open = true;
+			windowEnd = now + window;
+		}
+
+		int hash = hash(event);
+		int slot = hash & (CAPACITY - 1);
+		while (keys[slot] != null) {
+			if (hashes[slot] == hash && isIdentical(keys[slot], event)) {
+				if (repetitions[slot] == null) {
+					repetitions[slot] = event;
+					pending++;
+				} else {
+					repetitions[slot].coalesce(event);
+				}
+				return false;
+			}
+			slot = (slot + 1) & (CAPACITY - 1);
+		}
+		if (size < MAX_KEYS) {
+			keys[slot] = event;
+			hashes[slot] = hash;
+			size++;
+		}
+		return true;
+	}
+
+	/**
+	 * Takes a coalesced event whose window has ended.
+	 *
+	 * @return The {@link Event} or null if none is ready.
+	 */
+	public synchronized Event poll() {
+		expire(clock.getAsLong());
+		return ready.poll();
+	}
+
+	/**
+	 * Ends the current window early and takes all coalesced events, e.g. on
+	 * shutdown.
+	 *
+	 * @return The coalesced events.
+	 */
+	public synchronized List<Event> flush() {
+		clear();
+		List<Event> events = new ArrayList<>(ready);
+		ready.clear();
+		return events;
+	}
+
+	/**
+	 * Returns whether coalesced events are waiting for the end of their window.
+	 *
+	 * @return True if there are coalesced events.
+	 */
+	public synchronized boolean hasPending() {
+		return pending > 0 || !ready.isEmpty();
+	}
+
+	private void expire(long now) {
+		if (open && now - windowEnd >= 0) {
+			clear();
+		}
+	}
+
+	private void clear() {
+		if (pending > 0) {
+			for (Event repetition : repetitions) {
+				if (repetition != null) {
+					ready.add(repetition);
+				}
+			}
+			Arrays.fill(repetitions, null);
+		}
+		Arrays.fill(keys, null);
+		size = 0;
+		pending = 0;
+		open = false;
+	}
+
+	private static int hash(Event event) {
+		int hash = Objects.hashCode(event.getRemoteHost());
+		hash = 31 * hash + Objects.hashCode(event.getRequestMethod());
+		hash = 31 * hash + Objects.hashCode(event.getRequestUri());
+		hash = 31 * hash + event.getStatus();
+		hash = 31 * hash + System.identityHashCode(event.getDestination());
+		// Spread the higher bits, as only the lower ones select the slot
+		return hash ^ (hash >>> 16);
+	}
+
+	private static boolean isIdentical(Event a, Event b) {
+		return a.getStatus() == b.getStatus() && a.getDestination() == b.getDestination()
+				&& Objects.equals(a.getRequestUri(), b.getRequestUri())
+				&& Objects.equals(a.getRequestMethod(), b.getRequestMethod())
+				&& Objects.equals(a.getRemoteHost(), b.getRemoteHost());
+	}
+
+}
@@ -1,16 +1,30 @@
 package de.solence.valves.httpaccesslogvalve;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.catalina.AccessLog;
 import org.apache.catalina.LifecycleException;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 
+import de.solence.valves.httpaccesslogvalve.targets.Forward;
+import de.solence.valves.httpaccesslogvalve.targets.LocalFile;
+import de.solence.valves.httpaccesslogvalve.targets.Otlp;
 import de.solence.valves.httpaccesslogvalve.targets.Splunk;
+import de.solence.valves.httpaccesslogvalve.targets.Syslog;
 
 /**
  * Reads and stores the configuration from JVM parameters or environment
@@ -20,31 +34,146 @@ import de.solence.valves.httpaccesslogvalve.targets.Splunk;
  * The following are the configurable values:
  * <p>
  * <ul>
- * <li>endpointUrl - The HTTP endpoint to transmit the data to.
+ * <li>target - The type of the logging system, defaults to "splunk".
+ * <li>endpointUrl - The endpoint to transmit the data to, or several
+ * comma-separated endpoints to balance between.
+ * <li>weights - The comma-separated weights of the endpoints, defaults to 1
+ * each.
+ * <li>balancing - The method to balance between endpoints, either
+ * "leastoutstanding" or "roundrobin", defaults to "leastoutstanding".
+ * <li>ejectionFailures - The number of consecutive failures after which an
+ * endpoint is ejected, defaults to 3.
+ * <li>ejectionTime - The time an endpoint is ejected before it is probed again
+ * in seconds, defaults to 30.
  * <li>authToken - The token used to authenticate against the endpoint.
  * <li>host - The name of the logging host, defaults to local hostname.
  * <li>index - The index to log to, optional.
  * <li>source - The name of the logging source, defaults to
  * "HttpAccessLogValve".
  * <li>queueLength - The length of the message queue, defaults to 1000.
+ * <li>queueBytes - The estimated memory the message queue may use in bytes,
+ * defaults to 0 for no limit.
+ * <li>priorityQueueLength - The length of the priority lane for events of
+ * failed and slow requests, defaults to 0 for no priority lane.
+ * <li>slowRequestThreshold - The processing time in milliseconds from which
+ * requests have priority, defaults to 0 for only failed requests.
+ * <li>fairQueuing - Whether to queue and send the events of every context
+ * fairly, defaults to false.
+ * <li>contextWeights - The weights of contexts for fair queuing, defaults to 1
+ * each.
+ * <li>contextReserve - The number of events in the queue reserved for every
+ * context with fair queuing, defaults to 0.
  * <li>timeout - The time to wait for events to be sent after initiating
  * shutdown, default to 1 minute.
+ * <li>http2 - Whether to use HTTP/2 on Java 11 and later, defaults to false.
+ * <li>inFlight - The maximum number of messages sent concurrently, defaults to
+ * 1.
+ * <li>virtualThreads - Whether to send messages on virtual threads on Java 21
+ * and later, defaults to false.
+ * <li>streaming - Whether to serialize events while sending with chunked
+ * transfer encoding, defaults to false.
+ * <li>serializers - The number of threads serializing events in parallel to
+ * sending, defaults to 0 for serializing on the sender thread.
+ * <li>splunkAck - Whether to use Splunk indexer acknowledgement, defaults to
+ * false.
+ * <li>splunkAckWindow - The maximum number of messages waiting for
+ * acknowledgement, defaults to 100.
+ * <li>splunkAckTimeout - The time to wait for an acknowledgement before sending
+ * again in seconds, defaults to 5 minutes.
+ * <li>fileSegmentSize - The size of a file segment in MB for the file target,
+ * defaults to 64.
+ * <li>fileRotationInterval - The time after which a new file segment is started
+ * in seconds, defaults to 1 hour.
+ * <li>fileCompression - Whether to compress closed file segments with gzip,
+ * defaults to false.
+ * <li>forwardTag - The tag of events sent with the forward target, defaults to
+ * "tomcat.access".
+ * <li>forwardAck - Whether to request acknowledgements with the forward
+ * target, defaults to false.
+ * <li>reverseDns - Whether to resolve the host names of clients on the sender
+ * side, defaults to false.
+ * <li>geoIpDatabase - The CSV file with address ranges to look up country and
+ * autonomous system of clients.
+ * <li>clientCacheSize - The maximum number of clients to cache lookup results
+ * for, defaults to 10000.
+ * <li>routes - The route templates to determine the route of request URIs.
+ * <li>routeCollapse - Whether to collapse numeric and UUID segments of URIs
+ * without matching template, defaults to false.
+ * <li>userAgentClassification - Whether to classify user agents, defaults to
+ * false.
+ * <li>userAgentCacheSize - The maximum number of user agents to cache the
+ * classification for, defaults to 1000.
+ * <li>destinations - The rules to send events of hosts or contexts to other
+ * indexes, source types or with other tokens.
+ * <li>heavyHitters - The number of most frequent clients, routes and user
+ * agents to track, defaults to 0 for no tracking.
+ * <li>heavyHittersInterval - The interval after which a summary of the most
+ * frequent keys is sent in seconds, defaults to 60.
+ * <li>coalesceWindow - The time in milliseconds within which repeated identical
+ * events are coalesced, defaults to 0 for no coalescing.
+ * <li>heapThreshold - The heap usage in percent from which logging is degraded,
+ * defaults to 0 for no degradation.
+ * <li>deadLetters - The number of most recent events rejected by the endpoint
+ * to keep, defaults to 100.
+ * <li>deadLetterFile - The file to append events rejected by the endpoint to,
+ * optional.
  * </ul>
  * 
  * @author Robin Seggelmann
  *
  */
-public class Configuration {
+public class Configuration implements Cloneable {
 	private static final Log log = LogFactory.getLog(AccessLog.class);
 	private final Target target;
-	private final URL endpointUrl;
+	// Not final, as they are replaced in the copies for single endpoints
+	private URI endpointUri;
+	private URL endpointUrl;
+	private List<URI> endpointUris;
+	private List<URL> endpointUrls;
+	private List<Integer> weights;
+	private final String balancing;
+	private final int ejectionFailures;
+	private final int ejectionTime;
 	private final String authToken;
 	private final String host;
 	private final String index;
 	private final String source;
 	private final int queueLength;
+	private final long queueBytes;
+	private final int priorityQueueLength;
+	private final long slowRequestThreshold;
+	private final boolean fairQueuing;
+	private final Map<String, Integer> contextWeights;
+	private final int contextReserve;
 	private final int timeout;
 	private final int shutdownTimeout;
+	private final boolean http2;
+	private final int inFlight;
+	private final boolean virtualThreads;
+	private final boolean streaming;
+	private final int serializers;
+	private final boolean splunkAck;
+	private final int splunkAckWindow;
+	private final int splunkAckTimeout;
+	private final int fileSegmentSize;
+	private final int fileRotationInterval;
+	private final boolean fileCompression;
+	private final String forwardTag;
+	private final boolean forwardAck;
+	private final boolean reverseDns;
+	private final GeoIpDatabase geoIpDatabase;
+	private final int clientCacheSize;
+	private final List<String> routes;
+	private final boolean routeCollapse;
+	private final boolean userAgentClassification;
+	private final int userAgentCacheSize;
+	private final List<String> destinations;
+	private final int heavyHitters;
+	private final int heavyHittersInterval;
+	private final int coalesceWindow;
+	private final int heapThreshold;
+	private final int deadLetters;
+	private final Path deadLetterFile;
 
 	/**
 	 * Constructor.
@@ -55,27 +184,74 @@ public class Configuration {
 	 *                            values.
 	 */
 	public Configuration() throws LifecycleException {
-		// Currently only Splunk is supported
-		target = new Splunk();
+		target = createTarget(getJvmOrEnvValue("target", "splunk", false));
 
-		// Read configured endpoint URL and store it as an URL object. This
+		// Read configured endpoint URLs and store them as URI objects. This
 		// fails in case a malformed URL is provided.
-		try {
-			endpointUrl = new URL(getJvmOrEnvValue("url", null, true));
-		} catch (MalformedURLException e) {
-			throw new LifecycleException(e);
+		List<URI> uriList = new ArrayList<>();
+		List<URL> urlList = new ArrayList<>();
+		for (String url : getJvmOrEnvValue("url", null, true).split(",")) {
+			URI uri;
+			try {
+				uri = new URI(url.trim());
+			} catch (URISyntaxException e) {
+				throw new LifecycleException(e);
+			}
+
+			// Check if protocol is supported by the target, usually HTTP or HTTPS
+			if (uri.getScheme() == null || !target.isProtocolSupported(uri.getScheme())) {
+				throw new LifecycleException(
+						new IllegalStateException("Protocol " + uri.getScheme() + " not supported"));
+			}
+
+			// Only HTTP and HTTPS can be represented as URL object, other
+			// protocols are handled by the target's own connection.
+			if ("http".equals(uri.getScheme()) || "https".equals(uri.getScheme())) {
+				try {
+					urlList.add(uri.toURL());
+				} catch (MalformedURLException | IllegalArgumentException e) {
+					throw new LifecycleException(e);
+				}
+			} else {
+				urlList.add(null);
+			}
+
+			// Warn when using unencrypted HTTP
+			if ("http".contentEquals(uri.getScheme())) {
+				log.warn("Using unencrypted http, consider switching to https");
+			}
+			uriList.add(uri);
 		}
+		endpointUris = Collections.unmodifiableList(uriList);
+		endpointUrls = Collections.unmodifiableList(urlList);
+		endpointUri = uriList.get(0);
+		endpointUrl = urlList.get(0);
 
-		// Check if protocol is either HTTP or HTTPS
-		if (!"http".equals(endpointUrl.getProtocol()) && !"https".equals(endpointUrl.getProtocol())) {
-			throw new LifecycleException(
-					new IllegalStateException("Protocol " + endpointUrl.getProtocol() + " not supported"));
+		List<Integer> weightList = new ArrayList<>();
+		String weightValue = getJvmOrEnvValue("weights", null, false);
+		if (weightValue != null) {
+			for (String weight : weightValue.split(",")) {
+				int value = Integer.parseUnsignedInt(weight.trim());
+				if (value == 0) {
+					throw new LifecycleException(new IllegalArgumentException("Weights must be positive"));
+				}
+				weightList.add(value);
+			}
+			if (weightList.size() != uriList.size()) {
+				throw new LifecycleException(
+						new IllegalArgumentException("Number of weights must match the number of endpoints"));
+			}
+		} else {
+			weightList.addAll(Collections.nCopies(uriList.size(), 1));
 		}
+		weights = Collections.unmodifiableList(weightList);
 
-		// Warn when using unencrypted HTTP
-		if ("http".contentEquals(endpointUrl.getProtocol())) {
-			log.warn("Using unencrypted http, consider switching to https");
+		balancing = getJvmOrEnvValue("balancing", "leastoutstanding", false).toLowerCase();
+		if (!"leastoutstanding".equals(balancing) && !"roundrobin".equals(balancing)) {
+			throw new LifecycleException(new IllegalStateException("Balancing " + balancing + " not supported"));
 		}
+		ejectionFailures = Integer.parseUnsignedInt(getJvmOrEnvValue("ejectionfailures", "3", false));
+		ejectionTime = Integer.parseUnsignedInt(getJvmOrEnvValue("ejectiontime", "30", false));
 
 		// Get default value for host, either local hostname, or if that fails,
 		// use a default string
@@ -87,14 +263,166 @@ public class Configuration {
 			hostDefaultString = "UnknownHost";
 		}
 
-		authToken = getJvmOrEnvValue("token", null, true);
+		authToken = getJvmOrEnvValue("token", null, target.isAuthTokenRequired());
 		host = getJvmOrEnvValue("host", hostDefaultString, false);
 		index = getJvmOrEnvValue("index", null, false);
 		source = getJvmOrEnvValue("source", "HttpAccessLogValve", false);
 
 		queueLength = Integer.parseUnsignedInt(getJvmOrEnvValue("queue", "1000", false));
+		queueBytes = Long.parseUnsignedLong(getJvmOrEnvValue("queuebytes", "0", false));
+		priorityQueueLength = Integer.parseUnsignedInt(getJvmOrEnvValue("priorityqueue", "0", false));
+		slowRequestThreshold = Long.parseUnsignedLong(getJvmOrEnvValue("slowrequest", "0", false));
+
+		fairQueuing = Boolean.parseBoolean(getJvmOrEnvValue("fairqueuing", "false", false));
+		Map<String, Integer> weightMap = new LinkedHashMap<>();
+		String contextWeightValue = getJvmOrEnvValue("contextweights", null, false);
+		if (contextWeightValue != null) {
+			for (String rule : contextWeightValue.split(",")) {
+				int separator = rule.lastIndexOf('=');
+				String context = (separator > 0) ? rule.substring(0, separator).trim() : "";
+				if (!context.startsWith("/")) {
+					throw new LifecycleException(
+							new IllegalArgumentException("Context weight " + rule.trim() + " must be /context=weight"));
+				}
+				int weight = Integer.parseUnsignedInt(rule.substring(separator + 1).trim());
+				if (weight == 0) {
+					throw new LifecycleException(new IllegalArgumentException("Weights must be positive"));
+				}
+				// Tomcat uses an empty path for the root context
+				weightMap.put("/".equals(context) ? "" : context, weight);
+			}
+		}
+		contextWeights = Collections.unmodifiableMap(weightMap);
+		contextReserve = Integer.parseUnsignedInt(getJvmOrEnvValue("contextreserve", "0", false));
+		// Contexts with weight hold their reservation from the start
+		if (fairQueuing && (long) contextReserve * weightMap.size() >= queueLength) {
+			throw new LifecycleException(new IllegalArgumentException(
+					"Context reserve times the number of weighted contexts must be below the queue length"));
+		}
 		timeout = Integer.parseUnsignedInt(getJvmOrEnvValue("timeout", "60000", false));
 		shutdownTimeout = Integer.parseUnsignedInt(getJvmOrEnvValue("shutdowntimeout", "30", false));
+
+		http2 = Boolean.parseBoolean(getJvmOrEnvValue("http2", "false", false));
+		inFlight = Integer.parseUnsignedInt(getJvmOrEnvValue("inflight", "1", false));
+		virtualThreads = Boolean.parseBoolean(getJvmOrEnvValue("virtualthreads", "false", false));
+		streaming = Boolean.parseBoolean(getJvmOrEnvValue("streaming", "false", false));
+		serializers = Integer.parseUnsignedInt(getJvmOrEnvValue("serializers", "0", false));
+
+		splunkAck = Boolean.parseBoolean(getJvmOrEnvValue("splunkack", "false", false));
+		splunkAckWindow = Integer.parseUnsignedInt(getJvmOrEnvValue("splunkackwindow", "100", false));
+		splunkAckTimeout = Integer.parseUnsignedInt(getJvmOrEnvValue("splunkacktimeout", "300", false));
+
+		fileSegmentSize = Integer.parseUnsignedInt(getJvmOrEnvValue("filesize", "64", false));
+		// Memory-mapped regions are limited to 2 GB
+		if (fileSegmentSize < 1 || fileSegmentSize >= 2048) {
+			throw new LifecycleException(new IllegalArgumentException("File size must be between 1 and 2047 MB"));
+		}
+		fileRotationInterval = Integer.parseUnsignedInt(getJvmOrEnvValue("filerotation", "3600", false));
+		fileCompression = Boolean.parseBoolean(getJvmOrEnvValue("filegzip", "false", false));
+
+		forwardTag = getJvmOrEnvValue("forwardtag", "tomcat.access", false);
+		forwardAck = Boolean.parseBoolean(getJvmOrEnvValue("forwardack", "false", false));
+
+		reverseDns = Boolean.parseBoolean(getJvmOrEnvValue("reversedns", "false", false));
+		String geoIpFile = getJvmOrEnvValue("geoip", null, false);
+		if (geoIpFile != null) {
+			try {
+				geoIpDatabase = GeoIpDatabase.load(Paths.get(geoIpFile));
+			} catch (IOException e) {
+				throw new LifecycleException(e);
+			}
+			log.info("GeoIP ranges: " + geoIpDatabase.size());
+		} else {
+			geoIpDatabase = null;
+		}
+		clientCacheSize = Integer.parseUnsignedInt(getJvmOrEnvValue("clientcache", "10000", false));
+
+		List<String> routeList = new ArrayList<>();
+		String routeValue = getJvmOrEnvValue("routes", null, false);
+		if (routeValue != null) {
+			for (String route : routeValue.split(",")) {
+				route = route.trim();
+				if (!route.startsWith("/")) {
+					throw new LifecycleException(
+							new IllegalArgumentException("Route " + route + " must start with /"));
+				}
+				routeList.add(route);
+			}
+		}
+		routes = Collections.unmodifiableList(routeList);
+		routeCollapse = Boolean.parseBoolean(getJvmOrEnvValue("routecollapse", "false", false));
+
+		userAgentClassification = Boolean.parseBoolean(getJvmOrEnvValue("useragents", "false", false));
+		userAgentCacheSize = Integer.parseUnsignedInt(getJvmOrEnvValue("useragentcache", "1000", false));
+
+		List<String> destinationList = new ArrayList<>();
+		String destinationValue = getJvmOrEnvValue("destinations", null, false);
+		if (destinationValue != null) {
+			for (String rule : destinationValue.split(",")) {
+				destinationList.add(rule.trim());
+			}
+			// Fail on startup for malformed rules
+			try {
+				new DestinationRouter(destinationList);
+			} catch (IllegalArgumentException e) {
+				throw new LifecycleException(e);
+			}
+		}
+		destinations = Collections.unmodifiableList(destinationList);
+
+		heavyHitters = Integer.parseUnsignedInt(getJvmOrEnvValue("heavyhitters", "0", false));
+		heavyHittersInterval = Integer.parseUnsignedInt(getJvmOrEnvValue("heavyhittersinterval", "60", false));
+		coalesceWindow = Integer.parseUnsignedInt(getJvmOrEnvValue("coalescewindow", "0", false));
+
+		heapThreshold = Integer.parseUnsignedInt(getJvmOrEnvValue("heapthreshold", "0", false));
+		if (heapThreshold >= 100) {
+			throw new LifecycleException(new IllegalArgumentException("Heap threshold must be below 100"));
+		}
+
+		deadLetters = Integer.parseUnsignedInt(getJvmOrEnvValue("deadletters", "100", false));
+		String deadLetterFileName = getJvmOrEnvValue("deadletterfile", null, false);
+		deadLetterFile = (deadLetterFileName != null) ? Paths.get(deadLetterFileName) : null;
+	}
+
+	/**
+	 * Returns a copy of the configuration for a single endpoint, which is used to
+	 * create the connection to that endpoint if several are configured. All other
+	 * values are shared.
+	 * 
+	 * @param index The index of the endpoint in {@link #getEndpointUris()}.
+	 * @return The configuration with the endpoint as the only one.
+	 */
+	public Configuration forEndpoint(int index) {
+		Configuration copy;
+		try {
+			copy = (Configuration) clone();
+		} catch (CloneNotSupportedException e) {
+			// Not thrown, the class is cloneable
+			throw new IllegalStateException(e);
+		}
+		copy.endpointUri = endpointUris.get(index);
+		copy.endpointUrl = endpointUrls.get(index);
+		copy.endpointUris = Collections.singletonList(copy.endpointUri);
+		copy.endpointUrls = Collections.singletonList(copy.endpointUrl);
+		copy.weights = Collections.singletonList(weights.get(index));
+		return copy;
+	}
+
+	private Target createTarget(String name) throws LifecycleException {
+		switch (name.toLowerCase()) {
+		case "splunk":
+			return new Splunk();
+		case "otlp":
+			return new Otlp();
+		case "syslog":
+			return new Syslog();
+		case "file":
+			return new LocalFile();
+		case "forward":
+			return new Forward();
+		default:
+			throw new LifecycleException(new IllegalStateException("Target " + name + " not supported"));
+		}
 	}
 
 	private String getJvmOrEnvValue(String name, String defaultValue, boolean mandatory) throws LifecycleException {
@@ -123,6 +451,11 @@ public class Configuration {
 	 * Returns the implementation object of the target logging system. Allows to
 	 * support different message formats and authentication methods for different
 	 * systems.
+	 * <p>
+	 * Can be configured with JVM parameter <code>httpaccesslogvalve.target</code>
+	 * or environment variable <code>HTTPACCESSLOGVALVE_TARGET</code>. Supported
+	 * values are "splunk", "otlp", "syslog", "forward" and "file". If no value is
+	 * provided, it defaults to "splunk".
 	 * 
 	 * @return The implementation of the target system.
 	 */
@@ -131,7 +464,98 @@ public class Configuration {
 	}
 
 	/**
-	 * Returns the URL of the HTTP endpoint.
+	 * Returns the URI of the endpoint. Unlike {@link #getEndpointUrl()}, this is
+	 * also available for targets not using HTTP, for example
+	 * <code>udp://localhost:514</code>.
+	 * <p>
+	 * Must be configured with JVM parameter <code>httpaccesslogvalve.url</code> or
+	 * environment variable <code>HTTPACCESSLOGVALVE_URL</code>. If several
+	 * endpoints are configured, this is the first one.
+	 * 
+	 * @return The URI of the endpoint.
+	 */
+	public URI getEndpointUri() {
+		return endpointUri;
+	}
+
+	/**
+	 * Returns the URIs of all endpoints. If there is more than one, messages are
+	 * balanced between them, see {@link #getBalancing()}.
+	 * <p>
+	 * Must be configured with JVM parameter <code>httpaccesslogvalve.url</code> or
+	 * environment variable <code>HTTPACCESSLOGVALVE_URL</code>, with several
+	 * endpoints separated by commas.
+	 * 
+	 * @return The URIs of the endpoints.
+	 */
+	public List<URI> getEndpointUris() {
+		return endpointUris;
+	}
+
+	/**
+	 * Returns the weights of the endpoints, in the same order as
+	 * {@link #getEndpointUris()}. An endpoint with twice the weight gets twice the
+	 * share of messages.
+	 * <p>
+	 * Can be configured with JVM parameter <code>httpaccesslogvalve.weights</code>
+	 * or environment variable <code>HTTPACCESSLOGVALVE_WEIGHTS</code>, separated
+	 * by commas. If no value is provided, every endpoint has weight 1.
+	 * 
+	 * @return The weights of the endpoints.
+	 */
+	public List<Integer> getWeights() {
+		return weights;
+	}
+
+	/**
+	 * Returns the method to balance messages between several endpoints. With
+	 * "leastoutstanding", a message is sent to the endpoint with the fewest
+	 * messages in flight relative to its weight. With "roundrobin", endpoints are
+	 * used in turn according to their weights.
+	 * <p>
+	 * Can be configured with JVM parameter <code>httpaccesslogvalve.balancing</code>
+	 * or environment variable <code>HTTPACCESSLOGVALVE_BALANCING</code>. If no
+	 * value is provided, it defaults to "leastoutstanding".
+	 * 
+	 * @return The balancing method.
+	 */
+	public String getBalancing() {
+		return balancing;
+	}
+
+	/**
+	 * Returns the number of consecutive failures after which an endpoint is
+	 * ejected, so messages are only sent to the remaining endpoints.
+	 * <p>
+	 * Can be configured with JVM parameter
+	 * <code>httpaccesslogvalve.ejectionfailures</code> or environment variable
+	 * <code>HTTPACCESSLOGVALVE_EJECTIONFAILURES</code>. If no value is provided,
+	 * it defaults to 3.
+	 * 
+	 * @return The number of failures.
+	 */
+	public int getEjectionFailures() {
+		return ejectionFailures;
+	}
+
+	/**
+	 * Returns the time an endpoint is ejected before a single message is sent to
+	 * probe whether it has recovered, in seconds.
+	 * <p>
+	 * Can be configured with JVM parameter
+	 * <code>httpaccesslogvalve.ejectiontime</code> or environment variable
+	 * <code>HTTPACCESSLOGVALVE_EJECTIONTIME</code>. If no value is provided, it
+	 * defaults to 30.
+	 * 
+	 * @return The time in seconds.
+	 */
+	public int getEjectionTime() {
+		return ejectionTime;
+	}
+
+	/**
+	 * Returns the URL of the HTTP endpoint, or <code>null</code> if the target does
+	 * not use HTTP.
 	 * <p>
 	 * Must be configured with JVM parameter <code>httpaccesslogvalve.url</code> or
 	 * environment variable <code>HTTPACCESSLOGVALVE_URL</code>.
@@ -146,7 +570,8 @@ public class Configuration {
 	 * Returns the token used to authenticate against the HTTP endpoint.
 	 * <p>
 	 * Must be configured with JVM parameter <code>httpaccesslogvalve.token</code>
-	 * or environment variable <code>HTTPACCESSLOGVALVE_TOKEN</code>.
+	 * or environment variable <code>HTTPACCESSLOGVALVE_TOKEN</code>, unless the
+	 * target does not require authentication.
 	 * 
 	 * @return The token to authenticate with.
 	 */
@@ -207,6 +632,104 @@ public class Configuration {
 		return queueLength;
 	}
 
+	/**
+	 * Returns the estimated memory the events in the queue may use. The size of
+	 * every event is estimated when it is captured, so memory consumption is
+	 * predictable regardless of the size of individual events. The queue length
+	 * still applies as an additional limit.
+	 * <p>
+	 * Can be configured with JVM parameter <code>httpaccesslogvalve.queuebytes</code>
+	 * or environment variable <code>HTTPACCESSLOGVALVE_QUEUEBYTES</code>. If no
+	 * value is provided, it defaults to 0 for no limit.
+	 * 
+	 * @return The maximum size of the queue in bytes.
+	 */
+	public long getQueueBytes() {
+		return queueBytes;
+	}
+
+	/**
+	 * Returns the length of the priority lane of the queue, which takes events of
+	 * failed and slow requests. These are sent before other events, so they are
+	 * delivered with low latency and not discarded when the queue is full.
+	 * <p>
+	 * Can be configured with JVM parameter
+	 * <code>httpaccesslogvalve.priorityqueue</code> or environment variable
+	 * <code>HTTPACCESSLOGVALVE_PRIORITYQUEUE</code>. If no value is provided, it
+	 * defaults to 0 for no priority lane.
+	 * 
+	 * @return The maximum length of the priority lane.
+	 */
+	public int getPriorityQueueLength() {
+		return priorityQueueLength;
+	}
+
+	/**
+	 * Returns the processing time in milliseconds from which requests are
+	 * considered slow and their events have priority. Events of failed requests
+	 * with a status of 500 or above always have priority.
+	 * <p>
+	 * Can be configured with JVM parameter
+	 * <code>httpaccesslogvalve.slowrequest</code> or environment variable
+	 * <code>HTTPACCESSLOGVALVE_SLOWREQUEST</code>. If no value is provided, it
+	 * defaults to 0 for no slow requests.
+	 * 
+	 * @return The processing time of slow requests.
+	 */
+	public long getSlowRequestThreshold() {
+		return slowRequestThreshold;
+	}
+
+	/**
+	 * Returns whether the events of every context are queued separately and
+	 * taken in turn, so a single web application can neither fill the queue nor
+	 * delay the events of others.
+	 * <p>
+	 * Can be configured with JVM parameter
+	 * <code>httpaccesslogvalve.fairqueuing</code> or environment variable
+	 * <code>HTTPACCESSLOGVALVE_FAIRQUEUING</code>. If no value is provided, it
+	 * defaults to false.
+	 * 
+	 * @return True if events are queued fairly per context.
+	 */
+	public boolean isFairQueuing() {
+		return fairQueuing;
+	}
+
+	/**
+	 * Returns the weights of contexts for fair queuing. A context with twice the
+	 * weight may send twice as many bytes while the queue is contended.
+	 * <p>
+	 * Can be configured with JVM parameter
+	 * <code>httpaccesslogvalve.contextweights</code> or environment variable
+	 * <code>HTTPACCESSLOGVALVE_CONTEXTWEIGHTS</code> as comma-separated rules in
+	 * the format <code>/context=weight</code>, where <code>/</code> is the root
+	 * context. Contexts without rule have weight 1.
+	 * 
+	 * @return The weights by context path, empty for the root context.
+	 */
+	public Map<String, Integer> getContextWeights() {
+		return contextWeights;
+	}
+
+	/**
+	 * Returns the number of events in the queue reserved for every context with
+	 * fair queuing. Other contexts can't take this space, even if the queue is
+	 * full otherwise. Multiplied by the number of contexts with weight, it must
+	 * be below the queue length. At most three quarters of the queue are
+	 * reserved in total.
+	 * <p>
+	 * Can be configured with JVM parameter
+	 * <code>httpaccesslogvalve.contextreserve</code> or environment variable
+	 * <code>HTTPACCESSLOGVALVE_CONTEXTRESERVE</code>. If no value is provided, it
+	 * defaults to 0 for no reservation.
+	 * 
+	 * @return The number of events per context.
+	 */
+	public int getContextReserve() {
+		return contextReserve;
+	}
+
 	/**
 	 * Returns the socket timeout used when connecting to the endpoint.
 	 * <p>
@@ -234,4 +757,414 @@ public class Configuration {
 		return shutdownTimeout;
 	}
 
+	/**
+	 * Returns whether HTTP/2 should be used. Only available on Java 11 and later,
+	 * where <code>java.net.http.HttpClient</code> is used instead of
+	 * {@link java.net.HttpURLConnection}. Endpoints not supporting HTTP/2 are
+	 * still accessed with HTTP/1.1.
+	 * <p>
+	 * Can be configured with JVM parameter <code>httpaccesslogvalve.http2</code> or
+	 * environment variable <code>HTTPACCESSLOGVALVE_HTTP2</code>. If no value is
+	 * provided, it defaults to false.
+	 * 
+	 * @return True if HTTP/2 should be used.
+	 */
+	public boolean isHttp2() {
+		return http2;
+	}
+
+	/**
+	 * Returns the maximum number of messages sent concurrently. With HTTP/2 these
+	 * are multiplexed on a single connection. Values larger than 1 do not
+	 * preserve the order of events.
+	 * <p>
+	 * Can be configured with JVM parameter <code>httpaccesslogvalve.inflight</code>
+	 * or environment variable <code>HTTPACCESSLOGVALVE_INFLIGHT</code>. If no value
+	 * is provided, it defaults to 1.
+	 * 
+	 * @return The maximum number of messages in flight.
+	 */
+	public int getInFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * Returns whether every message should be sent on its own virtual thread,
+	 * instead of by the sender thread. Only available on Java 21 and later. The
+	 * number of concurrent sends is limited by {@link #getInFlight()}.
+	 * <p>
+	 * Can be configured with JVM parameter
+	 * <code>httpaccesslogvalve.virtualthreads</code> or environment variable
+	 * <code>HTTPACCESSLOGVALVE_VIRTUALTHREADS</code>. If no value is provided, it
+	 * defaults to false.
+	 * 
+	 * @return True if virtual threads should be used.
+	 */
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * Returns whether events should be serialized directly onto the connection
+	 * while sending, using chunked transfer encoding. This avoids building the
+	 * whole message in memory first. Only used when sending sequentially and with
+	 * targets which do not encode batches as a whole.
+	 * <p>
+	 * Can be configured with JVM parameter <code>httpaccesslogvalve.streaming</code>
+	 * or environment variable <code>HTTPACCESSLOGVALVE_STREAMING</code>. If no
+	 * value is provided, it defaults to false.
+	 * 
+	 * @return True if messages should be streamed.
+	 */
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	/**
+	 * Returns the number of threads which serialize events to messages in
+	 * parallel, while the sender thread only sends ready messages. With 0, events
+	 * are serialized on the sender thread before sending.
+	 * <p>
+	 * Can be configured with JVM parameter
+	 * <code>httpaccesslogvalve.serializers</code> or environment variable
+	 * <code>HTTPACCESSLOGVALVE_SERIALIZERS</code>. If no value is provided, it
+	 * defaults to 0.
+	 * 
+	 * @return The number of serializer threads.
+	 */
+	public int getSerializers() {
+		return serializers;
+	}
+
+	/**
+	 * Returns whether indexer acknowledgement should be used with Splunk. Messages
+	 * are then only considered delivered when they have been indexed, not just
+	 * received. Requires indexer acknowledgement to be enabled for the token.
+	 * <p>
+	 * Can be configured with JVM parameter <code>httpaccesslogvalve.splunkack</code>
+	 * or environment variable <code>HTTPACCESSLOGVALVE_SPLUNKACK</code>. If no value
+	 * is provided, it defaults to false.
+	 * 
+	 * @return True if indexer acknowledgement should be used.
+	 */
+	public boolean isSplunkAck() {
+		return splunkAck;
+	}
+
+	/**
+	 * Returns the maximum number of messages waiting for indexer
+	 * acknowledgement. Sending is paused while the window is full.
+	 * <p>
+	 * Can be configured with JVM parameter
+	 * <code>httpaccesslogvalve.splunkackwindow</code> or environment variable
+	 * <code>HTTPACCESSLOGVALVE_SPLUNKACKWINDOW</code>. If no value is provided, it
+	 * defaults to 100.
+	 * 
+	 * @return The maximum number of pending messages.
+	 */
+	public int getSplunkAckWindow() {
+		return splunkAckWindow;
+	}
+
+	/**
+	 * Returns the time to wait for an indexer acknowledgement before a message is
+	 * sent again, in seconds.
+	 * <p>
+	 * Can be configured with JVM parameter
+	 * <code>httpaccesslogvalve.splunkacktimeout</code> or environment variable
+	 * <code>HTTPACCESSLOGVALVE_SPLUNKACKTIMEOUT</code>. If no value is provided, it
+	 * defaults to 5 minutes.
+	 * 
+	 * @return The timeout in seconds.
+	 */
+	public int getSplunkAckTimeout() {
+		return splunkAckTimeout;
+	}
+
+	/**
+	 * Returns the size of a memory-mapped file segment for the file target, in
+	 * MB. A new segment is started when the current one is full. Must be below
+	 * 2048 MB, the limit of a memory-mapped region.
+	 * <p>
+	 * Can be configured with JVM parameter <code>httpaccesslogvalve.filesize</code>
+	 * or environment variable <code>HTTPACCESSLOGVALVE_FILESIZE</code>. If no value
+	 * is provided, it defaults to 64 MB.
+	 * 
+	 * @return The segment size in MB.
+	 */
+	public int getFileSegmentSize() {
+		return fileSegmentSize;
+	}
+
+	/**
+	 * Returns the time after which a new file segment is started for the file
+	 * target, in seconds. A value of 0 disables time based rotation.
+	 * <p>
+	 * Can be configured with JVM parameter
+	 * <code>httpaccesslogvalve.filerotation</code> or environment variable
+	 * <code>HTTPACCESSLOGVALVE_FILEROTATION</code>. If no value is provided, it
+	 * defaults to 1 hour.
+	 * 
+	 * @return The rotation interval in seconds.
+	 */
+	public int getFileRotationInterval() {
+		return fileRotationInterval;
+	}
+
+	/**
+	 * Returns whether closed file segments of the file target are compressed with
+	 * gzip.
+	 * <p>
+	 * Can be configured with JVM parameter <code>httpaccesslogvalve.filegzip</code>
+	 * or environment variable <code>HTTPACCESSLOGVALVE_FILEGZIP</code>. If no value
+	 * is provided, it defaults to false.
+	 * 
+	 * @return True if closed segments are compressed.
+	 */
+	public boolean isFileCompression() {
+		return fileCompression;
+	}
+
+	/**
+	 * Returns the tag of events sent with the forward target, which is used by
+	 * Fluentd to route them. Destinations with an index use it as tag instead.
+	 * <p>
+	 * Can be configured with JVM parameter <code>httpaccesslogvalve.forwardtag</code>
+	 * or environment variable <code>HTTPACCESSLOGVALVE_FORWARDTAG</code>. If no
+	 * value is provided, it defaults to "tomcat.access".
+	 * 
+	 * @return The tag.
+	 */
+	public String getForwardTag() {
+		return forwardTag;
+	}
+
+	/**
+	 * Returns whether acknowledgements are requested for messages of the forward
+	 * target. Messages are then only considered delivered when Fluentd has
+	 * confirmed them, otherwise they are sent again.
+	 * <p>
+	 * Can be configured with JVM parameter <code>httpaccesslogvalve.forwardack</code>
+	 * or environment variable <code>HTTPACCESSLOGVALVE_FORWARDACK</code>. If no
+	 * value is provided, it defaults to false.
+	 * 
+	 * @return True if acknowledgements are requested.
+	 */
+	public boolean isForwardAck() {
+		return forwardAck;
+	}
+
+	/**
+	 * Returns whether the host names of clients should be resolved with a reverse
+	 * DNS lookup. This is done on the sender side, so it does not delay requests,
+	 * unlike enabling lookups in Tomcat.
+	 * <p>
+	 * Can be configured with JVM parameter <code>httpaccesslogvalve.reversedns</code>
+	 * or environment variable <code>HTTPACCESSLOGVALVE_REVERSEDNS</code>. If no
+	 * value is provided, it defaults to false.
+	 * 
+	 * @return True if host names should be resolved.
+	 */
+	public boolean isReverseDns() {
+		return reverseDns;
+	}
+
+	/**
+	 * Returns the database to look up country and autonomous system of clients.
+	 * <p>
+	 * Can be configured with the path of a CSV file in JVM parameter
+	 * <code>httpaccesslogvalve.geoip</code> or environment variable
+	 * <code>HTTPACCESSLOGVALVE_GEOIP</code>. If no value is provided, no lookup is
+	 * performed.
+	 * 
+	 * @return The {@link GeoIpDatabase} or null.
+	 */
+	public GeoIpDatabase getGeoIpDatabase() {
+		return geoIpDatabase;
+	}
+
+	/**
+	 * Returns the maximum number of clients for which lookup results are cached.
+	 * <p>
+	 * Can be configured with JVM parameter <code>httpaccesslogvalve.clientcache</code>
+	 * or environment variable <code>HTTPACCESSLOGVALVE_CLIENTCACHE</code>. If no
+	 * value is provided, it defaults to 10000.
+	 * 
+	 * @return The maximum number of cached clients.
+	 */
+	public int getClientCacheSize() {
+		return clientCacheSize;
+	}
+
+	/**
+	 * Returns the route templates to determine the route of request URIs, e.g.
+	 * <code>/orders/{id}/items/{n}</code>.
+	 * <p>
+	 * Can be configured as comma-separated list with JVM parameter
+	 * <code>httpaccesslogvalve.routes</code> or environment variable
+	 * <code>HTTPACCESSLOGVALVE_ROUTES</code>. If no value is provided, no
+	 * templates are used.
+	 * 
+	 * @return The route templates.
+	 */
+	public List<String> getRoutes() {
+		return routes;
+	}
+
+	/**
+	 * Returns whether numeric and UUID segments of request URIs should be
+	 * collapsed to determine the route, if no template matches.
+	 * <p>
+	 * Can be configured with JVM parameter
+	 * <code>httpaccesslogvalve.routecollapse</code> or environment variable
+	 * <code>HTTPACCESSLOGVALVE_ROUTECOLLAPSE</code>. If no value is provided, it
+	 * defaults to false.
+	 * 
+	 * @return True if URIs should be collapsed.
+	 */
+	public boolean isRouteCollapse() {
+		return routeCollapse;
+	}
+
+	/**
+	 * Returns whether user agents should be classified by browser, operating
+	 * system, device type and whether they are bots.
+	 * <p>
+	 * Can be configured with JVM parameter <code>httpaccesslogvalve.useragents</code>
+	 * or environment variable <code>HTTPACCESSLOGVALVE_USERAGENTS</code>. If no
+	 * value is provided, it defaults to false.
+	 * 
+	 * @return True if user agents should be classified.
+	 */
+	public boolean isUserAgentClassification() {
+		return userAgentClassification;
+	}
+
+	/**
+	 * Returns the maximum number of distinct user agents for which the
+	 * classification is cached.
+	 * <p>
+	 * Can be configured with JVM parameter
+	 * <code>httpaccesslogvalve.useragentcache</code> or environment variable
+	 * <code>HTTPACCESSLOGVALVE_USERAGENTCACHE</code>. If no value is provided, it
+	 * defaults to 1000.
+	 * 
+	 * @return The maximum number of cached user agents.
+	 */
+	public int getUserAgentCacheSize() {
+		return userAgentCacheSize;
+	}
+
+	/**
+	 * Returns the rules to send the events of specific hosts or contexts to other
+	 * destinations, with the format
+	 * <code>host[/context]=index[:sourcetype[:token]]</code>. The host can be
+	 * <code>*</code> for any host. Messages only contain events of a single
+	 * destination.
+	 * <p>
+	 * Can be configured as comma-separated list with JVM parameter
+	 * <code>httpaccesslogvalve.destinations</code> or environment variable
+	 * <code>HTTPACCESSLOGVALVE_DESTINATIONS</code>. If no value is provided, all
+	 * events are sent to the configured index.
+	 * 
+	 * @return The destination rules.
+	 */
+	public List<String> getDestinations() {
+		return destinations;
+	}
+
+	/**
+	 * Returns the number of most frequent clients, routes and user agents to
+	 * track. They are counted on the sender side in fixed memory, sent as summary
+	 * and can be inspected with JMX.
+	 * <p>
+	 * Can be configured with JVM parameter
+	 * <code>httpaccesslogvalve.heavyhitters</code> or environment variable
+	 * <code>HTTPACCESSLOGVALVE_HEAVYHITTERS</code>. If no value is provided, it
+	 * defaults to 0 for no tracking.
+	 * 
+	 * @return The number of keys per field.
+	 */
+	public int getHeavyHitters() {
+		return heavyHitters;
+	}
+
+	/**
+	 * Returns the interval after which a summary of the most frequent keys is sent
+	 * and counting starts over, in seconds.
+	 * <p>
+	 * Can be configured with JVM parameter
+	 * <code>httpaccesslogvalve.heavyhittersinterval</code> or environment variable
+	 * <code>HTTPACCESSLOGVALVE_HEAVYHITTERSINTERVAL</code>. If no value is
+	 * provided, it defaults to 60.
+	 * 
+	 * @return The interval in seconds.
+	 */
+	public int getHeavyHittersInterval() {
+		return heavyHittersInterval;
+	}
+
+	/**
+	 * Returns the time within which repeated events with the same client,
+	 * method, URI and status are coalesced into a single event with their count
+	 * and processing times, e.g. for health checks.
+	 * <p>
+	 * Can be configured with JVM parameter
+	 * <code>httpaccesslogvalve.coalescewindow</code> or environment variable
+	 * <code>HTTPACCESSLOGVALVE_COALESCEWINDOW</code>. If no value is provided, it
+	 * defaults to 0 for no coalescing.
+	 * 
+	 * @return The window in milliseconds.
+	 */
+	public int getCoalesceWindow() {
+		return coalesceWindow;
+	}
+
+	/**
+	 * Returns the heap usage in percent from which logging is degraded, so the
+	 * valve does not contribute to running out of memory. The queue is limited
+	 * from this threshold on and events are sampled halfway to a full heap.
+	 * <p>
+	 * Can be configured with JVM parameter
+	 * <code>httpaccesslogvalve.heapthreshold</code> or environment variable
+	 * <code>HTTPACCESSLOGVALVE_HEAPTHRESHOLD</code>. If no value is provided, it
+	 * defaults to 0 for no degradation.
+	 * 
+	 * @return The threshold in percent.
+	 */
+	public int getHeapThreshold() {
+		return heapThreshold;
+	}
+
+	/**
+	 * Returns the number of most recent events rejected by the endpoint to keep
+	 * in memory. Rejected events are isolated by splitting their message and
+	 * never retried.
+	 * <p>
+	 * Can be configured with JVM parameter
+	 * <code>httpaccesslogvalve.deadletters</code> or environment variable
+	 * <code>HTTPACCESSLOGVALVE_DEADLETTERS</code>. If no value is provided, it
+	 * defaults to 100.
+	 * 
+	 * @return The number of events.
+	 */
+	public int getDeadLetters() {
+		return deadLetters;
+	}
+
+	/**
+	 * Returns the file to append events rejected by the endpoint to, one JSON
+	 * object per line.
+	 * <p>
+	 * Can be configured with JVM parameter
+	 * <code>httpaccesslogvalve.deadletterfile</code> or environment variable
+	 * <code>HTTPACCESSLOGVALVE_DEADLETTERFILE</code>. If no value is provided,
+	 * rejected events are only logged.
+	 * 
+	 * @return The {@link Path} of the file or null if not configured.
+	 */
+	public Path getDeadLetterFile() {
+		return deadLetterFile;
+	}
+
 }
@@ -0,0 +1,134 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Interface for connections delivering messages to the logging endpoint.
+ * Allows targets to use other transports than HTTP.
+ * 
+ * @author Robin Seggelmann
+ *
+ */
+public interface Connection {
+
+	/**
+	 * Sends a message to the endpoint.
+	 * 
+	 * @param message The message as a string, encoded as UTF-8.
+	 * @return True if message delivery was successful.
+	 */
+	public default boolean sendMessage(String message) {
+		return sendMessage(message.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Sends a message to the endpoint.
+	 * 
+	 * @param message The encoded message.
+	 * @return True if message delivery was successful.
+	 * @throws RejectedMessageException Thrown if the endpoint rejected the
+	 *                                  message permanently.
+	 */
+	public boolean sendMessage(byte[] message);
+
+	/**
+	 * Sends a message to the endpoint for a specific destination. By default the
+	 * destination is ignored.
+	 * 
+	 * @param message     The encoded message.
+	 * @param destination The {@link Destination} of the events in the message.
+	 * @return True if message delivery was successful.
+	 */
+	public default boolean sendMessage(byte[] message, Destination destination) {
+		return sendMessage(message);
+	}
+
+	/**
+	 * Sends a message to the endpoint, which is written while sending. By default
+	 * the message is written to memory first and then sent.
+	 * 
+	 * @param writer The {@link MessageWriter} writing the message.
+	 * @return True if message delivery was successful.
+	 */
+	public default boolean sendMessage(MessageWriter writer) {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		try {
+			writer.write(os);
+		} catch (IOException e) {
+			// Not thrown by ByteArrayOutputStream
+			throw new UncheckedIOException(e);
+		}
+		return sendMessage(os.toByteArray());
+	}
+
+	/**
+	 * Sends a message to the endpoint without waiting for the result, which
+	 * allows multiple messages to be sent concurrently. By default the message is
+	 * sent synchronously.
+	 * 
+	 * @param message The encoded message.
+	 * @return A future completed with true if message delivery was successful, or
+	 *         completed exceptionally with a {@link RejectedMessageException} if
+	 *         the endpoint rejected the message permanently.
+	 */
+	public default CompletableFuture<Boolean> sendMessageAsync(byte[] message) {
+		return sendSynchronously(() -> sendMessage(message));
+	}
+
+	/**
+	 * Sends a message to the endpoint for a specific destination without waiting
+	 * for the result. By default the message is sent synchronously.
+	 * 
+	 * @param message     The encoded message.
+	 * @param destination The {@link Destination} of the events in the message.
+	 * @return A future completed with true if message delivery was successful, or
+	 *         completed exceptionally with a {@link RejectedMessageException} if
+	 *         the endpoint rejected the message permanently.
+	 */
+	public default CompletableFuture<Boolean> sendMessageAsync(byte[] message, Destination destination) {
+		return sendSynchronously(() -> sendMessage(message, destination));
+	}
+
+	/**
+	 * Sends a message synchronously for the asynchronous methods, passing a
+	 * rejection on through the future.
+	 * 
+	 * @param send The send operation, returning true on success.
+	 * @return The completed future.
+	 */
+	public static CompletableFuture<Boolean> sendSynchronously(BooleanSupplier send) {
+		CompletableFuture<Boolean> result = new CompletableFuture<>();
+		try {
+			result.complete(send.getAsBoolean());
+		} catch (RejectedMessageException e) {
+			result.completeExceptionally(e);
+		}
+		return result;
+	}
+
+	/**
+	 * Closes the connection and releases all resources. Does nothing by default.
+	 */
+	public default void close() {
+		// Nothing to close
+	}
+
+	/**
+	 * Closes the connection, waiting at most the timeout for messages which have
+	 * been sent but not yet confirmed. By default the connection is closed right
+	 * away.
+	 * 
+	 * @param timeout The maximum time to wait.
+	 * @param unit    The unit of the timeout.
+	 */
+	public default void close(long timeout, TimeUnit unit) {
+		close();
+	}
+
+}
@@ -0,0 +1,99 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.catalina.AccessLog;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+import de.solence.valves.httpaccesslogvalve.targets.LocalFile;
+
+/**
+ * Keeps events which have been rejected by the endpoint on their own, so they
+ * no longer block the events after them.
+ * <p>
+ * The most recent rejected events are kept in a bounded buffer. If a file is
+ * configured, every rejected event is also appended to it as a line of JSON, in
+ * the same format as with the file target, regardless of the configured
+ * target. Every rejected event is logged with the response of the endpoint.
+ * 
+ * @author Robin Seggelmann
+ *
+ */
+public class DeadLetters {
+	private static final Log log = LogFactory.getLog(AccessLog.class);
+	private final Configuration config;
+	private final int capacity;
+	private final Path file;
+	private final LocalFile format;
+	private final ArrayDeque<Event> events;
+	private long count;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param config The {@link Configuration} to use.
+	 */
+	public DeadLetters(Configuration config) {
+		this.config = config;
+		this.capacity = config.getDeadLetters();
+		this.file = config.getDeadLetterFile();
+		this.format = new LocalFile();
+		this.events = new ArrayDeque<>(Math.min(capacity, 1024));
+	}
+
+	/**
+	 * Adds a rejected event.
+	 * 
+	 * @param event     The rejected {@link Event}.
+	 * @param rejection The {@link RejectedMessageException} with the response.
+	 */
+	public synchronized void add(Event event, RejectedMessageException rejection) {
+		count += event.getCount();
+		log.warn("Event " + event.getRequestMethod() + " " + event.getRequestUri() + " rejected: "
+				+ rejection.getMessage());
+
+		if (capacity > 0) {
+			if (events.size() >= capacity) {
+				events.poll();
+			}
+			events.add(event);
+		}
+
+		if (file != null) {
+			String line = format.getMessage(config, event) + '\n';
+			try {
+				Files.write(file, line.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+						StandardOpenOption.APPEND);
+			} catch (IOException e) {
+				log.error(e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * Returns the most recent rejected events.
+	 * 
+	 * @return The events, oldest first.
+	 */
+	public synchronized List<Event> getEvents() {
+		return new ArrayList<>(events);
+	}
+
+	/**
+	 * Returns the number of events rejected since the sender has been created.
+	 * 
+	 * @return The number of rejected events.
+	 */
+	public synchronized long getCount() {
+		return count;
+	}
+
+}
@@ -0,0 +1,243 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.catalina.AccessLog;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Delivers the events of all valve instances sending to the same endpoint.
+ * <p>
+ * If the valve is configured for several hosts or contexts, every instance
+ * would otherwise create its own queue, connection and sender thread, which
+ * results in more threads, connections and smaller messages. Instead, there is
+ * one hub per target and endpoint in the JVM, which is shared by reference
+ * counting. The first instance starts the hub and the last one to stop drains
+ * the remaining events.
+ * 
+ * @author Robin Seggelmann
+ *
+ */
+public class DeliveryHub {
+	private static final Log log = LogFactory.getLog(AccessLog.class);
+	private static final Map<String, DeliveryHub> hubs = new HashMap<>();
+	private final String key;
+	private final Configuration config;
+	private final EventQueue queue;
+	private final Connection conn;
+	private final Sender sender;
+	private final ScheduledExecutorService executor;
+	private final ObjectName heavyHitters;
+	private final HeapPressureMonitor monitor;
+	private int references;
+
+	private DeliveryHub(String key, Configuration config) {
+		this.key = key;
+		this.config = config;
+		this.queue = new EventQueue(config.getQueueLength(), config.getQueueBytes(),
+				config.getPriorityQueueLength(), config.getSlowRequestThreshold(),
+				config.isFairQueuing() ? config.getContextWeights() : null, config.getContextReserve());
+		this.conn = createConnection(config);
+		this.monitor = (config.getHeapThreshold() > 0) ? new HeapPressureMonitor(config, queue) : null;
+		this.executor = Executors.newSingleThreadScheduledExecutor();
+
+		// Check every 250 ms for new events to send
+		this.sender = new Sender(config, conn, queue);
+		executor.scheduleWithFixedDelay(sender, 250L, 250L, TimeUnit.MILLISECONDS);
+
+		this.heavyHitters = (sender.getHeavyHitters() != null) ? register(sender.getHeavyHitters()) : null;
+	}
+
+	/**
+	 * Returns the hub for the configured target and endpoint, which is started
+	 * if it doesn't exist yet. Every call must be followed by a call of
+	 * {@link #release()} when the hub is no longer used.
+	 *
+	 * @param config The {@link Configuration} to use if the hub is started.
+	 * @return The hub.
+	 */
+	public static DeliveryHub acquire(Configuration config) {
+		String key = config.getTarget().getClass().getName() + " " + getEndpoints(config);
+		synchronized (hubs) {
+			DeliveryHub hub = hubs.get(key);
+			if (hub == null) {
+				log.info("Starting delivery to " + getEndpoints(config));
+				hub = new DeliveryHub(key, config);
+				hubs.put(key, hub);
+			}
+			hub.references++;
+			return hub;
+		}
+	}
+
+	/**
+	 * Releases the hub. If it is no longer used, new events are rejected and the
+	 * remaining ones are sent until the shutdown timeout.
+	 */
+	public void release() {
+		synchronized (hubs) {
+			if (--references > 0) {
+				return;
+			}
+			hubs.remove(key);
+		}
+		stop();
+	}
+
+	/**
+	 * Captures the event of a request. Under heap pressure, events may not be
+	 * captured or without optional fields.
+	 *
+	 * @param request  The incoming {@link Request} providing client data.
+	 * @param response The outgoing {@link Response} providing server data.
+	 * @param time     The processing time.
+	 * @return The {@link Event} or null if it should not be captured.
+	 */
+	public Event createEvent(Request request, Response response, long time) {
+		if (monitor == null) {
+			return new Event(request, response, time);
+		}
+		if (!monitor.sample(response.getStatus())) {
+			return null;
+		}
+		return new Event(request, response, time, monitor.isOptionalFieldsEnabled());
+	}
+
+	/**
+	 * Adds an event to be sent.
+	 *
+	 * @param event The {@link Event} to add.
+	 * @throws IllegalStateException Thrown if the queue is full.
+	 */
+	public void add(Event event) {
+		queue.add(event);
+	}
+
+	/**
+	 * Returns whether the hub has been stopped.
+	 *
+	 * @return True if no new events are accepted.
+	 */
+	public boolean isStopped() {
+		return queue.isClosed();
+	}
+
+	/**
+	 * Returns the number of valve instances using the hub.
+	 *
+	 * @return The number of references.
+	 */
+	public int getReferences() {
+		synchronized (hubs) {
+			return references;
+		}
+	}
+
+	private void stop() {
+		// Stop taking new events and no longer run the sender periodically, but
+		// drain the remaining events as fast as possible until the deadline.
+		queue.close();
+		if (monitor != null) {
+			monitor.close();
+		}
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(config.getShutdownTimeout());
+		executor.shutdown();
+
+		long deliveredBefore = sender.getDeliveredCount();
+		sender.drain(remaining(deadline), TimeUnit.NANOSECONDS);
+
+		// A sender run still busy with its last message is interrupted at the
+		// deadline.
+		try {
+			if (!executor.awaitTermination(remaining(deadline), TimeUnit.NANOSECONDS)) {
+				executor.shutdownNow();
+				executor.awaitTermination(1, TimeUnit.SECONDS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		sender.close(remaining(deadline), TimeUnit.NANOSECONDS);
+
+		long delivered = sender.getDeliveredCount() - deliveredBefore;
+		long rejected = sender.getDeadLetters().getCount();
+		long abandoned = queue.getAcceptedCount() - sender.getDeliveredCount() - rejected;
+		if (rejected > 0) {
+			log.warn(rejected + " events have been rejected by the endpoint");
+		}
+		if (abandoned > 0) {
+			log.warn("Delivered " + delivered + " events on shutdown, abandoned " + abandoned + " events");
+		} else {
+			log.info("Delivered " + delivered + " events on shutdown");
+		}
+
+		conn.close(remaining(deadline), TimeUnit.NANOSECONDS);
+
+		if (heavyHitters != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(heavyHitters);
+			} catch (JMException e) {
+				log.warn(e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * Registers the heavy hitters with JMX, so they can be inspected at any time.
+	 *
+	 * @param mbean The {@link HeavyHitters} to register.
+	 * @return The name of the MBean or null if it could not be registered.
+	 */
+	private ObjectName register(HeavyHitters mbean) {
+		try {
+			ObjectName name = new ObjectName("de.solence.valves:type=HeavyHitters,target="
+					+ config.getTarget().getClass().getSimpleName() + ",endpoint="
+					+ ObjectName.quote(getEndpoints(config)));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, name);
+			return name;
+		} catch (JMException e) {
+			log.warn(e.getMessage(), e);
+			return null;
+		}
+	}
+
+	/**
+	 * Creates the connection for the configured target, balancing between
+	 * endpoints if there are several.
+	 *
+	 * @param config The {@link Configuration} to use.
+	 * @return The {@link Connection}.
+	 */
+	static Connection createConnection(Configuration config) {
+		if (config.getEndpointUris().size() > 1) {
+			return new BalancedConnection(config);
+		}
+		return config.getTarget().createConnection(config);
+	}
+
+	private static String getEndpoints(Configuration config) {
+		List<URI> uris = config.getEndpointUris();
+		if (uris.size() > 1) {
+			return uris.stream().map(URI::toString).collect(Collectors.joining(","));
+		}
+		return String.valueOf(config.getEndpointUri());
+	}
+
+	private static long remaining(long deadline) {
+		return Math.max(deadline - System.nanoTime(), 0);
+	}
+
+}
@@ -0,0 +1,44 @@
+package de.solence.valves.httpaccesslogvalve;
+
+/**
+ * Stores where the events of a host or context are sent to. Values which are
+ * not set fall back to the global configuration.
+ * <p>
+ * Instances are created once from the configuration and compared by identity,
+ * so targets can cache data encoded per destination.
+ * 
+ * @author Robin Seggelmann
+ *
+ */
+public class Destination {
+	private final String index;
+	private final String sourceType;
+	private final String authToken;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param index      The index, or null for the configured one.
+	 * @param sourceType The source type, or null for the default.
+	 * @param authToken  The token for authentication, or null for the configured
+	 *                   one.
+	 */
+	public Destination(String index, String sourceType, String authToken) {
+		this.index = index;
+		this.sourceType = sourceType;
+		this.authToken = authToken;
+	}
+
+	public String getIndex() {
+		return index;
+	}
+
+	public String getSourceType() {
+		return sourceType;
+	}
+
+	public String getAuthToken() {
+		return authToken;
+	}
+
+}
@@ -0,0 +1,102 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns events to destinations by their host and context.
+ * <p>
+ * Rules have the format <code>host[/context]=index[:sourcetype[:token]]</code>,
+ * where host may be <code>*</code> for any host. A rule for a host and context
+ * takes precedence over one for any host and the context, which takes
+ * precedence over one for the whole host. Events not matching any rule keep
+ * the configured destination.
+ * 
+ * @author Robin Seggelmann
+ *
+ */
+public class DestinationRouter implements EventProcessor {
+	private static final String ANY_HOST = "*";
+	private final Map<String, Map<String, Destination>> contextRules;
+	private final Map<String, Destination> hostRules;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param rules The routing rules.
+	 * @throws IllegalArgumentException Thrown if a rule is malformed.
+	 */
+	public DestinationRouter(List<String> rules) {
+		this.contextRules = new HashMap<>();
+		this.hostRules = new HashMap<>();
+		for (String rule : rules) {
+			add(rule);
+		}
+	}
+
+	@Override
+	public void process(Event event) {
+		event.setDestination(route(event.getHostName(), event.getContextPath()));
+	}
+
+	/**
+	 * Returns the destination of a host and context.
+	 * 
+	 * @param host    The name of the host.
+	 * @param context The path of the context, empty for the root context.
+	 * @return The {@link Destination} or null if no rule matches.
+	 */
+	public Destination route(String host, String context) {
+		Destination destination = null;
+		if (context != null) {
+			destination = lookup(contextRules.get(host), context);
+			if (destination == null) {
+				destination = lookup(contextRules.get(ANY_HOST), context);
+			}
+		}
+		if (destination == null && host != null) {
+			destination = hostRules.get(host);
+		}
+		if (destination == null) {
+			destination = hostRules.get(ANY_HOST);
+		}
+		return destination;
+	}
+
+	private static Destination lookup(Map<String, Destination> rules, String context) {
+		return (rules != null) ? rules.get(context) : null;
+	}
+
+	private void add(String rule) {
+		int separator = rule.indexOf('=');
+		if (separator <= 0) {
+			throw new IllegalArgumentException("Destination rule " + rule + " must be host[/context]=index");
+		}
+
+		String[] values = rule.substring(separator + 1).split(":", -1);
+		if (values.length > 3) {
+			throw new IllegalArgumentException("Destination rule " + rule + " has too many values");
+		}
+		Destination destination = new Destination(value(values, 0), value(values, 1), value(values, 2));
+
+		String match = rule.substring(0, separator).trim();
+		int slash = match.indexOf('/');
+		if (slash < 0) {
+			hostRules.put(match, destination);
+		} else {
+			// Tomcat uses an empty path for the root context
+			String context = match.substring(slash);
+			contextRules.computeIfAbsent(match.substring(0, slash), h -> new HashMap<>())
+					.put("/".equals(context) ? "" : context, destination);
+		}
+	}
+
+	private static String value(String[] values, int index) {
+		if (index >= values.length || values[index].trim().isEmpty()) {
+			return null;
+		}
+		return values[index].trim();
+	}
+
+}
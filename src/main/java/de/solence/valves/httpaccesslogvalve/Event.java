@@ -2,18 +2,36 @@ package de.solence.valves.httpaccesslogvalve;
 
 import java.time.LocalDateTime;
 
+import org.apache.catalina.Context;
+import org.apache.catalina.Host;
 import org.apache.catalina.connector.Request;
 import org.apache.catalina.connector.Response;
 
 /**
  * Stores a logging event.
+ * <p>
+ * Only the IP address of the client is captured, since resolving the host name
+ * may block the request thread. The host name, country and autonomous system
+ * are added later by an {@link EventProcessor} on the sender side.
  * 
  * @author Robin Seggelmann
  *
  */
 public class Event {
+	// Rough heap usage of an event without strings, including the time
+	private static final int BASE_SIZE = 128;
+	// Rough heap usage of a string without its characters
+	private static final int STRING_SIZE = 40;
 	private final LocalDateTime time;
-	private final String remoteHost;
+	private final String hostName;
+	private final String contextPath;
+	private final String remoteAddr;
+	private String remoteHost;
+	private String country;
+	private long asn;
+	private String route;
+	private UserAgentClassifier.UserAgent userAgentClass;
+	private Destination destination;
 	private final String requestMethod;
 	private final String requestUri;
 	private final String remoteUser;
@@ -22,6 +40,11 @@ public class Event {
 	private final int status;
 	private final int bytes;
 	private final long processingTime;
+	private final int size;
+	private int count = 1;
+	private long minProcessingTime;
+	private long maxProcessingTime;
+	private long totalProcessingTime;
 
 	/**
 	 * Constructor.
@@ -32,24 +55,185 @@ public class Event {
 	 * @param response The outgoing {@link Response} providing server data.
 	 */
 	public Event(Request request, Response response, long processingTime) {
+		this(request, response, processingTime, true);
+	}
+
+	/**
+	 * Constructor.
+	 * <p>
+	 * Does nothing but storing the relevant data to minimize delay at runtime.
+	 * 
+	 * @param request        The incoming {@link Request} providing client data.
+	 * @param response       The outgoing {@link Response} providing server data.
+	 * @param optionalFields Whether to store the session ID and user agent, which
+	 *                       are omitted to save memory under heap pressure.
+	 */
+	public Event(Request request, Response response, long processingTime, boolean optionalFields) {
 		this.time = LocalDateTime.now();
-		this.remoteHost = request.getRemoteHost();
+		Host host = request.getHost();
+		this.hostName = (host != null) ? host.getName() : null;
+		Context context = request.getContext();
+		this.contextPath = (context != null) ? context.getPath() : null;
+		this.remoteAddr = request.getRemoteAddr();
 		this.requestMethod = request.getMethod();
 		this.requestUri = request.getRequestURI();
 		this.remoteUser = request.getRemoteUser();
-		this.sessionId = request.getRequestedSessionId();
-		this.userAgent = request.getHeader("User-Agent");
+		this.sessionId = optionalFields ? request.getRequestedSessionId() : null;
+		this.userAgent = optionalFields ? request.getHeader("User-Agent") : null;
 		this.status = response.getStatus();
 		this.bytes = response.getBufferSize();
 		this.processingTime = processingTime;
+		this.size = BASE_SIZE + sizeOf(remoteAddr) + sizeOf(requestMethod) + sizeOf(requestUri)
+				+ sizeOf(remoteUser) + sizeOf(sessionId) + sizeOf(userAgent);
+	}
+
+	/**
+	 * Constructor for events which have not been captured from a request, e.g.
+	 * parsed from an access log file.
+	 * 
+	 * @param time           The time of the request.
+	 * @param hostName       The name of the Tomcat host or null.
+	 * @param contextPath    The path of the context or null.
+	 * @param remoteAddr     The address of the client.
+	 * @param requestMethod  The HTTP method.
+	 * @param requestUri     The URI without query string.
+	 * @param remoteUser     The authenticated user or null.
+	 * @param sessionId      The session ID or null.
+	 * @param userAgent      The user agent or null.
+	 * @param status         The HTTP status.
+	 * @param bytes          The bytes sent.
+	 * @param processingTime The processing time in milliseconds.
+	 */
+	public Event(LocalDateTime time, String hostName, String contextPath, String remoteAddr, String requestMethod,
+			String requestUri, String remoteUser, String sessionId, String userAgent, int status, int bytes,
+			long processingTime) {
+		this.time = time;
+		this.hostName = hostName;
+		this.contextPath = contextPath;
+		this.remoteAddr = remoteAddr;
+		this.requestMethod = requestMethod;
+		this.requestUri = requestUri;
+		this.remoteUser = remoteUser;
+		this.sessionId = sessionId;
+		this.userAgent = userAgent;
+		this.status = status;
+		this.bytes = bytes;
+		this.processingTime = processingTime;
+		this.size = BASE_SIZE + sizeOf(remoteAddr) + sizeOf(requestMethod) + sizeOf(requestUri)
+				+ sizeOf(remoteUser) + sizeOf(sessionId) + sizeOf(userAgent);
+	}
+
+	private static int sizeOf(String value) {
+		// Assume two bytes per character, as with strings which are not Latin-1
+		return value == null ? 0 : STRING_SIZE + 2 * value.length();
 	}
 
 	public LocalDateTime getTime() {
 		return time;
 	}
 
+	/**
+	 * Returns the name of the Tomcat host which processed the request.
+	 * 
+	 * @return The host name or null.
+	 */
+	public String getHostName() {
+		return hostName;
+	}
+
+	/**
+	 * Returns the path of the context which processed the request, empty for the
+	 * root context.
+	 * 
+	 * @return The context path or null.
+	 */
+	public String getContextPath() {
+		return contextPath;
+	}
+
+	public String getRemoteAddr() {
+		return remoteAddr;
+	}
+
+	/**
+	 * Returns the host name of the client, if it has been resolved, otherwise the
+	 * IP address.
+	 * 
+	 * @return The host name or IP address.
+	 */
 	public String getRemoteHost() {
-		return remoteHost;
+		return (remoteHost != null) ? remoteHost : remoteAddr;
+	}
+
+	public void setRemoteHost(String remoteHost) {
+		this.remoteHost = remoteHost;
+	}
+
+	/**
+	 * Returns the ISO 3166 country code of the client, if known.
+	 * 
+	 * @return The country code or null.
+	 */
+	public String getCountry() {
+		return country;
+	}
+
+	public void setCountry(String country) {
+		this.country = country;
+	}
+
+	/**
+	 * Returns the number of the autonomous system of the client, if known.
+	 * 
+	 * @return The AS number or 0.
+	 */
+	public long getAsn() {
+		return asn;
+	}
+
+	public void setAsn(long asn) {
+		this.asn = asn;
+	}
+
+	/**
+	 * Returns the route of the request URI, a low-cardinality value for
+	 * aggregation, if determined.
+	 * 
+	 * @return The route or null.
+	 */
+	public String getRoute() {
+		return route;
+	}
+
+	public void setRoute(String route) {
+		this.route = route;
+	}
+
+	/**
+	 * Returns the classification of the user agent, if determined.
+	 * 
+	 * @return The classification or null.
+	 */
+	public UserAgentClassifier.UserAgent getUserAgentClass() {
+		return userAgentClass;
+	}
+
+	public void setUserAgentClass(UserAgentClassifier.UserAgent userAgentClass) {
+		this.userAgentClass = userAgentClass;
+	}
+
+	/**
+	 * Returns the destination of the event, if it differs from the configured
+	 * one.
+	 * 
+	 * @return The {@link Destination} or null.
+	 */
+	public Destination getDestination() {
+		return destination;
+	}
+
+	public void setDestination(Destination destination) {
+		this.destination = destination;
 	}
 
 	public String getRequestMethod() {
@@ -80,8 +264,63 @@ public class Event {
 		return bytes;
 	}
 
+	/**
+	 * Returns the processing time of the request, or the average processing time
+	 * if identical events have been coalesced into this one.
+	 * 
+	 * @return The processing time in milliseconds.
+	 */
 	public long getProcessingTime() {
-		return processingTime;
+		return (count > 1) ? totalProcessingTime / count : processingTime;
+	}
+
+	/**
+	 * Adds an identical event to this one, which then represents both.
+	 * 
+	 * @param other The {@link Event} to coalesce.
+	 */
+	public void coalesce(Event other) {
+		if (count == 1) {
+			minProcessingTime = processingTime;
+			maxProcessingTime = processingTime;
+			totalProcessingTime = processingTime;
+		}
+		count += other.count;
+		minProcessingTime = Math.min(minProcessingTime, other.getMinProcessingTime());
+		maxProcessingTime = Math.max(maxProcessingTime, other.getMaxProcessingTime());
+		totalProcessingTime += other.getTotalProcessingTime();
+	}
+
+	/**
+	 * Returns the number of requests this event represents, more than one if
+	 * identical events have been coalesced.
+	 * 
+	 * @return The number of requests.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	public long getMinProcessingTime() {
+		return (count > 1) ? minProcessingTime : processingTime;
+	}
+
+	public long getMaxProcessingTime() {
+		return (count > 1) ? maxProcessingTime : processingTime;
+	}
+
+	public long getTotalProcessingTime() {
+		return (count > 1) ? totalProcessingTime : processingTime;
+	}
+
+	/**
+	 * Returns the estimated memory used by this event, determined when the event
+	 * has been captured.
+	 * 
+	 * @return The estimated size in bytes.
+	 */
+	public int getSize() {
+		return size;
 	}
 
 }
@@ -0,0 +1,22 @@
+package de.solence.valves.httpaccesslogvalve;
+
+/**
+ * Processes events on the sender side before they are serialized, e.g. to add
+ * data which is too expensive to determine on the request thread.
+ * <p>
+ * Processors may be called from multiple threads concurrently.
+ * 
+ * @author Robin Seggelmann
+ *
+ */
+@FunctionalInterface
+public interface EventProcessor {
+
+	/**
+	 * Processes an event.
+	 * 
+	 * @param event The {@link Event} to process.
+	 */
+	void process(Event event);
+
+}
@@ -0,0 +1,572 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Queue of log events waiting to be sent, bounded by the number of events and
+ * the estimated memory they use.
+ * <p>
+ * Events differ a lot in size, e.g. with long URIs or user agents, so limiting
+ * only the number of events makes the memory consumption unpredictable. Each
+ * event is therefore accounted with the size estimated when it has been
+ * captured, and new events are rejected when the byte budget is exhausted. An
+ * event larger than the whole budget is only accepted if the queue is empty,
+ * so it is not rejected forever.
+ * <p>
+ * Optionally, events of failed or slow requests are kept in a separate
+ * priority lane with its own capacity, so they are neither rejected nor delayed
+ * when the queue fills up with regular events. Events are taken from the
+ * priority lane first, but to avoid starving regular events completely, every
+ * ninth event is taken from the regular lane while both have events. The byte
+ * budget only applies to the regular lane.
+ * <p>
+ * Optionally, regular events are queued fairly per context, so a single noisy
+ * web application can neither fill the queue nor delay the events of other
+ * applications on the same JVM. Every context has its own sub-queue, which are
+ * drained with deficit round robin: in turn, every context may take events up
+ * to its credit, which grows by a quantum of bytes times its weight per round.
+ * So the estimated bytes sent are shared according to the weights while
+ * several contexts have events. Additionally, every context can have a number
+ * of events reserved. Events beyond the reservation are rejected if the
+ * remaining capacity is needed for the unused reservations of other contexts.
+ * Contexts with a configured weight hold their reservation from the start,
+ * others only while they have events in the queue, so the sub-queues of idle
+ * contexts are removed. At most three quarters of the capacity are reserved in
+ * total, so events beyond the reservations are never rejected entirely.
+ * <p>
+ * The capacity of the regular lane can be limited temporarily, e.g. under heap
+ * pressure. Events already in the queue are kept, but new ones are rejected
+ * until it is below the limit.
+ * <p>
+ * When closed, the queue rejects all new events, so the remaining ones can be
+ * drained on shutdown.
+ * 
+ * @author Robin Seggelmann
+ *
+ */
+public class EventQueue extends AbstractQueue<Event> implements BlockingQueue<Event> {
+	// Consecutive events taken from the priority lane before a regular one
+	private static final int PRIORITY_BURST = 8;
+	// Bytes a context with weight 1 may take per round
+	private static final int QUANTUM = 1024;
+	// Maximum share of the capacity reserved for contexts in percent
+	private static final int MAX_RESERVED_PERCENT = 75;
+	private final Lane defaultLane;
+	private final Map<String, Lane> lanes;
+	private final ArrayDeque<Lane> active;
+	private final Map<String, Integer> contextWeights;
+	private final int contextReserve;
+	private final ArrayDeque<Event> priorityEvents;
+	private final int capacity;
+	private final long maxBytes;
+	private final int priorityCapacity;
+	private final long slowRequestThreshold;
+	private final ReentrantLock lock;
+	private final Condition notEmpty;
+	private int capacityLimit;
+	private long bytesLimit;
+	private int size;
+	private int reservedUsed;
+	private long bytes;
+	private long accepted;
+	private boolean closed;
+	private int priorityTaken;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param capacity The maximum number of events.
+	 * @param maxBytes The maximum estimated size of all events in bytes, 0 for no
+	 *                 limit.
+	 */
+	public EventQueue(int capacity, long maxBytes) {
+		this(capacity, maxBytes, 0, 0);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param capacity             The maximum number of regular events.
+	 * @param maxBytes             The maximum estimated size of all regular events
+	 *                             in bytes, 0 for no limit.
+	 * @param priorityCapacity     The maximum number of events in the priority
+	 *                             lane, 0 to disable it.
+	 * @param slowRequestThreshold The processing time in milliseconds from which
+	 *                             requests have priority, 0 for only failed
+	 *                             requests.
+	 */
+	public EventQueue(int capacity, long maxBytes, int priorityCapacity, long slowRequestThreshold) {
+		this(capacity, maxBytes, priorityCapacity, slowRequestThreshold, null, 0);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param capacity             The maximum number of regular events.
+	 * @param maxBytes             The maximum estimated size of all regular events
+	 *                             in bytes, 0 for no limit.
+	 * @param priorityCapacity     The maximum number of events in the priority
+	 *                             lane, 0 to disable it.
+	 * @param slowRequestThreshold The processing time in milliseconds from which
+	 *                             requests have priority, 0 for only failed
+	 *                             requests.
+	 * @param contextWeights       The weights of context paths, which default to
+	 *                             1, or null to disable fair queuing per context.
+	 * @param contextReserve       The number of events reserved for every
+	 *                             context, 0 for no reservation.
+	 */
+	public EventQueue(int capacity, long maxBytes, int priorityCapacity, long slowRequestThreshold,
+			Map<String, Integer> contextWeights, int contextReserve) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be positive");
+		}
+		this.defaultLane = new Lane(null, 1, Math.min(capacity, 1024));
+		this.lanes = new HashMap<>();
+		this.active = new ArrayDeque<>();
+		this.contextWeights = (contextWeights != null) ? new HashMap<>(contextWeights) : null;
+		this.contextReserve = (contextWeights != null) ? contextReserve : 0;
+		if (contextWeights != null) {
+			// Known contexts hold their reservation from the start
+			for (Map.Entry<String, Integer> weight : contextWeights.entrySet()) {
+				lanes.put(weight.getKey(), new Lane(weight.getKey(), weight.getValue(), 16));
+			}
+		}
+		this.priorityEvents = new ArrayDeque<>(Math.min(priorityCapacity, 1024));
+		this.capacity = capacity;
+		this.maxBytes = maxBytes;
+		this.capacityLimit = capacity;
+		this.bytesLimit = maxBytes;
+		this.priorityCapacity = priorityCapacity;
+		this.slowRequestThreshold = slowRequestThreshold;
+		this.lock = new ReentrantLock();
+		this.notEmpty = lock.newCondition();
+	}
+
+	/**
+	 * Stops accepting new events. Events already in the queue can still be taken.
+	 */
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Limits the number and estimated size of regular events to a percentage of
+	 * the configured capacity.
+	 * 
+	 * @param percent The percentage of the capacity to use, 100 for no limit.
+	 */
+	public void setLimit(int percent) {
+		lock.lock();
+		try {
+			capacityLimit = Math.max((int) ((long) capacity * percent / 100), 1);
+			bytesLimit = maxBytes * percent / 100;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns whether the queue has been closed.
+	 * 
+	 * @return True if no new events are accepted.
+	 */
+	public boolean isClosed() {
+		lock.lock();
+		try {
+			return closed;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of events accepted since the queue has been created.
+	 * 
+	 * @return The number of accepted events.
+	 */
+	public long getAcceptedCount() {
+		lock.lock();
+		try {
+			return accepted;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the estimated size of all regular events in the queue.
+	 * 
+	 * @return The size in bytes.
+	 */
+	public long getBytes() {
+		lock.lock();
+		try {
+			return bytes;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of regular events of a context in the queue.
+	 * 
+	 * @param contextPath The path of the context, empty for the root context.
+	 * @return The number of events, or of all regular events if fair queuing is
+	 *         disabled.
+	 */
+	public int getContextSize(String contextPath) {
+		lock.lock();
+		try {
+			if (contextWeights == null) {
+				return size;
+			}
+			Lane lane = lanes.get(contextPath);
+			return (lane != null) ? lane.events.size() : 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean offer(Event event) {
+		if (event == null) {
+			throw new NullPointerException();
+		}
+
+		boolean priority = isPriority(event);
+		lock.lock();
+		try {
+			if (closed) {
+				return false;
+			}
+
+			if (priority) {
+				if (priorityEvents.size() >= priorityCapacity) {
+					return false;
+				}
+				priorityEvents.add(event);
+			} else {
+				if (size >= capacityLimit) {
+					return false;
+				}
+				Lane lane = getLane(event.getContextPath());
+				if (contextReserve > 0 && lane.events.size() >= contextReserve) {
+					// Leave the unused reservations of the other contexts
+					long reserved = Math.min((long) contextReserve * lanes.size(),
+							(long) capacityLimit * MAX_RESERVED_PERCENT / 100);
+					long unused = Math.max(reserved - reservedUsed, 0);
+					if (size + unused >= capacityLimit) {
+						return false;
+					}
+				}
+				if (maxBytes > 0 && size > 0 && bytes + event.getSize() > bytesLimit) {
+					return false;
+				}
+				if (lane.events.size() < contextReserve) {
+					reservedUsed++;
+				}
+				if (lane.events.isEmpty()) {
+					active.add(lane);
+				}
+				lane.events.add(event);
+				size++;
+				bytes += event.getSize();
+			}
+			accepted++;
+			notEmpty.signal();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns whether an event belongs to the priority lane, which are failed and
+	 * slow requests.
+	 * 
+	 * @param event The event.
+	 * @return True if the event has priority.
+	 */
+	private boolean isPriority(Event event) {
+		if (priorityCapacity <= 0) {
+			return false;
+		}
+		return event.getStatus() >= 500
+				|| (slowRequestThreshold > 0 && event.getProcessingTime() >= slowRequestThreshold);
+	}
+
+	private Lane getLane(String contextPath) {
+		if (contextWeights == null) {
+			return defaultLane;
+		}
+		Lane lane = lanes.get(contextPath);
+		if (lane == null) {
+			lane = new Lane(contextPath, contextWeights.getOrDefault(contextPath, 1), 16);
+			lanes.put(contextPath, lane);
+		}
+		return lane;
+	}
+
+	/**
+	 * Returns the number of events in the priority lane.
+	 * 
+	 * @return The number of events.
+	 */
+	public int getPrioritySize() {
+		lock.lock();
+		try {
+			return priorityEvents.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Inserts the event if possible. Never waits, since log events must not delay
+	 * request processing.
+	 */
+	@Override
+	public boolean offer(Event event, long timeout, TimeUnit unit) {
+		return offer(event);
+	}
+
+	/**
+	 * Inserts the event if possible. Never waits, since log events must not delay
+	 * request processing.
+	 * 
+	 * @throws IllegalStateException Thrown if the queue is full.
+	 */
+	@Override
+	public void put(Event event) {
+		add(event);
+	}
+
+	@Override
+	public Event poll() {
+		lock.lock();
+		try {
+			return dequeue();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Event poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (size == 0 && priorityEvents.isEmpty()) {
+				if (nanos <= 0) {
+					return null;
+				}
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+			return dequeue();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Event take() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (size == 0 && priorityEvents.isEmpty()) {
+				notEmpty.await();
+			}
+			return dequeue();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Event peek() {
+		lock.lock();
+		try {
+			if (!priorityEvents.isEmpty() && (priorityTaken < PRIORITY_BURST || size == 0)) {
+				return priorityEvents.peek();
+			}
+			if (size == 0) {
+				return null;
+			}
+			Iterator<Lane> it = active.iterator();
+			for (long i = nextStep() % active.size(); i > 0; i--) {
+				it.next();
+			}
+			return it.next().events.peek();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		lock.lock();
+		try {
+			return size + priorityEvents.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int remainingCapacity() {
+		lock.lock();
+		try {
+			return capacity - size + Math.max(priorityCapacity - priorityEvents.size(), 0);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int drainTo(Collection<? super Event> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public int drainTo(Collection<? super Event> c, int maxElements) {
+		if (c == this) {
+			throw new IllegalArgumentException();
+		}
+
+		lock.lock();
+		try {
+			int n = 0;
+			while (n < maxElements && !(size == 0 && priorityEvents.isEmpty())) {
+				c.add(dequeue());
+				n++;
+			}
+			return n;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns an iterator over a snapshot of the events in the queue.
+	 */
+	@Override
+	public Iterator<Event> iterator() {
+		lock.lock();
+		try {
+			ArrayList<Event> snapshot = new ArrayList<>(priorityEvents);
+			for (Lane lane : active) {
+				snapshot.addAll(lane.events);
+			}
+			return snapshot.iterator();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private Event dequeue() {
+		// Prefer the priority lane, but take a regular event after a burst
+		if (!priorityEvents.isEmpty() && (priorityTaken < PRIORITY_BURST || size == 0)) {
+			priorityTaken++;
+			return priorityEvents.poll();
+		}
+
+		priorityTaken = 0;
+		if (size == 0) {
+			return null;
+		}
+
+		// Grant the credit of all rounds until the next context can take its
+		// first event and continue with that context.
+		long step = nextStep();
+		if (step > 0) {
+			int n = active.size();
+			int position = 0;
+			for (Lane lane : active) {
+				long rounds = (step > position) ? (step - position + n - 1) / n : 0;
+				lane.deficit += rounds * lane.weight * QUANTUM;
+				position++;
+			}
+			for (long i = step % n; i > 0; i--) {
+				active.add(active.poll());
+			}
+		}
+
+		Lane lane = active.peek();
+		Event event = lane.events.poll();
+		lane.deficit = Math.max(lane.deficit - event.getSize(), 0);
+		if (lane.events.isEmpty()) {
+			// Credit is not kept while idle
+			lane.deficit = 0;
+			active.poll();
+			if (contextWeights != null && !contextWeights.containsKey(lane.contextPath)) {
+				// Also releases its reservation
+				lanes.remove(lane.contextPath);
+			}
+		}
+		if (lane.events.size() < contextReserve) {
+			reservedUsed--;
+		}
+		size--;
+		bytes -= event.getSize();
+		return event;
+	}
+
+	/**
+	 * Determines the context to take the next event from with deficit round
+	 * robin, without changing the state. The contexts are visited in turn, a
+	 * context with enough credit for its first event takes it, otherwise its
+	 * credit grows by one quantum and the next context is visited.
+	 * 
+	 * @return The number of visits before an event is taken, the context is at
+	 *         this position modulo the number of active contexts.
+	 */
+	private long nextStep() {
+		int n = active.size();
+		if (n <= 1) {
+			return 0;
+		}
+
+		long next = Long.MAX_VALUE;
+		int position = 0;
+		for (Lane lane : active) {
+			long quantum = (long) lane.weight * QUANTUM;
+			long missing = lane.events.peek().getSize() - lane.deficit;
+			long rounds = (missing > 0) ? (missing + quantum - 1) / quantum : 0;
+			next = Math.min(next, rounds * n + position);
+			position++;
+		}
+		return next;
+	}
+
+	/**
+	 * The regular events of a context.
+	 */
+	private static class Lane {
+		private final String contextPath;
+		private final int weight;
+		private final ArrayDeque<Event> events;
+		// Bytes the context may still take in this round
+		private long deficit;
+
+		private Lane(String contextPath, int weight, int initialCapacity) {
+			this.contextPath = contextPath;
+			this.weight = Math.max(weight, 1);
+			this.events = new ArrayDeque<>(initialCapacity);
+		}
+	}
+
+}
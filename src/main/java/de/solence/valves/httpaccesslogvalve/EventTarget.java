@@ -0,0 +1,22 @@
+package de.solence.valves.httpaccesslogvalve;
+
+/**
+ * Extension of {@link Target} for logging systems which accept individually
+ * encoded events, so messages can be built by concatenating them.
+ * 
+ * @author Robin Seggelmann
+ *
+ */
+public interface EventTarget extends Target {
+
+	/**
+	 * Creates a message from an event with the format expected by the logging
+	 * system.
+	 * 
+	 * @param config The {@link Configuration} to use.
+	 * @param event  The {@link Event} to send.
+	 * @return A string with a compatible message for the endpoint.
+	 */
+	public String getMessage(Configuration config, Event event);
+
+}
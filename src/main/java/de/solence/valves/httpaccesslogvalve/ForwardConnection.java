@@ -0,0 +1,174 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+import org.apache.catalina.AccessLog;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Handles the connection to a Fluentd or Fluent Bit forward input over TCP,
+ * bypassing HTTP entirely.
+ * <p>
+ * Messages are expected as complete Forward protocol messages, which are
+ * written to a persistent connection as they are. If acknowledgements are
+ * enabled, the last value of every message must be a chunk ID created with
+ * {@link #createChunkId()}. After writing a message, the response is read and
+ * the message only counts as delivered if the same chunk ID is acknowledged
+ * within the timeout. Otherwise the connection is closed and the message is
+ * sent again by the sender, which results in at-least-once delivery.
+ *
+ * @author Robin Seggelmann
+ *
+ */
+public class ForwardConnection implements Connection {
+	private static final Log log = LogFactory.getLog(AccessLog.class);
+	/**
+	 * The length of a chunk ID, 16 random bytes encoded as Base64.
+	 */
+	public static final int CHUNK_LENGTH = 24;
+	private static final SecureRandom random = new SecureRandom();
+	private final Configuration config;
+	private final InetSocketAddress address;
+	private final boolean ack;
+	private Socket socket;
+	private OutputStream os;
+	private DataInputStream is;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param config The {@link Configuration} with a <code>tcp://</code>
+	 *               endpoint URL.
+	 */
+	public ForwardConnection(Configuration config) {
+		this.config = config;
+		URI uri = config.getEndpointUri();
+		this.address = new InetSocketAddress(uri.getHost(), (uri.getPort() != -1) ? uri.getPort() : 24224);
+		this.ack = config.isForwardAck();
+	}
+
+	/**
+	 * Creates a random chunk ID to request an acknowledgement for a message.
+	 *
+	 * @return A chunk ID of {@link #CHUNK_LENGTH} characters.
+	 */
+	public static String createChunkId() {
+		byte[] id = new byte[16];
+		random.nextBytes(id);
+		return Base64.getEncoder().encodeToString(id);
+	}
+
+	@Override
+	public synchronized boolean sendMessage(byte[] message) {
+		try {
+			if (socket == null) {
+				open();
+			}
+
+			os.write(message);
+			os.flush();
+			if (ack) {
+				// The chunk ID is the last value of the message
+				String chunk = new String(message, message.length - CHUNK_LENGTH, CHUNK_LENGTH,
+						StandardCharsets.US_ASCII);
+				String acknowledged = readAck();
+				if (!chunk.equals(acknowledged)) {
+					throw new IOException("Expected acknowledgement for chunk " + chunk + ", got " + acknowledged);
+				}
+			}
+			return true;
+
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+			// Reconnect with the next message, a late acknowledgement must not
+			// be mistaken for the next one.
+			close();
+			return false;
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				log.warn(e.getMessage(), e);
+			}
+			socket = null;
+			os = null;
+			is = null;
+		}
+	}
+
+	private void open() throws IOException {
+		Socket newSocket = new Socket();
+		try {
+			newSocket.connect(address, config.getTimeout());
+			newSocket.setTcpNoDelay(true);
+			newSocket.setKeepAlive(true);
+			// Limits the time to wait for acknowledgements
+			newSocket.setSoTimeout(config.getTimeout());
+			os = newSocket.getOutputStream();
+			is = new DataInputStream(newSocket.getInputStream());
+		} catch (IOException e) {
+			newSocket.close();
+			throw e;
+		}
+		socket = newSocket;
+	}
+
+	/**
+	 * Reads a response in the form <code>{"ack": chunk}</code>.
+	 *
+	 * @return The acknowledged chunk ID or null if missing.
+	 */
+	private String readAck() throws IOException {
+		int type = is.readUnsignedByte();
+		int entries;
+		if ((type & 0xf0) == 0x80) {
+			entries = type & 0x0f;
+		} else if (type == 0xde) {
+			entries = is.readUnsignedShort();
+		} else {
+			throw new IOException("Unexpected acknowledgement type " + type);
+		}
+
+		String chunk = null;
+		for (int i = 0; i < entries; i++) {
+			String key = readString();
+			String value = readString();
+			if ("ack".equals(key)) {
+				chunk = value;
+			}
+		}
+		return chunk;
+	}
+
+	private String readString() throws IOException {
+		int type = is.readUnsignedByte();
+		int length;
+		if ((type & 0xe0) == 0xa0) {
+			length = type & 0x1f;
+		} else if (type == 0xd9 || type == 0xc4) {
+			length = is.readUnsignedByte();
+		} else if (type == 0xda || type == 0xc5) {
+			length = is.readUnsignedShort();
+		} else {
+			throw new IOException("Unexpected acknowledgement value type " + type);
+		}
+		byte[] value = new byte[length];
+		is.readFully(value);
+		return new String(value, StandardCharsets.UTF_8);
+	}
+
+}
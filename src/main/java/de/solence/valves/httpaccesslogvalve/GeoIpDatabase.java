@@ -0,0 +1,207 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Looks up the country and autonomous system of IPv4 addresses from a local
+ * CSV file with address ranges.
+ * <p>
+ * Every line contains the first and last address of a range, either as dotted
+ * quad or as number, the ISO 3166 country code and optionally the number of the
+ * autonomous system, e.g. <code>1.0.0.0,1.0.0.255,AU,13335</code>. Values may
+ * be quoted and lines which cannot be parsed, like headers, are skipped.
+ * <p>
+ * The ranges are kept sorted in primitive arrays, so a lookup is a binary
+ * search without creating objects.
+ * 
+ * @author Robin Seggelmann
+ *
+ */
+public class GeoIpDatabase {
+	private final long[] starts;
+	private final long[] ends;
+	private final String[] countries;
+	private final long[] asns;
+
+	private GeoIpDatabase(List<Range> ranges) {
+		ranges.sort((a, b) -> Long.compare(a.start, b.start));
+		int size = ranges.size();
+		this.starts = new long[size];
+		this.ends = new long[size];
+		this.countries = new String[size];
+		this.asns = new long[size];
+		for (int i = 0; i < size; i++) {
+			Range range = ranges.get(i);
+			starts[i] = range.start;
+			ends[i] = range.end;
+			countries[i] = range.country;
+			asns[i] = range.asn;
+		}
+	}
+
+	/**
+	 * Loads the address ranges from a CSV file.
+	 * 
+	 * @param file The file to load.
+	 * @return The database.
+	 * @throws IOException Thrown if the file cannot be read.
+	 */
+	public static GeoIpDatabase load(Path file) throws IOException {
+		List<Range> ranges = new ArrayList<>();
+		// Many ranges share the same country, so only keep one instance
+		Map<String, String> countries = new HashMap<>();
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] values = line.split(",");
+				if (values.length < 3) {
+					continue;
+				}
+
+				long start = parseAddress(unquote(values[0]));
+				long end = parseAddress(unquote(values[1]));
+				if (start < 0 || end < start) {
+					continue;
+				}
+
+				String country = unquote(values[2]);
+				country = country.isEmpty() || "-".equals(country) ? null
+						: countries.computeIfAbsent(country, c -> c);
+				long asn = 0;
+				if (values.length > 3) {
+					try {
+						asn = Long.parseLong(unquote(values[3]));
+					} catch (NumberFormatException e) {
+						// No autonomous system known
+					}
+				}
+				ranges.add(new Range(start, end, country, asn));
+			}
+		}
+		return new GeoIpDatabase(ranges);
+	}
+
+	/**
+	 * Finds the range containing an address.
+	 * 
+	 * @param address The IPv4 address as dotted quad.
+	 * @return The index of the range or -1 if not found.
+	 */
+	public int find(String address) {
+		long ip = parseAddress(address);
+		if (ip < 0) {
+			return -1;
+		}
+
+		int i = Arrays.binarySearch(starts, ip);
+		if (i < 0) {
+			// Range starting before the address
+			i = -i - 2;
+		}
+		return (i >= 0 && ip <= ends[i]) ? i : -1;
+	}
+
+	/**
+	 * Returns the country of a range.
+	 * 
+	 * @param index The index of the range.
+	 * @return The ISO 3166 country code or null.
+	 */
+	public String getCountry(int index) {
+		return countries[index];
+	}
+
+	/**
+	 * Returns the autonomous system of a range.
+	 * 
+	 * @param index The index of the range.
+	 * @return The AS number or 0.
+	 */
+	public long getAsn(int index) {
+		return asns[index];
+	}
+
+	/**
+	 * Returns the number of ranges.
+	 * 
+	 * @return The number of ranges.
+	 */
+	public int size() {
+		return starts.length;
+	}
+
+	/**
+	 * Parses an IPv4 address as dotted quad or number.
+	 * 
+	 * @param address The address.
+	 * @return The address as number or -1 if it is no valid IPv4 address.
+	 */
+	static long parseAddress(String address) {
+		if (address == null || address.isEmpty()) {
+			return -1;
+		}
+
+		long ip = 0;
+		long part = 0;
+		int digits = 0;
+		int parts = 0;
+		for (int i = 0; i < address.length(); i++) {
+			char c = address.charAt(i);
+			if (c >= '0' && c <= '9') {
+				part = part * 10 + (c - '0');
+				if (++digits > 10) {
+					return -1;
+				}
+			} else if (c == '.' && digits > 0 && part <= 255) {
+				ip = (ip << 8) | part;
+				part = 0;
+				digits = 0;
+				parts++;
+			} else {
+				return -1;
+			}
+		}
+
+		if (digits == 0) {
+			return -1;
+		} else if (parts == 0) {
+			// Address as number
+			return (part <= 0xFFFFFFFFL) ? part : -1;
+		} else if (parts == 3 && part <= 255) {
+			return (ip << 8) | part;
+		}
+		return -1;
+	}
+
+	private static String unquote(String value) {
+		value = value.trim();
+		if (value.length() >= 2 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"') {
+			return value.substring(1, value.length() - 1);
+		}
+		return value;
+	}
+
+	private static class Range {
+		private final long start;
+		private final long end;
+		private final String country;
+		private final long asn;
+
+		private Range(long start, long end, String country, long asn) {
+			this.start = start;
+			this.end = end;
+			this.country = country;
+			this.asn = asn;
+		}
+	}
+
+}
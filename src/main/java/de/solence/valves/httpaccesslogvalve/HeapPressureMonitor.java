@@ -0,0 +1,273 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+import org.apache.catalina.AccessLog;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Degrades logging progressively when the heap of the JVM runs full, so the
+ * valve does not contribute to an OutOfMemoryError of the Tomcat it observes.
+ * <p>
+ * Heap usage is the highest usage of the heap memory pools after their last
+ * garbage collection, usually the old generation, so garbage not collected yet
+ * does not count. At the configured threshold, the queue is limited to a
+ * quarter of its capacity. Halfway between the threshold and a full heap, only
+ * one in ten events is captured, except for failed requests, and session IDs
+ * and user agents are omitted. A collection usage threshold on the memory pools
+ * notifies about rising usage right after a collection, and usage is also
+ * checked every second to recover automatically. A level is only left when
+ * usage is clearly below its threshold, so it doesn't flap around it. Every
+ * transition is counted and logged once.
+ * <p>
+ * The thresholds of the memory pools are shared by the whole JVM, so the
+ * previous ones are restored when monitoring stops.
+ *
+ * @author Robin Seggelmann
+ *
+ */
+public class HeapPressureMonitor implements NotificationListener {
+	private static final Log log = LogFactory.getLog(AccessLog.class);
+	// Share of the queue capacity used under pressure in percent
+	private static final int LIMIT_PERCENT = 25;
+	// One in this many events is captured when sampling
+	private static final int SAMPLE_RATE = 10;
+	// Usage must fall this far below a threshold to leave its level
+	private static final double HYSTERESIS = 0.05;
+	private static final long POLL_INTERVAL = 1000L;
+	private final EventQueue queue;
+	private final double limitThreshold;
+	private final double sampleThreshold;
+	private final DoubleSupplier usage;
+	private final ScheduledExecutorService poller;
+	private final AtomicLong transitions;
+	private final LongAdder sampled;
+	// The previous collection usage thresholds of the pools changed
+	private final Map<MemoryPoolMXBean, Long> previousThresholds;
+	private volatile Level level;
+
+	/**
+	 * The degradation levels, ordered by severity.
+	 */
+	public enum Level {
+		/**
+		 * All events are captured completely.
+		 */
+		NORMAL,
+		/**
+		 * The queue is limited.
+		 */
+		LIMIT,
+		/**
+		 * The queue is limited and events are sampled without optional fields.
+		 */
+		SAMPLE
+	}
+
+	/**
+	 * Constructor. Starts monitoring the heap memory pools.
+	 *
+	 * @param config The {@link Configuration} to use.
+	 * @param queue  The {@link EventQueue} to limit under pressure.
+	 */
+	public HeapPressureMonitor(Configuration config, EventQueue queue) {
+		this(config, queue, HeapPressureMonitor::getHeapUsage, Executors.newSingleThreadScheduledExecutor());
+
+		for (MemoryPoolMXBean pool : getHeapPools()) {
+			long max = pool.getUsage().getMax();
+			if (max > 0) {
+				previousThresholds.put(pool, pool.getCollectionUsageThreshold());
+				pool.setCollectionUsageThreshold((long) (max * limitThreshold));
+			}
+		}
+		((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(this, null, null);
+		poller.scheduleWithFixedDelay(this::update, POLL_INTERVAL, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Constructor to inject the heap usage for unit tests. Usage is only checked
+	 * with {@link #update()}.
+	 *
+	 * @param config The {@link Configuration} to use.
+	 * @param queue  The {@link EventQueue} to limit under pressure.
+	 * @param usage  The heap usage as a fraction between 0 and 1.
+	 */
+	HeapPressureMonitor(Configuration config, EventQueue queue, DoubleSupplier usage) {
+		this(config, queue, usage, null);
+	}
+
+	private HeapPressureMonitor(Configuration config, EventQueue queue, DoubleSupplier usage,
+			ScheduledExecutorService poller) {
+		this.queue = queue;
+		this.limitThreshold = config.getHeapThreshold() / 100.0;
+		this.sampleThreshold = (limitThreshold + 1.0) / 2;
+		this.usage = usage;
+		this.poller = poller;
+		this.transitions = new AtomicLong();
+		this.sampled = new LongAdder();
+		this.previousThresholds = new HashMap<>();
+		this.level = Level.NORMAL;
+	}
+
+	/**
+	 * Checks the heap usage when a memory pool exceeds its collection usage
+	 * threshold.
+	 */
+	@Override
+	public void handleNotification(Notification notification, Object handback) {
+		if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+			update();
+		}
+	}
+
+	/**
+	 * Decides whether the event of a request is captured. While sampling, only
+	 * failed requests and one in ten others are captured.
+	 *
+	 * @param status The HTTP status of the response.
+	 * @return True if the event should be captured.
+	 */
+	public boolean sample(int status) {
+		if (level != Level.SAMPLE || status >= 500 || ThreadLocalRandom.current().nextInt(SAMPLE_RATE) == 0) {
+			return true;
+		}
+		sampled.increment();
+		return false;
+	}
+
+	/**
+	 * Returns whether optional fields of events should be captured.
+	 *
+	 * @return False while sampling.
+	 */
+	public boolean isOptionalFieldsEnabled() {
+		return level != Level.SAMPLE;
+	}
+
+	/**
+	 * Returns the current degradation level.
+	 *
+	 * @return The {@link Level}.
+	 */
+	public Level getLevel() {
+		return level;
+	}
+
+	/**
+	 * Returns the number of level changes since monitoring has started.
+	 *
+	 * @return The number of transitions.
+	 */
+	public long getTransitionCount() {
+		return transitions.get();
+	}
+
+	/**
+	 * Returns the number of events not captured due to sampling.
+	 *
+	 * @return The number of events.
+	 */
+	public long getSampledCount() {
+		return sampled.sum();
+	}
+
+	/**
+	 * Stops monitoring, restores the previous thresholds of the memory pools and
+	 * removes the limit of the queue.
+	 */
+	public void close() {
+		if (poller != null) {
+			poller.shutdownNow();
+			try {
+				((NotificationEmitter) ManagementFactory.getMemoryMXBean()).removeNotificationListener(this);
+			} catch (ListenerNotFoundException e) {
+				log.warn(e.getMessage(), e);
+			}
+		}
+		for (Map.Entry<MemoryPoolMXBean, Long> entry : previousThresholds.entrySet()) {
+			entry.getKey().setCollectionUsageThreshold(entry.getValue());
+		}
+		previousThresholds.clear();
+		queue.setLimit(100);
+	}
+
+	/**
+	 * Checks the heap usage and changes the level if necessary.
+	 */
+	synchronized void update() {
+		double current = usage.getAsDouble();
+		Level next = getLevel(current);
+		if (next.compareTo(level) < 0) {
+			// Only recover when clearly below the threshold
+			next = getLevel(current + HYSTERESIS);
+		}
+		if (next == level) {
+			return;
+		}
+
+		Level previous = level;
+		level = next;
+		transitions.incrementAndGet();
+		queue.setLimit((next == Level.NORMAL) ? 100 : LIMIT_PERCENT);
+
+		String message = String.format("Heap usage %.0f%%, logging changed from %s to %s", current * 100,
+				previous, next);
+		if (next.compareTo(previous) > 0) {
+			log.warn(message);
+		} else {
+			log.info(message + ", " + sampled.sum() + " events not captured so far");
+		}
+	}
+
+	private Level getLevel(double current) {
+		if (current >= sampleThreshold) {
+			return Level.SAMPLE;
+		} else if (current >= limitThreshold) {
+			return Level.LIMIT;
+		}
+		return Level.NORMAL;
+	}
+
+	private static List<MemoryPoolMXBean> getHeapPools() {
+		List<MemoryPoolMXBean> pools = new ArrayList<>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()) {
+				pools.add(pool);
+			}
+		}
+		return pools;
+	}
+
+	private static double getHeapUsage() {
+		double highest = 0;
+		for (MemoryPoolMXBean pool : getHeapPools()) {
+			MemoryUsage poolUsage = pool.getCollectionUsage();
+			if (poolUsage != null && poolUsage.getMax() > 0) {
+				highest = Math.max(highest, (double) poolUsage.getUsed() / poolUsage.getMax());
+			}
+		}
+		return highest;
+	}
+
+}
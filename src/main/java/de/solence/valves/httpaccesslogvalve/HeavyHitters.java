@@ -0,0 +1,175 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import de.solence.valves.httpaccesslogvalve.SpaceSaving.Counter;
+
+/**
+ * Tracks the most frequent clients, routes and user agents, so hot keys are
+ * visible during incidents without querying every event.
+ * <p>
+ * Events are counted on the sender side with a {@link SpaceSaving} sketch per
+ * field, so memory is fixed regardless of the number of distinct values and the
+ * request threads are not involved. Every sketch counts ten times more keys
+ * than reported to keep the estimates of the reported ones accurate. At the end
+ * of every interval a summary of the top keys is taken and the sketches start
+ * over. The current interval can be inspected with JMX.
+ * 
+ * @author Robin Seggelmann
+ *
+ */
+public class HeavyHitters implements EventProcessor, HeavyHittersMBean {
+	private static final int CAPACITY_FACTOR = 10;
+	private final int limit;
+	private final long interval;
+	private final SpaceSaving clients;
+	private final SpaceSaving routes;
+	private final SpaceSaving userAgents;
+	private long start;
+	private long events;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param config The {@link Configuration} to use.
+	 */
+	public HeavyHitters(Configuration config) {
+		this.limit = config.getHeavyHitters();
+		this.interval = TimeUnit.SECONDS.toMillis(config.getHeavyHittersInterval());
+		this.clients = new SpaceSaving(limit * CAPACITY_FACTOR);
+		this.routes = new SpaceSaving(limit * CAPACITY_FACTOR);
+		this.userAgents = new SpaceSaving(limit * CAPACITY_FACTOR);
+		this.start = System.currentTimeMillis();
+	}
+
+	/**
+	 * Counts the client, the route or URI if there is none, and the user agent
+	 * of the event.
+	 */
+	@Override
+	public synchronized void process(Event event) {
+		events++;
+		clients.add(event.getRemoteHost());
+		routes.add((event.getRoute() != null) ? event.getRoute() : event.getRequestUri());
+		userAgents.add(event.getUserAgent());
+	}
+
+	/**
+	 * Returns the summary of the current interval and starts a new one, if the
+	 * interval is over.
+	 * 
+	 * @return The {@link Summary} or null if the interval is not over yet.
+	 */
+	public Summary takeSummary() {
+		return takeSummary(System.currentTimeMillis());
+	}
+
+	synchronized Summary takeSummary(long now) {
+		if (now - start < interval) {
+			return null;
+		}
+
+		Summary summary = new Summary(start, now, events, clients.getTop(limit), routes.getTop(limit),
+				userAgents.getTop(limit));
+		clients.reset();
+		routes.reset();
+		userAgents.reset();
+		start = now;
+		events = 0;
+		return summary;
+	}
+
+	@Override
+	public synchronized String[] getTopClients() {
+		return format(clients.getTop(limit));
+	}
+
+	@Override
+	public synchronized String[] getTopRoutes() {
+		return format(routes.getTop(limit));
+	}
+
+	@Override
+	public synchronized String[] getTopUserAgents() {
+		return format(userAgents.getTop(limit));
+	}
+
+	@Override
+	public synchronized long getEventCount() {
+		return events;
+	}
+
+	private static String[] format(List<Counter> counters) {
+		String[] formatted = new String[counters.size()];
+		for (int i = 0; i < formatted.length; i++) {
+			formatted[i] = counters.get(i).toString();
+		}
+		return formatted;
+	}
+
+	/**
+	 * The top keys of an interval.
+	 */
+	public static class Summary {
+		private final long start;
+		private final long end;
+		private final long events;
+		private final List<Counter> clients;
+		private final List<Counter> routes;
+		private final List<Counter> userAgents;
+
+		private Summary(long start, long end, long events, List<Counter> clients, List<Counter> routes,
+				List<Counter> userAgents) {
+			this.start = start;
+			this.end = end;
+			this.events = events;
+			this.clients = clients;
+			this.routes = routes;
+			this.userAgents = userAgents;
+		}
+
+		/**
+		 * @return The start of the interval in milliseconds since the epoch.
+		 */
+		public long getStart() {
+			return start;
+		}
+
+		/**
+		 * @return The end of the interval in milliseconds since the epoch.
+		 */
+		public long getEnd() {
+			return end;
+		}
+
+		/**
+		 * @return The number of events in the interval.
+		 */
+		public long getEvents() {
+			return events;
+		}
+
+		/**
+		 * @return The most frequent clients, ordered by descending count.
+		 */
+		public List<Counter> getClients() {
+			return clients;
+		}
+
+		/**
+		 * @return The most frequent routes or URIs, ordered by descending count.
+		 */
+		public List<Counter> getRoutes() {
+			return routes;
+		}
+
+		/**
+		 * @return The most frequent user agents, ordered by descending count.
+		 */
+		public List<Counter> getUserAgents() {
+			return userAgents;
+		}
+	}
+
+}
@@ -0,0 +1,42 @@
+package de.solence.valves.httpaccesslogvalve;
+
+/**
+ * Management interface of {@link HeavyHitters} to look up the currently most
+ * frequent clients, routes and user agents with JMX.
+ * 
+ * @author Robin Seggelmann
+ *
+ */
+public interface HeavyHittersMBean {
+
+	/**
+	 * Returns the most frequent clients of the current interval.
+	 * 
+	 * @return The clients with their estimated counts as <code>key=count</code>.
+	 */
+	public String[] getTopClients();
+
+	/**
+	 * Returns the most frequent routes, or URIs without route, of the current
+	 * interval.
+	 * 
+	 * @return The routes with their estimated counts as <code>key=count</code>.
+	 */
+	public String[] getTopRoutes();
+
+	/**
+	 * Returns the most frequent user agents of the current interval.
+	 * 
+	 * @return The user agents with their estimated counts as
+	 *         <code>key=count</code>.
+	 */
+	public String[] getTopUserAgents();
+
+	/**
+	 * Returns the number of events counted in the current interval.
+	 * 
+	 * @return The number of events.
+	 */
+	public long getEventCount();
+
+}
@@ -5,7 +5,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.Map;
 
 import org.apache.catalina.AccessLog;
 import org.apache.juli.logging.Log;
@@ -17,42 +19,54 @@ import org.apache.juli.logging.LogFactory;
  * @author Robin Seggelmann
  *
  */
-public class HttpConnection {
+public class HttpConnection implements Connection {
 	private static final Log log = LogFactory.getLog(AccessLog.class);
-	private Configuration config;
-	private Target target;
+	private static final int CHUNK_SIZE = 8192;
+	protected final Configuration config;
+	protected final Target target;
 
 	public HttpConnection(Configuration config) {
 		this.config = config;
 		this.target = config.getTarget();
 	}
 
+	@Override
 	public boolean sendMessage(String message) {
-		try {
-			HttpURLConnection conn = (HttpURLConnection) config.getEndpointUrl().openConnection();
+		return sendMessage(message.getBytes(StandardCharsets.UTF_8));
+	}
 
-			// Connection properties
-			conn.setConnectTimeout(config.getTimeout());
-			conn.setReadTimeout(config.getTimeout());
-			conn.setDoOutput(true);
+	@Override
+	public boolean sendMessage(byte[] message) {
+		return send(os -> os.write(message), message.length, config.getAuthToken());
+	}
 
-			// Headers
-			conn.setRequestProperty("Content-Type", target.getContentType());
-			conn.setRequestProperty("Authorization", target.getAuthenticationHeader(config.getAuthToken()));
-			conn.setRequestMethod("POST");
+	/**
+	 * Sends a message with the token of the destination, if it has one.
+	 */
+	@Override
+	public boolean sendMessage(byte[] message, Destination destination) {
+		return send(os -> os.write(message), message.length, getAuthToken(destination));
+	}
 
-			// Send message
-			try (OutputStream os = conn.getOutputStream()) {
-				os.write(message.getBytes(StandardCharsets.UTF_8));
-			}
+	/**
+	 * Sends a message with chunked transfer encoding, so it is written to the
+	 * connection while being created instead of being buffered.
+	 */
+	@Override
+	public boolean sendMessage(MessageWriter writer) {
+		return send(writer, -1, config.getAuthToken());
+	}
 
-			// Get response
-			String response = null;
-			try (InputStream is = conn.getInputStream()) {
-				response = readInputStream(is);
+	private boolean send(MessageWriter writer, int length, String token) {
+		try {
+			Reply reply = post(config.getEndpointUrl(), writer, length, token);
+			if (target.isResponseOk(reply.getStatus(), reply.getContent())) {
+				return true;
 			}
-
-			return target.isResponseOk(conn.getResponseCode(), response);
+			if (target.isResponseRejected(reply.getStatus(), reply.getContent())) {
+				throw new RejectedMessageException(reply.getStatus(), reply.getContent());
+			}
+			return false;
 
 		} catch (IOException e) {
 			log.error(e.getMessage(), e);
@@ -60,6 +74,88 @@ public class HttpConnection {
 		}
 	}
 
+	/**
+	 * Posts a message to an URL of the endpoint, with the headers of the target.
+	 * 
+	 * @param url    The URL to post to.
+	 * @param writer The {@link MessageWriter} writing the message.
+	 * @param length The length of the message, or -1 if unknown to use chunked
+	 *               transfer encoding.
+	 * @return The {@link Reply} of the endpoint.
+	 * @throws IOException Thrown if the connection fails.
+	 */
+	public Reply post(URL url, MessageWriter writer, int length) throws IOException {
+		return post(url, writer, length, config.getAuthToken());
+	}
+
+	/**
+	 * Posts a message to an URL of the endpoint, with the headers of the target
+	 * and a specific token.
+	 * 
+	 * @param url    The URL to post to.
+	 * @param writer The {@link MessageWriter} writing the message.
+	 * @param length The length of the message, or -1 if unknown to use chunked
+	 *               transfer encoding.
+	 * @param token  The token for authentication.
+	 * @return The {@link Reply} of the endpoint.
+	 * @throws IOException Thrown if the connection fails.
+	 */
+	public Reply post(URL url, MessageWriter writer, int length, String token) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+
+		// Connection properties
+		conn.setConnectTimeout(config.getTimeout());
+		conn.setReadTimeout(config.getTimeout());
+		conn.setDoOutput(true);
+
+		// Stream the body instead of buffering it in the connection
+		if (length >= 0) {
+			conn.setFixedLengthStreamingMode(length);
+		} else {
+			conn.setChunkedStreamingMode(CHUNK_SIZE);
+		}
+
+		// Headers
+		conn.setRequestProperty("Content-Type", target.getContentType());
+		String authentication = target.getAuthenticationHeader(token);
+		if (authentication != null) {
+			conn.setRequestProperty("Authorization", authentication);
+		}
+		for (Map.Entry<String, String> header : target.getHeaders(config).entrySet()) {
+			conn.setRequestProperty(header.getKey(), header.getValue());
+		}
+		conn.setRequestMethod("POST");
+
+		// Send message
+		try (OutputStream os = conn.getOutputStream()) {
+			writer.write(os);
+		}
+
+		// Get response, for errors the content is provided by the error stream
+		int status = conn.getResponseCode();
+		String response = null;
+		try (InputStream is = (status < 400) ? conn.getInputStream() : conn.getErrorStream()) {
+			if (is != null) {
+				response = readInputStream(is);
+			}
+		}
+
+		return new Reply(status, response);
+	}
+
+	/**
+	 * Returns the token to use for a destination.
+	 * 
+	 * @param destination The {@link Destination}, may be null.
+	 * @return The token of the destination, or the configured one.
+	 */
+	protected String getAuthToken(Destination destination) {
+		if (destination != null && destination.getAuthToken() != null) {
+			return destination.getAuthToken();
+		}
+		return config.getAuthToken();
+	}
+
 	private String readInputStream(InputStream is) throws IOException {
 		ByteArrayOutputStream result = new ByteArrayOutputStream();
 		byte[] buffer = new byte[1024];
@@ -70,4 +166,25 @@ public class HttpConnection {
 		return result.toString(StandardCharsets.UTF_8.name());
 	}
 
+	/**
+	 * The reply of the endpoint to a message.
+	 */
+	public static class Reply {
+		private final int status;
+		private final String content;
+
+		public Reply(int status, String content) {
+			this.status = status;
+			this.content = content;
+		}
+
+		public int getStatus() {
+			return status;
+		}
+
+		public String getContent() {
+			return content;
+		}
+	}
+
 }
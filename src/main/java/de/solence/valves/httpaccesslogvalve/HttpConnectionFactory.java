@@ -0,0 +1,29 @@
+package de.solence.valves.httpaccesslogvalve;
+
+/**
+ * Creates the {@link HttpConnection} suitable for the Java runtime.
+ * <p>
+ * This is the Java 8 version, which always uses {@link HttpConnection} based on
+ * {@link java.net.HttpURLConnection}. The multi-release JAR contains a
+ * replacement of this class for Java 11 and later, which uses HTTP/2 with
+ * <code>java.net.http.HttpClient</code> instead.
+ * 
+ * @author Robin Seggelmann
+ *
+ */
+public final class HttpConnectionFactory {
+
+	private HttpConnectionFactory() {
+	}
+
+	/**
+	 * Creates a new connection.
+	 * 
+	 * @param config The {@link Configuration} to use.
+	 * @return The connection.
+	 */
+	public static HttpConnection create(Configuration config) {
+		return new HttpConnection(config);
+	}
+
+}
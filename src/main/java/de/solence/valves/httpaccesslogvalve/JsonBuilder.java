@@ -52,6 +52,36 @@ public class JsonBuilder {
 		return this;
 	}
 
+	/**
+	 * Adds a JSON key/value pair.
+	 * 
+	 * @param key   The key.
+	 * @param value The value as {@link Boolean}.
+	 * @return This object for builder pattern.
+	 */
+	public JsonBuilder append(String key, boolean value) {
+		addSeparator();
+		sb.append('"').append(key).append('"');
+		sb.append(':');
+		sb.append(value);
+		needSeparator = true;
+		return this;
+	}
+
+	/**
+	 * Adds already encoded JSON key/value pairs, e.g. to reuse values which are
+	 * the same for many messages.
+	 * 
+	 * @param pairs The encoded key/value pairs, separated by commas.
+	 * @return This object for builder pattern.
+	 */
+	public JsonBuilder appendEncoded(String pairs) {
+		addSeparator();
+		sb.append(pairs);
+		needSeparator = true;
+		return this;
+	}
+
 	/**
 	 * Starts a JSON object. If key is provided, a named object will be created. If
 	 * key is null the object will be unnamed. All the following entries will be
@@ -0,0 +1,63 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thread-safe cache with a maximum number of entries, which removes the least
+ * recently used entry when full.
+ * 
+ * @author Robin Seggelmann
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the values.
+ */
+public class LruCache<K, V> {
+	private final Map<K, V> map;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param capacity The maximum number of entries, 0 to disable caching.
+	 */
+	public LruCache(int capacity) {
+		this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cached value and marks it as recently used.
+	 * 
+	 * @param key The key.
+	 * @return The value or null if not cached.
+	 */
+	public synchronized V get(K key) {
+		return map.get(key);
+	}
+
+	/**
+	 * Adds a value to the cache, possibly removing the least recently used entry.
+	 * 
+	 * @param key   The key.
+	 * @param value The value.
+	 */
+	public synchronized void put(K key, V value) {
+		map.put(key, value);
+	}
+
+	/**
+	 * Returns the number of cached entries.
+	 * 
+	 * @return The number of entries.
+	 */
+	public synchronized int size() {
+		return map.size();
+	}
+
+}
@@ -0,0 +1,174 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.catalina.AccessLog;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Writes messages to local files instead of sending them to an endpoint.
+ * <p>
+ * Messages are appended to a memory-mapped segment file, so writing is a plain
+ * memory copy. A new segment is started when the current one is full or older
+ * than the configured rotation interval. Closed segments are truncated to their
+ * actual content and optionally compressed with gzip in the background.
+ * <p>
+ * Segment files are named after the path of the endpoint URL with a timestamp
+ * appended, for example <code>file:///var/log/tomcat/access</code> results in
+ * <code>/var/log/tomcat/access-20200101-120000.ndjson</code>.
+ *
+ * @author Robin Seggelmann
+ *
+ */
+public class MappedFileConnection implements Connection {
+	private static final Log log = LogFactory.getLog(AccessLog.class);
+	private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+	private final Path prefix;
+	private final long segmentSize;
+	private final long rotationMillis;
+	private final ExecutorService compressor;
+	private FileChannel channel;
+	private MappedByteBuffer buffer;
+	private Path segment;
+	private long segmentStart;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param config The {@link Configuration} with a <code>file://</code> endpoint
+	 *               URL.
+	 */
+	public MappedFileConnection(Configuration config) {
+		this.prefix = Paths.get(config.getEndpointUri());
+		this.segmentSize = config.getFileSegmentSize() * 1024L * 1024L;
+		this.rotationMillis = config.getFileRotationInterval() * 1000L;
+		this.compressor = config.isFileCompression() ? Executors.newSingleThreadExecutor() : null;
+	}
+
+	@Override
+	public synchronized boolean sendMessage(byte[] message) {
+		try {
+			if (buffer == null || buffer.remaining() < message.length
+					|| (rotationMillis > 0 && System.currentTimeMillis() - segmentStart >= rotationMillis)) {
+				closeSegment();
+				openSegment(message.length);
+			}
+
+			buffer.put(message);
+			return true;
+
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+			return false;
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		try {
+			closeSegment();
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+		}
+
+		if (compressor != null) {
+			compressor.shutdown();
+			try {
+				compressor.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void openSegment(int minimumSize) throws IOException {
+		Path parent = prefix.toAbsolutePath().getParent();
+		if (parent != null) {
+			Files.createDirectories(parent);
+		}
+
+		// Avoid overwriting a segment started in the same second
+		String name = prefix.getFileName() + "-" + LocalDateTime.now().format(TIMESTAMP);
+		segment = prefix.resolveSibling(name + ".ndjson");
+		for (int i = 1; Files.exists(segment) || Files.exists(gzipPath(segment)); i++) {
+			segment = prefix.resolveSibling(name + "-" + i + ".ndjson");
+		}
+
+		channel = FileChannel.open(segment, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, minimumSize));
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			channel = null;
+			throw e;
+		}
+		segmentStart = System.currentTimeMillis();
+	}
+
+	private void closeSegment() throws IOException {
+		if (channel == null) {
+			return;
+		}
+
+		// Remove the unused part of the mapped region. The segment is closed and
+		// the state reset even if this fails, so the next message starts a new
+		// segment.
+		FileChannel closing = channel;
+		int length = buffer.position();
+		try {
+			buffer.force();
+			closing.truncate(length);
+		} finally {
+			buffer = null;
+			channel = null;
+			closing.close();
+		}
+
+		if (compressor != null) {
+			Path closed = segment;
+			compressor.execute(() -> compress(closed));
+		}
+	}
+
+	private void compress(Path path) {
+		Path gzip = gzipPath(path);
+		try (InputStream is = Files.newInputStream(path);
+				OutputStream os = new GZIPOutputStream(Files.newOutputStream(gzip))) {
+			byte[] chunk = new byte[65536];
+			int length;
+			while ((length = is.read(chunk)) != -1) {
+				os.write(chunk, 0, length);
+			}
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+			return;
+		}
+
+		try {
+			Files.delete(path);
+		} catch (IOException e) {
+			log.warn(e.getMessage(), e);
+		}
+	}
+
+	private static Path gzipPath(Path path) {
+		return path.resolveSibling(path.getFileName() + ".gz");
+	}
+
+}
@@ -0,0 +1,319 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import java.util.Arrays;
+
+/**
+ * A simple MessagePack encoder based on a growable byte array. Only the types
+ * needed to construct Fluentd Forward protocol messages are supported, so this
+ * avoids a dependency on msgpack-java and keeps the library self-contained.
+ * <p>
+ * Maps and arrays are written as a header with the number of elements,
+ * followed by the elements. Strings are encoded as UTF-8 directly into the
+ * buffer without intermediate byte arrays. Writers can be reused with
+ * {@link #reset()} to avoid reallocating buffers.
+ *
+ * @author Robin Seggelmann
+ *
+ */
+public class MessagePackWriter {
+	private static final int EXT_EVENT_TIME = 0;
+
+	private byte[] buffer;
+	private int size;
+
+	/**
+	 * Constructor.
+	 */
+	public MessagePackWriter() {
+		buffer = new byte[256];
+		size = 0;
+	}
+
+	/**
+	 * Adds the header of a map. It must be followed by the given number of keys
+	 * and values.
+	 *
+	 * @param entries The number of key value pairs.
+	 * @return This object for builder pattern.
+	 */
+	public MessagePackWriter mapHeader(int entries) {
+		return header(entries, 0x80, 0xde);
+	}
+
+	/**
+	 * Adds the header of an array. It must be followed by the given number of
+	 * elements.
+	 *
+	 * @param elements The number of elements.
+	 * @return This object for builder pattern.
+	 */
+	public MessagePackWriter arrayHeader(int elements) {
+		return header(elements, 0x90, 0xdc);
+	}
+
+	/**
+	 * Adds a string, encoded as UTF-8. Null values are encoded as nil.
+	 *
+	 * @param value The value as {@link String}.
+	 * @return This object for builder pattern.
+	 */
+	public MessagePackWriter string(String value) {
+		if (value == null) {
+			return nil();
+		}
+
+		int length = utf8Length(value);
+		ensureCapacity(5 + length);
+		if (length < 32) {
+			buffer[size++] = (byte) (0xa0 | length);
+		} else if (length < 0x100) {
+			buffer[size++] = (byte) 0xd9;
+			buffer[size++] = (byte) length;
+		} else if (length < 0x10000) {
+			buffer[size++] = (byte) 0xda;
+			writeShort(length);
+		} else {
+			buffer[size++] = (byte) 0xdb;
+			writeInt(length);
+		}
+		writeUtf8(value);
+		return this;
+	}
+
+	/**
+	 * Adds an integer in the smallest possible encoding.
+	 *
+	 * @param value The value.
+	 * @return This object for builder pattern.
+	 */
+	public MessagePackWriter integer(long value) {
+		ensureCapacity(9);
+		if (value >= 0) {
+			if (value < 0x80) {
+				buffer[size++] = (byte) value;
+			} else if (value < 0x100) {
+				buffer[size++] = (byte) 0xcc;
+				buffer[size++] = (byte) value;
+			} else if (value < 0x10000) {
+				buffer[size++] = (byte) 0xcd;
+				writeShort((int) value);
+			} else if (value < 0x100000000L) {
+				buffer[size++] = (byte) 0xce;
+				writeInt((int) value);
+			} else {
+				buffer[size++] = (byte) 0xcf;
+				writeLong(value);
+			}
+		} else {
+			if (value >= -32) {
+				buffer[size++] = (byte) value;
+			} else if (value >= Byte.MIN_VALUE) {
+				buffer[size++] = (byte) 0xd0;
+				buffer[size++] = (byte) value;
+			} else if (value >= Short.MIN_VALUE) {
+				buffer[size++] = (byte) 0xd1;
+				writeShort((int) value);
+			} else if (value >= Integer.MIN_VALUE) {
+				buffer[size++] = (byte) 0xd2;
+				writeInt((int) value);
+			} else {
+				buffer[size++] = (byte) 0xd3;
+				writeLong(value);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Adds a boolean.
+	 *
+	 * @param value The value.
+	 * @return This object for builder pattern.
+	 */
+	public MessagePackWriter bool(boolean value) {
+		ensureCapacity(1);
+		buffer[size++] = (byte) (value ? 0xc3 : 0xc2);
+		return this;
+	}
+
+	/**
+	 * Adds nil.
+	 *
+	 * @return This object for builder pattern.
+	 */
+	public MessagePackWriter nil() {
+		ensureCapacity(1);
+		buffer[size++] = (byte) 0xc0;
+		return this;
+	}
+
+	/**
+	 * Adds the content of another writer as binary data, e.g. a stream of
+	 * encoded entries.
+	 *
+	 * @param other The writer with the content.
+	 * @return This object for builder pattern.
+	 */
+	public MessagePackWriter binary(MessagePackWriter other) {
+		int length = other.size;
+		ensureCapacity(5 + length);
+		if (length < 0x100) {
+			buffer[size++] = (byte) 0xc4;
+			buffer[size++] = (byte) length;
+		} else if (length < 0x10000) {
+			buffer[size++] = (byte) 0xc5;
+			writeShort(length);
+		} else {
+			buffer[size++] = (byte) 0xc6;
+			writeInt(length);
+		}
+		System.arraycopy(other.buffer, 0, buffer, size, length);
+		size += length;
+		return this;
+	}
+
+	/**
+	 * Adds the content of another writer as is, e.g. values encoded before their
+	 * header could be written.
+	 *
+	 * @param other The writer with the content.
+	 * @return This object for builder pattern.
+	 */
+	public MessagePackWriter append(MessagePackWriter other) {
+		ensureCapacity(other.size);
+		System.arraycopy(other.buffer, 0, buffer, size, other.size);
+		size += other.size;
+		return this;
+	}
+
+	/**
+	 * Adds a timestamp as Fluentd EventTime, which is the extension type 0 with
+	 * seconds and nanoseconds as 32-bit integers.
+	 *
+	 * @param seconds The seconds since the epoch.
+	 * @param nanos   The nanoseconds within the second.
+	 * @return This object for builder pattern.
+	 */
+	public MessagePackWriter eventTime(long seconds, int nanos) {
+		ensureCapacity(10);
+		// fixext 8
+		buffer[size++] = (byte) 0xd7;
+		buffer[size++] = (byte) EXT_EVENT_TIME;
+		writeInt((int) seconds);
+		writeInt(nanos);
+		return this;
+	}
+
+	/**
+	 * Returns the number of bytes written so far.
+	 *
+	 * @return The size of the encoded data.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Discards the content, but keeps the allocated buffer for reuse.
+	 *
+	 * @return This object for builder pattern.
+	 */
+	public MessagePackWriter reset() {
+		size = 0;
+		return this;
+	}
+
+	/**
+	 * Returns a copy of the encoded data.
+	 *
+	 * @return The encoded data.
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buffer, size);
+	}
+
+	private MessagePackWriter header(int count, int fixPrefix, int prefix16) {
+		ensureCapacity(5);
+		if (count < 16) {
+			buffer[size++] = (byte) (fixPrefix | count);
+		} else if (count < 0x10000) {
+			buffer[size++] = (byte) prefix16;
+			writeShort(count);
+		} else {
+			// The 32-bit variant always follows the 16-bit one
+			buffer[size++] = (byte) (prefix16 + 1);
+			writeInt(count);
+		}
+		return this;
+	}
+
+	private void writeShort(int value) {
+		buffer[size++] = (byte) (value >>> 8);
+		buffer[size++] = (byte) value;
+	}
+
+	private void writeInt(int value) {
+		buffer[size++] = (byte) (value >>> 24);
+		buffer[size++] = (byte) (value >>> 16);
+		buffer[size++] = (byte) (value >>> 8);
+		buffer[size++] = (byte) value;
+	}
+
+	private void writeLong(long value) {
+		writeInt((int) (value >>> 32));
+		writeInt((int) value);
+	}
+
+	private void writeUtf8(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				buffer[size++] = (byte) c;
+			} else if (c < 0x800) {
+				buffer[size++] = (byte) (0xc0 | (c >> 6));
+				buffer[size++] = (byte) (0x80 | (c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				buffer[size++] = (byte) (0xf0 | (codePoint >> 18));
+				buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+				buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+				buffer[size++] = (byte) (0x80 | (codePoint & 0x3f));
+			} else if (Character.isSurrogate(c)) {
+				// Unpaired surrogates are replaced with '?' like String.getBytes()
+				buffer[size++] = '?';
+			} else {
+				buffer[size++] = (byte) (0xe0 | (c >> 12));
+				buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				buffer[size++] = (byte) (0x80 | (c & 0x3f));
+			}
+		}
+	}
+
+	private static int utf8Length(String value) {
+		int length = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				length += 1;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				length += 1;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	private void ensureCapacity(int additional) {
+		if (size + additional > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+		}
+	}
+}
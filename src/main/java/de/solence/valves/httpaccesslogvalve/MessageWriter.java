@@ -0,0 +1,24 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a message directly to the output stream of a connection, so the
+ * message does not need to be created in memory before sending.
+ * 
+ * @author Robin Seggelmann
+ *
+ */
+@FunctionalInterface
+public interface MessageWriter {
+
+	/**
+	 * Writes the message.
+	 * 
+	 * @param os The {@link OutputStream} to write to.
+	 * @throws IOException Thrown if writing to the stream fails.
+	 */
+	public void write(OutputStream os) throws IOException;
+
+}
@@ -0,0 +1,156 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A simple Protocol Buffers encoder based on a growable byte array. Only the
+ * wire types needed to construct messages are supported, so this avoids a
+ * dependency on protobuf-java and keeps the library self-contained.
+ * <p>
+ * Nested messages are encoded into a separate writer first and then appended
+ * with {@link #message(int, ProtobufWriter)}, which adds the length prefix.
+ * Writers can be reused with {@link #reset()} to avoid reallocating buffers.
+ *
+ * @author Robin Seggelmann
+ *
+ */
+public class ProtobufWriter {
+	private static final int WIRETYPE_VARINT = 0;
+	private static final int WIRETYPE_FIXED64 = 1;
+	private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+
+	private byte[] buffer;
+	private int size;
+
+	/**
+	 * Constructor.
+	 */
+	public ProtobufWriter() {
+		buffer = new byte[256];
+		size = 0;
+	}
+
+	/**
+	 * Adds a string field, encoded as UTF-8. Null values are omitted.
+	 *
+	 * @param field The field number.
+	 * @param value The value as {@link String}.
+	 * @return This object for builder pattern.
+	 */
+	public ProtobufWriter string(int field, String value) {
+		if (value != null) {
+			bytes(field, value.getBytes(StandardCharsets.UTF_8));
+		}
+		return this;
+	}
+
+	/**
+	 * Adds a bytes field.
+	 *
+	 * @param field The field number.
+	 * @param value The value as byte array.
+	 * @return This object for builder pattern.
+	 */
+	public ProtobufWriter bytes(int field, byte[] value) {
+		return bytes(field, value, 0, value.length);
+	}
+
+	/**
+	 * Adds a nested message field. The content of the provided writer is copied,
+	 * so it can be reset and reused afterwards.
+	 *
+	 * @param field   The field number.
+	 * @param message The writer containing the encoded message.
+	 * @return This object for builder pattern.
+	 */
+	public ProtobufWriter message(int field, ProtobufWriter message) {
+		return bytes(field, message.buffer, 0, message.size);
+	}
+
+	/**
+	 * Adds a varint encoded integer field, used for int32, int64, uint32, uint64,
+	 * bool and enum types.
+	 *
+	 * @param field The field number.
+	 * @param value The value.
+	 * @return This object for builder pattern.
+	 */
+	public ProtobufWriter varint(int field, long value) {
+		tag(field, WIRETYPE_VARINT);
+		writeVarint(value);
+		return this;
+	}
+
+	/**
+	 * Adds a fixed64 field.
+	 *
+	 * @param field The field number.
+	 * @param value The value.
+	 * @return This object for builder pattern.
+	 */
+	public ProtobufWriter fixed64(int field, long value) {
+		tag(field, WIRETYPE_FIXED64);
+		ensureCapacity(8);
+		for (int i = 0; i < 8; i++) {
+			buffer[size++] = (byte) (value >>> (8 * i));
+		}
+		return this;
+	}
+
+	/**
+	 * Returns the number of bytes written so far.
+	 *
+	 * @return The size of the encoded message.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Discards the content, but keeps the allocated buffer for reuse.
+	 *
+	 * @return This object for builder pattern.
+	 */
+	public ProtobufWriter reset() {
+		size = 0;
+		return this;
+	}
+
+	/**
+	 * Returns a copy of the encoded message.
+	 *
+	 * @return The encoded message.
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buffer, size);
+	}
+
+	private ProtobufWriter bytes(int field, byte[] value, int offset, int length) {
+		tag(field, WIRETYPE_LENGTH_DELIMITED);
+		writeVarint(length);
+		ensureCapacity(length);
+		System.arraycopy(value, offset, buffer, size, length);
+		size += length;
+		return this;
+	}
+
+	private void tag(int field, int wireType) {
+		writeVarint((field << 3) | wireType);
+	}
+
+	private void writeVarint(long value) {
+		ensureCapacity(10);
+		while ((value & ~0x7FL) != 0) {
+			buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[size++] = (byte) value;
+	}
+
+	private void ensureCapacity(int additional) {
+		if (size + additional > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import java.util.concurrent.CompletionException;
+
+/**
+ * Thrown if the endpoint rejected a message permanently, e.g. because it is
+ * malformed, so sending the same message again would fail as well.
+ * <p>
+ * Unchecked, so it can be thrown by the methods of {@link Connection}, which
+ * otherwise report failures that are worth retrying with their result.
+ * 
+ * @author Robin Seggelmann
+ *
+ */
+public class RejectedMessageException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+	private final int status;
+	private final String content;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param status  The returned HTTP status.
+	 * @param content The returned content as a string.
+	 */
+	public RejectedMessageException(int status, String content) {
+		super("Message rejected with status " + status + ((content != null) ? ": " + content : ""));
+		this.status = status;
+		this.content = content;
+	}
+
+	/**
+	 * Returns the rejection a message sent asynchronously failed with, if any.
+	 * 
+	 * @param e The exception the future of the message has been completed with,
+	 *          may be null.
+	 * @return The {@link RejectedMessageException} or null if the message has not
+	 *         been rejected.
+	 */
+	public static RejectedMessageException causeOf(Throwable e) {
+		Throwable cause = (e instanceof CompletionException) ? e.getCause() : e;
+		return (cause instanceof RejectedMessageException) ? (RejectedMessageException) cause : null;
+	}
+
+	/**
+	 * @return The returned HTTP status.
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return The returned content as a string.
+	 */
+	public String getContent() {
+		return content;
+	}
+
+}
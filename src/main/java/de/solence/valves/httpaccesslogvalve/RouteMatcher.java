@@ -0,0 +1,193 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Determines the route of request URIs, to get a low-cardinality value for
+ * aggregation instead of the URI itself.
+ * <p>
+ * Route templates like <code>/orders/{id}/items/{n}</code> are compiled into a
+ * trie of path segments, where a segment in braces matches any value. Literal
+ * segments take precedence over parameters. URIs not matching a template can
+ * optionally be collapsed by replacing numeric segments with <code>{n}</code>
+ * and UUID segments with <code>{uuid}</code>.
+ * 
+ * @author Robin Seggelmann
+ *
+ */
+public class RouteMatcher implements EventProcessor {
+	private final Node root;
+	private final boolean collapse;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param templates The route templates.
+	 * @param collapse  Whether to collapse numeric and UUID segments of URIs not
+	 *                  matching a template.
+	 */
+	public RouteMatcher(List<String> templates, boolean collapse) {
+		this.root = new Node();
+		this.collapse = collapse;
+		for (String template : templates) {
+			add(template);
+		}
+	}
+
+	@Override
+	public void process(Event event) {
+		event.setRoute(match(event.getRequestUri()));
+	}
+
+	/**
+	 * Returns the route of a URI.
+	 * 
+	 * @param uri The request URI.
+	 * @return The matching template, the collapsed URI or null if there is no
+	 *         route.
+	 */
+	public String match(String uri) {
+		if (uri == null || uri.isEmpty() || uri.charAt(0) != '/') {
+			return null;
+		}
+
+		String route = match(root, uri, 1);
+		if (route == null && collapse) {
+			route = collapse(uri);
+		}
+		return route;
+	}
+
+	private void add(String template) {
+		if (template.isEmpty() || template.charAt(0) != '/') {
+			throw new IllegalArgumentException("Route " + template + " must start with /");
+		}
+
+		Node node = root;
+		int pos = 1;
+		while (pos <= template.length()) {
+			int end = segmentEnd(template, pos);
+			String segment = template.substring(pos, end);
+			if (segment.length() > 1 && segment.charAt(0) == '{' && segment.charAt(segment.length() - 1) == '}') {
+				if (node.param == null) {
+					node.param = new Node();
+				}
+				node = node.param;
+			} else {
+				node = node.child(segment);
+			}
+			pos = end + 1;
+		}
+		node.template = template;
+	}
+
+	private static String match(Node node, String uri, int pos) {
+		if (pos > uri.length()) {
+			return node.template;
+		}
+
+		int end = segmentEnd(uri, pos);
+		int length = end - pos;
+		for (int i = 0; i < node.literals.size(); i++) {
+			String literal = node.literals.get(i);
+			if (literal.length() == length && uri.regionMatches(pos, literal, 0, length)) {
+				String route = match(node.children.get(i), uri, end + 1);
+				if (route != null) {
+					return route;
+				}
+				break;
+			}
+		}
+
+		// Parameters don't match empty segments
+		if (node.param != null && length > 0) {
+			return match(node.param, uri, end + 1);
+		}
+		return null;
+	}
+
+	private static String collapse(String uri) {
+		StringBuilder sb = null;
+		int pos = 1;
+		while (pos <= uri.length()) {
+			int end = segmentEnd(uri, pos);
+			String replacement = isNumeric(uri, pos, end) ? "{n}" : isUuid(uri, pos, end) ? "{uuid}" : null;
+			if (replacement != null && sb == null) {
+				// Only copy the URI if anything is collapsed
+				sb = new StringBuilder(uri.length()).append(uri, 0, pos);
+			}
+			if (sb != null) {
+				if (replacement != null) {
+					sb.append(replacement);
+				} else {
+					sb.append(uri, pos, end);
+				}
+				if (end < uri.length()) {
+					sb.append('/');
+				}
+			}
+			pos = end + 1;
+		}
+		return (sb != null) ? sb.toString() : uri;
+	}
+
+	private static int segmentEnd(String path, int pos) {
+		int end = path.indexOf('/', pos);
+		return (end < 0) ? path.length() : end;
+	}
+
+	private static boolean isNumeric(String s, int start, int end) {
+		if (start == end) {
+			return false;
+		}
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if (c < '0' || c > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isUuid(String s, int start, int end) {
+		if (end - start != 36) {
+			return false;
+		}
+		for (int i = 0; i < 36; i++) {
+			char c = s.charAt(start + i);
+			if (i == 8 || i == 13 || i == 18 || i == 23) {
+				if (c != '-') {
+					return false;
+				}
+			} else if (Character.digit(c, 16) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * A path segment in the trie.
+	 */
+	private static class Node {
+		// Few children per node, so a linear search is fast and does not need
+		// substrings of the URI
+		private final List<String> literals = new ArrayList<>();
+		private final List<Node> children = new ArrayList<>();
+		private Node param;
+		private String template;
+
+		private Node child(String segment) {
+			int i = literals.indexOf(segment);
+			if (i >= 0) {
+				return children.get(i);
+			}
+			Node node = new Node();
+			literals.add(segment);
+			children.add(node);
+			return node;
+		}
+	}
+
+}
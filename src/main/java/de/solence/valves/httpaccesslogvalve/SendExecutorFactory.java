@@ -0,0 +1,40 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import java.util.concurrent.ExecutorService;
+
+import org.apache.catalina.AccessLog;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Creates the executor used by the {@link Sender} to send messages on separate
+ * threads.
+ * <p>
+ * This is the Java 8 version, which does not support virtual threads, so
+ * messages are always sent by the sender thread itself. The multi-release JAR
+ * contains a replacement of this class for Java 21 and later.
+ * 
+ * @author Robin Seggelmann
+ *
+ */
+public final class SendExecutorFactory {
+	private static final Log log = LogFactory.getLog(AccessLog.class);
+
+	private SendExecutorFactory() {
+	}
+
+	/**
+	 * Creates a new executor.
+	 * 
+	 * @param config The {@link Configuration} to use.
+	 * @return The executor, or <code>null</code> if messages are sent by the
+	 *         sender thread.
+	 */
+	public static ExecutorService create(Configuration config) {
+		if (config.isVirtualThreads()) {
+			log.warn("Virtual threads require Java 21 or later, sending on the sender thread instead");
+		}
+		return null;
+	}
+
+}
@@ -1,7 +1,27 @@
 package de.solence.valves.httpaccesslogvalve;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
 
 import org.apache.catalina.AccessLog;
 import org.apache.juli.logging.Log;
@@ -15,26 +35,131 @@ import org.apache.juli.logging.LogFactory;
  * delivered even with temporary connection problems. The only way to lose log
  * events is if the endpoint is permanently unreachable or the application is
  * interrupted.
+ * <p>
+ * If more than one message in flight is configured, messages are sent
+ * asynchronously and concurrently, failed messages are retried before sending
+ * new ones. With virtual threads on Java 21, every message is instead sent and
+ * retried on its own virtual thread, bounded by the messages in flight.
+ * <p>
+ * If streaming is configured, events are taken from the queue and serialized
+ * directly onto the connection while the message is already being sent, which
+ * overlaps serialization with network transmission. The events are retained
+ * until delivery, so they can be serialized again when retrying.
+ * <p>
+ * If serializers are configured, a pool of serializer threads takes events from
+ * the queue and encodes them to messages in parallel. Ready messages are handed
+ * over through a bounded queue to the sender thread, which only sends. This
+ * way serialization no longer adds to the delivery latency.
+ * <p>
+ * If the endpoint rejects a message permanently, it is split in halves which are
+ * sent on their own, until the rejected events are isolated and handed over to
+ * the {@link DeadLetters}. The other events are delivered as usual.
+ * <p>
+ * If a coalescing window is configured, repeated identical events are taken
+ * from the queue by a {@link Coalescer} and sent as a single event when the
+ * window ends.
+ * <p>
+ * On shutdown, the remaining events are drained with full messages sent in
+ * parallel until a deadline, instead of waiting between messages and retrying
+ * with backoff.
  * 
  * @author Robin Seggelmann
  *
  */
 public class Sender implements Runnable {
 	private static final Log log = LogFactory.getLog(AccessLog.class);
+	// Minimum number of threads sending in parallel on shutdown
+	private static final int DRAIN_THREADS = 4;
 	private final Configuration config;
-	private final HttpConnection conn;
+	private final Connection conn;
 	private final BlockingQueue<Event> queue;
+	private final int maxInFlight;
+	private final Semaphore inFlight;
+	private final Queue<Pending> failed;
+	private final ExecutorService executor;
+	private final boolean streaming;
+	private final ExecutorService serializers;
+	private final BlockingQueue<Batch> batches;
+	private final AtomicInteger serializing;
+	private final AtomicLong delivered;
+	private final List<EventProcessor> processors;
+	private final HeavyHitters heavyHitters;
+	private final DeadLetters deadLetters;
+	private final Coalescer coalescer;
+	private volatile boolean closed;
 
 	/**
 	 * Constructor.
 	 * 
 	 * @param config The {@link Configuration} for connection details.
+	 * @param conn   The {@link Connection} to send messages with.
 	 * @param queue  The event queue to send messages from.
 	 */
-	public Sender(Configuration config, HttpConnection conn, BlockingQueue<Event> queue) {
+	public Sender(Configuration config, Connection conn, BlockingQueue<Event> queue) {
+		this(config, conn, queue, SendExecutorFactory.create(config));
+	}
+
+	/**
+	 * Constructor to inject the executor for unit tests.
+	 * 
+	 * @param config   The {@link Configuration} for connection details.
+	 * @param conn     The {@link Connection} to send messages with.
+	 * @param queue    The event queue to send messages from.
+	 * @param executor The executor to send messages on, or null to send them on
+	 *                 the sender thread.
+	 */
+	Sender(Configuration config, Connection conn, BlockingQueue<Event> queue, ExecutorService executor) {
 		this.config = config;
 		this.conn = conn;
 		this.queue = queue;
+		this.maxInFlight = Math.max(config.getInFlight(), 1);
+		this.inFlight = new Semaphore(maxInFlight);
+		this.failed = new ConcurrentLinkedQueue<>();
+		this.executor = executor;
+		// Streaming only works with sequential sending and serializing, a
+		// single destination and targets which concatenate individual events.
+		this.streaming = config.isStreaming() && executor == null && maxInFlight == 1
+				&& config.getSerializers() == 0 && !(config.getTarget() instanceof BatchTarget)
+				&& (config.getDestinations() == null || config.getDestinations().isEmpty());
+
+		this.delivered = new AtomicLong();
+		this.deadLetters = new DeadLetters(config);
+		this.coalescer = (config.getCoalesceWindow() > 0) ? new Coalescer(config) : null;
+		this.processors = new ArrayList<>();
+		if (config.isReverseDns() || config.getGeoIpDatabase() != null) {
+			processors.add(new ClientEnricher(config));
+		}
+		List<String> routes = config.getRoutes();
+		if ((routes != null && !routes.isEmpty()) || config.isRouteCollapse()) {
+			processors.add(new RouteMatcher((routes != null) ? routes : Collections.emptyList(),
+					config.isRouteCollapse()));
+		}
+		if (config.isUserAgentClassification()) {
+			processors.add(new UserAgentClassifier(config));
+		}
+		if (config.getHeavyHitters() > 0) {
+			this.heavyHitters = new HeavyHitters(config);
+			processors.add(heavyHitters);
+		} else {
+			this.heavyHitters = null;
+		}
+		List<String> destinations = config.getDestinations();
+		if (destinations != null && !destinations.isEmpty()) {
+			processors.add(new DestinationRouter(destinations));
+		}
+		this.serializing = new AtomicInteger();
+		if (config.getSerializers() > 0) {
+			// Allow every serializer to have one message ready while the
+			// previous one is being sent.
+			this.batches = new ArrayBlockingQueue<>(config.getSerializers() * 2);
+			this.serializers = Executors.newFixedThreadPool(config.getSerializers());
+			for (int i = 0; i < config.getSerializers(); i++) {
+				serializers.execute(this::serialize);
+			}
+		} else {
+			this.batches = null;
+			this.serializers = null;
+		}
 	}
 
 	/**
@@ -44,69 +169,787 @@ public class Sender implements Runnable {
 	 */
 	@Override
 	public void run() {
-		while (!queue.isEmpty()) {
-			// Concatenate multiple events for a message
-			String message = concatenateEvents();
+		sendSummary();
 
-			// Try to send message
-			int waitBeforeRetry = 1;
+		if (serializers != null) {
+			// Messages are prepared by the serializers
+			if (!sendSerialized()) {
+				return;
+			}
+		}
 
-			// Never give up, unless interrupted
-			while (!conn.sendMessage(message) && !Thread.interrupted()) {
-				// If message could not be sent, the endpoint is likely down, so
-				// wait before retrying.
-				try {
-					TimeUnit.SECONDS.sleep(waitBeforeRetry);
-				} catch (InterruptedException e) {
-					Thread.currentThread().interrupt();
-					// Thread has been interrupted, so give up. This likely results in lost events,
-					// but there is not much that can be done to avoid that.
-					log.error("Received interrupt while still trying to send events");
+		while (!closed && hasEvents()) {
+			sendSummary();
+
+			if (streaming) {
+				if (!sendStreaming()) {
 					return;
 				}
+				continue;
+			}
 
-				// Increase wait time to avoid spamming an unvailable endpoint,
-				// but don't wait more than a minute.
-				if (waitBeforeRetry < 60) {
-					waitBeforeRetry *= 2;
-				} else {
-					waitBeforeRetry = 60;
+			// Collect multiple events for a message, one per destination
+			List<Event> events = pollEvents();
+			for (List<Event> group : groupByDestination(events)) {
+				if (!send(group)) {
+					return;
 				}
 			}
 		}
+
+		// Wait for concurrently sent messages and retry failed ones, so no
+		// message is left behind when the run is finished.
+		awaitInFlight();
+	}
+
+	/**
+	 * Sends the events of a destination with the configured method.
+	 * 
+	 * @param events The events to send.
+	 * @return False if the thread has been interrupted.
+	 */
+	private boolean send(List<Event> events) {
+		Target target = config.getTarget();
+		if (executor != null || maxInFlight > 1 || events.get(0).getDestination() != null) {
+			return dispatch(encodeBatch(events));
+		} else if (target instanceof BatchTarget) {
+			// Batch is encoded as a whole by the target
+			byte[] message = ((BatchTarget) target).getBatchMessage(config, events);
+			return deliver(events, () -> conn.sendMessage(message), null);
+		}
+		// Concatenate individual event messages
+		String message = concatenateEvents(events);
+		return deliver(events, () -> conn.sendMessage(message), null);
 	}
 
-	private String concatenateEvents() {
-		StringBuilder message = new StringBuilder();
-		message.append('[');
-		for (int i = 0; i < config.getTarget().getEventsPerMessage(); i++) {
-			// Get an event from the queue. At least one should be in it,
-			// otherwise we wouldn't have made it here. Wait up to 100 ms
-			// for further events to avoid sending single event, like Nagle's
-			// algorithm.
-			Event event = null;
+	/**
+	 * Stops the threads used for serializing and sending, if any, within the
+	 * configured shutdown timeout.
+	 * 
+	 * @see #close(long, TimeUnit)
+	 */
+	public void close() {
+		close(config.getShutdownTimeout(), TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stops the threads used for serializing and sending, if any. Messages still
+	 * being serialized or sent are completed until the deadline. Send threads
+	 * still busy then are interrupted, which abandons their events.
+	 * 
+	 * @param timeout The maximum time to wait.
+	 * @param unit    The unit of the timeout.
+	 */
+	public void close(long timeout, TimeUnit unit) {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		closed = true;
+		try {
+			if (serializers != null) {
+				serializers.shutdown();
+				// Keep taking messages, so no serializer is blocked on a full
+				// handoff queue.
+				do {
+					sendSerializedUntil(deadline);
+				} while (!serializers.awaitTermination(Math.min(remaining(deadline), 100_000_000L),
+						TimeUnit.NANOSECONDS) && remaining(deadline) > 0);
+				serializers.shutdownNow();
+				sendSerializedUntil(deadline);
+			}
+
+			if (!awaitInFlight(deadline)) {
+				log.warn("Messages still being sent at the shutdown deadline are abandoned");
+			}
+			if (executor != null) {
+				executor.shutdown();
+				if (!executor.awaitTermination(remaining(deadline), TimeUnit.NANOSECONDS)) {
+					executor.shutdownNow();
+					executor.awaitTermination(1, TimeUnit.SECONDS);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+			log.error("Received interrupt while still sending events");
+		}
+	}
+
+	/**
+	 * Sends the messages prepared by the serializers until the deadline.
+	 * 
+	 * @param deadline The deadline as returned by {@link System#nanoTime()}.
+	 */
+	private void sendSerializedUntil(long deadline) {
+		Batch batch;
+		while (remaining(deadline) > 0 && (batch = batches.poll()) != null) {
+			deliver(batch, deadline);
+		}
+	}
+
+	/**
+	 * Returns the number of events delivered since the sender has been created.
+	 * 
+	 * @return The number of delivered events.
+	 */
+	public long getDeliveredCount() {
+		return delivered.get();
+	}
+
+	/**
+	 * Returns the events rejected by the endpoint.
+	 * 
+	 * @return The {@link DeadLetters}.
+	 */
+	public DeadLetters getDeadLetters() {
+		return deadLetters;
+	}
+
+	/**
+	 * Returns the tracking of the most frequent clients, routes and user agents.
+	 * 
+	 * @return The {@link HeavyHitters} or null if not configured.
+	 */
+	public HeavyHitters getHeavyHitters() {
+		return heavyHitters;
+	}
+
+	/**
+	 * Sends the heavy hitter summary once the interval is over, if supported by
+	 * the target. Summaries are informational, so they are not retried and do not
+	 * hold up events.
+	 */
+	private void sendSummary() {
+		if (heavyHitters == null) {
+			return;
+		}
+
+		HeavyHitters.Summary summary = heavyHitters.takeSummary();
+		if (summary == null) {
+			return;
+		}
+		String message = config.getTarget().getSummaryMessage(config, summary);
+		try {
+			if (message != null && !conn.sendMessage(message)) {
+				log.warn("Heavy hitter summary could not be sent");
+			}
+		} catch (RejectedMessageException e) {
+			log.warn("Heavy hitter summary rejected: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Sends all remaining events as fast as possible until the deadline, for
+	 * shutdown. Events are no longer taken for regular sending, messages waiting
+	 * or failed are collected and the queue is split into messages with the
+	 * maximum number of events. These are sent in parallel and retried until the
+	 * deadline. Events which could not be sent by then are abandoned.
+	 * 
+	 * @param timeout The maximum time to drain.
+	 * @param unit    The unit of the timeout.
+	 */
+	public void drain(long timeout, TimeUnit unit) {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		closed = true;
+
+		Queue<Pending> pending = new ConcurrentLinkedQueue<>();
+		try {
+			if (serializers != null) {
+				serializers.shutdown();
+				List<Batch> serialized = new ArrayList<>();
+				do {
+					batches.drainTo(serialized);
+				} while (!serializers.awaitTermination(Math.min(remaining(deadline), 100_000_000L),
+						TimeUnit.NANOSECONDS) && remaining(deadline) > 0);
+				serializers.shutdownNow();
+				batches.drainTo(serialized);
+				serialized.forEach(batch -> pending.add(new Pending(batch, null)));
+			}
+
+			if (executor != null || maxInFlight > 1) {
+				if (inFlight.tryAcquire(maxInFlight, remaining(deadline), TimeUnit.NANOSECONDS)) {
+					inFlight.release(maxInFlight);
+				}
+				Pending message;
+				while ((message = failed.poll()) != null) {
+					pending.add(message);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.error("Received interrupt while draining events");
+			return;
+		}
+
+		// Fill messages completely without waiting for further events
+		List<Event> events = new ArrayList<>();
+		queue.drainTo(events);
+		events.forEach(this::process);
+		if (coalescer != null) {
+			events.removeIf(event -> !coalescer.add(event));
+			events.addAll(coalescer.flush());
+		}
+		int eventsPerMessage = config.getTarget().getEventsPerMessage();
+		for (List<Event> group : groupByDestination(events)) {
+			for (int i = 0; i < group.size(); i += eventsPerMessage) {
+				pending.add(new Pending(encodeBatch(
+						new ArrayList<>(group.subList(i, Math.min(i + eventsPerMessage, group.size())))), null));
+			}
+		}
+		if (pending.isEmpty()) {
+			return;
+		}
+
+		int threads = Math.min(pending.size(), Math.max(maxInFlight, DRAIN_THREADS));
+		ExecutorService drainers = Executors.newFixedThreadPool(threads);
+		for (int i = 0; i < threads; i++) {
+			drainers.execute(() -> {
+				Pending message;
+				while ((message = pending.poll()) != null) {
+					if (!deliver(message, deadline) || remaining(deadline) == 0) {
+						return;
+					}
+				}
+			});
+		}
+
+		drainers.shutdown();
+		try {
+			if (!drainers.awaitTermination(remaining(deadline), TimeUnit.NANOSECONDS)) {
+				drainers.shutdownNow();
+				drainers.awaitTermination(1, TimeUnit.SECONDS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			drainers.shutdownNow();
+			log.error("Received interrupt while draining events");
+		}
+	}
+
+	private static long remaining(long deadline) {
+		return Math.max(deadline - System.nanoTime(), 0);
+	}
+
+	/**
+	 * Waits until all concurrently sent messages are completed and retries failed
+	 * ones, until the deadline.
+	 * 
+	 * @param deadline The deadline as returned by {@link System#nanoTime()}.
+	 * @return False if messages are still in flight or failed at the deadline.
+	 * @throws InterruptedException Thrown if the thread has been interrupted.
+	 */
+	private boolean awaitInFlight(long deadline) throws InterruptedException {
+		if (executor == null && maxInFlight == 1) {
+			return true;
+		}
+
+		if (!inFlight.tryAcquire(maxInFlight, remaining(deadline), TimeUnit.NANOSECONDS)) {
+			return false;
+		}
+		inFlight.release(maxInFlight);
+		return retryFailed(deadline);
+	}
+
+	/**
+	 * Waits until all concurrently sent messages are completed and retries failed
+	 * ones.
+	 * 
+	 * @return False if the thread has been interrupted.
+	 */
+	private boolean awaitInFlight() {
+		if (executor == null && maxInFlight == 1) {
+			return true;
+		}
+
+		try {
+			inFlight.acquire(maxInFlight);
+			inFlight.release(maxInFlight);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.error("Received interrupt while still trying to send events");
+			return false;
+		}
+		return retryFailed(null);
+	}
+
+	/**
+	 * Sends messages prepared by the serializers while there are events left.
+	 * 
+	 * @return False if the thread has been interrupted.
+	 */
+	private boolean sendSerialized() {
+		while (!closed && (hasEvents() || !batches.isEmpty() || serializing.get() > 0)) {
+			Batch batch;
 			try {
-				event = queue.poll(100, TimeUnit.MILLISECONDS);
+				batch = batches.poll(100, TimeUnit.MILLISECONDS);
 			} catch (InterruptedException e) {
 				Thread.currentThread().interrupt();
-				// Interrupt has been received so don't wait for more events and continue
-				// sending the message.
+				log.error("Received interrupt while still trying to send events");
+				return false;
 			}
 
+			if (batch != null && !dispatch(batch)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Runs on a serializer thread until closed. Takes events from the queue,
+	 * encodes them and hands the message over to the sender thread.
+	 */
+	private void serialize() {
+		while (!closed && !Thread.currentThread().isInterrupted()) {
+			Event first = pollEvent();
+			if (first == null) {
+				continue;
+			}
+
+			serializing.incrementAndGet();
+			try {
+				for (List<Event> group : groupByDestination(pollEvents(first))) {
+					batches.put(encodeBatch(group));
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				log.error("Received interrupt while still serializing events");
+			} catch (RuntimeException e) {
+				// Keep the serializer running
+				log.error(e.getMessage(), e);
+			} finally {
+				serializing.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Sends a message with the configured method, either concurrently or
+	 * sequentially.
+	 * 
+	 * @param batch The batch to send.
+	 * @return False if the thread has been interrupted.
+	 */
+	private boolean dispatch(Batch batch) {
+		if (executor != null) {
+			return sendOnExecutor(batch);
+		} else if (maxInFlight > 1) {
+			return sendConcurrently(batch);
+		}
+		return deliver(batch, null);
+	}
+
+	/**
+	 * Sends a message once, for its destination if it has one.
+	 * 
+	 * @param batch The batch to send.
+	 * @return True if message delivery was successful.
+	 */
+	private boolean sendBatch(Batch batch) {
+		if (batch.getDestination() != null) {
+			return conn.sendMessage(batch.getMessage(), batch.getDestination());
+		}
+		return conn.sendMessage(batch.getMessage());
+	}
+
+	/**
+	 * Sends a message with events being taken from the queue while sending.
+	 * Retries with the same events until they have been delivered.
+	 * 
+	 * @return False if the thread has been interrupted.
+	 */
+	private boolean sendStreaming() {
+		// Make sure there is at least one event before connecting
+		Event first = pollEvent();
+		if (first == null) {
+			return true;
+		}
+
+		List<Event> events = new ArrayList<>(config.getTarget().getEventsPerMessage());
+		events.add(first);
+
+		// Only the first attempt takes further events, retries send the same
+		boolean[] poll = { true };
+		return deliver(events, () -> {
+			boolean polling = poll[0];
+			poll[0] = false;
+			return conn.sendMessage(os -> writeEvents(os, events, polling));
+		}, null);
+	}
+
+	/**
+	 * Writes the events as concatenated message to the stream.
+	 * 
+	 * @param os     The {@link OutputStream} to write to.
+	 * @param events The events to write.
+	 * @param poll   Whether to take further events from the queue and add them to
+	 *               the list while writing.
+	 * @throws IOException Thrown if writing to the stream fails.
+	 */
+	private void writeEvents(OutputStream os, List<Event> events, boolean poll) throws IOException {
+		EventTarget target = (EventTarget) config.getTarget();
+		Writer writer = new OutputStreamWriter(os, StandardCharsets.UTF_8);
+		writer.write('[');
+		for (int i = 0; i < events.size(); i++) {
+			if (i > 0) {
+				writer.write(',');
+			}
+			writer.write(target.getMessage(config, events.get(i)));
+		}
+
+		while (poll && events.size() < target.getEventsPerMessage()) {
+			Event event = pollEvent();
+			if (event == null) {
+				break;
+			}
+			events.add(event);
+			writer.write(',');
+			writer.write(target.getMessage(config, event));
+		}
+		writer.write(']');
+		writer.flush();
+	}
+
+	/**
+	 * Sends a message on a thread of the executor, limited by the maximum number
+	 * of messages in flight. The thread retries until the message has been
+	 * delivered.
+	 * 
+	 * @param batch The batch to send.
+	 * @return False if the thread has been interrupted.
+	 */
+	private boolean sendOnExecutor(Batch batch) {
+		try {
+			inFlight.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.error("Received interrupt while still trying to send events");
+			return false;
+		}
+
+		executor.execute(() -> {
+			try {
+				deliver(batch, null);
+			} finally {
+				inFlight.release();
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Sends a message asynchronously, limited by the maximum number of messages
+	 * in flight. Messages which failed before are retried first, rejected ones
+	 * are bisected.
+	 * 
+	 * @param batch The batch to send.
+	 * @return False if the thread has been interrupted.
+	 */
+	private boolean sendConcurrently(Batch batch) {
+		if (!retryFailed(null)) {
+			return false;
+		}
+
+		try {
+			inFlight.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.error("Received interrupt while still trying to send events");
+			return false;
+		}
+
+		CompletableFuture<Boolean> result = (batch.getDestination() != null)
+				? conn.sendMessageAsync(batch.getMessage(), batch.getDestination())
+				: conn.sendMessageAsync(batch.getMessage());
+		result.whenComplete((ok, e) -> {
+			if (ok == null || !ok) {
+				failed.add(new Pending(batch, RejectedMessageException.causeOf(e)));
+			} else {
+				delivered.addAndGet(countEvents(batch.getEvents()));
+			}
+			inFlight.release();
+		});
+		return true;
+	}
+
+	/**
+	 * Retries failed messages synchronously, so an unavailable endpoint slows
+	 * down sending instead of being flooded with concurrent requests.
+	 * 
+	 * @param deadline The deadline as returned by {@link System#nanoTime()}, or
+	 *                 null to retry until interrupted.
+	 * @return False if the deadline has passed or the thread has been
+	 *         interrupted.
+	 */
+	private boolean retryFailed(Long deadline) {
+		Pending message;
+		while ((message = failed.poll()) != null) {
+			if (!deliver(message, deadline)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Sends a message again which failed while being sent concurrently, or
+	 * bisects it right away if it has been rejected.
+	 * 
+	 * @param message  The message to send.
+	 * @param deadline The deadline as returned by {@link System#nanoTime()}, or
+	 *                 null to retry until interrupted.
+	 * @return False if the deadline has passed or the thread has been
+	 *         interrupted before successful delivery.
+	 */
+	private boolean deliver(Pending message, Long deadline) {
+		if (message.rejection != null) {
+			return bisect(message.batch.getEvents(), message.rejection, deadline);
+		}
+		return deliver(message.batch, deadline);
+	}
+
+	/**
+	 * Sends a batch until it has been delivered.
+	 * 
+	 * @param batch    The batch to send.
+	 * @param deadline The deadline as returned by {@link System#nanoTime()}, or
+	 *                 null to retry until interrupted.
+	 * @return False if the deadline has passed or the thread has been
+	 *         interrupted before successful delivery.
+	 * @see #deliver(List, BooleanSupplier, Long)
+	 */
+	private boolean deliver(Batch batch, Long deadline) {
+		return deliver(batch.getEvents(), () -> sendBatch(batch), deadline);
+	}
+
+	/**
+	 * Sends a message until it has been delivered. All ways of sending retry and
+	 * handle rejections here, so they behave the same. Delivered events are
+	 * counted, and a rejected message is bisected.
+	 * <p>
+	 * Without a deadline, retries wait up to a minute and only give up when the
+	 * thread is interrupted. With a deadline, as on shutdown, they wait up to a
+	 * second and give up once it has passed.
+	 * 
+	 * @param events   The events of the message.
+	 * @param send     The send operation, returning true on success.
+	 * @param deadline The deadline as returned by {@link System#nanoTime()}, or
+	 *                 null to retry until interrupted.
+	 * @return False if the deadline has passed or the thread has been
+	 *         interrupted before successful delivery.
+	 */
+	private boolean deliver(List<Event> events, BooleanSupplier send, Long deadline) {
+		long waitBeforeRetry = (deadline == null) ? 1000 : 100;
+		long maxWait = (deadline == null) ? 60_000 : 1000;
+		try {
+			while (!send.getAsBoolean()) {
+				long wait = waitBeforeRetry;
+				if (deadline != null) {
+					wait = Math.min(wait, TimeUnit.NANOSECONDS.toMillis(remaining(deadline)));
+					if (wait <= 0) {
+						return false;
+					}
+				}
+
+				// If message could not be sent, the endpoint is likely down, so
+				// wait before retrying.
+				TimeUnit.MILLISECONDS.sleep(wait);
+
+				// Increase wait time to avoid spamming an unvailable endpoint
+				waitBeforeRetry = Math.min(waitBeforeRetry * 2, maxWait);
+			}
+		} catch (RejectedMessageException e) {
+			return bisect(events, e, deadline);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			// Thread has been interrupted, so give up. This likely results in lost events,
+			// but there is not much that can be done to avoid that.
+			log.error("Received interrupt while still trying to send events");
+			return false;
+		}
+		delivered.addAndGet(countEvents(events));
+		return true;
+	}
+
+	/**
+	 * Splits a rejected message in halves and sends them on their own, so only
+	 * the events causing the rejection are held back. A single rejected event is
+	 * handed over to the dead letters.
+	 * 
+	 * @param events    The events of the rejected message.
+	 * @param rejection The rejection of the message.
+	 * @param deadline  The deadline as returned by {@link System#nanoTime()}, or
+	 *                  null to retry until interrupted.
+	 * @return False if the deadline has passed or the thread has been
+	 *         interrupted before successful delivery.
+	 */
+	private boolean bisect(List<Event> events, RejectedMessageException rejection, Long deadline) {
+		if (events.size() == 1) {
+			deadLetters.add(events.get(0), rejection);
+			return true;
+		}
+
+		int half = events.size() / 2;
+		return deliver(encodeBatch(new ArrayList<>(events.subList(0, half))), deadline)
+				&& deliver(encodeBatch(new ArrayList<>(events.subList(half, events.size()))), deadline);
+	}
+
+	private List<Event> pollEvents() {
+		return pollEvents(null);
+	}
+
+	private List<Event> pollEvents(Event first) {
+		int eventsPerMessage = config.getTarget().getEventsPerMessage();
+		List<Event> events = new ArrayList<>(eventsPerMessage);
+		if (first != null) {
+			events.add(first);
+		}
+		while (events.size() < eventsPerMessage) {
+			Event event = pollEvent();
+
 			// If no events are left, continue to sending.
 			if (event == null) {
 				break;
 			}
 
+			events.add(event);
+		}
+		return events;
+	}
+
+	private Event pollEvent() {
+		// Get an event from the queue. At least one should be in it,
+		// otherwise we wouldn't have made it here. Wait up to 100 ms
+		// for further events to avoid sending single event, like Nagle's
+		// algorithm.
+		try {
+			if (coalescer == null) {
+				return process(queue.poll(100, TimeUnit.MILLISECONDS));
+			}
+
+			while (true) {
+				Event ready = coalescer.poll();
+				if (ready != null) {
+					return ready;
+				}
+				Event event = process(queue.poll(100, TimeUnit.MILLISECONDS));
+				if (event == null) {
+					return coalescer.poll();
+				} else if (coalescer.add(event)) {
+					return event;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			// Interrupt has been received so don't wait for more events and continue
+			// sending the message.
+			return null;
+		}
+	}
+
+	private Event process(Event event) {
+		if (event != null) {
+			for (EventProcessor processor : processors) {
+				processor.process(event);
+			}
+		}
+		return event;
+	}
+
+	/**
+	 * Returns whether there are events to send, either in the queue or coalesced
+	 * and waiting for the end of their window.
+	 * 
+	 * @return True if there are events.
+	 */
+	private boolean hasEvents() {
+		return !queue.isEmpty() || (coalescer != null && coalescer.hasPending());
+	}
+
+	/**
+	 * Returns the number of requests represented by events, which differs from
+	 * the number of events if they have been coalesced.
+	 * 
+	 * @param events The events.
+	 * @return The number of requests.
+	 */
+	private static int countEvents(List<Event> events) {
+		int count = 0;
+		for (Event event : events) {
+			count += event.getCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Splits events by destination, keeping their order within a destination.
+	 * 
+	 * @param events The events to split.
+	 * @return The events of each destination.
+	 */
+	private static List<List<Event>> groupByDestination(List<Event> events) {
+		if (events.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		// Usually all events have the same destination
+		Destination first = events.get(0).getDestination();
+		boolean same = true;
+		for (Event event : events) {
+			if (event.getDestination() != first) {
+				same = false;
+				break;
+			}
+		}
+		if (same) {
+			return Collections.singletonList(events);
+		}
+
+		Map<Destination, List<Event>> groups = new LinkedHashMap<>();
+		for (Event event : events) {
+			groups.computeIfAbsent(event.getDestination(), d -> new ArrayList<>()).add(event);
+		}
+		return new ArrayList<>(groups.values());
+	}
+
+	private Batch encodeBatch(List<Event> events) {
+		Target target = config.getTarget();
+		if (target instanceof BatchTarget) {
+			return new Batch(events, ((BatchTarget) target).getBatchMessage(config, events));
+		}
+		return new Batch(events, concatenateEvents(events).getBytes(StandardCharsets.UTF_8));
+	}
+
+	private String concatenateEvents(List<Event> events) {
+		// Targets not encoding batches encode individual events
+		EventTarget target = (EventTarget) config.getTarget();
+		StringBuilder message = new StringBuilder();
+		message.append('[');
+		for (int i = 0; i < events.size(); i++) {
 			if (i > 0) {
 				message.append(',');
 			}
 
-			message.append(config.getTarget().getMessage(config, event));
+			message.append(target.getMessage(config, events.get(i)));
 		}
 		message.append(']');
 
 		return message.toString();
 	}
 
+	/**
+	 * A message still to be sent, after it failed while being sent concurrently
+	 * or on shutdown.
+	 */
+	private static class Pending {
+		private final Batch batch;
+		// The rejection of the message, to bisect it without sending it again
+		private final RejectedMessageException rejection;
+
+		private Pending(Batch batch, RejectedMessageException rejection) {
+			this.batch = batch;
+			this.rejection = rejection;
+		}
+	}
+
 }
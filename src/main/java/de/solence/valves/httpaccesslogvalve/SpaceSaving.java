@@ -0,0 +1,201 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the most frequent keys of a stream with the Space-Saving algorithm in
+ * fixed memory.
+ * <p>
+ * Only a fixed number of keys are counted. If a new key arrives while all
+ * counters are used, the key with the lowest count is replaced and the new key
+ * inherits its count as possible overestimation. Every key occurring more often
+ * than <code>total / capacity</code> times is guaranteed to be counted. The
+ * counters are kept in a binary min-heap, so the key to replace is always at the
+ * root and every update takes logarithmic time.
+ * <p>
+ * Not thread-safe.
+ *
+ * @author Robin Seggelmann
+ *
+ */
+public class SpaceSaving {
+	private final String[] keys;
+	private final long[] counts;
+	private final long[] errors;
+	private final Map<String, Integer> positions;
+	private int size;
+	private long total;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param capacity The number of keys to count.
+	 */
+	public SpaceSaving(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive");
+		}
+		this.keys = new String[capacity];
+		this.counts = new long[capacity];
+		this.errors = new long[capacity];
+		this.positions = new HashMap<>(capacity * 2);
+	}
+
+	/**
+	 * Counts an occurrence of a key. Null keys are ignored.
+	 *
+	 * @param key The key.
+	 */
+	public void add(String key) {
+		if (key == null) {
+			return;
+		}
+		total++;
+
+		Integer position = positions.get(key);
+		if (position != null) {
+			counts[position]++;
+			siftDown(position);
+		} else if (size < keys.length) {
+			keys[size] = key;
+			counts[size] = 1;
+			errors[size] = 0;
+			positions.put(key, size);
+			siftUp(size++);
+		} else {
+			// Replace the key with the lowest count at the root
+			positions.remove(keys[0]);
+			keys[0] = key;
+			errors[0] = counts[0];
+			counts[0]++;
+			positions.put(key, 0);
+			siftDown(0);
+		}
+	}
+
+	/**
+	 * Returns the most frequent keys.
+	 *
+	 * @param limit The maximum number of keys.
+	 * @return The counters of the keys, ordered by descending count.
+	 */
+	public List<Counter> getTop(int limit) {
+		List<Counter> top = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			top.add(new Counter(keys[i], counts[i], errors[i]));
+		}
+		top.sort((a, b) -> Long.compare(b.count, a.count));
+		return (top.size() > limit) ? top.subList(0, limit) : top;
+	}
+
+	/**
+	 * Returns the number of occurrences counted since the last reset.
+	 *
+	 * @return The total count.
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * Removes all keys and counts.
+	 */
+	public void reset() {
+		for (int i = 0; i < size; i++) {
+			keys[i] = null;
+		}
+		positions.clear();
+		size = 0;
+		total = 0;
+	}
+
+	private void siftUp(int position) {
+		while (position > 0) {
+			int parent = (position - 1) / 2;
+			if (counts[parent] <= counts[position]) {
+				break;
+			}
+			swap(position, parent);
+			position = parent;
+		}
+	}
+
+	private void siftDown(int position) {
+		while (true) {
+			int smallest = position;
+			int left = 2 * position + 1;
+			int right = left + 1;
+			if (left < size && counts[left] < counts[smallest]) {
+				smallest = left;
+			}
+			if (right < size && counts[right] < counts[smallest]) {
+				smallest = right;
+			}
+			if (smallest == position) {
+				return;
+			}
+			swap(position, smallest);
+			position = smallest;
+		}
+	}
+
+	private void swap(int a, int b) {
+		String key = keys[a];
+		long count = counts[a];
+		long error = errors[a];
+		keys[a] = keys[b];
+		counts[a] = counts[b];
+		errors[a] = errors[b];
+		keys[b] = key;
+		counts[b] = count;
+		errors[b] = error;
+		positions.put(keys[a], a);
+		positions.put(keys[b], b);
+	}
+
+	/**
+	 * The count of a key.
+	 */
+	public static class Counter {
+		private final String key;
+		private final long count;
+		private final long error;
+
+		private Counter(String key, long count, long error) {
+			this.key = key;
+			this.count = count;
+			this.error = error;
+		}
+
+		/**
+		 * @return The key.
+		 */
+		public String getKey() {
+			return key;
+		}
+
+		/**
+		 * @return The estimated count, which exceeds the actual count by at most
+		 *         the error.
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return The maximum overestimation of the count.
+		 */
+		public long getError() {
+			return error;
+		}
+
+		@Override
+		public String toString() {
+			return key + "=" + count;
+		}
+	}
+
+}
@@ -0,0 +1,366 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.catalina.AccessLog;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+import de.solence.valves.httpaccesslogvalve.HttpConnection.Reply;
+
+/**
+ * Handles the connection to a Splunk HTTP Event Collector (HEC) with indexer
+ * acknowledgement enabled.
+ * <p>
+ * With indexer acknowledgement, a successful response only confirms that a
+ * message has been received, not that it has been indexed. Instead of waiting
+ * for the indexer, sent messages are kept in a bounded window of pending
+ * acknowledgements by their ackId. A background thread regularly queries the
+ * status of all pending ackIds at once and removes acknowledged messages.
+ * Messages not acknowledged within the configured timeout are sent again, which
+ * results in at-least-once delivery. Sending blocks only when the window is
+ * full. If Splunk reuses an ackId, e.g. after a restart, the message replaced
+ * by it can no longer be acknowledged and is sent again once its timeout has
+ * expired.
+ * <p>
+ * AckIds are assigned per token, so messages of destinations with their own
+ * token are tracked and polled for separately, with that token.
+ * <p>
+ * If the token does not have indexer acknowledgement enabled, no ackId is
+ * returned and a successful response is considered final.
+ * <p>
+ * Splunk is a registered trademark of Splunk Inc.
+ *
+ * @author Robin Seggelmann
+ *
+ */
+public class SplunkAckConnection implements Connection {
+	private static final Log log = LogFactory.getLog(AccessLog.class);
+	private static final Pattern ACK_ID = Pattern.compile("\"ackId\"\\s*:\\s*(\\d+)");
+	private static final Pattern ACK_STATUS = Pattern.compile("\"(\\d+)\"\\s*:\\s*true");
+	private static final long POLL_INTERVAL = 1000L;
+	private final Configuration config;
+	private final HttpConnection conn;
+	private final Target target;
+	private final URL ackUrl;
+	private final long ackTimeout;
+	private final Semaphore window;
+	// Pending messages by token and ackId
+	private final Map<String, Map<Long, Pending>> pending;
+	// Messages whose ackId has been reused for another message
+	private final Queue<Pending> replaced;
+	private final ScheduledExecutorService poller;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param config The {@link Configuration} to use.
+	 * @param conn   The {@link HttpConnection} to send messages and acknowledgement
+	 *               requests with.
+	 */
+	public SplunkAckConnection(Configuration config, HttpConnection conn) {
+		this.config = config;
+		this.conn = conn;
+		this.target = config.getTarget();
+		URL endpointUrl = config.getEndpointUrl();
+		try {
+			this.ackUrl = new URL(endpointUrl.getProtocol(), endpointUrl.getHost(), endpointUrl.getPort(),
+					"/services/collector/ack");
+		} catch (MalformedURLException e) {
+			throw new IllegalArgumentException(e);
+		}
+		this.ackTimeout = TimeUnit.SECONDS.toMillis(config.getSplunkAckTimeout());
+		this.window = new Semaphore(config.getSplunkAckWindow());
+		this.pending = new ConcurrentHashMap<>();
+		this.replaced = new ConcurrentLinkedQueue<>();
+		this.poller = Executors.newSingleThreadScheduledExecutor();
+		this.poller.scheduleWithFixedDelay(this::poll, POLL_INTERVAL, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Sends a message and adds it to the pending acknowledgements. Waits up to
+	 * the configured timeout if the window of pending acknowledgements is full.
+	 *
+	 * @return True if the message has been received by Splunk.
+	 */
+	@Override
+	public boolean sendMessage(byte[] message) {
+		return sendMessage(message, null);
+	}
+
+	/**
+	 * Sends a message with the token of the destination, if it has one, and adds
+	 * it to the pending acknowledgements of that token.
+	 *
+	 * @return True if the message has been received by Splunk.
+	 */
+	@Override
+	public boolean sendMessage(byte[] message, Destination destination) {
+		try {
+			if (!window.tryAcquire(config.getTimeout(), TimeUnit.MILLISECONDS)) {
+				log.warn("Too many messages waiting for acknowledgement");
+				return false;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+
+		String token = getAuthToken(destination);
+		Reply reply;
+		try {
+			reply = post(message, token);
+		} catch (RejectedMessageException e) {
+			window.release();
+			throw e;
+		}
+		if (reply == null) {
+			window.release();
+			return false;
+		}
+
+		track(getAckId(reply), new Pending(message, token));
+		return true;
+	}
+
+	/**
+	 * Stops polling for acknowledgements within the configured shutdown timeout.
+	 *
+	 * @see #close(long, TimeUnit)
+	 */
+	@Override
+	public void close() {
+		close(config.getShutdownTimeout(), TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stops polling for acknowledgements in the background. Until the deadline,
+	 * pending messages are still polled for and sent again once their
+	 * acknowledgement has timed out. Messages still pending then are reported,
+	 * since they may not have been indexed.
+	 */
+	@Override
+	public void close(long timeout, TimeUnit unit) {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		poller.shutdown();
+		try {
+			poller.awaitTermination(config.getTimeout(), TimeUnit.MILLISECONDS);
+
+			// At least one last chance to get outstanding acknowledgements
+			poll();
+			while (getPendingCount() > 0 && deadline - System.nanoTime() > 0) {
+				TimeUnit.NANOSECONDS.sleep(
+						Math.min(deadline - System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(POLL_INTERVAL)));
+				poll();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (getPendingCount() > 0) {
+			log.warn(getPendingCount() + " messages have not been acknowledged by the indexer");
+		}
+	}
+
+	/**
+	 * Returns the number of messages waiting for acknowledgement.
+	 *
+	 * @return The number of pending messages.
+	 */
+	public int getPendingCount() {
+		int count = replaced.size();
+		for (Map<Long, Pending> messages : pending.values()) {
+			count += messages.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Queries the status of all pending acknowledgements and sends messages again
+	 * that have not been acknowledged in time.
+	 */
+	void poll() {
+		for (Map.Entry<String, Map<Long, Pending>> messages : pending.entrySet()) {
+			if (!messages.getValue().isEmpty()) {
+				queryAcknowledgements(messages.getKey(), messages.getValue());
+			}
+		}
+		resendExpired();
+	}
+
+	/**
+	 * Queries the status of the pending acknowledgements of a token.
+	 *
+	 * @param token    The token the messages have been sent with.
+	 * @param messages The pending messages of the token by ackId.
+	 */
+	private void queryAcknowledgements(String token, Map<Long, Pending> messages) {
+		try {
+			List<Long> ackIds = new ArrayList<>(messages.keySet());
+			StringBuilder sb = new StringBuilder("{\"acks\":[");
+			for (int i = 0; i < ackIds.size(); i++) {
+				if (i > 0) {
+					sb.append(',');
+				}
+				sb.append(ackIds.get(i));
+			}
+			sb.append("]}");
+			byte[] request = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+			Reply reply = conn.post(ackUrl, os -> os.write(request), request.length, token);
+			if (reply.getStatus() == 200 && reply.getContent() != null) {
+				Matcher matcher = ACK_STATUS.matcher(reply.getContent());
+				while (matcher.find()) {
+					if (messages.remove(Long.parseLong(matcher.group(1))) != null) {
+						window.release();
+					}
+				}
+			} else {
+				log.warn("Acknowledgement request failed with status " + reply.getStatus());
+			}
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+		}
+	}
+
+	private void resendExpired() {
+		long now = System.currentTimeMillis();
+		for (Map<Long, Pending> messages : pending.values()) {
+			for (Map.Entry<Long, Pending> entry : messages.entrySet()) {
+				Pending message = entry.getValue();
+				if (now - message.sent < ackTimeout || !messages.remove(entry.getKey(), message)) {
+					continue;
+				}
+				if (!resend(message)) {
+					// Try again after another timeout
+					message.sent = now;
+					if (messages.putIfAbsent(entry.getKey(), message) != null) {
+						replaced.add(message);
+					}
+				}
+			}
+		}
+
+		for (int i = replaced.size(); i > 0; i--) {
+			Pending message = replaced.poll();
+			if (message == null) {
+				break;
+			}
+			if (now - message.sent < ackTimeout) {
+				replaced.add(message);
+			} else if (!resend(message)) {
+				message.sent = now;
+				replaced.add(message);
+			}
+		}
+	}
+
+	/**
+	 * Sends a message again, which keeps its window permit.
+	 *
+	 * @param message The message to send.
+	 * @return False if the message could not be sent.
+	 */
+	private boolean resend(Pending message) {
+		Reply reply;
+		try {
+			reply = post(message.content, message.token);
+		} catch (RejectedMessageException e) {
+			// Events have been received before, so they can't be isolated
+			// any more
+			log.error("Unacknowledged message dropped: " + e.getMessage());
+			window.release();
+			return true;
+		}
+		if (reply == null) {
+			return false;
+		}
+		message.sent = System.currentTimeMillis();
+		track(getAckId(reply), message);
+		return true;
+	}
+
+	/**
+	 * Adds a sent message to the pending acknowledgements, which keeps its
+	 * window permit until acknowledged.
+	 *
+	 * @param ackId   The ackId returned by Splunk, or null if acknowledgement is
+	 *                not enabled for the token.
+	 * @param message The message.
+	 */
+	private void track(Long ackId, Pending message) {
+		if (ackId == null) {
+			// Acknowledgement not enabled for the token
+			window.release();
+			return;
+		}
+		Pending previous = pending.computeIfAbsent(message.token, t -> new ConcurrentHashMap<>()).put(ackId,
+				message);
+		if (previous != null) {
+			log.warn("Acknowledgement ID " + ackId + " has been reused, message will be sent again");
+			replaced.add(previous);
+		}
+	}
+
+	private Reply post(byte[] message, String token) {
+		try {
+			Reply reply = conn.post(config.getEndpointUrl(), os -> os.write(message), message.length, token);
+			if (target.isResponseOk(reply.getStatus(), reply.getContent())) {
+				return reply;
+			}
+			if (target.isResponseRejected(reply.getStatus(), reply.getContent())) {
+				throw new RejectedMessageException(reply.getStatus(), reply.getContent());
+			}
+			return null;
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+			return null;
+		}
+	}
+
+	private String getAuthToken(Destination destination) {
+		if (destination != null && destination.getAuthToken() != null) {
+			return destination.getAuthToken();
+		}
+		return config.getAuthToken();
+	}
+
+	private static Long getAckId(Reply reply) {
+		if (reply.getContent() == null) {
+			return null;
+		}
+		Matcher matcher = ACK_ID.matcher(reply.getContent());
+		return matcher.find() ? Long.valueOf(matcher.group(1)) : null;
+	}
+
+	/**
+	 * A message waiting for acknowledgement.
+	 */
+	private static class Pending {
+		private final byte[] content;
+		private final String token;
+		private volatile long sent;
+
+		private Pending(byte[] content, String token) {
+			this.content = content;
+			this.token = token;
+			this.sent = System.currentTimeMillis();
+		}
+	}
+
+}
@@ -0,0 +1,174 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.apache.catalina.AccessLog;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Handles the connection to a syslog relay over UDP or TCP, bypassing HTTP
+ * entirely.
+ * <p>
+ * Messages are expected with octet-counting framing, that is every syslog
+ * message is prefixed with its length and a space. Over TCP the framed messages
+ * are written to a persistent connection as they are. Over UDP every message is
+ * sent as a separate datagram without the prefix, fire-and-forget. Data is
+ * written from a reusable direct buffer to avoid copying on every write.
+ * <p>
+ * If sending datagrams fails partway through a message, the datagrams already
+ * sent are remembered, so retrying the same message resumes after them instead
+ * of sending them again.
+ *
+ * @author Robin Seggelmann
+ *
+ */
+public class SyslogConnection implements Connection {
+	private static final Log log = LogFactory.getLog(AccessLog.class);
+	// Maximum payload of a UDP datagram
+	private static final int BUFFER_SIZE = 65507;
+	private final Configuration config;
+	private final InetSocketAddress address;
+	private final boolean udp;
+	private final ByteBuffer buffer;
+	private final Opener opener;
+	private WritableByteChannel channel;
+	// Message partially sent as datagrams and the offset to resume from
+	private byte[] partial;
+	private int partialOffset;
+
+	/**
+	 * Opens the channel to the relay.
+	 */
+	interface Opener {
+		WritableByteChannel open() throws IOException;
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param config The {@link Configuration} with a <code>udp://</code> or
+	 *               <code>tcp://</code> endpoint URL.
+	 */
+	public SyslogConnection(Configuration config) {
+		this(config, null);
+	}
+
+	/**
+	 * Constructor to inject the channel for unit tests.
+	 *
+	 * @param config The {@link Configuration} with a <code>udp://</code> or
+	 *               <code>tcp://</code> endpoint URL.
+	 * @param opener Opens the channel, null to connect to the endpoint.
+	 */
+	SyslogConnection(Configuration config, Opener opener) {
+		this.config = config;
+		URI uri = config.getEndpointUri();
+		this.address = new InetSocketAddress(uri.getHost(), (uri.getPort() != -1) ? uri.getPort() : 514);
+		this.udp = "udp".equals(uri.getScheme());
+		this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		this.opener = (opener != null) ? opener : this::open;
+	}
+
+	@Override
+	public synchronized boolean sendMessage(byte[] message) {
+		try {
+			if (channel == null) {
+				channel = opener.open();
+			}
+
+			if (udp) {
+				sendDatagrams(message);
+			} else {
+				sendStream(message);
+			}
+			return true;
+
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+			// Reconnect with the next message
+			close();
+			return false;
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				log.warn(e.getMessage(), e);
+			}
+			channel = null;
+		}
+	}
+
+	private WritableByteChannel open() throws IOException {
+		if (udp) {
+			DatagramChannel datagramChannel = DatagramChannel.open();
+			datagramChannel.connect(address);
+			return datagramChannel;
+		}
+
+		SocketChannel socketChannel = SocketChannel.open();
+		try {
+			// Use the socket to connect for timeout support, the channel stays
+			// in blocking mode.
+			socketChannel.socket().connect(address, config.getTimeout());
+			socketChannel.socket().setTcpNoDelay(true);
+		} catch (IOException e) {
+			socketChannel.close();
+			throw e;
+		}
+		return socketChannel;
+	}
+
+	private void sendDatagrams(byte[] message) throws IOException {
+		if (message != partial) {
+			partial = message;
+			partialOffset = 0;
+		}
+
+		int offset = partialOffset;
+		while (offset < message.length) {
+			// Parse octet count
+			int length = 0;
+			while (message[offset] != ' ') {
+				length = length * 10 + (message[offset++] - '0');
+			}
+			offset++;
+
+			// Messages larger than a datagram are truncated, as allowed by RFC
+			// 5426.
+			buffer.clear();
+			buffer.put(message, offset, Math.min(length, BUFFER_SIZE));
+			buffer.flip();
+			channel.write(buffer);
+			offset += length;
+			partialOffset = offset;
+		}
+		partial = null;
+	}
+
+	private void sendStream(byte[] message) throws IOException {
+		int offset = 0;
+		while (offset < message.length) {
+			buffer.clear();
+			int length = Math.min(message.length - offset, BUFFER_SIZE);
+			buffer.put(message, offset, length);
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			offset += length;
+		}
+	}
+
+}
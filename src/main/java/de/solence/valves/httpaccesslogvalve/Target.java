@@ -1,9 +1,16 @@
 package de.solence.valves.httpaccesslogvalve;
 
+import java.util.Collections;
+import java.util.Map;
+
 /**
  * Interface to support different logging systems as targets. Allows to
  * implement different message formats and authentication methods, depending on
  * the requirements of the endpoint of a logging system.
+ * <p>
+ * Events are encoded either individually by an {@link EventTarget} or as a
+ * whole batch by a {@link BatchTarget}, every target implements at least one
+ * of them.
  * 
  * @author Robin Seggelmann
  *
@@ -25,6 +32,16 @@ public interface Target {
 	 */
 	public String getAuthenticationHeader(String token);
 
+	/**
+	 * Additional headers to be used in the HTTP header.
+	 * 
+	 * @param config The {@link Configuration} to use.
+	 * @return The headers by name, empty by default.
+	 */
+	public default Map<String, String> getHeaders(Configuration config) {
+		return Collections.emptyMap();
+	}
+
 	/**
 	 * Returns the maximum number of events that can be bundled into a single
 	 * message.
@@ -34,14 +51,17 @@ public interface Target {
 	public int getEventsPerMessage();
 
 	/**
-	 * Creates a message from an event with the format expected by the logging
-	 * system.
+	 * Creates a message from a summary of the most frequent clients, routes and
+	 * user agents.
 	 * 
-	 * @param config The {@link Configuration} to use.
-	 * @param event  The {@link Event} to send.
-	 * @return A string with a compatible message for the endpoint.
+	 * @param config  The {@link Configuration} to use.
+	 * @param summary The {@link HeavyHitters.Summary} to send.
+	 * @return A message for the endpoint, by default null if summaries are not
+	 *         supported.
 	 */
-	public String getMessage(Configuration config, Event event);
+	public default String getSummaryMessage(Configuration config, HeavyHitters.Summary summary) {
+		return null;
+	}
 
 	/**
 	 * Check if the response of the logging system indicates successful delivery of
@@ -53,4 +73,50 @@ public interface Target {
 	 */
 	public boolean isResponseOk(int status, String content);
 
+	/**
+	 * Check if the response of the logging system indicates that a message has
+	 * been rejected permanently, e.g. because it is malformed, so sending it again
+	 * would fail as well.
+	 * 
+	 * @param status  The returned HTTP status.
+	 * @param content The returned content as a string.
+	 * @return True if the message must not be retried, by default for status 400,
+	 *         413 and 422.
+	 */
+	public default boolean isResponseRejected(int status, String content) {
+		return status == 400 || status == 413 || status == 422;
+	}
+
+	/**
+	 * Returns whether the logging system requires an authentication token. If
+	 * not, the token is optional and the Authorization header is only sent if
+	 * one has been configured.
+	 * 
+	 * @return True if a token must be configured.
+	 */
+	public default boolean isAuthTokenRequired() {
+		return true;
+	}
+
+	/**
+	 * Returns whether the protocol of the configured endpoint URL can be used with
+	 * the logging system.
+	 * 
+	 * @param protocol The protocol, the scheme of the URL.
+	 * @return True if the protocol is supported, by default HTTP and HTTPS.
+	 */
+	public default boolean isProtocolSupported(String protocol) {
+		return "http".equals(protocol) || "https".equals(protocol);
+	}
+
+	/**
+	 * Creates the connection used to deliver messages to the logging system.
+	 * 
+	 * @param config The {@link Configuration} to use.
+	 * @return The connection, by default an {@link HttpConnection}.
+	 */
+	public default Connection createConnection(Configuration config) {
+		return HttpConnectionFactory.create(config);
+	}
+
 }
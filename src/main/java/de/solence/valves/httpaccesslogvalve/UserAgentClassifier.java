@@ -0,0 +1,156 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import java.util.Locale;
+
+/**
+ * Classifies the user agents of events by browser, operating system, device
+ * type and whether they are bots.
+ * <p>
+ * A small ordered rule set checks for characteristic tokens, where more
+ * specific browsers like Edge come before those whose tokens they include,
+ * like Chrome and Safari. Clients send the same user agent with every request,
+ * so the results are kept in a bounded cache by the raw header and the rules
+ * are only evaluated once per distinct user agent.
+ * 
+ * @author Robin Seggelmann
+ *
+ */
+public class UserAgentClassifier implements EventProcessor {
+	private static final String[][] BROWSERS = { { "Edg/", "Edge" }, { "EdgA/", "Edge" }, { "EdgiOS/", "Edge" },
+			{ "OPR/", "Opera" }, { "Opera", "Opera" }, { "SamsungBrowser/", "Samsung Internet" },
+			{ "YaBrowser/", "Yandex Browser" }, { "Vivaldi/", "Vivaldi" }, { "CriOS/", "Chrome" },
+			{ "FxiOS/", "Firefox" }, { "Firefox/", "Firefox" }, { "Chromium/", "Chromium" },
+			{ "Chrome/", "Chrome" }, { "Version/", "Safari" }, { "MSIE ", "Internet Explorer" },
+			{ "Trident/", "Internet Explorer" }, { "curl/", "curl" }, { "Wget/", "Wget" },
+			{ "python-requests/", "Python Requests" }, { "okhttp/", "OkHttp" }, { "Java/", "Java" } };
+	private static final String[][] SYSTEMS = { { "Windows Phone", "Windows Phone" },
+			{ "Windows", "Windows" }, { "Android", "Android" }, { "iPhone", "iOS" }, { "iPad", "iOS" },
+			{ "iPod", "iOS" }, { "CrOS", "Chrome OS" }, { "Mac OS X", "macOS" }, { "Macintosh", "macOS" },
+			{ "Linux", "Linux" } };
+	private static final String[] BOTS = { "bot", "crawl", "spider", "slurp", "facebookexternalhit",
+			"headless", "monitor", "curl/", "wget/", "python-", "okhttp/", "java/" };
+	private static final String[] TABLETS = { "iPad", "Tablet", "Kindle", "Silk/" };
+	private static final String[] MOBILES = { "Mobi", "iPhone", "iPod", "Android", "Windows Phone" };
+	private static final UserAgent UNKNOWN = new UserAgent(null, null, "other", false);
+	private final LruCache<String, UserAgent> cache;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param config The {@link Configuration} to use.
+	 */
+	public UserAgentClassifier(Configuration config) {
+		this.cache = new LruCache<>(config.getUserAgentCacheSize());
+	}
+
+	@Override
+	public void process(Event event) {
+		String header = event.getUserAgent();
+		if (header == null) {
+			return;
+		}
+
+		UserAgent userAgent = cache.get(header);
+		if (userAgent == null) {
+			userAgent = classify(header);
+			cache.put(header, userAgent);
+		}
+		event.setUserAgentClass(userAgent);
+	}
+
+	/**
+	 * Classifies a user agent.
+	 * 
+	 * @param header The value of the User-Agent header.
+	 * @return The classification.
+	 */
+	public static UserAgent classify(String header) {
+		if (header.isEmpty()) {
+			return UNKNOWN;
+		}
+
+		String browser = find(header, BROWSERS);
+		String os = find(header, SYSTEMS);
+
+		String lower = header.toLowerCase(Locale.ROOT);
+		boolean bot = false;
+		for (String token : BOTS) {
+			if (lower.contains(token)) {
+				bot = true;
+				break;
+			}
+		}
+
+		String device;
+		if (bot) {
+			device = "bot";
+		} else if (containsAny(header, TABLETS) || ("Android".equals(os) && !header.contains("Mobi"))) {
+			device = "tablet";
+		} else if (containsAny(header, MOBILES)) {
+			device = "mobile";
+		} else if (os != null) {
+			device = "desktop";
+		} else {
+			device = "other";
+		}
+		return new UserAgent(browser, os, device, bot);
+	}
+
+	private static String find(String header, String[][] rules) {
+		for (String[] rule : rules) {
+			if (header.contains(rule[0])) {
+				return rule[1];
+			}
+		}
+		return null;
+	}
+
+	private static boolean containsAny(String header, String[] tokens) {
+		for (String token : tokens) {
+			if (header.contains(token)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The classification of a user agent.
+	 */
+	public static class UserAgent {
+		private final String browser;
+		private final String os;
+		private final String device;
+		private final boolean bot;
+
+		private UserAgent(String browser, String os, String device, boolean bot) {
+			this.browser = browser;
+			this.os = os;
+			this.device = device;
+			this.bot = bot;
+		}
+
+		public String getBrowser() {
+			return browser;
+		}
+
+		public String getOs() {
+			return os;
+		}
+
+		/**
+		 * Returns the type of device, either desktop, mobile, tablet, bot or
+		 * other.
+		 * 
+		 * @return The device type.
+		 */
+		public String getDevice() {
+			return device;
+		}
+
+		public boolean isBot() {
+			return bot;
+		}
+	}
+
+}
@@ -0,0 +1,98 @@
+package de.solence.valves.httpaccesslogvalve.targets;
+
+import java.util.List;
+
+import de.solence.valves.httpaccesslogvalve.Event;
+import de.solence.valves.httpaccesslogvalve.HeavyHitters.Summary;
+import de.solence.valves.httpaccesslogvalve.JsonBuilder;
+import de.solence.valves.httpaccesslogvalve.SpaceSaving.Counter;
+import de.solence.valves.httpaccesslogvalve.UserAgentClassifier.UserAgent;
+
+/**
+ * Adds the data of an event as JSON fields, shared by the targets using JSON
+ * messages.
+ * 
+ * @author Robin Seggelmann
+ *
+ */
+final class EventFields {
+
+	private EventFields() {
+	}
+
+	/**
+	 * Adds the event data to the currently open object.
+	 * 
+	 * @param json  The {@link JsonBuilder} to add to.
+	 * @param event The {@link Event} to add.
+	 */
+	static void append(JsonBuilder json, Event event) {
+		json.append("remoteHost", event.getRemoteHost());
+		json.append("method", event.getRequestMethod());
+		json.append("uri", event.getRequestUri());
+		json.append("user", (event.getRemoteUser() != null) ? event.getRemoteUser() : "-");
+		json.append("sessionId", (event.getSessionId() != null) ? event.getSessionId() : "-");
+		json.append("userAgent", (event.getUserAgent() != null) ? event.getUserAgent() : "-");
+		json.append("status", event.getStatus());
+		json.append("bytes", event.getBytes());
+		json.append("processingTime", event.getProcessingTime());
+		if (event.getCount() > 1) {
+			json.append("count", event.getCount());
+			json.append("processingTimeMin", event.getMinProcessingTime());
+			json.append("processingTimeMax", event.getMaxProcessingTime());
+			json.append("processingTimeSum", event.getTotalProcessingTime());
+		}
+		if (event.getRoute() != null) {
+			json.append("route", event.getRoute());
+		}
+		UserAgent userAgent = event.getUserAgentClass();
+		if (userAgent != null) {
+			if (userAgent.getBrowser() != null) {
+				json.append("browser", userAgent.getBrowser());
+			}
+			if (userAgent.getOs() != null) {
+				json.append("os", userAgent.getOs());
+			}
+			json.append("device", userAgent.getDevice());
+			json.append("bot", userAgent.isBot());
+		}
+		if (event.getRemoteAddr() != null) {
+			json.append("remoteAddr", event.getRemoteAddr());
+		}
+		if (event.getCountry() != null) {
+			json.append("country", event.getCountry());
+		}
+		if (event.getAsn() != 0) {
+			json.append("asn", event.getAsn());
+		}
+	}
+
+	/**
+	 * Adds the data of a heavy hitter summary to the currently open object.
+	 * 
+	 * @param json    The {@link JsonBuilder} to add to.
+	 * @param summary The {@link Summary} to add.
+	 */
+	static void append(JsonBuilder json, Summary summary) {
+		json.append("type", "heavyHitters");
+		json.append("start", summary.getStart());
+		json.append("end", summary.getEnd());
+		json.append("events", summary.getEvents());
+		appendCounters(json, "clients", summary.getClients());
+		appendCounters(json, "routes", summary.getRoutes());
+		appendCounters(json, "userAgents", summary.getUserAgents());
+	}
+
+	private static void appendCounters(JsonBuilder json, String key, List<Counter> counters) {
+		json.startArray(key);
+		for (Counter counter : counters) {
+			json.startObject(null);
+			json.append("key", counter.getKey());
+			json.append("count", counter.getCount());
+			json.append("error", counter.getError());
+			json.endObject();
+		}
+		json.endArray();
+	}
+
+}
@@ -0,0 +1,202 @@
+package de.solence.valves.httpaccesslogvalve.targets;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.List;
+
+import de.solence.valves.httpaccesslogvalve.BatchTarget;
+import de.solence.valves.httpaccesslogvalve.Configuration;
+import de.solence.valves.httpaccesslogvalve.Connection;
+import de.solence.valves.httpaccesslogvalve.Destination;
+import de.solence.valves.httpaccesslogvalve.Event;
+import de.solence.valves.httpaccesslogvalve.ForwardConnection;
+import de.solence.valves.httpaccesslogvalve.MessagePackWriter;
+import de.solence.valves.httpaccesslogvalve.Target;
+import de.solence.valves.httpaccesslogvalve.UserAgentClassifier.UserAgent;
+
+/**
+ * Implements {@link Target} for Fluentd and Fluent Bit using the Forward
+ * protocol over TCP with a {@link ForwardConnection} instead of HTTP.
+ * <p>
+ * Batches are encoded in PackedForward mode, that is
+ * <code>[tag, entries, options]</code>, where entries are the MessagePack
+ * encoded <code>[time, record]</code> pairs of all events as binary data. The
+ * record contains the same fields as the JSON targets. The options contain the
+ * number of events and, if acknowledgements are enabled, a chunk ID as last
+ * value. The encoding buffers are kept per thread and reused for every batch.
+ * Records are encoded before their map header, so it contains the number of
+ * fields actually written.
+ *
+ * @author Robin Seggelmann
+ *
+ */
+public class Forward implements BatchTarget {
+	private static final ThreadLocal<MessagePackWriter> entries = ThreadLocal.withInitial(MessagePackWriter::new);
+	private static final ThreadLocal<MessagePackWriter> messages = ThreadLocal.withInitial(MessagePackWriter::new);
+	private static final ThreadLocal<Record> records = ThreadLocal.withInitial(Record::new);
+
+	/**
+	 * Not used, the Forward protocol does not use HTTP.
+	 */
+	@Override
+	public String getContentType() {
+		return null;
+	}
+
+	/**
+	 * Not used, the shared key handshake of the Forward protocol is not
+	 * supported.
+	 */
+	@Override
+	public String getAuthenticationHeader(String token) {
+		return null;
+	}
+
+	/**
+	 * Limit to 100 events per message, records are much smaller than JSON.
+	 */
+	@Override
+	public int getEventsPerMessage() {
+		return 100;
+	}
+
+	/**
+	 * Creates a PackedForward message with all events. The index of the
+	 * destination of the events is used as tag, if set.
+	 *
+	 * @return The message encoded as MessagePack.
+	 */
+	@Override
+	public byte[] getBatchMessage(Configuration config, List<Event> events) {
+		MessagePackWriter stream = entries.get().reset();
+		for (Event event : events) {
+			appendEntry(stream, config, event);
+		}
+
+		String tag = config.getForwardTag();
+		Destination destination = events.isEmpty() ? null : events.get(0).getDestination();
+		if (destination != null && destination.getIndex() != null) {
+			tag = destination.getIndex();
+		}
+
+		MessagePackWriter message = messages.get().reset();
+		message.arrayHeader(3);
+		message.string(tag);
+		message.binary(stream);
+		boolean ack = config.isForwardAck();
+		message.mapHeader(ack ? 2 : 1);
+		message.string("size").integer(events.size());
+		if (ack) {
+			// Must be the last value, see ForwardConnection
+			message.string("chunk").string(ForwardConnection.createChunkId());
+		}
+		return message.toByteArray();
+	}
+
+	/**
+	 * Not used, delivery is confirmed by the connection.
+	 */
+	@Override
+	public boolean isResponseOk(int status, String content) {
+		return true;
+	}
+
+	/**
+	 * Authentication is not supported.
+	 */
+	@Override
+	public boolean isAuthTokenRequired() {
+		return false;
+	}
+
+	/**
+	 * Supports <code>tcp://host:port</code>.
+	 */
+	@Override
+	public boolean isProtocolSupported(String protocol) {
+		return "tcp".equals(protocol);
+	}
+
+	/**
+	 * Creates a {@link ForwardConnection}.
+	 */
+	@Override
+	public Connection createConnection(Configuration config) {
+		return new ForwardConnection(config);
+	}
+
+	private void appendEntry(MessagePackWriter writer, Configuration config, Event event) {
+		Record record = records.get().reset();
+		record.field("host").string(config.getHost());
+		record.field("source").string(config.getSource());
+		record.field("remoteHost").string(event.getRemoteHost());
+		record.field("method").string(event.getRequestMethod());
+		record.field("uri").string(event.getRequestUri());
+		record.field("user").string((event.getRemoteUser() != null) ? event.getRemoteUser() : "-");
+		record.field("sessionId").string((event.getSessionId() != null) ? event.getSessionId() : "-");
+		record.field("userAgent").string((event.getUserAgent() != null) ? event.getUserAgent() : "-");
+		record.field("status").integer(event.getStatus());
+		record.field("bytes").integer(event.getBytes());
+		record.field("processingTime").integer(event.getProcessingTime());
+		if (event.getCount() > 1) {
+			record.field("count").integer(event.getCount());
+			record.field("processingTimeMin").integer(event.getMinProcessingTime());
+			record.field("processingTimeMax").integer(event.getMaxProcessingTime());
+			record.field("processingTimeSum").integer(event.getTotalProcessingTime());
+		}
+		if (event.getRoute() != null) {
+			record.field("route").string(event.getRoute());
+		}
+		UserAgent userAgent = event.getUserAgentClass();
+		if (userAgent != null) {
+			if (userAgent.getBrowser() != null) {
+				record.field("browser").string(userAgent.getBrowser());
+			}
+			if (userAgent.getOs() != null) {
+				record.field("os").string(userAgent.getOs());
+			}
+			record.field("device").string(userAgent.getDevice());
+			record.field("bot").bool(userAgent.isBot());
+		}
+		if (event.getRemoteAddr() != null) {
+			record.field("remoteAddr").string(event.getRemoteAddr());
+		}
+		if (event.getCountry() != null) {
+			record.field("country").string(event.getCountry());
+		}
+		if (event.getAsn() != 0) {
+			record.field("asn").integer(event.getAsn());
+		}
+
+		Instant time = event.getTime().atZone(ZoneId.systemDefault()).toInstant();
+		writer.arrayHeader(2);
+		writer.eventTime(time.getEpochSecond(), time.getNano());
+		writer.mapHeader(record.fields).append(record.writer);
+	}
+
+	/**
+	 * The fields of a record, counted while they are written.
+	 */
+	private static class Record {
+		private final MessagePackWriter writer = new MessagePackWriter();
+		private int fields;
+
+		private Record reset() {
+			writer.reset();
+			fields = 0;
+			return this;
+		}
+
+		/**
+		 * Adds the key of a field, which must be followed by its value.
+		 *
+		 * @param key The key.
+		 * @return The writer for the value.
+		 */
+		private MessagePackWriter field(String key) {
+			fields++;
+			return writer.string(key);
+		}
+	}
+
+}
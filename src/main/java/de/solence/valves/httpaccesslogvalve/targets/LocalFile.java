@@ -0,0 +1,138 @@
+package de.solence.valves.httpaccesslogvalve.targets;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+import de.solence.valves.httpaccesslogvalve.BatchTarget;
+import de.solence.valves.httpaccesslogvalve.Configuration;
+import de.solence.valves.httpaccesslogvalve.Connection;
+import de.solence.valves.httpaccesslogvalve.Event;
+import de.solence.valves.httpaccesslogvalve.EventTarget;
+import de.solence.valves.httpaccesslogvalve.HeavyHitters.Summary;
+import de.solence.valves.httpaccesslogvalve.JsonBuilder;
+import de.solence.valves.httpaccesslogvalve.MappedFileConnection;
+import de.solence.valves.httpaccesslogvalve.Target;
+
+/**
+ * Implements {@link Target} for local files, for environments without a
+ * reachable logging system. Events are written as newline delimited JSON
+ * (NDJSON), one JSON object per line, by a {@link MappedFileConnection}.
+ * <p>
+ * Unlike Tomcat's own access log valve, formatting and writing happens in the
+ * sender thread with the same queueing and batching as for the other targets.
+ *
+ * @author Robin Seggelmann
+ *
+ */
+public class LocalFile implements BatchTarget, EventTarget {
+
+	private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ISO_OFFSET_DATE_TIME;
+
+	/**
+	 * Not used, files are written directly.
+	 */
+	@Override
+	public String getContentType() {
+		return null;
+	}
+
+	/**
+	 * Not used, files are written directly.
+	 */
+	@Override
+	public String getAuthenticationHeader(String token) {
+		return null;
+	}
+
+	/**
+	 * Limit to 100 events per message, since writing is cheap.
+	 */
+	@Override
+	public int getEventsPerMessage() {
+		return 100;
+	}
+
+	/**
+	 * Creates a JSON object from the event data.
+	 *
+	 * @return A single line JSON object.
+	 */
+	@Override
+	public String getMessage(Configuration config, Event event) {
+		JsonBuilder json = new JsonBuilder();
+		json.startObject(null);
+		json.append("time", event.getTime().atZone(ZoneId.systemDefault()).format(TIMESTAMP));
+		json.append("host", config.getHost());
+		json.append("source", config.getSource());
+		EventFields.append(json, event);
+		json.endObject();
+		return json.toString();
+	}
+
+	/**
+	 * Creates a JSON object from the summary.
+	 *
+	 * @return A single line JSON object with line break.
+	 */
+	@Override
+	public String getSummaryMessage(Configuration config, Summary summary) {
+		JsonBuilder json = new JsonBuilder();
+		json.startObject(null);
+		json.append("time", Instant.ofEpochMilli(summary.getEnd()).atZone(ZoneId.systemDefault()).format(TIMESTAMP));
+		json.append("host", config.getHost());
+		json.append("source", config.getSource());
+		EventFields.append(json, summary);
+		json.endObject();
+		return json.toString() + '\n';
+	}
+
+	/**
+	 * Creates one line per event.
+	 *
+	 * @return The lines, encoded as UTF-8.
+	 */
+	@Override
+	public byte[] getBatchMessage(Configuration config, List<Event> events) {
+		StringBuilder sb = new StringBuilder(events.size() * 256);
+		for (Event event : events) {
+			sb.append(getMessage(config, event)).append('\n');
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Not used, delivery is confirmed by the connection.
+	 */
+	@Override
+	public boolean isResponseOk(int status, String content) {
+		return true;
+	}
+
+	/**
+	 * Files do not need authentication.
+	 */
+	@Override
+	public boolean isAuthTokenRequired() {
+		return false;
+	}
+
+	/**
+	 * Supports <code>file:///path/prefix</code>.
+	 */
+	@Override
+	public boolean isProtocolSupported(String protocol) {
+		return "file".equals(protocol);
+	}
+
+	/**
+	 * Creates a {@link MappedFileConnection}.
+	 */
+	@Override
+	public Connection createConnection(Configuration config) {
+		return new MappedFileConnection(config);
+	}
+
+}
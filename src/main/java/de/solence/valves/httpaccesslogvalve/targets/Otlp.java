@@ -0,0 +1,230 @@
+package de.solence.valves.httpaccesslogvalve.targets;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+import de.solence.valves.httpaccesslogvalve.BatchTarget;
+import de.solence.valves.httpaccesslogvalve.Configuration;
+import de.solence.valves.httpaccesslogvalve.Event;
+import de.solence.valves.httpaccesslogvalve.ProtobufWriter;
+import de.solence.valves.httpaccesslogvalve.Target;
+import de.solence.valves.httpaccesslogvalve.UserAgentClassifier.UserAgent;
+
+/**
+ * Implements {@link Target} for OpenTelemetry collectors. Batches of events are
+ * encoded as OTLP/HTTP <code>ExportLogsServiceRequest</code> protobuf messages,
+ * which are smaller and cheaper to parse than JSON.
+ * <p>
+ * The resource, containing the host and source as attributes, is the same for
+ * every message, so it is only encoded once. Event data is added as log record
+ * attributes using the HTTP semantic conventions.
+ *
+ * @author Robin Seggelmann
+ *
+ */
+public class Otlp implements BatchTarget {
+	// ExportLogsServiceRequest
+	private static final int REQUEST_RESOURCE_LOGS = 1;
+	// ResourceLogs
+	private static final int RESOURCE_LOGS_RESOURCE = 1;
+	private static final int RESOURCE_LOGS_SCOPE_LOGS = 2;
+	// Resource
+	private static final int RESOURCE_ATTRIBUTES = 1;
+	// ScopeLogs
+	private static final int SCOPE_LOGS_SCOPE = 1;
+	private static final int SCOPE_LOGS_LOG_RECORDS = 2;
+	// InstrumentationScope
+	private static final int SCOPE_NAME = 1;
+	// LogRecord
+	private static final int LOG_RECORD_TIME_UNIX_NANO = 1;
+	private static final int LOG_RECORD_SEVERITY_NUMBER = 2;
+	private static final int LOG_RECORD_SEVERITY_TEXT = 3;
+	private static final int LOG_RECORD_BODY = 5;
+	private static final int LOG_RECORD_ATTRIBUTES = 6;
+	private static final int LOG_RECORD_OBSERVED_TIME_UNIX_NANO = 11;
+	// KeyValue
+	private static final int KEY_VALUE_KEY = 1;
+	private static final int KEY_VALUE_VALUE = 2;
+	// AnyValue
+	private static final int ANY_VALUE_STRING = 1;
+	private static final int ANY_VALUE_INT = 3;
+
+	// SeverityNumber
+	private static final int SEVERITY_INFO = 9;
+	private static final int SEVERITY_WARN = 13;
+	private static final int SEVERITY_ERROR = 17;
+
+	private volatile Configuration resourceConfig;
+	private volatile byte[] resource;
+
+	/**
+	 * Returns the content type, always use protobuf.
+	 */
+	@Override
+	public String getContentType() {
+		return "application/x-protobuf";
+	}
+
+	/**
+	 * Creates a bearer authentication header, if a token is configured.
+	 */
+	@Override
+	public String getAuthenticationHeader(String token) {
+		return (token != null) ? "Bearer " + token : null;
+	}
+
+	/**
+	 * Limit to 100 events per message, records are much smaller than JSON.
+	 */
+	@Override
+	public int getEventsPerMessage() {
+		return 100;
+	}
+
+	/**
+	 * Creates an OTLP <code>ExportLogsServiceRequest</code> containing a single
+	 * resource and scope with one log record per event.
+	 *
+	 * @return The protobuf encoded message.
+	 */
+	@Override
+	public byte[] getBatchMessage(Configuration config, List<Event> events) {
+		ProtobufWriter scopeLogs = new ProtobufWriter();
+		scopeLogs.message(SCOPE_LOGS_SCOPE, new ProtobufWriter().string(SCOPE_NAME, "HttpAccessLogValve"));
+
+		ProtobufWriter record = new ProtobufWriter();
+		ProtobufWriter attribute = new ProtobufWriter();
+		ProtobufWriter value = new ProtobufWriter();
+		for (Event event : events) {
+			record.reset();
+			encodeLogRecord(record, attribute, value, event);
+			scopeLogs.message(SCOPE_LOGS_LOG_RECORDS, record);
+		}
+
+		ProtobufWriter resourceLogs = new ProtobufWriter();
+		resourceLogs.bytes(RESOURCE_LOGS_RESOURCE, getResource(config));
+		resourceLogs.message(RESOURCE_LOGS_SCOPE_LOGS, scopeLogs);
+
+		return new ProtobufWriter().message(REQUEST_RESOURCE_LOGS, resourceLogs).toByteArray();
+	}
+
+	/**
+	 * Check if the response from the collector indicates successful delivery. A
+	 * full success is indicated by status 200, the response content may contain
+	 * details about partially rejected records, which are not retried.
+	 */
+	@Override
+	public boolean isResponseOk(int status, String content) {
+		return status == 200;
+	}
+
+	/**
+	 * A token is optional, collectors are often accessed without authentication.
+	 */
+	@Override
+	public boolean isAuthTokenRequired() {
+		return false;
+	}
+
+	private byte[] getResource(Configuration config) {
+		// The configuration does not change, so the resource only needs to be
+		// encoded once.
+		byte[] encoded = resource;
+		if (encoded == null || resourceConfig != config) {
+			ProtobufWriter attribute = new ProtobufWriter();
+			ProtobufWriter value = new ProtobufWriter();
+			ProtobufWriter writer = new ProtobufWriter();
+			appendAttribute(writer, RESOURCE_ATTRIBUTES, attribute, value, "host.name", config.getHost());
+			appendAttribute(writer, RESOURCE_ATTRIBUTES, attribute, value, "service.name", config.getSource());
+			encoded = writer.toByteArray();
+			resource = encoded;
+			resourceConfig = config;
+		}
+		return encoded;
+	}
+
+	private void encodeLogRecord(ProtobufWriter record, ProtobufWriter attribute, ProtobufWriter value,
+			Event event) {
+		ZonedDateTime time = event.getTime().atZone(ZoneId.systemDefault());
+		long nanos = time.toEpochSecond() * 1_000_000_000L + time.getNano();
+
+		record.fixed64(LOG_RECORD_TIME_UNIX_NANO, nanos);
+		record.fixed64(LOG_RECORD_OBSERVED_TIME_UNIX_NANO, nanos);
+		if (event.getStatus() >= 500) {
+			record.varint(LOG_RECORD_SEVERITY_NUMBER, SEVERITY_ERROR).string(LOG_RECORD_SEVERITY_TEXT, "ERROR");
+		} else if (event.getStatus() >= 400) {
+			record.varint(LOG_RECORD_SEVERITY_NUMBER, SEVERITY_WARN).string(LOG_RECORD_SEVERITY_TEXT, "WARN");
+		} else {
+			record.varint(LOG_RECORD_SEVERITY_NUMBER, SEVERITY_INFO).string(LOG_RECORD_SEVERITY_TEXT, "INFO");
+		}
+
+		// Body similar to a common log line, to be readable without attributes
+		value.reset().string(ANY_VALUE_STRING,
+				event.getRequestMethod() + " " + event.getRequestUri() + " " + event.getStatus());
+		record.message(LOG_RECORD_BODY, value);
+
+		appendAttribute(record, LOG_RECORD_ATTRIBUTES, attribute, value, "client.address", event.getRemoteHost());
+		appendAttribute(record, LOG_RECORD_ATTRIBUTES, attribute, value, "network.peer.address",
+				event.getRemoteAddr());
+		appendAttribute(record, LOG_RECORD_ATTRIBUTES, attribute, value, "geo.country.iso_code",
+				event.getCountry());
+		if (event.getAsn() != 0) {
+			appendAttribute(record, LOG_RECORD_ATTRIBUTES, attribute, value, "client.as.number", event.getAsn());
+		}
+		appendAttribute(record, LOG_RECORD_ATTRIBUTES, attribute, value, "http.request.method",
+				event.getRequestMethod());
+		appendAttribute(record, LOG_RECORD_ATTRIBUTES, attribute, value, "url.path", event.getRequestUri());
+		appendAttribute(record, LOG_RECORD_ATTRIBUTES, attribute, value, "http.route", event.getRoute());
+		appendAttribute(record, LOG_RECORD_ATTRIBUTES, attribute, value, "enduser.id", event.getRemoteUser());
+		appendAttribute(record, LOG_RECORD_ATTRIBUTES, attribute, value, "session.id", event.getSessionId());
+		appendAttribute(record, LOG_RECORD_ATTRIBUTES, attribute, value, "user_agent.original",
+				event.getUserAgent());
+		UserAgent userAgent = event.getUserAgentClass();
+		if (userAgent != null) {
+			appendAttribute(record, LOG_RECORD_ATTRIBUTES, attribute, value, "user_agent.name",
+					userAgent.getBrowser());
+			appendAttribute(record, LOG_RECORD_ATTRIBUTES, attribute, value, "user_agent.os.name",
+					userAgent.getOs());
+			appendAttribute(record, LOG_RECORD_ATTRIBUTES, attribute, value, "user_agent.device.type",
+					userAgent.getDevice());
+			if (userAgent.isBot()) {
+				appendAttribute(record, LOG_RECORD_ATTRIBUTES, attribute, value, "user_agent.synthetic.type",
+						"bot");
+			}
+		}
+		appendAttribute(record, LOG_RECORD_ATTRIBUTES, attribute, value, "http.response.status_code",
+				event.getStatus());
+		appendAttribute(record, LOG_RECORD_ATTRIBUTES, attribute, value, "http.response.body.size",
+				event.getBytes());
+		appendAttribute(record, LOG_RECORD_ATTRIBUTES, attribute, value, "tomcat.processing_time_ms",
+				event.getProcessingTime());
+		if (event.getCount() > 1) {
+			appendAttribute(record, LOG_RECORD_ATTRIBUTES, attribute, value, "tomcat.count", event.getCount());
+			appendAttribute(record, LOG_RECORD_ATTRIBUTES, attribute, value, "tomcat.processing_time_ms.min",
+					event.getMinProcessingTime());
+			appendAttribute(record, LOG_RECORD_ATTRIBUTES, attribute, value, "tomcat.processing_time_ms.max",
+					event.getMaxProcessingTime());
+			appendAttribute(record, LOG_RECORD_ATTRIBUTES, attribute, value, "tomcat.processing_time_ms.sum",
+					event.getTotalProcessingTime());
+		}
+	}
+
+	private void appendAttribute(ProtobufWriter writer, int field, ProtobufWriter attribute, ProtobufWriter value,
+			String key, String content) {
+		// Omit missing values instead of sending placeholders
+		if (content != null) {
+			value.reset().string(ANY_VALUE_STRING, content);
+			attribute.reset().string(KEY_VALUE_KEY, key).message(KEY_VALUE_VALUE, value);
+			writer.message(field, attribute);
+		}
+	}
+
+	private void appendAttribute(ProtobufWriter writer, int field, ProtobufWriter attribute, ProtobufWriter value,
+			String key, long content) {
+		value.reset().varint(ANY_VALUE_INT, content);
+		attribute.reset().string(KEY_VALUE_KEY, key).message(KEY_VALUE_VALUE, value);
+		writer.message(field, attribute);
+	}
+
+}
@@ -1,23 +1,45 @@
 package de.solence.valves.httpaccesslogvalve.targets;
 
 import java.time.ZoneId;
+import java.util.Collections;
 import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import de.solence.valves.httpaccesslogvalve.Configuration;
+import de.solence.valves.httpaccesslogvalve.Connection;
+import de.solence.valves.httpaccesslogvalve.Destination;
 import de.solence.valves.httpaccesslogvalve.Event;
+import de.solence.valves.httpaccesslogvalve.EventTarget;
+import de.solence.valves.httpaccesslogvalve.HeavyHitters.Summary;
+import de.solence.valves.httpaccesslogvalve.HttpConnection;
+import de.solence.valves.httpaccesslogvalve.HttpConnectionFactory;
 import de.solence.valves.httpaccesslogvalve.JsonBuilder;
+import de.solence.valves.httpaccesslogvalve.SplunkAckConnection;
 import de.solence.valves.httpaccesslogvalve.Target;
 
 /**
  * Implements {@link Target} for Splunk. Provides an authentication method and
  * message format compatible with Splunk HTTP Event Collectors (HEC).
  * <p>
+ * If indexer acknowledgement is enabled, messages are sent on a channel and
+ * delivery is confirmed asynchronously by a {@link SplunkAckConnection}.
+ * <p>
  * Splunk is a registered trademark of Splunk Inc.
  * 
  * @author Robin Seggelmann
  *
  */
-public class Splunk implements Target {
+public class Splunk implements EventTarget {
+	private static final Pattern ERROR_CODE = Pattern.compile("\"code\"\\s*:\\s*(\\d+)");
+	// Identifies this client for indexer acknowledgement
+	private final String channel = UUID.randomUUID().toString();
+	private final Map<Destination, String> destinations = new ConcurrentHashMap<>();
+	private volatile String metadata;
+	private volatile Configuration metadataConfig;
 
 	/**
 	 * Returns the content type, always use JSON.
@@ -35,6 +57,17 @@ public class Splunk implements Target {
 		return "Splunk " + token;
 	}
 
+	/**
+	 * Adds the channel header, if indexer acknowledgement is enabled.
+	 */
+	@Override
+	public Map<String, String> getHeaders(Configuration config) {
+		if (config.isSplunkAck()) {
+			return Collections.singletonMap("X-Splunk-Request-Channel", channel);
+		}
+		return Collections.emptyMap();
+	}
+
 	/**
 	 * Limit to 25 events per message to avoid large messages.
 	 */
@@ -58,30 +91,90 @@ public class Splunk implements Target {
 		// metadata
 		json.startObject(null);
 		json.append("time", String.format(Locale.US, "%.3f", epoch));
+		json.appendEncoded(getMetadata(config, event.getDestination()));
+		// begin event
+		json.startObject("event");
+		// actual data
+		EventFields.append(json, event);
+		json.endObject();
+		json.endObject();
+
+		return json.toString();
+	}
+
+	/**
+	 * Creates a Splunk event from the summary with source type
+	 * <code>access:summary</code>.
+	 * 
+	 * @return A JSON message with a Splunk event.
+	 */
+	@Override
+	public String getSummaryMessage(Configuration config, Summary summary) {
+		JsonBuilder json = new JsonBuilder();
+
+		// metadata
+		json.startObject(null);
+		json.append("time", String.format(Locale.US, "%.3f", summary.getEnd() / 1000.0));
 		if (config.getIndex() != null) {
 			json.append("index", config.getIndex());
 		}
 		json.append("host", config.getHost());
 		json.append("source", config.getSource());
-		json.append("sourcetype", "access");
+		json.append("sourcetype", "access:summary");
 		// begin event
 		json.startObject("event");
-		// actual data
-		json.append("remoteHost", event.getRemoteHost());
-		json.append("method", event.getRequestMethod());
-		json.append("uri", event.getRequestUri());
-		json.append("user", (event.getRemoteUser() != null) ? event.getRemoteUser() : "-");
-		json.append("sessionId", (event.getSessionId() != null) ? event.getSessionId() : "-");
-		json.append("userAgent", (event.getUserAgent() != null) ? event.getUserAgent() : "-");
-		json.append("status", event.getStatus());
-		json.append("bytes", event.getBytes());
-		json.append("processingTime", event.getProcessingTime());
+		EventFields.append(json, summary);
 		json.endObject();
 		json.endObject();
 
 		return json.toString();
 	}
 
+	/**
+	 * Returns the metadata of the destination, which is the same for all its
+	 * events and therefore only encoded once.
+	 * 
+	 * @param config      The {@link Configuration} to use.
+	 * @param destination The {@link Destination}, or null for the configured one.
+	 * @return The encoded metadata.
+	 */
+	private String getMetadata(Configuration config, Destination destination) {
+		if (destination != null) {
+			// Destinations are created once from the same configuration
+			return destinations.computeIfAbsent(destination, d -> encodeMetadata(config, d));
+		}
+
+		String encoded = metadata;
+		if (encoded == null || metadataConfig != config) {
+			encoded = encodeMetadata(config, null);
+			metadata = encoded;
+			metadataConfig = config;
+		}
+		return encoded;
+	}
+
+	private static String encodeMetadata(Configuration config, Destination destination) {
+		String index = config.getIndex();
+		String sourceType = "access";
+		if (destination != null) {
+			if (destination.getIndex() != null) {
+				index = destination.getIndex();
+			}
+			if (destination.getSourceType() != null) {
+				sourceType = destination.getSourceType();
+			}
+		}
+
+		JsonBuilder json = new JsonBuilder();
+		if (index != null) {
+			json.append("index", index);
+		}
+		json.append("host", config.getHost());
+		json.append("source", config.getSource());
+		json.append("sourcetype", sourceType);
+		return json.toString();
+	}
+
 	/**
 	 * Check if the response from Splunk indicates successful delivery of the event
 	 * message.
@@ -92,4 +185,47 @@ public class Splunk implements Target {
 		return (status == 200 && content != null && content.contains("Success"));
 	}
 
+	/**
+	 * Check if Splunk rejected the message because of its content, which are the
+	 * error codes for no data, invalid data format, a missing event field and a
+	 * blank event field. Other errors with status 400, like a missing channel or
+	 * an incorrect index, are configuration errors affecting every message and
+	 * are retried.
+	 */
+	@Override
+	public boolean isResponseRejected(int status, String content) {
+		if (status == 413) {
+			return true;
+		}
+		if (status != 400 || content == null) {
+			return false;
+		}
+		Matcher matcher = ERROR_CODE.matcher(content);
+		if (!matcher.find()) {
+			return false;
+		}
+		switch (matcher.group(1)) {
+		case "5":
+		case "6":
+		case "12":
+		case "13":
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Creates an {@link HttpConnection}, wrapped by a {@link SplunkAckConnection}
+	 * if indexer acknowledgement is enabled.
+	 */
+	@Override
+	public Connection createConnection(Configuration config) {
+		HttpConnection conn = HttpConnectionFactory.create(config);
+		if (config.isSplunkAck()) {
+			return new SplunkAckConnection(config, conn);
+		}
+		return conn;
+	}
+
 }
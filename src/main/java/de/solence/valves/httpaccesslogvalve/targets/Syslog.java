@@ -0,0 +1,296 @@
+package de.solence.valves.httpaccesslogvalve.targets;
+
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.List;
+
+import de.solence.valves.httpaccesslogvalve.BatchTarget;
+import de.solence.valves.httpaccesslogvalve.Configuration;
+import de.solence.valves.httpaccesslogvalve.Connection;
+import de.solence.valves.httpaccesslogvalve.Event;
+import de.solence.valves.httpaccesslogvalve.EventTarget;
+import de.solence.valves.httpaccesslogvalve.SyslogConnection;
+import de.solence.valves.httpaccesslogvalve.Target;
+import de.solence.valves.httpaccesslogvalve.UserAgentClassifier.UserAgent;
+
+/**
+ * Implements {@link Target} for syslog relays like rsyslog or syslog-ng. Events
+ * are formatted as RFC 5424 messages with the event data as structured data
+ * and sent with a {@link SyslogConnection} over UDP or TCP instead of HTTP.
+ * <p>
+ * A batch is encoded with octet-counting framing (RFC 6587), that is every
+ * message is prefixed with its length. This is sent as is over TCP and allows
+ * to split the batch into one datagram per event for UDP. Batches are encoded
+ * to UTF-8 directly into a buffer reused by the thread, without intermediate
+ * strings.
+ *
+ * @author Robin Seggelmann
+ *
+ */
+public class Syslog implements BatchTarget, EventTarget {
+	// Facility local0
+	private static final int FACILITY = 16;
+	private static final int SEVERITY_ERROR = 3;
+	private static final int SEVERITY_WARNING = 4;
+	private static final int SEVERITY_INFO = 6;
+	// Enterprise number reserved for documentation, used for a private SD-ID
+	private static final String SD_ID = "access@32473";
+
+	// RFC 5424 allows at most microseconds, and +hh:mm or Z as offset
+	private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss.SSSSSSXXX");
+	private static final ThreadLocal<StringBuilder> builders = ThreadLocal.withInitial(() -> new StringBuilder(256));
+	private static final ThreadLocal<Utf8Buffer> buffers = ThreadLocal.withInitial(Utf8Buffer::new);
+
+	/**
+	 * Not used, syslog does not use HTTP.
+	 */
+	@Override
+	public String getContentType() {
+		return null;
+	}
+
+	/**
+	 * Not used, syslog does not support authentication.
+	 */
+	@Override
+	public String getAuthenticationHeader(String token) {
+		return null;
+	}
+
+	/**
+	 * Limit to 100 events per message, since syslog messages are cheap to send.
+	 */
+	@Override
+	public int getEventsPerMessage() {
+		return 100;
+	}
+
+	/**
+	 * Creates an RFC 5424 syslog message from the event data.
+	 *
+	 * @return A syslog message without framing.
+	 */
+	@Override
+	public String getMessage(Configuration config, Event event) {
+		return appendMessage(new StringBuilder(256), config, event).toString();
+	}
+
+	/**
+	 * Creates the messages for all events with octet-counting framing.
+	 *
+	 * @return The framed messages, encoded as UTF-8.
+	 */
+	@Override
+	public byte[] getBatchMessage(Configuration config, List<Event> events) {
+		StringBuilder sb = builders.get();
+		Utf8Buffer buffer = buffers.get().reset();
+		for (Event event : events) {
+			sb.setLength(0);
+			appendMessage(sb, config, event);
+			buffer.appendLength(sb).append(sb);
+		}
+		return buffer.toByteArray();
+	}
+
+	private StringBuilder appendMessage(StringBuilder sb, Configuration config, Event event) {
+		int severity = SEVERITY_INFO;
+		if (event.getStatus() >= 500) {
+			severity = SEVERITY_ERROR;
+		} else if (event.getStatus() >= 400) {
+			severity = SEVERITY_WARNING;
+		}
+
+		// header
+		sb.append('<').append(FACILITY * 8 + severity).append(">1 ");
+		sb.append(event.getTime().atZone(ZoneId.systemDefault()).format(TIMESTAMP)).append(' ');
+		appendHeaderField(sb, config.getHost(), 255).append(' ');
+		appendHeaderField(sb, config.getSource(), 48).append(' ');
+		sb.append("- access ");
+		// structured data
+		sb.append('[').append(SD_ID);
+		appendParam(sb, "remoteHost", event.getRemoteHost());
+		appendParam(sb, "method", event.getRequestMethod());
+		appendParam(sb, "uri", event.getRequestUri());
+		appendParam(sb, "user", event.getRemoteUser());
+		appendParam(sb, "sessionId", event.getSessionId());
+		appendParam(sb, "userAgent", event.getUserAgent());
+		appendParam(sb, "status", Integer.toString(event.getStatus()));
+		appendParam(sb, "bytes", Integer.toString(event.getBytes()));
+		appendParam(sb, "processingTime", Long.toString(event.getProcessingTime()));
+		if (event.getCount() > 1) {
+			appendParam(sb, "count", Integer.toString(event.getCount()));
+			appendParam(sb, "processingTimeMin", Long.toString(event.getMinProcessingTime()));
+			appendParam(sb, "processingTimeMax", Long.toString(event.getMaxProcessingTime()));
+			appendParam(sb, "processingTimeSum", Long.toString(event.getTotalProcessingTime()));
+		}
+		appendParam(sb, "route", event.getRoute());
+		UserAgent userAgent = event.getUserAgentClass();
+		if (userAgent != null) {
+			appendParam(sb, "browser", userAgent.getBrowser());
+			appendParam(sb, "os", userAgent.getOs());
+			appendParam(sb, "device", userAgent.getDevice());
+			appendParam(sb, "bot", Boolean.toString(userAgent.isBot()));
+		}
+		appendParam(sb, "remoteAddr", event.getRemoteAddr());
+		appendParam(sb, "country", event.getCountry());
+		appendParam(sb, "asn", (event.getAsn() != 0) ? Long.toString(event.getAsn()) : null);
+		sb.append(']');
+		// message
+		sb.append(' ').append(event.getRequestMethod()).append(' ').append(event.getRequestUri()).append(' ')
+				.append(event.getStatus());
+		return sb;
+	}
+
+	/**
+	 * Not used, delivery is confirmed by the connection.
+	 */
+	@Override
+	public boolean isResponseOk(int status, String content) {
+		return true;
+	}
+
+	/**
+	 * Syslog does not support authentication.
+	 */
+	@Override
+	public boolean isAuthTokenRequired() {
+		return false;
+	}
+
+	/**
+	 * Supports <code>udp://host:port</code> and <code>tcp://host:port</code>.
+	 */
+	@Override
+	public boolean isProtocolSupported(String protocol) {
+		return "udp".equals(protocol) || "tcp".equals(protocol);
+	}
+
+	/**
+	 * Creates a {@link SyslogConnection}.
+	 */
+	@Override
+	public Connection createConnection(Configuration config) {
+		return new SyslogConnection(config);
+	}
+
+	private StringBuilder appendHeaderField(StringBuilder sb, String value, int maxLength) {
+		if (value == null || value.isEmpty()) {
+			return sb.append('-');
+		}
+
+		// Header fields only allow printable US-ASCII characters without spaces
+		int length = Math.min(value.length(), maxLength);
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			sb.append((c > 32 && c < 127) ? c : '_');
+		}
+		return sb;
+	}
+
+	private void appendParam(StringBuilder sb, String name, String value) {
+		if (value == null) {
+			return;
+		}
+
+		sb.append(' ').append(name).append("=\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			// '"', '\' and ']' must be escaped in parameter values
+			if (c == '"' || c == '\\' || c == ']') {
+				sb.append('\\');
+			}
+			sb.append(c);
+		}
+		sb.append('"');
+	}
+
+	/**
+	 * Growable buffer encoding characters to UTF-8, reused for every batch of a
+	 * thread. Unpaired surrogates are replaced with '?', like
+	 * {@link String#getBytes(java.nio.charset.Charset)} does.
+	 */
+	private static final class Utf8Buffer {
+		private byte[] bytes = new byte[8192];
+		private int size;
+
+		private Utf8Buffer reset() {
+			size = 0;
+			return this;
+		}
+
+		/**
+		 * Appends the octet count of the encoded characters and a space.
+		 */
+		private Utf8Buffer appendLength(CharSequence value) {
+			String length = Integer.toString(utf8Length(value));
+			ensureCapacity(length.length() + 1);
+			for (int i = 0; i < length.length(); i++) {
+				bytes[size++] = (byte) length.charAt(i);
+			}
+			bytes[size++] = ' ';
+			return this;
+		}
+
+		private Utf8Buffer append(CharSequence value) {
+			// At most three bytes per character, four per surrogate pair
+			ensureCapacity(value.length() * 3);
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if (c < 0x80) {
+					bytes[size++] = (byte) c;
+				} else if (c < 0x800) {
+					bytes[size++] = (byte) (0xc0 | (c >> 6));
+					bytes[size++] = (byte) (0x80 | (c & 0x3f));
+				} else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+						&& Character.isLowSurrogate(value.charAt(i + 1))) {
+					int codePoint = Character.toCodePoint(c, value.charAt(++i));
+					bytes[size++] = (byte) (0xf0 | (codePoint >> 18));
+					bytes[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+					bytes[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+					bytes[size++] = (byte) (0x80 | (codePoint & 0x3f));
+				} else if (Character.isSurrogate(c)) {
+					bytes[size++] = '?';
+				} else {
+					bytes[size++] = (byte) (0xe0 | (c >> 12));
+					bytes[size++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+					bytes[size++] = (byte) (0x80 | (c & 0x3f));
+				}
+			}
+			return this;
+		}
+
+		private byte[] toByteArray() {
+			return Arrays.copyOf(bytes, size);
+		}
+
+		private void ensureCapacity(int additional) {
+			if (size + additional > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + additional));
+			}
+		}
+	}
+
+	private static int utf8Length(CharSequence value) {
+		int length = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				length += 1;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				// Unpaired surrogates are replaced with '?'
+				length += 1;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+}
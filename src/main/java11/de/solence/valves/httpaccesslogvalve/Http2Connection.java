@@ -0,0 +1,118 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.catalina.AccessLog;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Handles the HTTP(S) connection to the logging endpoint with
+ * <code>java.net.http.HttpClient</code>, available on Java 11 and later.
+ * <p>
+ * HTTP/2 is preferred, so multiple messages sent concurrently with
+ * {@link #sendMessageAsync(byte[])} are multiplexed on a single connection.
+ * Endpoints only supporting HTTP/1.1 are used with a pool of persistent
+ * connections instead.
+ * 
+ * @author Robin Seggelmann
+ *
+ */
+public class Http2Connection extends HttpConnection {
+	private static final Log log = LogFactory.getLog(AccessLog.class);
+	private final HttpClient client;
+	private final URI uri;
+
+	public Http2Connection(Configuration config) {
+		super(config);
+		try {
+			this.uri = config.getEndpointUrl().toURI();
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException(e);
+		}
+		this.client = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_2)
+				.connectTimeout(Duration.ofMillis(config.getTimeout()))
+				.build();
+	}
+
+	/**
+	 * Posts a message with the HTTP client. Messages of unknown length are
+	 * streamed with HTTP/1.1 chunked transfer encoding instead.
+	 */
+	@Override
+	public Reply post(URL url, MessageWriter writer, int length, String token) throws IOException {
+		if (length < 0) {
+			return super.post(url, writer, length, token);
+		}
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream(length);
+		writer.write(os);
+
+		try {
+			HttpResponse<String> response = client.send(createRequest(url.toURI(), os.toByteArray(), token),
+					HttpResponse.BodyHandlers.ofString());
+			return new Reply(response.statusCode(), response.body());
+
+		} catch (URISyntaxException e) {
+			throw new IOException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getMessage());
+		}
+	}
+
+	@Override
+	public CompletableFuture<Boolean> sendMessageAsync(byte[] message) {
+		return sendMessageAsync(message, null);
+	}
+
+	@Override
+	public CompletableFuture<Boolean> sendMessageAsync(byte[] message, Destination destination) {
+		return client
+				.sendAsync(createRequest(uri, message, getAuthToken(destination)),
+						HttpResponse.BodyHandlers.ofString())
+				.exceptionally(e -> {
+					log.error(e.getMessage(), e);
+					return null;
+				})
+				.thenApply(response -> {
+					if (response == null) {
+						return false;
+					}
+					if (target.isResponseOk(response.statusCode(), response.body())) {
+						return true;
+					}
+					if (target.isResponseRejected(response.statusCode(), response.body())) {
+						throw new RejectedMessageException(response.statusCode(), response.body());
+					}
+					return false;
+				});
+	}
+
+	private HttpRequest createRequest(URI uri, byte[] message, String token) {
+		HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+				.timeout(Duration.ofMillis(config.getTimeout()))
+				.header("Content-Type", target.getContentType())
+				.POST(HttpRequest.BodyPublishers.ofByteArray(message));
+
+		String authentication = target.getAuthenticationHeader(token);
+		if (authentication != null) {
+			builder.header("Authorization", authentication);
+		}
+		target.getHeaders(config).forEach(builder::header);
+
+		return builder.build();
+	}
+
+}
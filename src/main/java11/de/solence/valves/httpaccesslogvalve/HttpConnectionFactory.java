@@ -0,0 +1,31 @@
+package de.solence.valves.httpaccesslogvalve;
+
+/**
+ * Creates the {@link HttpConnection} suitable for the Java runtime.
+ * <p>
+ * This is the Java 11 version, which uses {@link Http2Connection} based on
+ * <code>java.net.http.HttpClient</code> if HTTP/2 has been enabled in the
+ * {@link Configuration}.
+ * 
+ * @author Robin Seggelmann
+ *
+ */
+public final class HttpConnectionFactory {
+
+	private HttpConnectionFactory() {
+	}
+
+	/**
+	 * Creates a new connection.
+	 * 
+	 * @param config The {@link Configuration} to use.
+	 * @return The connection.
+	 */
+	public static HttpConnection create(Configuration config) {
+		if (config.isHttp2()) {
+			return new Http2Connection(config);
+		}
+		return new HttpConnection(config);
+	}
+
+}
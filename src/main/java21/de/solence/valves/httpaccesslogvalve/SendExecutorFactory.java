@@ -0,0 +1,37 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the executor used by the {@link Sender} to send messages on separate
+ * threads.
+ * <p>
+ * This is the Java 21 version, which sends every message on a new virtual
+ * thread, if enabled in the {@link Configuration}. Blocking sends then only
+ * occupy a carrier thread while actually running, so hundreds of concurrent
+ * sends are cheap.
+ * 
+ * @author Robin Seggelmann
+ *
+ */
+public final class SendExecutorFactory {
+
+	private SendExecutorFactory() {
+	}
+
+	/**
+	 * Creates a new executor.
+	 * 
+	 * @param config The {@link Configuration} to use.
+	 * @return The executor, or <code>null</code> if messages are sent by the
+	 *         sender thread.
+	 */
+	public static ExecutorService create(Configuration config) {
+		if (config.isVirtualThreads()) {
+			return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("HttpAccessLogValve-send-", 0).factory());
+		}
+		return null;
+	}
+
+}
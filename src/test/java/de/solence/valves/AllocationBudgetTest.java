@@ -0,0 +1,197 @@
+package de.solence.valves;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.IntConsumer;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.LifecycleState;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import de.solence.valves.httpaccesslogvalve.BatchTarget;
+import de.solence.valves.httpaccesslogvalve.Configuration;
+import de.solence.valves.httpaccesslogvalve.Event;
+import de.solence.valves.httpaccesslogvalve.EventTarget;
+
+public class AllocationBudgetTest {
+	private static final int EVENTS = 20000;
+	// Minimum number of calls, for batches of many events
+	private static final int CALLS = 1000;
+	// Event with its time and the queue entry
+	private static final long LOG_BUDGET = 512;
+	// A JSON message, built in a StringBuilder and copied to a String
+	private static final long SPLUNK_BUDGET = 8192;
+	// Share of an encoded batch, mostly the copy of the reused buffer
+	private static final long FORWARD_BUDGET = 1024;
+	// Share of an encoded batch, including the nested writers of every record
+	private static final long OTLP_BUDGET = 10240;
+
+	private static com.sun.management.ThreadMXBean threads;
+
+	@TempDir
+	Path dir;
+
+	@BeforeAll
+	public static void enableAllocationTracking() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		threads = (com.sun.management.ThreadMXBean) bean;
+		assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+	}
+
+	@Test
+	public void logOnRequestThread() throws LifecycleException {
+		Configuration config = createConfig("file", "file://" + dir.toUri().getPath() + "access");
+		HttpAccessLogValve valve = new StandaloneValve(config);
+		valve.startInternal();
+		try {
+			Request request = new StubRequest();
+			Response response = new StubResponse();
+			assertBudget("log", LOG_BUDGET, 1, i -> valve.log(request, response, i));
+		} finally {
+			valve.stopInternal();
+		}
+	}
+
+	@Test
+	public void serializeSplunkMessage() throws LifecycleException {
+		Configuration config = createConfig("splunk", "https://localhost:8088/services/collector");
+		Event event = new Event(new StubRequest(), new StubResponse(), 5);
+		assertBudget("splunk", SPLUNK_BUDGET, 1, i -> ((EventTarget) config.getTarget()).getMessage(config, event));
+	}
+
+	@Test
+	public void serializeOtlpBatch() throws LifecycleException {
+		assertBatchBudget(createConfig("otlp", "https://localhost:4318/v1/logs"), OTLP_BUDGET);
+	}
+
+	@Test
+	public void serializeForwardBatch() throws LifecycleException {
+		assertBatchBudget(createConfig("forward", "tcp://localhost:24224"), FORWARD_BUDGET);
+	}
+
+	private void assertBatchBudget(Configuration config, long budget) {
+		BatchTarget target = (BatchTarget) config.getTarget();
+		List<Event> events = new ArrayList<>();
+		for (int i = 0; i < target.getEventsPerMessage(); i++) {
+			events.add(new Event(new StubRequest(), new StubResponse(), i));
+		}
+		assertBudget(target.getClass().getSimpleName(), budget, events.size(),
+				i -> target.getBatchMessage(config, events));
+	}
+
+	private void assertBudget(String name, long budget, int eventsPerCall, IntConsumer action) {
+		// Warm up for compilation and buffers to grow first
+		int calls = Math.max(EVENTS / eventsPerCall, CALLS);
+		for (int i = 0; i < calls; i++) {
+			action.accept(i);
+		}
+
+		long thread = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < calls; i++) {
+			action.accept(i);
+		}
+		long perEvent = (threads.getThreadAllocatedBytes(thread) - before) / ((long) calls * eventsPerCall);
+		assertTrue(perEvent <= budget, name + " allocated " + perEvent + " bytes per event, budget is " + budget);
+	}
+
+	private static Configuration createConfig(String target, String url) throws LifecycleException {
+		Properties properties = System.getProperties();
+		Map<String, String> values = new HashMap<>();
+		values.put("httpaccesslogvalve.target", target);
+		values.put("httpaccesslogvalve.url", url);
+		values.put("httpaccesslogvalve.token", "123-456-789");
+		values.put("httpaccesslogvalve.host", "localhost");
+		values.put("httpaccesslogvalve.queue", "100000");
+		values.put("httpaccesslogvalve.filesize", "1");
+		values.put("httpaccesslogvalve.shutdowntimeout", "5");
+		try {
+			properties.putAll(values);
+			return new Configuration();
+		} finally {
+			for (String key : values.keySet()) {
+				properties.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Valve without container, which skips the lifecycle state checks.
+	 */
+	private static class StandaloneValve extends HttpAccessLogValve {
+		private StandaloneValve(Configuration config) {
+			super(config);
+		}
+
+		@Override
+		protected synchronized void setState(LifecycleState state) {
+			// No container to notify
+		}
+	}
+
+	// Plain stubs instead of mocks, which allocate on every call themselves
+	private static class StubRequest extends Request {
+		private StubRequest() {
+			super(null);
+		}
+
+		@Override
+		public String getRemoteAddr() {
+			return "10.0.0.1";
+		}
+
+		@Override
+		public String getMethod() {
+			return "GET";
+		}
+
+		@Override
+		public String getRequestURI() {
+			return "/orders/123/items";
+		}
+
+		@Override
+		public String getRemoteUser() {
+			return null;
+		}
+
+		@Override
+		public String getRequestedSessionId() {
+			return "0123456789ABCDEF0123456789ABCDEF";
+		}
+
+		@Override
+		public String getHeader(String name) {
+			return "User-Agent".equals(name)
+					? "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko)"
+					: null;
+		}
+	}
+
+	private static class StubResponse extends Response {
+		@Override
+		public int getStatus() {
+			return 200;
+		}
+
+		@Override
+		public int getBufferSize() {
+			return 1024;
+		}
+	}
+
+}
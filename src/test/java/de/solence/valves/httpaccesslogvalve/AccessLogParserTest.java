@@ -0,0 +1,69 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+
+import org.junit.jupiter.api.Test;
+
+public class AccessLogParserTest {
+
+	@Test
+	public void parseCommon() {
+		AccessLogParser parser = new AccessLogParser("common");
+		Event event = parser.parse("192.168.0.1 - alice [10/Oct/2000:13:55:36 -0700] "
+				+ "\"GET /shop/cart?item=1 HTTP/1.1\" 200 2326");
+
+		assertEquals("192.168.0.1", event.getRemoteAddr());
+		assertEquals("alice", event.getRemoteUser());
+		assertEquals("GET", event.getRequestMethod());
+		assertEquals("/shop/cart", event.getRequestUri());
+		assertEquals(200, event.getStatus());
+		assertEquals(2326, event.getBytes());
+		assertEquals(OffsetDateTime.parse("2000-10-10T13:55:36-07:00").atZoneSameInstant(ZoneId.systemDefault())
+				.toLocalDateTime(), event.getTime());
+	}
+
+	@Test
+	public void parseCombined() {
+		AccessLogParser parser = new AccessLogParser("combined");
+		Event event = parser.parse("10.0.0.1 - - [10/Oct/2000:13:55:36 +0000] \"POST /api HTTP/1.1\" 500 - "
+				+ "\"https://example.com/\" \"Mozilla/5.0 \\\"quoted\\\"\"");
+
+		assertNull(event.getRemoteUser());
+		assertEquals("POST", event.getRequestMethod());
+		assertEquals(500, event.getStatus());
+		assertEquals(0, event.getBytes());
+		assertEquals("Mozilla/5.0 \"quoted\"", event.getUserAgent());
+	}
+
+	@Test
+	public void parseCustomPattern() {
+		AccessLogParser parser = new AccessLogParser("%a %v %m %U %s %D %S");
+		Event event = parser.parse("127.0.0.1 www.example.com GET /index.html 304 17 ABCDEF");
+
+		assertEquals("www.example.com", event.getHostName());
+		assertEquals("/index.html", event.getRequestUri());
+		assertEquals(304, event.getStatus());
+		assertEquals(17, event.getProcessingTime());
+		assertEquals("ABCDEF", event.getSessionId());
+
+		assertEquals(1500, new AccessLogParser("%U %T").parse("/ 1.500").getProcessingTime());
+	}
+
+	@Test
+	public void rejectMismatchingLine() {
+		AccessLogParser parser = new AccessLogParser("common");
+		assertNull(parser.parse("not an access log line"));
+		assertNull(parser.parse("127.0.0.1 - - [10/Oct/2000:13:55:36 -0700] \"GET / HTTP/1.1\" abc 1"));
+	}
+
+	@Test
+	public void rejectAmbiguousPattern() {
+		assertThrows(IllegalArgumentException.class, () -> new AccessLogParser("%h%u"));
+	}
+
+}
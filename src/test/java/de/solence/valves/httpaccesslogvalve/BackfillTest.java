@@ -0,0 +1,82 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class BackfillTest {
+
+	@Test
+	public void sendAndResume(@TempDir Path dir) throws IOException {
+		Path file = dir.resolve("access.txt");
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			lines.add("127.0.0.1 - - [10/Oct/2000:13:55:36 -0700] \"GET /page/" + i + " HTTP/1.1\" 200 " + i);
+		}
+		lines.add("garbage");
+		Files.write(file, lines, StandardCharsets.UTF_8);
+		Path checkpoint = dir.resolve("checkpoint");
+
+		Set<String> uris = ConcurrentHashMap.newKeySet();
+		Configuration config = mockConfig(uris);
+		HttpConnection conn = mock(HttpConnection.class);
+		when(conn.sendMessage(anyString())).thenReturn(true);
+
+		// Small chunks, so lines cross their boundaries
+		Backfill backfill = new Backfill(config, conn, "common", checkpoint, 4, 1000);
+		assertTrue(backfill.run(Collections.singletonList(file)));
+		backfill.close();
+		assertEquals(1001, backfill.getLineCount());
+		assertEquals(1000, backfill.getDeliveredCount());
+		assertEquals(1000, uris.size());
+		assertEquals(1, backfill.getSkippedCount());
+		assertEquals((Files.size(file) + 999) / 1000, Files.readAllLines(checkpoint).size());
+
+		// Completed chunks are skipped
+		Backfill resumed = new Backfill(config, conn, "common", checkpoint, 2, 1000);
+		assertTrue(resumed.run(Collections.singletonList(file)));
+		resumed.close();
+		assertEquals(0, resumed.getLineCount());
+
+		// Only lines appended since are sent
+		Files.write(file, Collections.singletonList(lines.get(0)), StandardCharsets.UTF_8,
+				StandardOpenOption.APPEND);
+		Backfill grown = new Backfill(config, conn, "common", checkpoint, 2, 1000);
+		assertTrue(grown.run(Collections.singletonList(file)));
+		grown.close();
+		assertEquals(1, grown.getLineCount());
+		assertEquals(1, grown.getDeliveredCount());
+	}
+
+	private Configuration mockConfig(Set<String> uris) {
+		EventTarget target = mock(EventTarget.class);
+		when(target.getEventsPerMessage()).thenReturn(5);
+		when(target.getMessage(any(Configuration.class), any(Event.class))).thenAnswer(invocation -> {
+			String uri = ((Event) invocation.getArgument(1)).getRequestUri();
+			uris.add(uri);
+			return uri;
+		});
+
+		Configuration config = mock(Configuration.class);
+		when(config.getTarget()).thenReturn(target);
+		return config;
+	}
+
+}
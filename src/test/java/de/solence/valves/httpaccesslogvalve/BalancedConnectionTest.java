@@ -0,0 +1,137 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+public class BalancedConnectionTest {
+	private static final byte[] MESSAGE = { 1, 2, 3 };
+
+	@Test
+	public void weightedRoundRobin() {
+		Connection a = mockConnection(true);
+		Connection b = mockConnection(true);
+		BalancedConnection conn = new BalancedConnection(mockConfig("roundrobin", 2, 1), Arrays.asList(a, b),
+				System::nanoTime);
+
+		for (int i = 0; i < 30; i++) {
+			assertTrue(conn.sendMessage(MESSAGE));
+		}
+		verify(a, times(20)).sendMessage(MESSAGE);
+		verify(b, times(10)).sendMessage(MESSAGE);
+	}
+
+	@Test
+	public void leastOutstanding() {
+		Connection a = mock(Connection.class);
+		Connection b = mock(Connection.class);
+		CompletableFuture<Boolean> pending = new CompletableFuture<>();
+		when(a.sendMessageAsync(MESSAGE)).thenReturn(pending);
+		when(b.sendMessageAsync(MESSAGE)).thenReturn(new CompletableFuture<>());
+		BalancedConnection conn = new BalancedConnection(mockConfig("leastoutstanding", 1, 1), Arrays.asList(a, b),
+				System::nanoTime);
+
+		conn.sendMessageAsync(MESSAGE);
+		conn.sendMessageAsync(MESSAGE);
+		verify(a).sendMessageAsync(MESSAGE);
+		verify(b).sendMessageAsync(MESSAGE);
+
+		// Only the first endpoint has no message in flight any more
+		pending.complete(true);
+		when(a.sendMessageAsync(MESSAGE)).thenReturn(new CompletableFuture<>());
+		conn.sendMessageAsync(MESSAGE);
+		conn.sendMessageAsync(MESSAGE);
+		verify(a, times(2)).sendMessageAsync(MESSAGE);
+		verify(b, times(2)).sendMessageAsync(MESSAGE);
+	}
+
+	@Test
+	public void failoverAndEject() {
+		Connection a = mockConnection(false);
+		Connection b = mockConnection(true);
+		AtomicLong now = new AtomicLong();
+		BalancedConnection conn = new BalancedConnection(mockConfig("roundrobin", 1, 1), Arrays.asList(a, b),
+				now::get);
+
+		// Failed messages are sent to the other endpoint right away
+		for (int i = 0; i < 10; i++) {
+			assertTrue(conn.sendMessage(MESSAGE));
+		}
+		verify(a, times(3)).sendMessage(MESSAGE);
+		verify(b, times(10)).sendMessage(MESSAGE);
+		assertTrue(conn.isEjected(0));
+		assertFalse(conn.isEjected(1));
+
+		// Probe once after the ejection time and use again on success
+		now.addAndGet(TimeUnit.SECONDS.toNanos(31));
+		when(a.sendMessage(MESSAGE)).thenReturn(true);
+		assertTrue(conn.sendMessage(MESSAGE));
+		assertTrue(conn.sendMessage(MESSAGE));
+		assertFalse(conn.isEjected(0));
+		verify(a, times(4)).sendMessage(MESSAGE);
+	}
+
+	@Test
+	public void allEndpointsFailing() {
+		Connection a = mockConnection(false);
+		Connection b = mockConnection(false);
+		BalancedConnection conn = new BalancedConnection(mockConfig("leastoutstanding", 1, 1), Arrays.asList(a, b),
+				System::nanoTime);
+
+		for (int i = 0; i < 5; i++) {
+			assertFalse(conn.sendMessage(MESSAGE));
+		}
+		assertTrue(conn.isEjected(0));
+		assertTrue(conn.isEjected(1));
+	}
+
+	@Test
+	public void rejectedIsNotFailure() {
+		Connection a = mockConnection(true);
+		Connection b = mockConnection(true);
+		when(a.sendMessage(MESSAGE)).thenThrow(new RejectedMessageException(400, null));
+		BalancedConnection conn = new BalancedConnection(mockConfig("roundrobin", 1, 1), Arrays.asList(a, b),
+				System::nanoTime);
+
+		for (int i = 0; i < 3; i++) {
+			assertThrows(RejectedMessageException.class, () -> conn.sendMessage(MESSAGE));
+			assertTrue(conn.sendMessage(MESSAGE));
+		}
+		assertFalse(conn.isEjected(0));
+		verify(a, times(3)).sendMessage(MESSAGE);
+		verify(b, times(3)).sendMessage(MESSAGE);
+	}
+
+	private Connection mockConnection(boolean ok) {
+		Connection conn = mock(Connection.class);
+		when(conn.sendMessage(MESSAGE)).thenReturn(ok);
+		return conn;
+	}
+
+	private Configuration mockConfig(String balancing, Integer... weights) {
+		List<URI> uris = Arrays.asList(URI.create("https://a:8088/services/collector"),
+				URI.create("https://b:8088/services/collector"));
+		Configuration config = mock(Configuration.class);
+		when(config.getEndpointUris()).thenReturn(uris);
+		when(config.getWeights()).thenReturn(Arrays.asList(weights));
+		when(config.getBalancing()).thenReturn(balancing);
+		when(config.getEjectionFailures()).thenReturn(3);
+		when(config.getEjectionTime()).thenReturn(30);
+		return config;
+	}
+
+}
@@ -0,0 +1,69 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.junit.jupiter.api.Test;
+
+public class ClientEnricherTest {
+
+	@Test
+	public void addCountryAndAsn() {
+		GeoIpDatabase geoIp = mock(GeoIpDatabase.class);
+		when(geoIp.find("8.8.8.8")).thenReturn(1);
+		when(geoIp.getCountry(1)).thenReturn("US");
+		when(geoIp.getAsn(1)).thenReturn(15169L);
+		when(geoIp.find("192.0.2.1")).thenReturn(-1);
+
+		ClientEnricher enricher = new ClientEnricher(mockConfig(geoIp, 10));
+
+		Event event = createEvent("8.8.8.8");
+		enricher.process(event);
+		assertEquals("US", event.getCountry());
+		assertEquals(15169L, event.getAsn());
+		assertEquals("8.8.8.8", event.getRemoteHost());
+
+		event = createEvent("192.0.2.1");
+		enricher.process(event);
+		assertNull(event.getCountry());
+		assertEquals(0, event.getAsn());
+	}
+
+	@Test
+	public void cacheLookups() {
+		GeoIpDatabase geoIp = mock(GeoIpDatabase.class);
+		when(geoIp.find("8.8.8.8")).thenReturn(-1);
+		when(geoIp.find("8.8.4.4")).thenReturn(-1);
+
+		ClientEnricher enricher = new ClientEnricher(mockConfig(geoIp, 1));
+		enricher.process(createEvent("8.8.8.8"));
+		enricher.process(createEvent("8.8.8.8"));
+		verify(geoIp, times(1)).find("8.8.8.8");
+
+		// Least recently used client is evicted
+		enricher.process(createEvent("8.8.4.4"));
+		enricher.process(createEvent("8.8.8.8"));
+		verify(geoIp, times(2)).find("8.8.8.8");
+	}
+
+	private Configuration mockConfig(GeoIpDatabase geoIp, int cacheSize) {
+		Configuration config = mock(Configuration.class);
+		when(config.getGeoIpDatabase()).thenReturn(geoIp);
+		when(config.getClientCacheSize()).thenReturn(cacheSize);
+		return config;
+	}
+
+	private Event createEvent(String address) {
+		Request request = mock(Request.class);
+		Response response = mock(Response.class);
+		when(request.getRemoteAddr()).thenReturn(address);
+		return new Event(request, response, 5);
+	}
+
+}
@@ -0,0 +1,93 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+public class CoalescerTest {
+
+	@Test
+	public void coalesceRepetitions() {
+		AtomicLong clock = new AtomicLong();
+		Coalescer coalescer = new Coalescer(mockConfig(1000), clock::get);
+
+		assertTrue(coalescer.add(createEvent("10.0.0.1", "/health", 200, 5)));
+		Event first = createEvent("10.0.0.1", "/health", 200, 3);
+		assertFalse(coalescer.add(first));
+		assertFalse(coalescer.add(createEvent("10.0.0.1", "/health", 200, 9)));
+		assertFalse(coalescer.add(createEvent("10.0.0.1", "/health", 200, 6)));
+		// Other client, URI or status
+		assertTrue(coalescer.add(createEvent("10.0.0.2", "/health", 200, 5)));
+		assertTrue(coalescer.add(createEvent("10.0.0.1", "/status", 200, 5)));
+		assertTrue(coalescer.add(createEvent("10.0.0.1", "/health", 503, 5)));
+
+		assertTrue(coalescer.hasPending());
+		clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+		assertNull(coalescer.poll());
+
+		clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+		Event coalesced = coalescer.poll();
+		assertSame(first, coalesced);
+		assertEquals(3, coalesced.getCount());
+		assertEquals(3, coalesced.getMinProcessingTime());
+		assertEquals(9, coalesced.getMaxProcessingTime());
+		assertEquals(18, coalesced.getTotalProcessingTime());
+		assertEquals(6, coalesced.getProcessingTime());
+		assertNull(coalescer.poll());
+		assertFalse(coalescer.hasPending());
+
+		// A new window starts
+		assertTrue(coalescer.add(createEvent("10.0.0.1", "/health", 200, 5)));
+	}
+
+	@Test
+	public void separateDestinations() {
+		Coalescer coalescer = new Coalescer(mockConfig(1000), () -> 0L);
+		Event routed = createEvent("10.0.0.1", "/health", 200, 5);
+		routed.setDestination(new Destination("shop", null, null));
+
+		assertTrue(coalescer.add(createEvent("10.0.0.1", "/health", 200, 5)));
+		assertTrue(coalescer.add(routed));
+		assertFalse(coalescer.add(createEvent("10.0.0.1", "/health", 200, 5)));
+		assertEquals(1, coalescer.flush().size());
+	}
+
+	@Test
+	public void passThroughWhenFull() {
+		Coalescer coalescer = new Coalescer(mockConfig(1000), () -> 0L);
+		for (int i = 0; i < 2000; i++) {
+			assertTrue(coalescer.add(createEvent("10.0.0.1", "/" + i, 200, 5)));
+		}
+		// Tracked keys are still coalesced, others pass through
+		assertFalse(coalescer.add(createEvent("10.0.0.1", "/0", 200, 5)));
+		assertTrue(coalescer.add(createEvent("10.0.0.1", "/1999", 200, 5)));
+
+		List<Event> events = coalescer.flush();
+		assertEquals(1, events.size());
+		assertEquals("/0", events.get(0).getRequestUri());
+		assertFalse(coalescer.hasPending());
+	}
+
+	private Configuration mockConfig(int window) {
+		Configuration config = mock(Configuration.class);
+		when(config.getCoalesceWindow()).thenReturn(window);
+		return config;
+	}
+
+	private Event createEvent(String remoteAddr, String uri, int status, long processingTime) {
+		return new Event(LocalDateTime.now(), "localhost", "", remoteAddr, "GET", uri, null, null, "probe/1.0",
+				status, 0, processingTime);
+	}
+
+}
@@ -1,7 +1,12 @@
 package de.solence.valves.httpaccesslogvalve;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.util.Arrays;
+import java.util.Collections;
+
 import org.apache.catalina.LifecycleException;
 import org.junit.jupiter.api.Test;
 
@@ -15,4 +20,73 @@ public class ConfigurationTest {
 				() -> new Configuration());
 	}
 
+	@Test
+	public void testMultipleEndpoints() throws LifecycleException {
+		System.setProperty("httpaccesslogvalve.url", "https://a:8088/services/collector, https://b:8088/services/collector");
+		System.setProperty("httpaccesslogvalve.token", "token");
+		System.setProperty("httpaccesslogvalve.weights", "2,1");
+		try {
+			Configuration config = new Configuration();
+			assertEquals(2, config.getEndpointUris().size());
+			assertEquals("a", config.getEndpointUrl().getHost());
+			assertEquals(Arrays.asList(2, 1), config.getWeights());
+			assertEquals("leastoutstanding", config.getBalancing());
+			// HTTP/2 is opt-in
+			assertFalse(config.isHttp2());
+
+			Configuration second = config.forEndpoint(1);
+			assertEquals("b", second.getEndpointUri().getHost());
+			assertEquals("b", second.getEndpointUrl().getHost());
+			assertEquals(Collections.singletonList(1), second.getWeights());
+			assertEquals("token", second.getAuthToken());
+
+			System.setProperty("httpaccesslogvalve.weights", "1");
+			assertThrows(LifecycleException.class, () -> new Configuration());
+		} finally {
+			System.clearProperty("httpaccesslogvalve.url");
+			System.clearProperty("httpaccesslogvalve.token");
+			System.clearProperty("httpaccesslogvalve.weights");
+		}
+	}
+
+	@Test
+	public void testContextReserveLimit() throws LifecycleException {
+		System.setProperty("httpaccesslogvalve.url", "https://localhost:8088/services/collector");
+		System.setProperty("httpaccesslogvalve.token", "token");
+		System.setProperty("httpaccesslogvalve.fairqueuing", "true");
+		System.setProperty("httpaccesslogvalve.contextweights", "/a=1,/b=2");
+		try {
+			System.setProperty("httpaccesslogvalve.contextreserve", "499");
+			assertEquals(499, new Configuration().getContextReserve());
+
+			System.setProperty("httpaccesslogvalve.contextreserve", "500");
+			assertThrows(LifecycleException.class, () -> new Configuration());
+		} finally {
+			System.clearProperty("httpaccesslogvalve.url");
+			System.clearProperty("httpaccesslogvalve.token");
+			System.clearProperty("httpaccesslogvalve.fairqueuing");
+			System.clearProperty("httpaccesslogvalve.contextweights");
+			System.clearProperty("httpaccesslogvalve.contextreserve");
+		}
+	}
+
+	@Test
+	public void testFileSizeLimit() throws LifecycleException {
+		System.setProperty("httpaccesslogvalve.target", "file");
+		System.setProperty("httpaccesslogvalve.url", "file:///tmp/access");
+		try {
+			System.setProperty("httpaccesslogvalve.filesize", "2047");
+			assertEquals(2047, new Configuration().getFileSegmentSize());
+
+			System.setProperty("httpaccesslogvalve.filesize", "2048");
+			assertThrows(LifecycleException.class, () -> new Configuration());
+			System.setProperty("httpaccesslogvalve.filesize", "0");
+			assertThrows(LifecycleException.class, () -> new Configuration());
+		} finally {
+			System.clearProperty("httpaccesslogvalve.target");
+			System.clearProperty("httpaccesslogvalve.url");
+			System.clearProperty("httpaccesslogvalve.filesize");
+		}
+	}
+
 }
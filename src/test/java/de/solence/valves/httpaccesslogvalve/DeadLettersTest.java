@@ -0,0 +1,68 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DeadLettersTest {
+	private static final RejectedMessageException REJECTION = new RejectedMessageException(413, null);
+
+	@Test
+	public void keepMostRecentEvents() {
+		Configuration config = mock(Configuration.class);
+		when(config.getDeadLetters()).thenReturn(2);
+
+		DeadLetters deadLetters = new DeadLetters(config);
+		deadLetters.add(createEvent("/a"), REJECTION);
+		deadLetters.add(createEvent("/b"), REJECTION);
+		deadLetters.add(createEvent("/c"), REJECTION);
+
+		List<Event> events = deadLetters.getEvents();
+		assertEquals(2, events.size());
+		assertEquals("/b", events.get(0).getRequestUri());
+		assertEquals("/c", events.get(1).getRequestUri());
+		assertEquals(3, deadLetters.getCount());
+	}
+
+	@Test
+	public void appendToFile(@TempDir Path dir) throws IOException {
+		Path file = dir.resolve("rejected.json");
+		Configuration config = mock(Configuration.class);
+		when(config.getDeadLetterFile()).thenReturn(file);
+
+		DeadLetters deadLetters = new DeadLetters(config);
+		deadLetters.add(createEvent("/a"), REJECTION);
+		deadLetters.add(createEvent("/b"), REJECTION);
+
+		List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		assertEquals(2, lines.size());
+		assertTrue(lines.get(0).contains("\"uri\":\"/a\""));
+		assertTrue(lines.get(1).contains("\"uri\":\"/b\""));
+		assertTrue(deadLetters.getEvents().isEmpty());
+	}
+
+	private Event createEvent(String uri) {
+		Request request = mock(Request.class);
+		Response response = mock(Response.class);
+
+		when(request.getRemoteAddr()).thenReturn("127.0.0.1");
+		when(request.getMethod()).thenReturn("GET");
+		when(request.getRequestURI()).thenReturn(uri);
+		when(response.getStatus()).thenReturn(200);
+
+		return new Event(request, response, 5);
+	}
+
+}
@@ -0,0 +1,66 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class DeliveryHubTest {
+
+	@Test
+	public void shareHubForEndpoint() {
+		Connection conn = mock(Connection.class);
+		Configuration config = mockConfig("https://localhost:8088/a", conn);
+
+		DeliveryHub first = DeliveryHub.acquire(config);
+		DeliveryHub second = DeliveryHub.acquire(mockConfig("https://localhost:8088/a", conn));
+		assertSame(first, second);
+		assertEquals(2, first.getReferences());
+
+		first.release();
+		assertFalse(first.isStopped());
+
+		second.release();
+		assertTrue(first.isStopped());
+		verify(conn).close(anyLong(), eq(TimeUnit.NANOSECONDS));
+
+		// A new hub is started after the last one has been stopped
+		DeliveryHub third = DeliveryHub.acquire(config);
+		assertNotSame(first, third);
+		third.release();
+	}
+
+	@Test
+	public void separateHubsForEndpoints() {
+		Connection conn = mock(Connection.class);
+		DeliveryHub first = DeliveryHub.acquire(mockConfig("https://localhost:8088/a", conn));
+		DeliveryHub second = DeliveryHub.acquire(mockConfig("https://localhost:8088/b", conn));
+		assertNotSame(first, second);
+		first.release();
+		second.release();
+	}
+
+	private Configuration mockConfig(String uri, Connection conn) {
+		EventTarget target = mock(EventTarget.class);
+		when(target.createConnection(any(Configuration.class))).thenReturn(conn);
+
+		Configuration config = mock(Configuration.class);
+		when(config.getTarget()).thenReturn(target);
+		when(config.getEndpointUri()).thenReturn(URI.create(uri));
+		when(config.getQueueLength()).thenReturn(10);
+		return config;
+	}
+
+}
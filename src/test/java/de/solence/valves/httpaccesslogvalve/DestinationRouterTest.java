@@ -0,0 +1,50 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+public class DestinationRouterTest {
+
+	@Test
+	public void routeByHostAndContext() {
+		DestinationRouter router = new DestinationRouter(Arrays.asList("www.example.com/shop=shop:access:token",
+				"www.example.com=www", "*/admin=admin", "api.example.com/=api"));
+
+		Destination shop = router.route("www.example.com", "/shop");
+		assertEquals("shop", shop.getIndex());
+		assertEquals("access", shop.getSourceType());
+		assertEquals("token", shop.getAuthToken());
+
+		assertEquals("www", router.route("www.example.com", "/blog").getIndex());
+		assertEquals("admin", router.route("www.example.com", "/admin").getIndex());
+		assertEquals("admin", router.route("api.example.com", "/admin").getIndex());
+		assertEquals("api", router.route("api.example.com", "").getIndex());
+		assertNull(router.route("api.example.com", "/v1"));
+		assertNull(router.route(null, null));
+	}
+
+	@Test
+	public void fallBackToAnyHost() {
+		DestinationRouter router = new DestinationRouter(Collections.singletonList("*=:other"));
+
+		Destination destination = router.route("localhost", "");
+		assertNull(destination.getIndex());
+		assertEquals("other", destination.getSourceType());
+		assertNull(destination.getAuthToken());
+	}
+
+	@Test
+	public void rejectMalformedRules() {
+		assertThrows(IllegalArgumentException.class,
+				() -> new DestinationRouter(Collections.singletonList("shop")));
+		assertThrows(IllegalArgumentException.class,
+				() -> new DestinationRouter(Collections.singletonList("localhost=a:b:c:d")));
+	}
+
+}
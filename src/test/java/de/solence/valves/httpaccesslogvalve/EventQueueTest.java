@@ -0,0 +1,260 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.junit.jupiter.api.Test;
+
+public class EventQueueTest {
+
+	@Test
+	public void estimateEventSize() {
+		Event small = createEvent("/");
+		Event large = createEvent(new String(new char[1000]).replace('\0', 'a'));
+		assertEquals(2 * 999, large.getSize() - small.getSize());
+	}
+
+	@Test
+	public void limitByCount() {
+		EventQueue queue = new EventQueue(2, 0);
+		assertTrue(queue.offer(createEvent("/")));
+		assertTrue(queue.offer(createEvent("/")));
+		assertFalse(queue.offer(createEvent("/")));
+		assertThrows(IllegalStateException.class, () -> queue.add(createEvent("/")));
+	}
+
+	@Test
+	public void limitByBytes() {
+		Event event = createEvent("/");
+		EventQueue queue = new EventQueue(1000, 2 * event.getSize());
+		assertTrue(queue.offer(event));
+		assertTrue(queue.offer(createEvent("/")));
+		assertFalse(queue.offer(createEvent("/")));
+		assertEquals(2 * event.getSize(), queue.getBytes());
+
+		// Taking an event releases its budget
+		assertSame(event, queue.poll());
+		assertEquals(event.getSize(), queue.getBytes());
+		assertTrue(queue.offer(createEvent("/")));
+	}
+
+	@Test
+	public void limitCapacityTemporarily() {
+		EventQueue queue = new EventQueue(8, 0);
+		queue.setLimit(25);
+		assertTrue(queue.offer(createEvent("/")));
+		assertTrue(queue.offer(createEvent("/")));
+		assertFalse(queue.offer(createEvent("/")));
+
+		queue.setLimit(100);
+		assertTrue(queue.offer(createEvent("/")));
+		assertEquals(3, queue.size());
+	}
+
+	@Test
+	public void acceptLargeEventWhenEmpty() {
+		EventQueue queue = new EventQueue(1000, 10);
+		assertTrue(queue.offer(createEvent("/")));
+		assertFalse(queue.offer(createEvent("/")));
+		queue.clear();
+		assertEquals(0, queue.getBytes());
+		assertTrue(queue.offer(createEvent("/")));
+	}
+
+	@Test
+	public void rejectWhenClosed() {
+		EventQueue queue = new EventQueue(10, 0);
+		assertTrue(queue.offer(createEvent("/")));
+		queue.close();
+		assertTrue(queue.isClosed());
+		assertFalse(queue.offer(createEvent("/")));
+		assertEquals(1, queue.getAcceptedCount());
+		assertTrue(queue.poll() != null);
+	}
+
+	@Test
+	public void takePriorityEventsFirst() {
+		EventQueue queue = new EventQueue(10, 0, 20, 1000);
+		Event regular = createEvent("/", 200, 5);
+		queue.add(regular);
+		for (int i = 0; i < 9; i++) {
+			queue.add(createEvent("/", 503, 5));
+		}
+		Event slow = createEvent("/", 200, 2000);
+		queue.add(slow);
+		assertEquals(10, queue.getPrioritySize());
+		assertEquals(11, queue.size());
+
+		// Regular event is taken after a burst of priority events
+		for (int i = 0; i < 8; i++) {
+			assertEquals(503, queue.poll().getStatus());
+		}
+		assertSame(regular, queue.poll());
+		assertEquals(503, queue.poll().getStatus());
+		assertSame(slow, queue.poll());
+		assertNull(queue.poll());
+	}
+
+	@Test
+	public void limitLanesSeparately() {
+		EventQueue queue = new EventQueue(1, 0, 1, 0);
+		assertTrue(queue.offer(createEvent("/", 200, 5)));
+		assertFalse(queue.offer(createEvent("/", 200, 5)));
+		assertTrue(queue.offer(createEvent("/", 500, 5)));
+		assertFalse(queue.offer(createEvent("/", 500, 5)));
+
+		// Slow requests have no priority without threshold
+		assertFalse(queue.offer(createEvent("/", 200, 100000)));
+	}
+
+	@Test
+	public void pollWithTimeout() throws InterruptedException {
+		EventQueue queue = new EventQueue(10, 0);
+		assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+
+		Thread producer = new Thread(() -> {
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			queue.add(createEvent("/"));
+		});
+		producer.start();
+		assertTrue(queue.poll(5, TimeUnit.SECONDS) != null);
+		producer.join();
+	}
+
+	@Test
+	public void drainContextsFairly() {
+		EventQueue queue = new EventQueue(100, 0, 0, 0, Collections.emptyMap(), 0);
+		for (int i = 0; i < 20; i++) {
+			assertTrue(queue.offer(createContextEvent("/noisy")));
+		}
+		assertTrue(queue.offer(createContextEvent("/quiet")));
+		assertTrue(queue.offer(createContextEvent("/quiet")));
+		assertEquals(20, queue.getContextSize("/noisy"));
+		assertEquals(2, queue.getContextSize("/quiet"));
+
+		// Quiet events are taken within the first rounds, not after all others
+		int quiet = 0;
+		for (int i = 0; i < 10; i++) {
+			if ("/quiet".equals(queue.poll().getContextPath())) {
+				quiet++;
+			}
+		}
+		assertEquals(2, quiet);
+		assertEquals(12, queue.size());
+	}
+
+	@Test
+	public void drainContextsByWeight() {
+		Map<String, Integer> weights = new HashMap<>();
+		weights.put("/a", 3);
+		EventQueue queue = new EventQueue(100, 0, 0, 0, weights, 0);
+		for (int i = 0; i < 40; i++) {
+			queue.add(createContextEvent("/a"));
+			queue.add(createContextEvent("/b"));
+		}
+
+		int a = 0;
+		for (int i = 0; i < 40; i++) {
+			if ("/a".equals(queue.peek().getContextPath())) {
+				a++;
+			}
+			assertTrue(queue.poll() != null);
+		}
+		assertTrue(a >= 28 && a <= 32, "Events of /a: " + a);
+		assertEquals(40, queue.size());
+	}
+
+	@Test
+	public void reserveCapacityPerContext() {
+		EventQueue queue = new EventQueue(10, 0, 0, 0, Collections.singletonMap("/b", 1), 3);
+		for (int i = 0; i < 7; i++) {
+			assertTrue(queue.offer(createContextEvent("/a")));
+		}
+		// The remaining space is reserved for /b
+		assertFalse(queue.offer(createContextEvent("/a")));
+		for (int i = 0; i < 3; i++) {
+			assertTrue(queue.offer(createContextEvent("/b")));
+		}
+		assertFalse(queue.offer(createContextEvent("/b")));
+
+		// /a can take freed space not needed for reservations
+		queue.poll();
+		assertTrue(queue.offer(createContextEvent("/a")));
+	}
+
+	@Test
+	public void capTotalReservation() {
+		EventQueue queue = new EventQueue(10, 0, 0, 0, Collections.emptyMap(), 5);
+		assertTrue(queue.offer(createContextEvent("/b")));
+		// Only three quarters of the queue are reserved, not all of it
+		for (int i = 0; i < 8; i++) {
+			assertTrue(queue.offer(createContextEvent("/a")));
+		}
+		assertFalse(queue.offer(createContextEvent("/a")));
+		assertTrue(queue.offer(createContextEvent("/b")));
+	}
+
+	@Test
+	public void removeIdleContexts() {
+		EventQueue queue = new EventQueue(10, 0, 0, 0, Collections.emptyMap(), 3);
+		assertTrue(queue.offer(createContextEvent("/a")));
+		queue.poll();
+
+		// The idle context no longer holds a reservation
+		for (int i = 0; i < 10; i++) {
+			assertTrue(queue.offer(createContextEvent("/b")));
+		}
+		assertEquals(0, queue.getContextSize("/a"));
+	}
+
+	private Event createContextEvent(String contextPath) {
+		Request request = mock(Request.class);
+		Response response = mock(Response.class);
+		Context context = mock(Context.class);
+
+		when(context.getPath()).thenReturn(contextPath);
+		when(request.getContext()).thenReturn(context);
+		when(request.getRequestURI()).thenReturn(contextPath + "/index.html");
+		when(response.getStatus()).thenReturn(200);
+
+		return new Event(request, response, 5);
+	}
+
+	private Event createEvent(String uri) {
+		return createEvent(uri, 200, 5);
+	}
+
+	private Event createEvent(String uri, int status, long processingTime) {
+		Request request = mock(Request.class);
+		Response response = mock(Response.class);
+
+		when(request.getRemoteAddr()).thenReturn("127.0.0.1");
+		when(request.getMethod()).thenReturn("GET");
+		when(request.getRequestURI()).thenReturn(uri);
+		when(request.getHeader("User-Agent")).thenReturn("testClient");
+
+		when(response.getStatus()).thenReturn(status);
+		when(response.getBufferSize()).thenReturn(123);
+
+		return new Event(request, response, processingTime);
+	}
+
+}
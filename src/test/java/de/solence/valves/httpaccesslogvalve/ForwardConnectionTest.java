@@ -0,0 +1,125 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+public class ForwardConnectionTest {
+
+	@Test
+	public void sendOverPersistentConnection() throws Exception {
+		byte[] message = createMessage(null);
+
+		try (ServerSocket server = new ServerSocket(0)) {
+			ForwardConnection conn = new ForwardConnection(mockConfig(server.getLocalPort(), false));
+			assertTrue(conn.sendMessage(message));
+			assertTrue(conn.sendMessage(message));
+			conn.close();
+
+			try (Socket client = server.accept()) {
+				DataInputStream is = new DataInputStream(client.getInputStream());
+				byte[] received = new byte[message.length];
+				is.readFully(received);
+				assertArrayEquals(message, received);
+				is.readFully(received);
+				assertArrayEquals(message, received);
+			}
+		}
+	}
+
+	@Test
+	public void waitForAcknowledgement() throws Exception {
+		String chunk = ForwardConnection.createChunkId();
+		assertEquals(ForwardConnection.CHUNK_LENGTH, chunk.length());
+		byte[] message = createMessage(chunk);
+
+		try (ServerSocket server = new ServerSocket(0)) {
+			CompletableFuture<byte[]> received = acknowledge(server, message.length, chunk);
+
+			ForwardConnection conn = new ForwardConnection(mockConfig(server.getLocalPort(), true));
+			assertTrue(conn.sendMessage(message));
+			conn.close();
+			assertArrayEquals(message, received.get());
+		}
+	}
+
+	@Test
+	public void rejectWrongAcknowledgement() throws Exception {
+		byte[] message = createMessage(ForwardConnection.createChunkId());
+
+		try (ServerSocket server = new ServerSocket(0)) {
+			acknowledge(server, message.length, ForwardConnection.createChunkId());
+
+			ForwardConnection conn = new ForwardConnection(mockConfig(server.getLocalPort(), true));
+			assertFalse(conn.sendMessage(message));
+			conn.close();
+		}
+	}
+
+	@Test
+	public void endpointUnreachable() throws IOException {
+		int port;
+		try (ServerSocket server = new ServerSocket(0)) {
+			port = server.getLocalPort();
+		}
+
+		ForwardConnection conn = new ForwardConnection(mockConfig(port, false));
+		assertFalse(conn.sendMessage(createMessage(null)));
+	}
+
+	private CompletableFuture<byte[]> acknowledge(ServerSocket server, int length, String chunk) {
+		return CompletableFuture.supplyAsync(() -> {
+			try (Socket client = server.accept()) {
+				DataInputStream is = new DataInputStream(client.getInputStream());
+				byte[] received = new byte[length];
+				is.readFully(received);
+
+				MessagePackWriter response = new MessagePackWriter();
+				response.mapHeader(1).string("ack").string(chunk);
+				OutputStream os = client.getOutputStream();
+				os.write(response.toByteArray());
+				os.flush();
+				// Wait until the client has closed the connection
+				is.read();
+				return received;
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+	}
+
+	private byte[] createMessage(String chunk) {
+		MessagePackWriter entries = new MessagePackWriter();
+		entries.arrayHeader(2).eventTime(1, 0).mapHeader(1).string("status").integer(200);
+
+		MessagePackWriter message = new MessagePackWriter();
+		message.arrayHeader(3).string("tomcat.access").binary(entries);
+		message.mapHeader((chunk != null) ? 2 : 1).string("size").integer(1);
+		if (chunk != null) {
+			message.string("chunk").string(chunk);
+		}
+		return message.toByteArray();
+	}
+
+	private Configuration mockConfig(int port, boolean ack) {
+		Configuration config = mock(Configuration.class);
+		when(config.getEndpointUri()).thenReturn(URI.create("tcp://localhost:" + port));
+		when(config.getTimeout()).thenReturn(2000);
+		when(config.isForwardAck()).thenReturn(ack);
+		return config;
+	}
+
+}
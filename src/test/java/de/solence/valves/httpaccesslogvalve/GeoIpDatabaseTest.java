@@ -0,0 +1,56 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class GeoIpDatabaseTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	public void parseAddress() {
+		assertEquals(0x7F000001L, GeoIpDatabase.parseAddress("127.0.0.1"));
+		assertEquals(0xFFFFFFFFL, GeoIpDatabase.parseAddress("255.255.255.255"));
+		assertEquals(16777216L, GeoIpDatabase.parseAddress("16777216"));
+		assertEquals(-1, GeoIpDatabase.parseAddress("256.0.0.1"));
+		assertEquals(-1, GeoIpDatabase.parseAddress("1.2.3"));
+		assertEquals(-1, GeoIpDatabase.parseAddress("::1"));
+		assertEquals(-1, GeoIpDatabase.parseAddress(null));
+	}
+
+	@Test
+	public void findRange() throws IOException {
+		Path file = dir.resolve("geoip.csv");
+		Files.write(file, ("start,end,country,asn\n" + "\"16777216\",\"16777471\",\"AU\",\"13335\"\n"
+				+ "10.0.0.0,10.255.255.255,-\n" + "8.8.8.0,8.8.8.255,US,15169\n").getBytes(StandardCharsets.UTF_8));
+
+		GeoIpDatabase db = GeoIpDatabase.load(file);
+		assertEquals(3, db.size());
+
+		int index = db.find("1.0.0.1");
+		assertEquals("AU", db.getCountry(index));
+		assertEquals(13335, db.getAsn(index));
+
+		index = db.find("8.8.8.8");
+		assertEquals("US", db.getCountry(index));
+		assertEquals(15169, db.getAsn(index));
+
+		index = db.find("10.1.2.3");
+		assertNull(db.getCountry(index));
+		assertEquals(0, db.getAsn(index));
+
+		assertEquals(-1, db.find("1.0.1.0"));
+		assertEquals(-1, db.find("0.0.0.1"));
+		assertEquals(-1, db.find("2001:db8::1"));
+	}
+
+}
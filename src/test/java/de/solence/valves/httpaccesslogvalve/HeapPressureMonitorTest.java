@@ -0,0 +1,142 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.junit.jupiter.api.Test;
+
+import de.solence.valves.httpaccesslogvalve.HeapPressureMonitor.Level;
+
+public class HeapPressureMonitorTest {
+
+	@Test
+	public void degradeProgressively() {
+		AtomicReference<Double> usage = new AtomicReference<>(0.5);
+		EventQueue queue = new EventQueue(8, 0);
+		HeapPressureMonitor monitor = new HeapPressureMonitor(mockConfig(80), queue, usage::get);
+
+		monitor.update();
+		assertEquals(Level.NORMAL, monitor.getLevel());
+		assertEquals(0, monitor.getTransitionCount());
+
+		usage.set(0.85);
+		monitor.update();
+		assertEquals(Level.LIMIT, monitor.getLevel());
+		assertTrue(monitor.isOptionalFieldsEnabled());
+		assertTrue(queue.offer(createEvent(200)));
+		assertTrue(queue.offer(createEvent(200)));
+		assertFalse(queue.offer(createEvent(200)));
+
+		usage.set(0.95);
+		monitor.update();
+		assertEquals(Level.SAMPLE, monitor.getLevel());
+		assertFalse(monitor.isOptionalFieldsEnabled());
+		assertEquals(2, monitor.getTransitionCount());
+	}
+
+	@Test
+	public void recoverWithHysteresis() {
+		AtomicReference<Double> usage = new AtomicReference<>(0.95);
+		EventQueue queue = new EventQueue(8, 0);
+		HeapPressureMonitor monitor = new HeapPressureMonitor(mockConfig(80), queue, usage::get);
+		monitor.update();
+		assertEquals(Level.SAMPLE, monitor.getLevel());
+
+		// Just below the threshold is not enough
+		usage.set(0.88);
+		monitor.update();
+		assertEquals(Level.SAMPLE, monitor.getLevel());
+
+		usage.set(0.5);
+		monitor.update();
+		assertEquals(Level.NORMAL, monitor.getLevel());
+		assertEquals(2, monitor.getTransitionCount());
+		for (int i = 0; i < 8; i++) {
+			assertTrue(queue.offer(createEvent(200)));
+		}
+	}
+
+	@Test
+	public void sampleEvents() {
+		HeapPressureMonitor monitor = new HeapPressureMonitor(mockConfig(80), new EventQueue(8, 0), () -> 0.99);
+		assertTrue(monitor.sample(200));
+		monitor.update();
+
+		int captured = 0;
+		for (int i = 0; i < 1000; i++) {
+			if (monitor.sample(200)) {
+				captured++;
+			}
+			// Failed requests are always captured
+			assertTrue(monitor.sample(503));
+		}
+		assertTrue(captured > 0 && captured < 300);
+		assertEquals(1000 - captured, monitor.getSampledCount());
+	}
+
+	@Test
+	public void monitorHeapPools() {
+		Map<String, Long> previous = new HashMap<>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.isCollectionUsageThresholdSupported()) {
+				previous.put(pool.getName(), pool.getCollectionUsageThreshold());
+			}
+		}
+
+		HeapPressureMonitor monitor = new HeapPressureMonitor(mockConfig(99), new EventQueue(8, 0));
+		monitor.update();
+		assertEquals(Level.NORMAL, monitor.getLevel());
+		assertTrue(ManagementFactory.getMemoryPoolMXBeans().stream()
+				.anyMatch(pool -> previous.containsKey(pool.getName())
+						&& pool.getCollectionUsageThreshold() != previous.get(pool.getName())));
+		monitor.close();
+
+		// The thresholds are shared by the whole JVM
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.isCollectionUsageThresholdSupported()) {
+				assertEquals(previous.get(pool.getName()), pool.getCollectionUsageThreshold(), pool.getName());
+			}
+		}
+	}
+
+	@Test
+	public void omitOptionalFields() {
+		Request request = mock(Request.class);
+		when(request.getHeader("User-Agent")).thenReturn("curl/8.4.0");
+		when(request.getRequestedSessionId()).thenReturn("123");
+		Response response = mock(Response.class);
+
+		Event full = new Event(request, response, 5, true);
+		Event minimal = new Event(request, response, 5, false);
+		assertEquals("curl/8.4.0", full.getUserAgent());
+		assertNull(minimal.getUserAgent());
+		assertNull(minimal.getSessionId());
+		assertTrue(minimal.getSize() < full.getSize());
+	}
+
+	private Configuration mockConfig(int threshold) {
+		Configuration config = mock(Configuration.class);
+		when(config.getHeapThreshold()).thenReturn(threshold);
+		return config;
+	}
+
+	private Event createEvent(int status) {
+		Request request = mock(Request.class);
+		Response response = mock(Response.class);
+		when(response.getStatus()).thenReturn(status);
+		return new Event(request, response, 5);
+	}
+
+}
@@ -0,0 +1,72 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.junit.jupiter.api.Test;
+
+import de.solence.valves.httpaccesslogvalve.HeavyHitters.Summary;
+
+public class HeavyHittersTest {
+
+	@Test
+	public void trackTopKeys() {
+		HeavyHitters heavyHitters = new HeavyHitters(mockConfig(2, 60));
+		for (int i = 0; i < 3; i++) {
+			heavyHitters.process(createEvent("10.0.0.1", "/orders/" + i, "curl/8.4.0"));
+		}
+		Event routed = createEvent("10.0.0.2", "/orders/7", null);
+		routed.setRoute("/orders/{n}");
+		heavyHitters.process(routed);
+		heavyHitters.process(createEvent("10.0.0.3", "/orders/0", null));
+
+		assertEquals(5, heavyHitters.getEventCount());
+		assertEquals(2, heavyHitters.getTopClients().length);
+		assertEquals("10.0.0.1=3", heavyHitters.getTopClients()[0]);
+		assertEquals("/orders/0=2", heavyHitters.getTopRoutes()[0]);
+		assertArrayEquals(new String[] { "curl/8.4.0=3" }, heavyHitters.getTopUserAgents());
+	}
+
+	@Test
+	public void takeSummaryAfterInterval() {
+		HeavyHitters heavyHitters = new HeavyHitters(mockConfig(5, 60));
+		long start = System.currentTimeMillis();
+		heavyHitters.process(createEvent("10.0.0.1", "/", null));
+
+		assertNull(heavyHitters.takeSummary(start + 1000));
+
+		Summary summary = heavyHitters.takeSummary(start + 60000);
+		assertNotNull(summary);
+		assertEquals(start + 60000, summary.getEnd());
+		assertEquals(1, summary.getEvents());
+		assertEquals("10.0.0.1", summary.getClients().get(0).getKey());
+		assertEquals(0, summary.getUserAgents().size());
+
+		// Counting starts over
+		assertEquals(0, heavyHitters.getEventCount());
+		assertNull(heavyHitters.takeSummary(start + 61000));
+	}
+
+	private Configuration mockConfig(int limit, int interval) {
+		Configuration config = mock(Configuration.class);
+		when(config.getHeavyHitters()).thenReturn(limit);
+		when(config.getHeavyHittersInterval()).thenReturn(interval);
+		return config;
+	}
+
+	private Event createEvent(String remoteAddr, String uri, String userAgent) {
+		Request request = mock(Request.class);
+		Response response = mock(Response.class);
+		when(request.getRemoteAddr()).thenReturn(remoteAddr);
+		when(request.getRequestURI()).thenReturn(uri);
+		when(request.getHeader("User-Agent")).thenReturn(userAgent);
+		return new Event(request, response, 5);
+	}
+
+}
@@ -1,6 +1,8 @@
 package de.solence.valves.httpaccesslogvalve;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.AdditionalMatchers.not;
 import static org.mockito.ArgumentMatchers.anyInt;
@@ -10,12 +12,21 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 
+import com.sun.net.httpserver.HttpServer;
+
 import de.solence.valves.httpaccesslogvalve.Configuration;
 import de.solence.valves.httpaccesslogvalve.HttpConnection;
 import de.solence.valves.httpaccesslogvalve.Target;
@@ -85,6 +96,130 @@ public class HttpConnectionTest {
 		assertFalse(conn.sendMessage(JSON));
 	}
 
+	@Test
+	public void streamChunked() throws IOException {
+		AtomicReference<String> encoding = new AtomicReference<>();
+		AtomicReference<String> body = new AtomicReference<>();
+
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", exchange -> {
+			encoding.set(exchange.getRequestHeaders().getFirst("Transfer-Encoding"));
+			try (InputStream is = exchange.getRequestBody()) {
+				byte[] buffer = new byte[1024];
+				StringBuilder sb = new StringBuilder();
+				int length;
+				while ((length = is.read(buffer)) != -1) {
+					sb.append(new String(buffer, 0, length, StandardCharsets.UTF_8));
+				}
+				body.set(sb.toString());
+			}
+			byte[] response = "ok".getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, response.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(response);
+			}
+		});
+		server.start();
+
+		try {
+			Target target = mockTarget();
+
+			Configuration config = mock(Configuration.class);
+			when(config.getTarget()).thenReturn(target);
+			when(config.getEndpointUrl())
+					.thenReturn(new URL("http://localhost:" + server.getAddress().getPort()));
+			when(config.getAuthToken()).thenReturn(TOKEN);
+			when(config.getTimeout()).thenReturn(1000);
+
+			HttpConnection conn = new HttpConnection(config);
+			assertTrue(conn.sendMessage(os -> os.write(JSON.getBytes(StandardCharsets.UTF_8))));
+
+			assertEquals("chunked", encoding.get());
+			assertEquals(JSON, body.get());
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void sendWithDestinationToken() throws IOException {
+		AtomicReference<String> authorization = new AtomicReference<>();
+
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", exchange -> {
+			authorization.set(exchange.getRequestHeaders().getFirst("Authorization"));
+			exchange.getRequestBody().close();
+			byte[] response = "ok".getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, response.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(response);
+			}
+		});
+		server.start();
+
+		try {
+			Target target = mockTarget();
+			when(target.getAuthenticationHeader("otherToken")).thenReturn("Bearer otherToken");
+
+			Configuration config = mock(Configuration.class);
+			when(config.getTarget()).thenReturn(target);
+			when(config.getEndpointUrl())
+					.thenReturn(new URL("http://localhost:" + server.getAddress().getPort()));
+			when(config.getAuthToken()).thenReturn(TOKEN);
+			when(config.getTimeout()).thenReturn(1000);
+
+			HttpConnection conn = new HttpConnection(config);
+			byte[] message = JSON.getBytes(StandardCharsets.UTF_8);
+			assertTrue(conn.sendMessage(message, new Destination("index", null, "otherToken")));
+			assertEquals("Bearer otherToken", authorization.get());
+
+			assertTrue(conn.sendMessage(message, new Destination("index", null, null)));
+			assertEquals("Bearer " + TOKEN, authorization.get());
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void rejectMessage() throws IOException {
+		AtomicInteger status = new AtomicInteger();
+
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", exchange -> {
+			exchange.getRequestBody().close();
+			byte[] response = "{\"code\":6}".getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(status.get(), response.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(response);
+			}
+		});
+		server.start();
+
+		try {
+			Target target = mockTarget();
+			when(target.isResponseRejected(eq(400), anyString())).thenReturn(true);
+
+			Configuration config = mock(Configuration.class);
+			when(config.getTarget()).thenReturn(target);
+			when(config.getEndpointUrl())
+					.thenReturn(new URL("http://localhost:" + server.getAddress().getPort()));
+			when(config.getAuthToken()).thenReturn(TOKEN);
+			when(config.getTimeout()).thenReturn(1000);
+
+			HttpConnection conn = new HttpConnection(config);
+			status.set(400);
+			RejectedMessageException e = assertThrows(RejectedMessageException.class, () -> conn.sendMessage(JSON));
+			assertEquals(400, e.getStatus());
+			assertEquals("{\"code\":6}", e.getContent());
+
+			// Unavailable endpoints are retried
+			status.set(503);
+			assertFalse(conn.sendMessage(JSON));
+		} finally {
+			server.stop(0);
+		}
+	}
+
 	private Target mockTarget() {
 		Target target = mock(Target.class);
 		when(target.getContentType()).thenReturn(CONTENT_TYPE);
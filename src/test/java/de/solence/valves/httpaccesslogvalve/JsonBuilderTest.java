@@ -22,6 +22,20 @@ public class JsonBuilderTest {
 		assertEquals("\"testkey\":42", builder.toString());
 	}
 
+	@Test
+	public void buildKeyBooleanValuePair() {
+		JsonBuilder builder = new JsonBuilder();
+		builder.append("testkey", true);
+		assertEquals("\"testkey\":true", builder.toString());
+	}
+
+	@Test
+	public void buildEncodedPairs() {
+		JsonBuilder builder = new JsonBuilder();
+		builder.startObject(null).append("a", 1).appendEncoded("\"b\":2,\"c\":3").append("d", 4).endObject();
+		assertEquals("{\"a\":1,\"b\":2,\"c\":3,\"d\":4}", builder.toString());
+	}
+
 	@Test
 	public void buildEmptyObject() {
 		JsonBuilder builder = new JsonBuilder();
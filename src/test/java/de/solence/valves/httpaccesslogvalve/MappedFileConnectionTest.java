@@ -0,0 +1,64 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class MappedFileConnectionTest {
+	private static final byte[] LINE = "{\"msg\":\"test\"}\n".getBytes(StandardCharsets.UTF_8);
+
+	@TempDir
+	Path dir;
+
+	@Test
+	public void appendAndTruncate() throws IOException {
+		MappedFileConnection conn = new MappedFileConnection(mockConfig(false));
+		assertTrue(conn.sendMessage(LINE));
+		assertTrue(conn.sendMessage(LINE));
+		conn.close();
+
+		List<Path> files = listFiles();
+		assertEquals(1, files.size());
+		assertEquals(2 * LINE.length, Files.size(files.get(0)));
+		assertTrue(files.get(0).getFileName().toString().endsWith(".ndjson"));
+	}
+
+	@Test
+	public void compressClosedSegment() throws IOException {
+		MappedFileConnection conn = new MappedFileConnection(mockConfig(true));
+		assertTrue(conn.sendMessage(LINE));
+		conn.close();
+
+		List<Path> files = listFiles();
+		assertEquals(1, files.size());
+		assertTrue(files.get(0).getFileName().toString().endsWith(".ndjson.gz"));
+	}
+
+	private List<Path> listFiles() throws IOException {
+		try (Stream<Path> stream = Files.list(dir)) {
+			return stream.collect(Collectors.toList());
+		}
+	}
+
+	private Configuration mockConfig(boolean compression) {
+		Configuration config = mock(Configuration.class);
+		when(config.getEndpointUri()).thenReturn(dir.resolve("access").toUri());
+		when(config.getFileSegmentSize()).thenReturn(1);
+		when(config.getFileRotationInterval()).thenReturn(3600);
+		when(config.isFileCompression()).thenReturn(compression);
+		return config;
+	}
+
+}
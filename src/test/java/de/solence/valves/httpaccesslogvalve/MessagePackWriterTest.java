@@ -0,0 +1,89 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+public class MessagePackWriterTest {
+
+	@Test
+	public void writeIntegers() {
+		MessagePackWriter writer = new MessagePackWriter();
+		writer.integer(1).integer(-1).integer(200).integer(-100).integer(70000).integer(1L << 40);
+		assertArrayEquals(new byte[] { 0x01, (byte) 0xff, (byte) 0xcc, (byte) 200, (byte) 0xd0, (byte) -100,
+				(byte) 0xce, 0x00, 0x01, 0x11, 0x70, (byte) 0xcf, 0x00, 0x00, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00 },
+				writer.toByteArray());
+	}
+
+	@Test
+	public void writeString() {
+		MessagePackWriter writer = new MessagePackWriter();
+		writer.string("abc").string(null);
+		assertArrayEquals(new byte[] { (byte) 0xa3, 'a', 'b', 'c', (byte) 0xc0 }, writer.toByteArray());
+	}
+
+	@Test
+	public void writeLongUnicodeString() {
+		String value = "ä😀abcdefghijklmnopqrstuvwxyz0123456789";
+		byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+
+		MessagePackWriter writer = new MessagePackWriter();
+		writer.string(value);
+		byte[] encoded = writer.toByteArray();
+		assertEquals((byte) 0xd9, encoded[0]);
+		assertEquals(utf8.length, encoded[1]);
+		assertEquals(value, new String(encoded, 2, encoded.length - 2, StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void writeHeaders() {
+		MessagePackWriter writer = new MessagePackWriter();
+		writer.arrayHeader(2).mapHeader(1).mapHeader(16).arrayHeader(70000);
+		assertArrayEquals(new byte[] { (byte) 0x92, (byte) 0x81, (byte) 0xde, 0x00, 0x10, (byte) 0xdd, 0x00, 0x01,
+				0x11, 0x70 }, writer.toByteArray());
+	}
+
+	@Test
+	public void writeBinaryAndBool() {
+		MessagePackWriter content = new MessagePackWriter();
+		content.bool(true).bool(false);
+
+		MessagePackWriter writer = new MessagePackWriter();
+		writer.binary(content);
+		assertArrayEquals(new byte[] { (byte) 0xc4, 0x02, (byte) 0xc3, (byte) 0xc2 }, writer.toByteArray());
+	}
+
+	@Test
+	public void appendContent() {
+		MessagePackWriter content = new MessagePackWriter();
+		content.string("a").integer(1);
+
+		MessagePackWriter writer = new MessagePackWriter();
+		writer.mapHeader(1).append(content);
+		assertArrayEquals(new byte[] { (byte) 0x81, (byte) 0xa1, 0x61, 0x01 }, writer.toByteArray());
+	}
+
+	@Test
+	public void writeEventTime() {
+		MessagePackWriter writer = new MessagePackWriter();
+		writer.eventTime(0x5f000000L, 500);
+		assertArrayEquals(new byte[] { (byte) 0xd7, 0x00, 0x5f, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01, (byte) 0xf4 },
+				writer.toByteArray());
+	}
+
+	@Test
+	public void growAndReset() {
+		MessagePackWriter writer = new MessagePackWriter();
+		for (int i = 0; i < 1000; i++) {
+			writer.string("value");
+		}
+		assertEquals(6000, writer.size());
+
+		writer.reset().integer(5);
+		assertArrayEquals(new byte[] { 0x05 }, writer.toByteArray());
+	}
+
+}
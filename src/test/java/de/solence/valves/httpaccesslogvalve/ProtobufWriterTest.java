@@ -0,0 +1,63 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class ProtobufWriterTest {
+
+	@Test
+	public void writeSmallVarint() {
+		ProtobufWriter writer = new ProtobufWriter();
+		writer.varint(1, 150);
+		assertArrayEquals(new byte[] { 0x08, (byte) 0x96, 0x01 }, writer.toByteArray());
+	}
+
+	@Test
+	public void writeNegativeVarint() {
+		ProtobufWriter writer = new ProtobufWriter();
+		writer.varint(1, -1);
+		assertEquals(11, writer.size());
+	}
+
+	@Test
+	public void writeString() {
+		ProtobufWriter writer = new ProtobufWriter();
+		writer.string(2, "testing");
+		assertArrayEquals(new byte[] { 0x12, 0x07, 't', 'e', 's', 't', 'i', 'n', 'g' }, writer.toByteArray());
+	}
+
+	@Test
+	public void omitNullString() {
+		ProtobufWriter writer = new ProtobufWriter();
+		writer.string(2, null);
+		assertEquals(0, writer.size());
+	}
+
+	@Test
+	public void writeFixed64() {
+		ProtobufWriter writer = new ProtobufWriter();
+		writer.fixed64(1, 1L);
+		assertArrayEquals(new byte[] { 0x09, 1, 0, 0, 0, 0, 0, 0, 0 }, writer.toByteArray());
+	}
+
+	@Test
+	public void writeNestedMessage() {
+		ProtobufWriter nested = new ProtobufWriter();
+		nested.varint(1, 150);
+		ProtobufWriter writer = new ProtobufWriter();
+		writer.message(3, nested);
+		assertArrayEquals(new byte[] { 0x1a, 0x03, 0x08, (byte) 0x96, 0x01 }, writer.toByteArray());
+	}
+
+	@Test
+	public void resetAndGrow() {
+		ProtobufWriter writer = new ProtobufWriter();
+		writer.bytes(1, new byte[1000]);
+		assertEquals(1003, writer.size());
+		writer.reset();
+		assertEquals(0, writer.size());
+	}
+
+}
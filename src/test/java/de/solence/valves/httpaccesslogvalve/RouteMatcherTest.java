@@ -0,0 +1,47 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+public class RouteMatcherTest {
+
+	@Test
+	public void matchTemplates() {
+		RouteMatcher matcher = new RouteMatcher(
+				Arrays.asList("/orders/{id}/items/{n}", "/orders/{id}", "/orders/new", "/"), false);
+
+		assertEquals("/orders/{id}/items/{n}", matcher.match("/orders/8812731/items/5"));
+		assertEquals("/orders/{id}", matcher.match("/orders/8812731"));
+		assertEquals("/orders/new", matcher.match("/orders/new"));
+		assertEquals("/", matcher.match("/"));
+		assertNull(matcher.match("/orders/8812731/items"));
+		assertNull(matcher.match("/orders/"));
+		assertNull(matcher.match("/users/1"));
+		assertNull(matcher.match(null));
+	}
+
+	@Test
+	public void backtrackFromLiteral() {
+		RouteMatcher matcher = new RouteMatcher(Arrays.asList("/a/b", "/a/{x}/c"), false);
+
+		assertEquals("/a/b", matcher.match("/a/b"));
+		assertEquals("/a/{x}/c", matcher.match("/a/b/c"));
+	}
+
+	@Test
+	public void collapseSegments() {
+		RouteMatcher matcher = new RouteMatcher(Collections.singletonList("/orders/{id}"), true);
+
+		assertEquals("/orders/{id}", matcher.match("/orders/42"));
+		assertEquals("/users/{n}/files/{uuid}/",
+				matcher.match("/users/42/files/123e4567-e89b-12d3-a456-426614174000/"));
+		String uri = "/static/app.js";
+		assertEquals(uri, matcher.match(uri));
+	}
+
+}
@@ -1,14 +1,25 @@
 package de.solence.valves.httpaccesslogvalve;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.catalina.connector.Request;
 import org.apache.catalina.connector.Response;
@@ -25,7 +36,7 @@ public class SenderTest {
 
 		queue.add(createEvent());
 
-		Target target = mockTarget(25);
+		EventTarget target = mockTarget(25);
 
 		Configuration config = mock(Configuration.class);
 		when(config.getTarget()).thenReturn(target);
@@ -47,7 +58,7 @@ public class SenderTest {
 		queue.add(createEvent());
 		queue.add(createEvent());
 
-		Target target = mockTarget(25);
+		EventTarget target = mockTarget(25);
 
 		Configuration config = mock(Configuration.class);
 		when(config.getTarget()).thenReturn(target);
@@ -69,7 +80,7 @@ public class SenderTest {
 		queue.add(createEvent());
 		queue.add(createEvent());
 
-		Target target = mockTarget(2);
+		EventTarget target = mockTarget(2);
 
 		Configuration config = mock(Configuration.class);
 		when(config.getTarget()).thenReturn(target);
@@ -89,7 +100,7 @@ public class SenderTest {
 
 		queue.add(createEvent());
 
-		Target target = mockTarget(25);
+		EventTarget target = mockTarget(25);
 
 		Configuration config = mock(Configuration.class);
 		when(config.getTarget()).thenReturn(target);
@@ -113,13 +124,449 @@ public class SenderTest {
 		verify(conn, times(3)).sendMessage(anyString());
 	}
 
+	@Test
+	public void sendConcurrentMessages() {
+		BlockingQueue<Event> queue = new ArrayBlockingQueue<>(10);
+
+		queue.add(createEvent());
+		queue.add(createEvent());
+		queue.add(createEvent());
+
+		EventTarget target = mockTarget(1);
+
+		Configuration config = mock(Configuration.class);
+		when(config.getTarget()).thenReturn(target);
+		when(config.getInFlight()).thenReturn(2);
+
+		HttpConnection conn = mock(HttpConnection.class);
+		when(conn.sendMessageAsync(any(byte[].class))).thenReturn(CompletableFuture.completedFuture(true));
+
+		Sender sender = new Sender(config, conn, queue);
+		sender.run();
+
+		verify(conn, times(3)).sendMessageAsync(any(byte[].class));
+	}
+
+	@Test
+	public void retryFailedConcurrentMessage() {
+		BlockingQueue<Event> queue = new ArrayBlockingQueue<>(10);
+
+		queue.add(createEvent());
+
+		EventTarget target = mockTarget(1);
+
+		Configuration config = mock(Configuration.class);
+		when(config.getTarget()).thenReturn(target);
+		when(config.getInFlight()).thenReturn(2);
+
+		HttpConnection conn = mock(HttpConnection.class);
+		when(conn.sendMessageAsync(any(byte[].class))).thenReturn(CompletableFuture.completedFuture(false));
+		when(conn.sendMessage(any(byte[].class))).thenReturn(true);
+
+		Sender sender = new Sender(config, conn, queue);
+		sender.run();
+
+		verify(conn).sendMessageAsync(any(byte[].class));
+		verify(conn).sendMessage(any(byte[].class));
+	}
+
+	@Test
+	public void sendOnExecutor() {
+		BlockingQueue<Event> queue = new ArrayBlockingQueue<>(10);
+
+		queue.add(createEvent());
+		queue.add(createEvent());
+		queue.add(createEvent());
+
+		EventTarget target = mockTarget(1);
+
+		Configuration config = mock(Configuration.class);
+		when(config.getTarget()).thenReturn(target);
+		when(config.getInFlight()).thenReturn(2);
+
+		HttpConnection conn = mock(HttpConnection.class);
+		when(conn.sendMessage(any(byte[].class))).thenReturn(true);
+
+		ExecutorService executor = Executors.newCachedThreadPool();
+		Sender sender = new Sender(config, conn, queue, executor);
+		sender.run();
+		sender.close();
+
+		verify(conn, times(3)).sendMessage(any(byte[].class));
+		assertEquals(3, sender.getDeliveredCount());
+		assertTrue(executor.isTerminated());
+	}
+
+	@Test
+	public void interruptExecutorOnClose() throws InterruptedException {
+		BlockingQueue<Event> queue = new ArrayBlockingQueue<>(10);
+
+		queue.add(createEvent());
+
+		EventTarget target = mockTarget(1);
+
+		Configuration config = mock(Configuration.class);
+		when(config.getTarget()).thenReturn(target);
+		when(config.getInFlight()).thenReturn(2);
+		when(config.getShutdownTimeout()).thenReturn(1);
+
+		// The endpoint is down, so the message is retried until interrupted
+		HttpConnection conn = mock(HttpConnection.class);
+		when(conn.sendMessage(any(byte[].class))).thenReturn(false);
+
+		ExecutorService executor = Executors.newCachedThreadPool();
+		Sender sender = new Sender(config, conn, queue, executor);
+		Thread runner = new Thread(sender);
+		runner.start();
+		verify(conn, timeout(1000)).sendMessage(any(byte[].class));
+		runner.interrupt();
+		runner.join(1000);
+
+		long start = System.nanoTime();
+		sender.close();
+
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(3));
+		assertTrue(executor.isTerminated());
+		assertEquals(0, sender.getDeliveredCount());
+	}
+
+	@Test
+	public void sendStreamedEvents() {
+		BlockingQueue<Event> queue = new ArrayBlockingQueue<>(10);
+
+		queue.add(createEvent());
+		queue.add(createEvent());
+		queue.add(createEvent());
+
+		EventTarget target = mockTarget(25);
+
+		Configuration config = mock(Configuration.class);
+		when(config.getTarget()).thenReturn(target);
+		when(config.isStreaming()).thenReturn(true);
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		HttpConnection conn = mock(HttpConnection.class);
+		when(conn.sendMessage(any(MessageWriter.class))).thenAnswer(invocation -> {
+			invocation.getArgument(0, MessageWriter.class).write(os);
+			return true;
+		});
+
+		Sender sender = new Sender(config, conn, queue);
+		sender.run();
+
+		verify(conn).sendMessage(any(MessageWriter.class));
+		assertEquals("[" + MESSAGE + "," + MESSAGE + "," + MESSAGE + "]",
+				new String(os.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void retryFailedStream() {
+		BlockingQueue<Event> queue = new ArrayBlockingQueue<>(10);
+
+		queue.add(createEvent());
+		queue.add(createEvent());
+
+		EventTarget target = mockTarget(25);
+
+		Configuration config = mock(Configuration.class);
+		when(config.getTarget()).thenReturn(target);
+		when(config.isStreaming()).thenReturn(true);
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		HttpConnection conn = mock(HttpConnection.class);
+		when(conn.sendMessage(any(MessageWriter.class))).thenAnswer(invocation -> {
+			// Events are written, but delivery fails
+			invocation.getArgument(0, MessageWriter.class).write(new ByteArrayOutputStream());
+			return false;
+		}).thenAnswer(invocation -> {
+			invocation.getArgument(0, MessageWriter.class).write(os);
+			return true;
+		});
+
+		Sender sender = new Sender(config, conn, queue);
+		sender.run();
+
+		verify(conn, times(2)).sendMessage(any(MessageWriter.class));
+		assertEquals("[" + MESSAGE + "," + MESSAGE + "]", new String(os.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void sendSerializedMessages() {
+		BlockingQueue<Event> queue = new ArrayBlockingQueue<>(10);
+
+		queue.add(createEvent());
+		queue.add(createEvent());
+		queue.add(createEvent());
+
+		EventTarget target = mockTarget(1);
+
+		Configuration config = mock(Configuration.class);
+		when(config.getTarget()).thenReturn(target);
+		when(config.getSerializers()).thenReturn(2);
+
+		HttpConnection conn = mock(HttpConnection.class);
+		when(conn.sendMessage(any(byte[].class))).thenReturn(true);
+
+		Sender sender = new Sender(config, conn, queue);
+		sender.run();
+		sender.close();
+
+		verify(conn, times(3)).sendMessage(any(byte[].class));
+	}
+
+	@Test
+	public void drainRemainingEvents() {
+		BlockingQueue<Event> queue = new ArrayBlockingQueue<>(10);
+		for (int i = 0; i < 5; i++) {
+			queue.add(createEvent());
+		}
+
+		EventTarget target = mockTarget(2);
+
+		Configuration config = mock(Configuration.class);
+		when(config.getTarget()).thenReturn(target);
+
+		HttpConnection conn = mock(HttpConnection.class);
+		when(conn.sendMessage(any(byte[].class))).thenReturn(true);
+
+		Sender sender = new Sender(config, conn, queue);
+		sender.drain(5, TimeUnit.SECONDS);
+
+		verify(conn, times(3)).sendMessage(any(byte[].class));
+		assertEquals(5, sender.getDeliveredCount());
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void abandonEventsAtDeadline() {
+		BlockingQueue<Event> queue = new ArrayBlockingQueue<>(10);
+		queue.add(createEvent());
+		queue.add(createEvent());
+
+		EventTarget target = mockTarget(1);
+
+		Configuration config = mock(Configuration.class);
+		when(config.getTarget()).thenReturn(target);
+
+		HttpConnection conn = mock(HttpConnection.class);
+		when(conn.sendMessage(any(byte[].class))).thenReturn(false);
+
+		Sender sender = new Sender(config, conn, queue);
+		long start = System.nanoTime();
+		sender.drain(300, TimeUnit.MILLISECONDS);
+
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+		assertEquals(0, sender.getDeliveredCount());
+	}
+
+	@Test
+	public void closeAtDeadline() throws InterruptedException {
+		BlockingQueue<Event> queue = new ArrayBlockingQueue<>(10);
+		for (int i = 0; i < 5; i++) {
+			queue.add(createEvent());
+		}
+
+		EventTarget target = mockTarget(1);
+
+		Configuration config = mock(Configuration.class);
+		when(config.getTarget()).thenReturn(target);
+		when(config.getSerializers()).thenReturn(1);
+		when(config.getInFlight()).thenReturn(2);
+
+		// The endpoint is down, so serialized messages cannot be sent
+		HttpConnection conn = mock(HttpConnection.class);
+		when(conn.sendMessage(any(byte[].class))).thenReturn(false);
+		when(conn.sendMessageAsync(any(byte[].class))).thenReturn(CompletableFuture.completedFuture(false));
+
+		Sender sender = new Sender(config, conn, queue);
+		// Wait until the serializer is blocked on the full handoff queue
+		while (queue.size() > 2) {
+			Thread.sleep(10);
+		}
+		long start = System.nanoTime();
+		sender.close(300, TimeUnit.MILLISECONDS);
+
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+		verify(conn, atLeastOnce()).sendMessage(any(byte[].class));
+		assertEquals(0, sender.getDeliveredCount());
+	}
+
+	@Test
+	public void sendPerDestination() {
+		BlockingQueue<Event> queue = new ArrayBlockingQueue<>(10);
+		Destination shop = new Destination("shop", null, null);
+
+		queue.add(createEvent());
+		Event event = createEvent();
+		event.setDestination(shop);
+		queue.add(event);
+		queue.add(createEvent());
+
+		EventTarget target = mockTarget(25);
+
+		Configuration config = mock(Configuration.class);
+		when(config.getTarget()).thenReturn(target);
+
+		HttpConnection conn = mock(HttpConnection.class);
+		when(conn.sendMessage(anyString())).thenReturn(true);
+		when(conn.sendMessage(any(byte[].class), eq(shop))).thenReturn(true);
+
+		Sender sender = new Sender(config, conn, queue);
+		sender.run();
+
+		verify(conn).sendMessage("[" + MESSAGE + "," + MESSAGE + "]");
+		verify(conn).sendMessage(any(byte[].class), eq(shop));
+		assertEquals(3, sender.getDeliveredCount());
+	}
+
+	@Test
+	public void sendConcurrentlyPerDestination() {
+		BlockingQueue<Event> queue = new ArrayBlockingQueue<>(10);
+		Destination shop = new Destination("shop", null, "shopToken");
+
+		queue.add(createEvent());
+		Event event = createEvent();
+		event.setDestination(shop);
+		queue.add(event);
+
+		EventTarget target = mockTarget(25);
+
+		Configuration config = mock(Configuration.class);
+		when(config.getTarget()).thenReturn(target);
+		when(config.getInFlight()).thenReturn(2);
+
+		// Without asynchronous transport, messages are sent synchronously
+		HttpConnection conn = mock(HttpConnection.class);
+		when(conn.sendMessageAsync(any(byte[].class))).thenCallRealMethod();
+		when(conn.sendMessageAsync(any(byte[].class), any(Destination.class))).thenCallRealMethod();
+		when(conn.sendMessage(any(byte[].class))).thenReturn(true);
+		when(conn.sendMessage(any(byte[].class), eq(shop))).thenReturn(true);
+
+		Sender sender = new Sender(config, conn, queue);
+		sender.run();
+
+		verify(conn).sendMessage("[message]".getBytes(StandardCharsets.UTF_8));
+		verify(conn).sendMessage("[message]".getBytes(StandardCharsets.UTF_8), shop);
+		assertEquals(2, sender.getDeliveredCount());
+	}
+
+	@Test
+	public void isolateRejectedEvent() {
+		BlockingQueue<Event> queue = new ArrayBlockingQueue<>(10);
+
+		queue.add(createEvent("/a"));
+		queue.add(createEvent("/b"));
+		queue.add(createEvent("/bad"));
+		queue.add(createEvent("/c"));
+		queue.add(createEvent("/d"));
+
+		EventTarget target = mockTarget(25);
+		when(target.getMessage(any(Configuration.class), any(Event.class)))
+				.thenAnswer(invocation -> ((Event) invocation.getArgument(1)).getRequestUri());
+
+		Configuration config = mock(Configuration.class);
+		when(config.getTarget()).thenReturn(target);
+		when(config.getDeadLetters()).thenReturn(10);
+
+		HttpConnection conn = mock(HttpConnection.class);
+		when(conn.sendMessage(anyString())).thenAnswer(invocation -> reject(invocation.getArgument(0)));
+		when(conn.sendMessage(any(byte[].class)))
+				.thenAnswer(invocation -> reject(new String((byte[]) invocation.getArgument(0), StandardCharsets.UTF_8)));
+
+		Sender sender = new Sender(config, conn, queue);
+		sender.run();
+
+		verify(conn).sendMessage("[/a,/b,/bad,/c,/d]");
+		verify(conn).sendMessage("[/a,/b]".getBytes(StandardCharsets.UTF_8));
+		verify(conn).sendMessage("[/bad,/c,/d]".getBytes(StandardCharsets.UTF_8));
+		verify(conn).sendMessage("[/bad]".getBytes(StandardCharsets.UTF_8));
+		verify(conn).sendMessage("[/c,/d]".getBytes(StandardCharsets.UTF_8));
+		assertEquals(4, sender.getDeliveredCount());
+		assertEquals(1, sender.getDeadLetters().getCount());
+		assertEquals("/bad", sender.getDeadLetters().getEvents().get(0).getRequestUri());
+	}
+
+	@Test
+	public void isolateRejectedConcurrentEvent() {
+		BlockingQueue<Event> queue = new ArrayBlockingQueue<>(10);
+
+		queue.add(createEvent("/a"));
+		queue.add(createEvent("/bad"));
+		queue.add(createEvent("/b"));
+
+		EventTarget target = mockTarget(25);
+		when(target.getMessage(any(Configuration.class), any(Event.class)))
+				.thenAnswer(invocation -> ((Event) invocation.getArgument(1)).getRequestUri());
+
+		Configuration config = mock(Configuration.class);
+		when(config.getTarget()).thenReturn(target);
+		when(config.getInFlight()).thenReturn(2);
+		when(config.getDeadLetters()).thenReturn(10);
+
+		// Without asynchronous transport, the rejection is thrown while sending
+		HttpConnection conn = mock(HttpConnection.class);
+		when(conn.sendMessageAsync(any(byte[].class))).thenCallRealMethod();
+		when(conn.sendMessage(any(byte[].class)))
+				.thenAnswer(invocation -> reject(new String((byte[]) invocation.getArgument(0), StandardCharsets.UTF_8)));
+
+		Sender sender = new Sender(config, conn, queue);
+		sender.run();
+
+		verify(conn).sendMessage("[/a,/bad,/b]".getBytes(StandardCharsets.UTF_8));
+		verify(conn).sendMessage("[/bad]".getBytes(StandardCharsets.UTF_8));
+		assertEquals(2, sender.getDeliveredCount());
+		assertEquals(1, sender.getDeadLetters().getCount());
+	}
+
+	@Test
+	public void coalesceRepeatedEvents() {
+		BlockingQueue<Event> queue = new ArrayBlockingQueue<>(20);
+
+		for (int i = 0; i < 10; i++) {
+			queue.add(createEvent("/health"));
+		}
+		queue.add(createEvent("/a"));
+
+		EventTarget target = mockTarget(25);
+		when(target.getMessage(any(Configuration.class), any(Event.class))).thenAnswer(invocation -> {
+			Event event = invocation.getArgument(1);
+			return event.getRequestUri() + "*" + event.getCount();
+		});
+
+		Configuration config = mock(Configuration.class);
+		when(config.getTarget()).thenReturn(target);
+		when(config.getCoalesceWindow()).thenReturn(200);
+
+		HttpConnection conn = mock(HttpConnection.class);
+		when(conn.sendMessage(anyString())).thenReturn(true);
+
+		Sender sender = new Sender(config, conn, queue);
+		sender.run();
+
+		// Repetitions are sent once the window has ended
+		verify(conn).sendMessage("[/health*1,/a*1]");
+		verify(conn).sendMessage("[/health*9]");
+		assertEquals(11, sender.getDeliveredCount());
+	}
+
+	private static boolean reject(String message) {
+		if (message.contains("/bad")) {
+			throw new RejectedMessageException(400, "{\"text\":\"Invalid data format\",\"code\":6}");
+		}
+		return true;
+	}
+
 	private Event createEvent() {
+		return createEvent("/");
+	}
+
+	private Event createEvent(String uri) {
 		Request request = mock(Request.class);
 		Response response = mock(Response.class);
 
-		when(request.getRemoteHost()).thenReturn("127.0.0.1");
+		when(request.getRemoteAddr()).thenReturn("127.0.0.1");
 		when(request.getMethod()).thenReturn("GET");
-		when(request.getRequestURI()).thenReturn("/");
+		when(request.getRequestURI()).thenReturn(uri);
 		when(request.getRemoteUser()).thenReturn(null);
 		when(request.getRequestedSessionId()).thenReturn(null);
 		when(request.getHeader("User-Agent")).thenReturn("testClient");
@@ -130,8 +577,8 @@ public class SenderTest {
 		return new Event(request, response, 5);
 	}
 
-	private Target mockTarget(int eventsPerMessage) {
-		Target target = mock(Target.class);
+	private EventTarget mockTarget(int eventsPerMessage) {
+		EventTarget target = mock(EventTarget.class);
 		when(target.getEventsPerMessage()).thenReturn(eventsPerMessage);
 		when(target.getMessage(any(Configuration.class), any(Event.class))).thenReturn(MESSAGE);
 		return target;
@@ -0,0 +1,72 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import de.solence.valves.httpaccesslogvalve.SpaceSaving.Counter;
+
+public class SpaceSavingTest {
+
+	@Test
+	public void countExactlyWithinCapacity() {
+		SpaceSaving sketch = new SpaceSaving(3);
+		add(sketch, "a", 5);
+		add(sketch, "b", 2);
+		add(sketch, "c", 7);
+		sketch.add(null);
+
+		List<Counter> top = sketch.getTop(2);
+		assertEquals(2, top.size());
+		assertEquals("c", top.get(0).getKey());
+		assertEquals(7, top.get(0).getCount());
+		assertEquals("a", top.get(1).getKey());
+		assertEquals(0, top.get(1).getError());
+		assertEquals(14, sketch.getTotal());
+	}
+
+	@Test
+	public void findHeavyHittersAmongManyKeys() {
+		SpaceSaving sketch = new SpaceSaving(100);
+		for (int i = 0; i < 10000; i++) {
+			sketch.add("key" + i);
+			if (i % 4 == 0) {
+				sketch.add("hot");
+			}
+			if (i % 10 == 0) {
+				sketch.add("warm");
+			}
+		}
+
+		List<Counter> top = sketch.getTop(2);
+		assertEquals("hot", top.get(0).getKey());
+		assertEquals("warm", top.get(1).getKey());
+		for (Counter counter : top) {
+			assertTrue(counter.getCount() - counter.getError() <= ("hot".equals(counter.getKey()) ? 2500 : 1000));
+			assertTrue(counter.getCount() >= ("hot".equals(counter.getKey()) ? 2500 : 1000));
+		}
+	}
+
+	@Test
+	public void resetCounts() {
+		SpaceSaving sketch = new SpaceSaving(2);
+		add(sketch, "a", 3);
+		sketch.reset();
+		sketch.add("b");
+
+		List<Counter> top = sketch.getTop(5);
+		assertEquals(1, top.size());
+		assertEquals("b", top.get(0).getKey());
+		assertEquals(1, sketch.getTotal());
+	}
+
+	private void add(SpaceSaving sketch, String key, int times) {
+		for (int i = 0; i < times; i++) {
+			sketch.add(key);
+		}
+	}
+
+}
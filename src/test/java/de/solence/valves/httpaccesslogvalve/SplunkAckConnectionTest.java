@@ -0,0 +1,177 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import de.solence.valves.httpaccesslogvalve.HttpConnection.Reply;
+
+public class SplunkAckConnectionTest {
+	private static final byte[] MESSAGE = "[]".getBytes(StandardCharsets.UTF_8);
+
+	@Test
+	public void acknowledgeMessage() throws IOException {
+		Configuration config = mockConfig(2, 300);
+		HttpConnection conn = mock(HttpConnection.class);
+		when(conn.post(eq(config.getEndpointUrl()), any(MessageWriter.class), anyInt(), eq("token")))
+				.thenReturn(new Reply(200, "{\"text\":\"Success\",\"code\":0,\"ackId\":7}"));
+		when(conn.post(eq(new URL("https://localhost:8088/services/collector/ack")), any(MessageWriter.class),
+				anyInt(), eq("token"))).thenReturn(new Reply(200, "{\"acks\":{\"7\":true}}"));
+
+		SplunkAckConnection ack = new SplunkAckConnection(config, conn);
+		assertTrue(ack.sendMessage(MESSAGE));
+		assertEquals(1, ack.getPendingCount());
+
+		ack.poll();
+		assertEquals(0, ack.getPendingCount());
+		ack.close();
+	}
+
+	@Test
+	public void blockWhenWindowFull() throws IOException {
+		Configuration config = mockConfig(1, 300);
+		HttpConnection conn = mock(HttpConnection.class);
+		when(conn.post(eq(config.getEndpointUrl()), any(MessageWriter.class), anyInt(), eq("token")))
+				.thenReturn(new Reply(200, "{\"text\":\"Success\",\"code\":0,\"ackId\":1}"));
+		when(conn.post(eq(new URL("https://localhost:8088/services/collector/ack")), any(MessageWriter.class),
+				anyInt(), eq("token"))).thenReturn(new Reply(200, "{\"acks\":{\"1\":false}}"));
+
+		SplunkAckConnection ack = new SplunkAckConnection(config, conn);
+		assertTrue(ack.sendMessage(MESSAGE));
+		assertFalse(ack.sendMessage(MESSAGE));
+		ack.close();
+	}
+
+	@Test
+	public void resendUnacknowledged() throws IOException {
+		Configuration config = mockConfig(2, 0);
+		HttpConnection conn = mock(HttpConnection.class);
+		when(conn.post(eq(config.getEndpointUrl()), any(MessageWriter.class), anyInt(), eq("token")))
+				.thenReturn(new Reply(200, "{\"text\":\"Success\",\"code\":0,\"ackId\":1}"))
+				.thenReturn(new Reply(200, "{\"text\":\"Success\",\"code\":0,\"ackId\":2}"));
+		when(conn.post(eq(new URL("https://localhost:8088/services/collector/ack")), any(MessageWriter.class),
+				anyInt(), eq("token"))).thenReturn(new Reply(200, "{\"acks\":{\"1\":false}}"));
+
+		SplunkAckConnection ack = new SplunkAckConnection(config, conn);
+		assertTrue(ack.sendMessage(MESSAGE));
+
+		ack.poll();
+		verify(conn, times(2)).post(eq(config.getEndpointUrl()), any(MessageWriter.class), anyInt(), eq("token"));
+		assertEquals(1, ack.getPendingCount());
+		ack.close();
+	}
+
+	@Test
+	public void reusedAckId() throws IOException {
+		Configuration config = mockConfig(2, 300);
+		HttpConnection conn = mock(HttpConnection.class);
+		when(conn.post(eq(config.getEndpointUrl()), any(MessageWriter.class), anyInt(), eq("token")))
+				.thenReturn(new Reply(200, "{\"text\":\"Success\",\"code\":0,\"ackId\":1}"));
+		when(conn.post(eq(new URL("https://localhost:8088/services/collector/ack")), any(MessageWriter.class),
+				anyInt(), eq("token"))).thenReturn(new Reply(200, "{\"acks\":{\"1\":true}}"));
+
+		SplunkAckConnection ack = new SplunkAckConnection(config, conn);
+		assertTrue(ack.sendMessage(MESSAGE));
+		assertTrue(ack.sendMessage(MESSAGE));
+		assertEquals(2, ack.getPendingCount());
+
+		// The replaced message is still waiting and keeps its window permit
+		ack.poll();
+		assertEquals(1, ack.getPendingCount());
+		assertTrue(ack.sendMessage(MESSAGE));
+		assertFalse(ack.sendMessage(MESSAGE));
+		ack.close();
+	}
+
+	@Test
+	public void resendOnClose() throws IOException {
+		Configuration config = mockConfig(2, 0);
+		HttpConnection conn = mock(HttpConnection.class);
+		when(conn.post(eq(config.getEndpointUrl()), any(MessageWriter.class), anyInt(), eq("token")))
+				.thenReturn(new Reply(200, "{\"text\":\"Success\",\"code\":0,\"ackId\":1}"))
+				.thenReturn(new Reply(200, "{\"text\":\"Success\",\"code\":0,\"ackId\":2}"));
+		when(conn.post(eq(new URL("https://localhost:8088/services/collector/ack")), any(MessageWriter.class),
+				anyInt(), eq("token"))).thenReturn(new Reply(200, "{\"acks\":{\"1\":false}}"))
+				.thenReturn(new Reply(200, "{\"acks\":{\"2\":true}}"));
+
+		SplunkAckConnection ack = new SplunkAckConnection(config, conn);
+		assertTrue(ack.sendMessage(MESSAGE));
+
+		// Unacknowledged messages are sent again until the deadline
+		long start = System.nanoTime();
+		ack.close(5, TimeUnit.SECONDS);
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(3));
+		verify(conn, times(2)).post(eq(config.getEndpointUrl()), any(MessageWriter.class), anyInt(), eq("token"));
+		assertEquals(0, ack.getPendingCount());
+	}
+
+	@Test
+	public void acknowledgePerToken() throws IOException {
+		Configuration config = mockConfig(2, 300);
+		URL ackUrl = new URL("https://localhost:8088/services/collector/ack");
+		HttpConnection conn = mock(HttpConnection.class);
+		// Both tokens have their own ackIds
+		when(conn.post(eq(config.getEndpointUrl()), any(MessageWriter.class), anyInt(), anyString()))
+				.thenReturn(new Reply(200, "{\"text\":\"Success\",\"code\":0,\"ackId\":1}"));
+		when(conn.post(eq(ackUrl), any(MessageWriter.class), anyInt(), eq("token")))
+				.thenReturn(new Reply(200, "{\"acks\":{\"1\":true}}"));
+		when(conn.post(eq(ackUrl), any(MessageWriter.class), anyInt(), eq("shopToken")))
+				.thenReturn(new Reply(200, "{\"acks\":{\"1\":false}}"));
+
+		SplunkAckConnection ack = new SplunkAckConnection(config, conn);
+		assertTrue(ack.sendMessage(MESSAGE));
+		assertTrue(ack.sendMessage(MESSAGE, new Destination("shop", null, "shopToken")));
+		verify(conn).post(eq(config.getEndpointUrl()), any(MessageWriter.class), anyInt(), eq("shopToken"));
+		assertEquals(2, ack.getPendingCount());
+
+		ack.poll();
+		verify(conn).post(eq(ackUrl), any(MessageWriter.class), anyInt(), eq("token"));
+		verify(conn).post(eq(ackUrl), any(MessageWriter.class), anyInt(), eq("shopToken"));
+		assertEquals(1, ack.getPendingCount());
+		ack.close(0, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void acknowledgementNotEnabled() throws IOException {
+		Configuration config = mockConfig(1, 300);
+		HttpConnection conn = mock(HttpConnection.class);
+		when(conn.post(eq(config.getEndpointUrl()), any(MessageWriter.class), anyInt(), eq("token")))
+				.thenReturn(new Reply(200, "{\"text\":\"Success\",\"code\":0}"));
+
+		SplunkAckConnection ack = new SplunkAckConnection(config, conn);
+		assertTrue(ack.sendMessage(MESSAGE));
+		assertTrue(ack.sendMessage(MESSAGE));
+		assertEquals(0, ack.getPendingCount());
+		ack.close();
+	}
+
+	private Configuration mockConfig(int window, int timeout) throws IOException {
+		Target target = mock(Target.class);
+		when(target.isResponseOk(eq(200), anyString())).thenReturn(true);
+
+		Configuration config = mock(Configuration.class);
+		when(config.getTarget()).thenReturn(target);
+		when(config.getEndpointUrl()).thenReturn(new URL("https://localhost:8088/services/collector/event"));
+		when(config.getAuthToken()).thenReturn("token");
+		when(config.getTimeout()).thenReturn(100);
+		when(config.getSplunkAckWindow()).thenReturn(window);
+		when(config.getSplunkAckTimeout()).thenReturn(timeout);
+		return config;
+	}
+
+}
@@ -0,0 +1,124 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class SyslogConnectionTest {
+	private static final String FRAMED = "5 first6 second";
+
+	@Test
+	public void sendDatagramPerMessage() throws IOException {
+		try (DatagramSocket server = new DatagramSocket(0)) {
+			server.setSoTimeout(2000);
+
+			SyslogConnection conn = new SyslogConnection(mockConfig("udp://localhost:" + server.getLocalPort()));
+			assertTrue(conn.sendMessage(FRAMED.getBytes(StandardCharsets.UTF_8)));
+			conn.close();
+
+			assertEquals("first", receive(server));
+			assertEquals("second", receive(server));
+		}
+	}
+
+	@Test
+	public void sendFramedStream() throws IOException {
+		try (ServerSocket server = new ServerSocket(0)) {
+			SyslogConnection conn = new SyslogConnection(mockConfig("tcp://localhost:" + server.getLocalPort()));
+			assertTrue(conn.sendMessage(FRAMED.getBytes(StandardCharsets.UTF_8)));
+			conn.close();
+
+			try (Socket client = server.accept(); InputStream is = client.getInputStream()) {
+				byte[] received = new byte[FRAMED.length()];
+				int offset = 0;
+				int length;
+				while (offset < received.length && (length = is.read(received, offset, received.length - offset)) > 0) {
+					offset += length;
+				}
+				assertEquals(FRAMED, new String(received, StandardCharsets.UTF_8));
+			}
+		}
+	}
+
+	@Test
+	public void resumeFailedDatagrams() {
+		List<String> sent = new ArrayList<>();
+		AtomicInteger failures = new AtomicInteger(1);
+		WritableByteChannel channel = new WritableByteChannel() {
+			@Override
+			public int write(ByteBuffer src) throws IOException {
+				// Fail once on the second datagram
+				if (sent.size() == 1 && failures.getAndDecrement() > 0) {
+					throw new IOException("Network unreachable");
+				}
+				byte[] data = new byte[src.remaining()];
+				src.get(data);
+				sent.add(new String(data, StandardCharsets.UTF_8));
+				return data.length;
+			}
+
+			@Override
+			public boolean isOpen() {
+				return true;
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+
+		SyslogConnection conn = new SyslogConnection(mockConfig("udp://localhost:514"), () -> channel);
+		byte[] message = "5 first6 second5 third".getBytes(StandardCharsets.UTF_8);
+		assertFalse(conn.sendMessage(message));
+		assertTrue(conn.sendMessage(message));
+		assertEquals(Arrays.asList("first", "second", "third"), sent);
+
+		// Once sent completely, the message is sent from the beginning again
+		assertTrue(conn.sendMessage(message));
+		assertEquals(6, sent.size());
+	}
+
+	@Test
+	public void endpointUnreachable() throws IOException {
+		int port;
+		try (ServerSocket server = new ServerSocket(0)) {
+			port = server.getLocalPort();
+		}
+
+		SyslogConnection conn = new SyslogConnection(mockConfig("tcp://localhost:" + port));
+		assertFalse(conn.sendMessage(FRAMED.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private String receive(DatagramSocket server) throws IOException {
+		DatagramPacket packet = new DatagramPacket(new byte[1024], 1024);
+		server.receive(packet);
+		return new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
+	}
+
+	private Configuration mockConfig(String uri) {
+		Configuration config = mock(Configuration.class);
+		when(config.getEndpointUri()).thenReturn(URI.create(uri));
+		when(config.getTimeout()).thenReturn(1000);
+		return config;
+	}
+
+}
@@ -0,0 +1,85 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.junit.jupiter.api.Test;
+
+import de.solence.valves.httpaccesslogvalve.UserAgentClassifier.UserAgent;
+
+public class UserAgentClassifierTest {
+
+	@Test
+	public void classifyDesktopBrowsers() {
+		UserAgent edge = UserAgentClassifier.classify("Mozilla/5.0 (Windows NT 10.0; Win64; x64) "
+				+ "AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36 Edg/120.0.2210.91");
+		assertEquals("Edge", edge.getBrowser());
+		assertEquals("Windows", edge.getOs());
+		assertEquals("desktop", edge.getDevice());
+		assertFalse(edge.isBot());
+
+		UserAgent safari = UserAgentClassifier.classify("Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) "
+				+ "AppleWebKit/605.1.15 (KHTML, like Gecko) Version/17.1 Safari/605.1.15");
+		assertEquals("Safari", safari.getBrowser());
+		assertEquals("macOS", safari.getOs());
+	}
+
+	@Test
+	public void classifyMobileDevices() {
+		UserAgent iphone = UserAgentClassifier.classify("Mozilla/5.0 (iPhone; CPU iPhone OS 17_1 like Mac OS X) "
+				+ "AppleWebKit/605.1.15 (KHTML, like Gecko) CriOS/120.0.6099.119 Mobile/15E148 Safari/604.1");
+		assertEquals("Chrome", iphone.getBrowser());
+		assertEquals("iOS", iphone.getOs());
+		assertEquals("mobile", iphone.getDevice());
+
+		UserAgent tablet = UserAgentClassifier.classify("Mozilla/5.0 (Linux; Android 13; SM-X700) "
+				+ "AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36");
+		assertEquals("Android", tablet.getOs());
+		assertEquals("tablet", tablet.getDevice());
+	}
+
+	@Test
+	public void classifyBots() {
+		UserAgent google = UserAgentClassifier
+				.classify("Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)");
+		assertTrue(google.isBot());
+		assertEquals("bot", google.getDevice());
+
+		UserAgent curl = UserAgentClassifier.classify("curl/8.4.0");
+		assertEquals("curl", curl.getBrowser());
+		assertNull(curl.getOs());
+		assertTrue(curl.isBot());
+	}
+
+	@Test
+	public void cacheClassification() {
+		Configuration config = mock(Configuration.class);
+		when(config.getUserAgentCacheSize()).thenReturn(10);
+		UserAgentClassifier classifier = new UserAgentClassifier(config);
+
+		Event first = createEvent("curl/8.4.0");
+		Event second = createEvent("curl/8.4.0");
+		classifier.process(first);
+		classifier.process(second);
+		assertSame(first.getUserAgentClass(), second.getUserAgentClass());
+
+		Event none = createEvent(null);
+		classifier.process(none);
+		assertNull(none.getUserAgentClass());
+	}
+
+	private Event createEvent(String userAgent) {
+		Request request = mock(Request.class);
+		Response response = mock(Response.class);
+		when(request.getHeader("User-Agent")).thenReturn(userAgent);
+		return new Event(request, response, 5);
+	}
+
+}
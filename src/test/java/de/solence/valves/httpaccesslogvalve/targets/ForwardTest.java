@@ -0,0 +1,239 @@
+package de.solence.valves.httpaccesslogvalve.targets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import de.solence.valves.httpaccesslogvalve.Configuration;
+import de.solence.valves.httpaccesslogvalve.Destination;
+import de.solence.valves.httpaccesslogvalve.Event;
+import de.solence.valves.httpaccesslogvalve.UserAgentClassifier;
+
+public class ForwardTest {
+	private static final LocalDateTime TIME = LocalDateTime.of(2024, 5, 1, 12, 30, 15, 123_000_000);
+	private static final List<String> FIELDS = Arrays.asList("host", "source", "remoteHost", "method", "uri", "user",
+			"sessionId", "userAgent", "status", "bytes", "processingTime");
+
+	@Test
+	public void encodeBatch() throws IOException {
+		Event event = createEvent(200, 12);
+
+		List<?> message = (List<?>) decode(new Forward().getBatchMessage(mockConfig(), Arrays.asList(event)));
+		assertEquals(3, message.size());
+		assertEquals("tomcat.access", message.get(0));
+		Map<?, ?> options = (Map<?, ?>) message.get(2);
+		assertEquals(1, options.size());
+		assertEquals(1L, options.get("size"));
+
+		List<Object> entries = decodeAll((byte[]) message.get(1));
+		assertEquals(1, entries.size());
+		List<?> entry = (List<?>) entries.get(0);
+		ZonedDateTime time = TIME.atZone(ZoneId.systemDefault());
+		assertEquals(Arrays.asList(time.toEpochSecond(), (long) time.getNano()), entry.get(0));
+
+		Map<?, ?> record = (Map<?, ?>) entry.get(1);
+		List<String> keys = new ArrayList<>(FIELDS);
+		keys.add("remoteAddr");
+		assertEquals(keys, new ArrayList<>(record.keySet()));
+		assertEquals("localhost", record.get("host"));
+		assertEquals("/orders/7", record.get("uri"));
+		assertEquals("-", record.get("user"));
+		assertEquals(200L, record.get("status"));
+		assertEquals(12L, record.get("processingTime"));
+	}
+
+	@Test
+	public void encodeOptionalFields() throws IOException {
+		Destination shop = new Destination("shop", null, null);
+		Event bot = createEvent(200, 12);
+		bot.setRoute("/orders/{id}");
+		bot.setUserAgentClass(UserAgentClassifier.classify("curl/8.4.0"));
+		bot.setCountry("DE");
+		bot.setAsn(3320);
+		bot.setDestination(shop);
+		Event browser = createEvent(200, 12);
+		browser.setUserAgentClass(UserAgentClassifier
+				.classify("Mozilla/5.0 (X11; Linux x86_64; rv:120.0) Gecko/20100101 Firefox/120.0"));
+		browser.setDestination(shop);
+
+		List<?> message = (List<?>) decode(new Forward().getBatchMessage(mockConfig(), Arrays.asList(bot, browser)));
+		// The index of the destination is used as tag
+		assertEquals("shop", message.get(0));
+		assertEquals(2L, ((Map<?, ?>) message.get(2)).get("size"));
+
+		List<Object> entries = decodeAll((byte[]) message.get(1));
+		assertEquals(2, entries.size());
+
+		Map<?, ?> record = (Map<?, ?>) ((List<?>) entries.get(0)).get(1);
+		List<String> keys = new ArrayList<>(FIELDS);
+		keys.addAll(Arrays.asList("route", "browser", "device", "bot", "remoteAddr", "country", "asn"));
+		assertEquals(keys, new ArrayList<>(record.keySet()));
+		assertEquals("/orders/{id}", record.get("route"));
+		assertEquals("curl", record.get("browser"));
+		assertEquals(true, record.get("bot"));
+		assertEquals(3320L, record.get("asn"));
+
+		record = (Map<?, ?>) ((List<?>) entries.get(1)).get(1);
+		keys = new ArrayList<>(FIELDS);
+		keys.addAll(Arrays.asList("browser", "os", "device", "bot", "remoteAddr"));
+		assertEquals(keys, new ArrayList<>(record.keySet()));
+		assertEquals("Linux", record.get("os"));
+		assertEquals(false, record.get("bot"));
+	}
+
+	@Test
+	public void encodeCoalescedEvent() throws IOException {
+		Event coalesced = createEvent(200, 4);
+		coalesced.coalesce(createEvent(200, 10));
+		coalesced.coalesce(createEvent(200, 1));
+
+		List<?> message = (List<?>) decode(new Forward().getBatchMessage(mockConfig(), Arrays.asList(coalesced)));
+		// The size is the number of entries, not of requests
+		assertEquals(1L, ((Map<?, ?>) message.get(2)).get("size"));
+
+		List<Object> entries = decodeAll((byte[]) message.get(1));
+		Map<?, ?> record = (Map<?, ?>) ((List<?>) entries.get(0)).get(1);
+		List<String> keys = new ArrayList<>(FIELDS);
+		keys.addAll(Arrays.asList("count", "processingTimeMin", "processingTimeMax", "processingTimeSum",
+				"remoteAddr"));
+		assertEquals(keys, new ArrayList<>(record.keySet()));
+		assertEquals(3L, record.get("count"));
+		assertEquals(5L, record.get("processingTime"));
+		assertEquals(1L, record.get("processingTimeMin"));
+		assertEquals(10L, record.get("processingTimeMax"));
+		assertEquals(15L, record.get("processingTimeSum"));
+	}
+
+	@Test
+	public void encodeAcknowledgement() throws IOException {
+		Configuration config = mockConfig();
+		when(config.isForwardAck()).thenReturn(true);
+
+		List<?> message = (List<?>) decode(new Forward().getBatchMessage(config, Arrays.asList(createEvent(200, 12))));
+		Map<?, ?> options = (Map<?, ?>) message.get(2);
+		assertEquals(Arrays.asList("size", "chunk"), new ArrayList<>(options.keySet()));
+	}
+
+	private Configuration mockConfig() {
+		Configuration config = mock(Configuration.class);
+		when(config.getHost()).thenReturn("localhost");
+		when(config.getSource()).thenReturn("tomcat");
+		when(config.getForwardTag()).thenReturn("tomcat.access");
+		return config;
+	}
+
+	private Event createEvent(int status, long processingTime) {
+		return new Event(TIME, "localhost", "", "10.0.0.1", "GET", "/orders/7", null, null, "curl/8.4.0", status,
+				512, processingTime);
+	}
+
+	private static Object decode(byte[] data) throws IOException {
+		List<Object> values = decodeAll(data);
+		assertEquals(1, values.size());
+		return values.get(0);
+	}
+
+	private static List<Object> decodeAll(byte[] data) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		List<Object> values = new ArrayList<>();
+		while (in.available() > 0) {
+			values.add(decode(in));
+		}
+		return values;
+	}
+
+	/**
+	 * Minimal MessagePack decoder for the types written by the Forward target.
+	 * Integers are decoded as Long, EventTime as a list of seconds and
+	 * nanoseconds.
+	 */
+	private static Object decode(DataInputStream in) throws IOException {
+		int b = in.readUnsignedByte();
+		if (b < 0x80) {
+			return (long) b;
+		} else if (b < 0x90) {
+			return decodeMap(in, b & 0x0f);
+		} else if (b < 0xa0) {
+			return decodeArray(in, b & 0x0f);
+		} else if (b < 0xc0) {
+			return decodeString(in, b & 0x1f);
+		}
+		switch (b) {
+		case 0xc0:
+			return null;
+		case 0xc2:
+			return false;
+		case 0xc3:
+			return true;
+		case 0xc4:
+			return decodeBytes(in, in.readUnsignedByte());
+		case 0xc5:
+			return decodeBytes(in, in.readUnsignedShort());
+		case 0xc6:
+			return decodeBytes(in, in.readInt());
+		case 0xcc:
+			return (long) in.readUnsignedByte();
+		case 0xcd:
+			return (long) in.readUnsignedShort();
+		case 0xce:
+			return in.readInt() & 0xffffffffL;
+		case 0xcf:
+			return in.readLong();
+		case 0xd7:
+			assertEquals(0, in.readByte(), "EventTime extension type");
+			return Arrays.asList(in.readInt() & 0xffffffffL, (long) in.readInt());
+		case 0xd9:
+			return decodeString(in, in.readUnsignedByte());
+		case 0xda:
+			return decodeString(in, in.readUnsignedShort());
+		case 0xdc:
+			return decodeArray(in, in.readUnsignedShort());
+		case 0xde:
+			return decodeMap(in, in.readUnsignedShort());
+		default:
+			throw new IllegalArgumentException("Unexpected format " + Integer.toHexString(b));
+		}
+	}
+
+	private static Map<Object, Object> decodeMap(DataInputStream in, int entries) throws IOException {
+		Map<Object, Object> map = new LinkedHashMap<>();
+		for (int i = 0; i < entries; i++) {
+			map.put(decode(in), decode(in));
+		}
+		return map;
+	}
+
+	private static List<Object> decodeArray(DataInputStream in, int elements) throws IOException {
+		List<Object> array = new ArrayList<>();
+		for (int i = 0; i < elements; i++) {
+			array.add(decode(in));
+		}
+		return array;
+	}
+
+	private static String decodeString(DataInputStream in, int length) throws IOException {
+		return new String(decodeBytes(in, length), StandardCharsets.UTF_8);
+	}
+
+	private static byte[] decodeBytes(DataInputStream in, int length) throws IOException {
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+}
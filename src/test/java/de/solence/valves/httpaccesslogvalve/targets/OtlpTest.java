@@ -0,0 +1,189 @@
+package de.solence.valves.httpaccesslogvalve.targets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import de.solence.valves.httpaccesslogvalve.Configuration;
+import de.solence.valves.httpaccesslogvalve.Event;
+
+public class OtlpTest {
+	private static final LocalDateTime TIME = LocalDateTime.of(2024, 5, 1, 12, 30, 15, 123_000_000);
+
+	@Test
+	public void encodeBatch() {
+		Event ok = createEvent(200, 12);
+		ok.setRoute("/orders/{id}");
+		Event failed = createEvent(503, 40);
+
+		byte[] message = new Otlp().getBatchMessage(mockConfig(), Arrays.asList(ok, failed));
+
+		Fields request = Fields.parse(message);
+		Fields resourceLogs = request.message(1);
+		assertEquals("localhost", resourceLogs.message(1).attributes(1).get("host.name"));
+		assertEquals("tomcat", resourceLogs.message(1).attributes(1).get("service.name"));
+
+		Fields scopeLogs = resourceLogs.message(2);
+		assertEquals("HttpAccessLogValve", scopeLogs.message(1).string(1));
+		List<Fields> records = scopeLogs.messages(2);
+		assertEquals(2, records.size());
+
+		Fields record = records.get(0);
+		ZonedDateTime time = TIME.atZone(ZoneId.systemDefault());
+		assertEquals(time.toEpochSecond() * 1_000_000_000L + time.getNano(), record.number(1));
+		assertEquals(time.toEpochSecond() * 1_000_000_000L + time.getNano(), record.number(11));
+		assertEquals(9, record.number(2));
+		assertEquals("INFO", record.string(3));
+		assertEquals("GET /orders/7 200", record.message(5).string(1));
+		Map<String, Object> attributes = record.attributes(6);
+		assertEquals("10.0.0.1", attributes.get("client.address"));
+		assertEquals("GET", attributes.get("http.request.method"));
+		assertEquals("/orders/7", attributes.get("url.path"));
+		assertEquals("/orders/{id}", attributes.get("http.route"));
+		assertEquals("curl/8.4.0", attributes.get("user_agent.original"));
+		assertEquals(200L, attributes.get("http.response.status_code"));
+		assertEquals(512L, attributes.get("http.response.body.size"));
+		assertEquals(12L, attributes.get("tomcat.processing_time_ms"));
+		// Missing values are omitted
+		assertFalse(attributes.containsKey("enduser.id"));
+		assertFalse(attributes.containsKey("tomcat.count"));
+
+		record = records.get(1);
+		assertEquals(17, record.number(2));
+		assertEquals("ERROR", record.string(3));
+		assertFalse(record.attributes(6).containsKey("http.route"));
+	}
+
+	@Test
+	public void encodeCoalescedEvent() {
+		Event coalesced = createEvent(200, 4);
+		coalesced.coalesce(createEvent(200, 10));
+		coalesced.coalesce(createEvent(200, 1));
+
+		byte[] message = new Otlp().getBatchMessage(mockConfig(), Arrays.asList(coalesced));
+
+		Map<String, Object> attributes = Fields.parse(message).message(1).message(2).messages(2).get(0)
+				.attributes(6);
+		assertEquals(3L, attributes.get("tomcat.count"));
+		assertEquals(5L, attributes.get("tomcat.processing_time_ms"));
+		assertEquals(1L, attributes.get("tomcat.processing_time_ms.min"));
+		assertEquals(10L, attributes.get("tomcat.processing_time_ms.max"));
+		assertEquals(15L, attributes.get("tomcat.processing_time_ms.sum"));
+	}
+
+	private Configuration mockConfig() {
+		Configuration config = mock(Configuration.class);
+		when(config.getHost()).thenReturn("localhost");
+		when(config.getSource()).thenReturn("tomcat");
+		return config;
+	}
+
+	private Event createEvent(int status, long processingTime) {
+		return new Event(TIME, "localhost", "", "10.0.0.1", "GET", "/orders/7", null, null, "curl/8.4.0", status,
+				512, processingTime);
+	}
+
+	/**
+	 * Minimal protobuf decoder, keeping the values of every field number in
+	 * order. Varints and fixed64 values are decoded as Long, length-delimited
+	 * values are kept as byte arrays.
+	 */
+	private static class Fields {
+		private final Map<Integer, List<Object>> values = new HashMap<>();
+
+		private static Fields parse(byte[] data) {
+			Fields fields = new Fields();
+			int[] position = { 0 };
+			while (position[0] < data.length) {
+				long tag = readVarint(data, position);
+				Object value;
+				switch ((int) (tag & 7)) {
+				case 0:
+					value = readVarint(data, position);
+					break;
+				case 1:
+					long fixed = 0;
+					for (int i = 7; i >= 0; i--) {
+						fixed = (fixed << 8) | (data[position[0] + i] & 0xff);
+					}
+					position[0] += 8;
+					value = fixed;
+					break;
+				case 2:
+					int length = (int) readVarint(data, position);
+					value = Arrays.copyOfRange(data, position[0], position[0] + length);
+					position[0] += length;
+					break;
+				default:
+					throw new IllegalArgumentException("Unexpected wire type in tag " + tag);
+				}
+				fields.values.computeIfAbsent((int) (tag >>> 3), n -> new ArrayList<>()).add(value);
+			}
+			return fields;
+		}
+
+		private static long readVarint(byte[] data, int[] position) {
+			long value = 0;
+			for (int shift = 0;; shift += 7) {
+				byte b = data[position[0]++];
+				value |= (long) (b & 0x7f) << shift;
+				if (b >= 0) {
+					return value;
+				}
+			}
+		}
+
+		private Object single(int field) {
+			List<Object> list = values.get(field);
+			assertEquals(1, (list != null) ? list.size() : 0, "Occurrences of field " + field);
+			return list.get(0);
+		}
+
+		private long number(int field) {
+			return (Long) single(field);
+		}
+
+		private String string(int field) {
+			return new String((byte[]) single(field), StandardCharsets.UTF_8);
+		}
+
+		private Fields message(int field) {
+			return parse((byte[]) single(field));
+		}
+
+		private List<Fields> messages(int field) {
+			List<Fields> messages = new ArrayList<>();
+			for (Object value : values.get(field)) {
+				messages.add(parse((byte[]) value));
+			}
+			return messages;
+		}
+
+		/**
+		 * Decodes repeated KeyValue attributes with string or int values.
+		 */
+		private Map<String, Object> attributes(int field) {
+			Map<String, Object> attributes = new LinkedHashMap<>();
+			for (Fields keyValue : messages(field)) {
+				Fields value = keyValue.message(2);
+				attributes.put(keyValue.string(1), value.values.containsKey(1) ? value.string(1) : value.number(3));
+			}
+			return attributes;
+		}
+	}
+
+}
@@ -0,0 +1,23 @@
+package de.solence.valves.httpaccesslogvalve.targets;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class SplunkTest {
+
+	@Test
+	public void rejectInvalidContent() {
+		Splunk splunk = new Splunk();
+		assertTrue(splunk.isResponseRejected(400, "{\"text\":\"Invalid data format\",\"code\":6}"));
+		assertTrue(splunk.isResponseRejected(400, "{\"text\":\"Event field is blank\",\"code\":13}"));
+		assertTrue(splunk.isResponseRejected(413, null));
+
+		// Configuration errors affect every message, so they are retried
+		assertFalse(splunk.isResponseRejected(400, "{\"text\":\"Incorrect index\",\"code\":7,\"invalid-event-number\":1}"));
+		assertFalse(splunk.isResponseRejected(400, "{\"text\":\"Data channel is missing\",\"code\":10}"));
+		assertFalse(splunk.isResponseRejected(503, "{\"text\":\"Server is busy\",\"code\":9}"));
+	}
+
+}
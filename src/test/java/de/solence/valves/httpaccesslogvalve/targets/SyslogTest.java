@@ -0,0 +1,121 @@
+package de.solence.valves.httpaccesslogvalve.targets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import de.solence.valves.httpaccesslogvalve.Configuration;
+import de.solence.valves.httpaccesslogvalve.Event;
+
+public class SyslogTest {
+	private static final LocalDateTime TIME = LocalDateTime.of(2024, 5, 1, 12, 30, 15, 123_000_000);
+
+	@Test
+	public void formatMessage() {
+		Event event = createEvent("/orders/7", 200);
+		event.setRoute("/orders/{id}");
+
+		String timestamp = TIME.atZone(ZoneId.systemDefault())
+				.format(DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss.SSSSSSXXX"));
+		assertEquals("<134>1 " + timestamp + " web-01 tomcat_app - access [access@32473 remoteHost=\"10.0.0.1\""
+				+ " method=\"GET\" uri=\"/orders/7\" userAgent=\"curl/8.4.0\" status=\"200\" bytes=\"512\""
+				+ " processingTime=\"12\" route=\"/orders/{id}\" remoteAddr=\"10.0.0.1\"] GET /orders/7 200",
+				new Syslog().getMessage(mockConfig(), event));
+	}
+
+	@Test
+	public void formatCoalescedEvent() {
+		Event coalesced = createEvent("/health", 200, 4);
+		coalesced.coalesce(createEvent("/health", 200, 10));
+		coalesced.coalesce(createEvent("/health", 200, 1));
+
+		String message = new Syslog().getMessage(mockConfig(), coalesced);
+		assertEquals(" processingTime=\"5\" count=\"3\" processingTimeMin=\"1\" processingTimeMax=\"10\""
+				+ " processingTimeSum=\"15\"", message.substring(message.indexOf(" processingTime="),
+						message.indexOf(" remoteAddr=")));
+	}
+
+	@Test
+	public void formatTimestamp() {
+		Event event = new Event(LocalDateTime.of(2024, 5, 1, 12, 30, 0, 123_456_789), "localhost", "", "10.0.0.1",
+				"GET", "/", null, null, "curl/8.4.0", 200, 512, 12);
+
+		// TIMESTAMP of RFC 5424, with at most 6 fractional digits
+		String timestamp = new Syslog().getMessage(mockConfig(), event).split(" ")[1];
+		assertTrue(timestamp.matches(
+				"\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}(\\.\\d{1,6})?(Z|[+-]\\d{2}:\\d{2})"), timestamp);
+		assertTrue(timestamp.startsWith("2024-05-01T12:30:00.123456"), timestamp);
+	}
+
+	@Test
+	public void severityByStatus() {
+		Syslog syslog = new Syslog();
+		assertEquals("<132>", syslog.getMessage(mockConfig(), createEvent("/", 404)).substring(0, 5));
+		assertEquals("<131>", syslog.getMessage(mockConfig(), createEvent("/", 503)).substring(0, 5));
+	}
+
+	@Test
+	public void escapeParamValues() {
+		String message = new Syslog().getMessage(mockConfig(), createEvent("/a\"b\\c]d", 200));
+		assertEquals(" uri=\"/a\\\"b\\\\c\\]d\"", message.substring(message.indexOf(" uri="),
+				message.indexOf(" userAgent=")));
+	}
+
+	@Test
+	public void frameBatchWithOctetCount() {
+		Syslog syslog = new Syslog();
+		List<Event> events = Arrays.asList(createEvent("/café", 200), createEvent("/€/😀", 200),
+				createEvent("/broken\ud83d", 200));
+
+		byte[] batch = syslog.getBatchMessage(mockConfig(), events);
+
+		// Equal to framing every message on its own
+		List<String> messages = new ArrayList<>();
+		int offset = 0;
+		while (offset < batch.length) {
+			int space = offset;
+			while (batch[space] != ' ') {
+				space++;
+			}
+			int length = Integer.parseInt(new String(batch, offset, space - offset, StandardCharsets.US_ASCII));
+			messages.add(new String(batch, space + 1, length, StandardCharsets.UTF_8));
+			offset = space + 1 + length;
+		}
+		assertEquals(batch.length, offset);
+		assertEquals(3, messages.size());
+		for (int i = 0; i < events.size(); i++) {
+			String expected = syslog.getMessage(mockConfig(), events.get(i));
+			assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8),
+					messages.get(i).getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	private Configuration mockConfig() {
+		Configuration config = mock(Configuration.class);
+		when(config.getHost()).thenReturn("web-01");
+		when(config.getSource()).thenReturn("tomcat app");
+		return config;
+	}
+
+	private Event createEvent(String uri, int status) {
+		return createEvent(uri, status, 12);
+	}
+
+	private Event createEvent(String uri, int status, long processingTime) {
+		return new Event(TIME, "localhost", "", "10.0.0.1", "GET", uri, null, null, "curl/8.4.0", status, 512,
+				processingTime);
+	}
+
+}
@@ -0,0 +1,143 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.AdditionalMatchers.not;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class Http2ConnectionTest {
+	private static final String CONTENT_TYPE = "application/json";
+	private static final String TOKEN = "testToken";
+	private static final String JSON = "{\"msg\":\"test\"}";
+
+	private final AtomicInteger status = new AtomicInteger(200);
+	private final AtomicReference<String> contentType = new AtomicReference<>();
+	private final AtomicReference<String> authorization = new AtomicReference<>();
+	private final AtomicReference<String> body = new AtomicReference<>();
+	private HttpServer server;
+
+	@BeforeEach
+	public void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", exchange -> {
+			contentType.set(exchange.getRequestHeaders().getFirst("Content-Type"));
+			authorization.set(exchange.getRequestHeaders().getFirst("Authorization"));
+			try (InputStream is = exchange.getRequestBody()) {
+				body.set(new String(is.readAllBytes(), StandardCharsets.UTF_8));
+			}
+			byte[] response = "ok".getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(status.get(), response.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(response);
+			}
+		});
+		server.start();
+	}
+
+	@AfterEach
+	public void stopServer() {
+		server.stop(0);
+	}
+
+	@Test
+	public void sendMessage() throws IOException {
+		// The test server only supports HTTP/1.1, which the client falls back to
+		Http2Connection conn = new Http2Connection(mockConfig());
+		assertTrue(conn.sendMessage(JSON));
+
+		assertEquals(CONTENT_TYPE, contentType.get());
+		assertEquals("Bearer " + TOKEN, authorization.get());
+		assertEquals(JSON, body.get());
+
+		status.set(503);
+		assertFalse(conn.sendMessage(JSON));
+	}
+
+	@Test
+	public void sendMessageAsync() throws Exception {
+		Http2Connection conn = new Http2Connection(mockConfig());
+		byte[] message = JSON.getBytes(StandardCharsets.UTF_8);
+		assertTrue(conn.sendMessageAsync(message).get());
+		assertEquals(JSON, body.get());
+		assertEquals("Bearer " + TOKEN, authorization.get());
+
+		assertTrue(conn.sendMessageAsync(message, new Destination("index", null, "otherToken")).get());
+		assertEquals("Bearer otherToken", authorization.get());
+
+		status.set(503);
+		assertFalse(conn.sendMessageAsync(message).get());
+	}
+
+	@Test
+	public void sendMessageAsyncRejected() {
+		Http2Connection conn = new Http2Connection(mockConfig());
+		status.set(413);
+		CompletableFuture<Boolean> result = conn.sendMessageAsync(JSON.getBytes(StandardCharsets.UTF_8));
+
+		ExecutionException e = assertThrows(ExecutionException.class, result::get);
+		assertEquals(413, RejectedMessageException.causeOf(e.getCause()).getStatus());
+	}
+
+	@Test
+	public void sendMessageAsyncUnreachable() throws Exception {
+		Configuration config = mockConfig();
+		server.stop(0);
+
+		Http2Connection conn = new Http2Connection(config);
+		assertFalse(conn.sendMessageAsync(JSON.getBytes(StandardCharsets.UTF_8)).get());
+	}
+
+	@Test
+	public void streamChunked() {
+		// Messages of unknown length fall back to HttpURLConnection
+		Http2Connection conn = new Http2Connection(mockConfig());
+		assertTrue(conn.sendMessage(os -> os.write(JSON.getBytes(StandardCharsets.UTF_8))));
+		assertEquals(JSON, body.get());
+	}
+
+	private Configuration mockConfig() {
+		Target target = mock(Target.class);
+		when(target.getContentType()).thenReturn(CONTENT_TYPE);
+		when(target.getAuthenticationHeader(TOKEN)).thenReturn("Bearer " + TOKEN);
+		when(target.getAuthenticationHeader("otherToken")).thenReturn("Bearer otherToken");
+		when(target.getHeaders(any())).thenReturn(Collections.emptyMap());
+		when(target.isResponseOk(eq(200), anyString())).thenReturn(true);
+		when(target.isResponseOk(not(eq(200)), anyString())).thenReturn(false);
+		when(target.isResponseRejected(eq(413), anyString())).thenReturn(true);
+
+		Configuration config = mock(Configuration.class);
+		when(config.getTarget()).thenReturn(target);
+		try {
+			when(config.getEndpointUrl()).thenReturn(new URL("http://localhost:" + server.getAddress().getPort()));
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		when(config.getAuthToken()).thenReturn(TOKEN);
+		when(config.getTimeout()).thenReturn(1000);
+		return config;
+	}
+}
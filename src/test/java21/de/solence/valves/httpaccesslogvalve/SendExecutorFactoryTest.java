@@ -0,0 +1,36 @@
+package de.solence.valves.httpaccesslogvalve;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class SendExecutorFactoryTest {
+
+	@Test
+	public void sendOnVirtualThreads() throws Exception {
+		Configuration config = mock(Configuration.class);
+		when(config.isVirtualThreads()).thenReturn(true);
+
+		ExecutorService executor = SendExecutorFactory.create(config);
+		try {
+			Thread thread = executor.submit(Thread::currentThread).get();
+			assertTrue(thread.isVirtual());
+			assertTrue(thread.getName().startsWith("HttpAccessLogValve-send-"), thread.getName());
+		} finally {
+			executor.shutdown();
+			assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	public void sendOnSenderThread() {
+		assertNull(SendExecutorFactory.create(mock(Configuration.class)));
+	}
+
+}